@@ -41,9 +41,63 @@ public final class Constants {
     public static final String WIFI_ACCESSIBLE_KEY = "WIFI_ACCESSIBLE_KEY";
     public static final String IN_GEOFENCE_ZONE_KEY = "IN_GEOFENCE_ZONE_KEY";
 
+    /**
+     * Request ids of the registered geofences the device is inside, {@link #IN_GEOFENCE_ZONE_KEY}
+     * is set while it isn't empty.
+     */
+    public static final String INSIDE_GEOFENCES_KEY = "INSIDE_GEOFENCES_KEY";
+
+    public static final String NOTIFICATIONS_AVOIDED_KEY = "NOTIFICATIONS_AVOIDED_KEY";
+
     private static final String PACKAGE_NAME = "com.google.android.gms.location.Geofence";
 
-    static final String GEOFENCES_ADDED_KEY = PACKAGE_NAME + ".GEOFENCES_ADDED_KEY";
+    public static final String GEOFENCES_ADDED_KEY = PACKAGE_NAME + ".GEOFENCES_ADDED_KEY";
+
+    /**
+     * Geofences registered with Location Services, forgotten when Location Services drops them.
+     */
+    public static final String REGISTERED_GEOFENCES_KEY = PACKAGE_NAME + ".REGISTERED_GEOFENCES_KEY";
+
+    /**
+     * Fences merged into each registered cover, read by the geofence service.
+     */
+    public static final String GEOFENCE_COVERS_KEY = PACKAGE_NAME + ".GEOFENCE_COVERS_KEY";
+
+    /**
+     * Location Services accepts at most 100 geofences per app.
+     */
+    public static final int MAX_GEOFENCES = 100;
+
+    /**
+     * Directory of the tiled fence catalogue, in the app files directory.
+     */
+    public static final String FENCE_TILES_DIRECTORY = "fence_tiles";
+    public static final long FENCE_TILES_MEMORY_BUDGET = 4 * 1024 * 1024;
+
+    /**
+     * Catalogue fences registered with the user's geofence are taken within this distance.
+     */
+    public static final double CATALOGUE_FENCE_DISTANCE = 5000;
+
+    /**
+     * Most catalogue fences merged into the registration slots, the closest ones.
+     */
+    public static final int MAX_COALESCED_FENCES = 1000;
+
+    /**
+     * Access point position database, in the app files directory.
+     */
+    static final String ACCESS_POINTS_FILE = "access_points";
+
+    /**
+     * Occupancy and dwell rollups of the zones, one file per zone in the app files directory.
+     */
+    public static final String OCCUPANCY_DIRECTORY = "occupancy";
+
+    /**
+     * Trajectory history of the transitions, in the app files directory.
+     */
+    public static final String TRAJECTORY_FILE = "trajectory";
 
     /**
      * Used to set an expiration time for a geofence. After this amount of time Location Services
@@ -54,7 +108,7 @@ public final class Constants {
     /**
      * For this sample, geofences expire after twelve hours.
      */
-    static final long GEOFENCE_EXPIRATION_IN_MILLISECONDS =
+    public static final long GEOFENCE_EXPIRATION_IN_MILLISECONDS =
             GEOFENCE_EXPIRATION_IN_HOURS * 60 * 60 * 1000;
     static final float GEOFENCE_RADIUS_IN_METERS = 1609; // 1 mile, 1.6 km
 
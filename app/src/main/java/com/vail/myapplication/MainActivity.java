@@ -10,6 +10,7 @@ import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.net.wifi.ScanResult;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.support.annotation.NonNull;
@@ -34,10 +35,16 @@ import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.CircleOptions;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.MarkerOptions;
+import com.vail.myapplication.catalogue.TileCache;
 import com.vail.myapplication.geofencing.GeofenceTransitionsIntentService;
+import com.vail.myapplication.geofencing.ScheduleAlarmReceiver;
+import com.vail.myapplication.wifi.AccessPointDatabase;
 import com.vail.myapplication.wifi.WifiSensor;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public class MainActivity extends FragmentActivity implements MainContract.View, SeekBar.OnSeekBarChangeListener, OnMapReadyCallback, GoogleMap.OnCameraIdleListener {
 
@@ -60,8 +67,16 @@ public class MainActivity extends FragmentActivity implements MainContract.View,
         setContentView(R.layout.main_activity);
 
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
-        presenter = new MainPresenter(this, preferences, new WifiSensor(this, preferences),
-                LocationServices.getGeofencingClient(this));
+        WifiSensor wifiSensor = new WifiSensor(this, preferences);
+        wifiSensor.setAccessPointDatabase(openAccessPoints());
+        final Handler handler = new Handler();
+        presenter = new MainPresenter(this, preferences, wifiSensor,
+                LocationServices.getGeofencingClient(this), openFenceTiles(), new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        handler.post(command);
+                    }
+                });
 
         SupportMapFragment mapFragment = (SupportMapFragment) getSupportFragmentManager()
                 .findFragmentById(R.id.map);
@@ -85,6 +100,13 @@ public class MainActivity extends FragmentActivity implements MainContract.View,
         presenter.onStart();
     }
 
+    @Override
+    public void onStop() {
+        presenter.onStop();
+
+        super.onStop();
+    }
+
     public void addGeofencesButtonHandler(View view) {
         presenter.onAddGeofencesClick();
     }
@@ -106,6 +128,16 @@ public class MainActivity extends FragmentActivity implements MainContract.View,
         return PendingIntent.getService(this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
     }
 
+    @Override
+    public void showZoneState(boolean inZone) {
+        setTitle(inZone ? R.string.in_zone : R.string.out_of_zone);
+    }
+
+    @Override
+    public void scheduleGeofenceUpdate(long time) {
+        ScheduleAlarmReceiver.schedule(this, time);
+    }
+
     @Override
     public void setButtonsEnabledState(boolean geofencesEnabled) {
         mAddGeofencesButton.setEnabled(!geofencesEnabled);
@@ -277,6 +309,34 @@ public class MainActivity extends FragmentActivity implements MainContract.View,
         }
     }
 
+    /**
+     * Opens the tiled fence catalogue if one was installed, tiles are loaded on demand.
+     */
+    private TileCache openFenceTiles() {
+        File directory = new File(getFilesDir(), Constants.FENCE_TILES_DIRECTORY);
+        if (!directory.isDirectory()) return null;
+        try {
+            return TileCache.open(directory, Constants.FENCE_TILES_MEMORY_BUDGET);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't open the fence catalogue", e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens the access point database if one was installed, it is mapped rather than read.
+     */
+    private AccessPointDatabase openAccessPoints() {
+        File file = new File(getFilesDir(), Constants.ACCESS_POINTS_FILE);
+        if (!file.isFile()) return null;
+        try {
+            return AccessPointDatabase.open(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't open the access point database", e);
+            return null;
+        }
+    }
+
     @Override
     public void onCameraIdle() {
         presenter.onCameraPositionChanged();
@@ -43,11 +43,21 @@ public class MainContract {
         LatLng getLatLng();
 
         void navigateMap(LatLng latLng);
+
+        void showZoneState(boolean inZone);
+
+        /**
+         * Registers the geofences again at {@code time}, when the active scheduled fences
+         * change, or never if it is {@link Long#MAX_VALUE}.
+         */
+        void scheduleGeofenceUpdate(long time);
     }
 
     interface Presenter extends OnCompleteListener<Void> {
         void onStart();
 
+        void onStop();
+
         void onAddGeofencesClick();
 
         GeofencingRequest getGeofencingRequest();
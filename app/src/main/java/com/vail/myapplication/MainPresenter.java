@@ -11,10 +11,27 @@ import com.google.android.gms.location.GeofencingClient;
 import com.google.android.gms.location.GeofencingRequest;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.vail.myapplication.catalogue.TileCache;
+import com.vail.myapplication.geo.DistancePrecision;
+import com.vail.myapplication.geo.GeoMath;
+import com.vail.myapplication.geofencing.CircularFence;
+import com.vail.myapplication.geofencing.CoverIndex;
+import com.vail.myapplication.geofencing.FenceCoalescer;
+import com.vail.myapplication.geofencing.Flow;
+import com.vail.myapplication.geofencing.GeofenceList;
+import com.vail.myapplication.geofencing.GeofenceRegistry;
+import com.vail.myapplication.geofencing.GeofenceTransitionsIntentService;
+import com.vail.myapplication.geofencing.ZoneState;
+import com.vail.myapplication.geofencing.ZoneStatePublisher;
 import com.vail.myapplication.wifi.WifiSensor;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static android.content.ContentValues.TAG;
 
@@ -35,7 +52,73 @@ public class MainPresenter implements MainContract.Presenter {
 
     private static final int REQUEST_PERMISSIONS_REQUEST_CODE = 34;
 
-    private ArrayList<Geofence> mGeofenceList;
+    /**
+     * Runs the catalogue loads on the calling thread when there is no main thread executor.
+     */
+    private static final Executor CALLING_THREAD = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private GeofenceRegistry mGeofenceRegistry;
+
+    /**
+     * Merges the catalogue fences that don't fit in the registration slots on the catalogue
+     * loader thread, and remembers the fences of each registered cover for the geofence service.
+     */
+    private final FenceCoalescer mCoalescer = new FenceCoalescer();
+    private CoverIndex mCoverIndex;
+
+    /**
+     * Tiled catalogue of fences registered around the user's geofence, null if there is none.
+     */
+    private TileCache fenceTiles;
+    private LatLng lastCameraTarget;
+    private final AtomicBoolean prefetching = new AtomicBoolean();
+
+    /**
+     * Incremented for every geofence update, so the catalogue fences loaded for a superseded
+     * one are dropped.
+     */
+    private int catalogueRequest;
+
+    /**
+     * Delta sent to Location Services and waiting for {@link #onComplete(Task)}, null when
+     * every geofence of the pending intent is removed.
+     */
+    private GeofenceRegistry.Delta mPendingDelta;
+
+    /**
+     * Geofences being added, null when they are being removed.
+     */
+    private GeofenceList mPendingList;
+
+    /**
+     * Whether an update was sent and didn't complete yet. Updates are sent one at a time, each
+     * diffed against the registry committed by the previous one.
+     */
+    private boolean mUpdating;
+
+    /**
+     * Latest update requested while another was in flight, sent once it completes: the
+     * geofences to add, null to remove them all.
+     */
+    private boolean mUpdateQueued;
+    private GeofenceList mQueuedList;
+
+    /**
+     * Runs the zone state updates and the loaded catalogue fences on the main thread, null to
+     * not show the zone state and to load the catalogue on the calling thread.
+     */
+    private Executor mainThread;
+    private Executor catalogueLoader;
+
+    /**
+     * Zone state changes shown while started, null when stopped.
+     */
+    private ZoneStateSubscriber zoneStateSubscriber;
 
     private enum PendingGeofenceTask {
         ADD, REMOVE, NONE
@@ -43,13 +126,29 @@ public class MainPresenter implements MainContract.Presenter {
 
     public MainPresenter(MainContract.View view, SharedPreferences sharedPreferences,
                          WifiSensor wifiSensor, GeofencingClient geofencingClient) {
+        this(view, sharedPreferences, wifiSensor, geofencingClient, null);
+    }
+
+    public MainPresenter(MainContract.View view, SharedPreferences sharedPreferences,
+                         WifiSensor wifiSensor, GeofencingClient geofencingClient,
+                         TileCache fenceTiles) {
+        this(view, sharedPreferences, wifiSensor, geofencingClient, fenceTiles, null);
+    }
+
+    public MainPresenter(MainContract.View view, SharedPreferences sharedPreferences,
+                         WifiSensor wifiSensor, GeofencingClient geofencingClient,
+                         TileCache fenceTiles, Executor mainThread) {
         this.view = view;
         this.sharedPreferences = sharedPreferences;
         this.wifiSensor = wifiSensor;
         this.geofencingClient = geofencingClient;
+        this.fenceTiles = fenceTiles;
+        this.mainThread = mainThread;
+        catalogueLoader = mainThread != null ? GeofenceList.LOADER : CALLING_THREAD;
 
         radius = sharedPreferences.getInt(Constants.RADIUS_KEY, 30);
-        mGeofenceList = new ArrayList<>();
+        mGeofenceRegistry = new GeofenceRegistry(sharedPreferences, Constants.REGISTERED_GEOFENCES_KEY);
+        mCoverIndex = new CoverIndex(sharedPreferences, Constants.GEOFENCE_COVERS_KEY);
     }
 
     @Override
@@ -73,6 +172,12 @@ public class MainPresenter implements MainContract.Presenter {
         view.setWifiName(sharedPreferences.getString(Constants.WIFI_NAME_KEY, "None"));
         view.setRadius(radius);
         view.setButtonsEnabledState(getGeofencesAdded());
+        view.showZoneState(sharedPreferences.getBoolean(Constants.WIFI_ACCESSIBLE_KEY, false)
+                || sharedPreferences.getBoolean(Constants.IN_GEOFENCE_ZONE_KEY, false));
+        if (mainThread != null && zoneStateSubscriber == null) {
+            zoneStateSubscriber = new ZoneStateSubscriber();
+            ZoneStatePublisher.getInstance().subscribe(zoneStateSubscriber, mainThread);
+        }
 
         if (!view.checkPermissions()) {
             view.requestPermissions(REQUEST_PERMISSIONS_REQUEST_CODE);
@@ -81,6 +186,14 @@ public class MainPresenter implements MainContract.Presenter {
         }
     }
 
+    @Override
+    public void onStop() {
+        if (zoneStateSubscriber != null) {
+            zoneStateSubscriber.stop();
+            zoneStateSubscriber = null;
+        }
+    }
+
     @SuppressWarnings("MissingPermission")
     public void addGeofences() {
         if (!view.checkPermissions()) {
@@ -89,8 +202,30 @@ public class MainPresenter implements MainContract.Presenter {
         }
 
         wifiSensor.start();
-        geofencingClient.addGeofences(getGeofencingRequest(), view.getGeofencePendingIntent())
-                .addOnCompleteListener(this);
+        // Read again, the registry is cleared when Location Services drops the geofences.
+        mGeofenceRegistry = new GeofenceRegistry(sharedPreferences, Constants.REGISTERED_GEOFENCES_KEY);
+        final LatLng latLng = view.getLatLng();
+        if (latLng == null) return;
+        saveGeofenceLocation(latLng);
+
+        // The catalogue is read and merged on the loader thread, then registered from here.
+        final int request = ++catalogueRequest;
+        final int radius = this.radius;
+        final long now = System.currentTimeMillis();
+        catalogueLoader.execute(new Runnable() {
+            @Override
+            public void run() {
+                final GeofenceList list = GeofenceList.build(latLng.latitude, latLng.longitude,
+                        radius, fenceTiles, mCoalescer, now);
+                (mainThread != null ? mainThread : CALLING_THREAD).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (request != catalogueRequest) return;
+                        update(list);
+                    }
+                });
+            }
+        });
     }
 
     public void removeGeofences() {
@@ -99,13 +234,65 @@ public class MainPresenter implements MainContract.Presenter {
             return;
         }
 
+        // Catalogue fences still loading are not added anymore.
+        catalogueRequest++;
+        // Read again, the schedule alarm may have registered geofences meanwhile.
+        mGeofenceRegistry = new GeofenceRegistry(sharedPreferences, Constants.REGISTERED_GEOFENCES_KEY);
         wifiSensor.stop();
         view.setWifiName("None");
         sharedPreferences.edit()
                 .remove(Constants.WIFI_NAME_KEY)
                 .remove(Constants.WIFI_BSSID_KEY)
                 .apply();
-        geofencingClient.removeGeofences(view.getGeofencePendingIntent()).addOnCompleteListener(this);
+
+        update(null);
+    }
+
+    /**
+     * Registers {@code list}, or removes every geofence if it is null, once the update in
+     * flight completes. Only the last of the updates requested meanwhile is sent.
+     */
+    private void update(GeofenceList list) {
+        if (mUpdating) {
+            mUpdateQueued = true;
+            mQueuedList = list;
+            return;
+        }
+        mUpdating = true;
+        mPendingList = list;
+        if (list == null && mGeofenceRegistry.isEmpty()) {
+            // Nothing is known about the registered geofences, remove everything.
+            mPendingDelta = null;
+            geofencingClient.removeGeofences(view.getGeofencePendingIntent()).addOnCompleteListener(this);
+        } else {
+            applyDelta(mGeofenceRegistry.diff(list != null ? list.getFences()
+                    : Collections.<CircularFence>emptyList()));
+        }
+    }
+
+    /**
+     * Sends only the changed geofences to Location Services: one remove call for the request ids
+     * that are no longer wanted and one add call for new or edited geofences.
+     *
+     * @param delta Changes computed by the registry.
+     */
+    @SuppressWarnings("MissingPermission")
+    private void applyDelta(GeofenceRegistry.Delta delta) {
+        mPendingDelta = delta;
+        if (delta.isEmpty()) {
+            onUpdateComplete(true);
+            return;
+        }
+
+        List<Task<Void>> tasks = new ArrayList<>(2);
+        if (!delta.getRemovedIds().isEmpty()) {
+            tasks.add(geofencingClient.removeGeofences(delta.getRemovedIds()));
+        }
+        if (!delta.getAdded().isEmpty()) {
+            tasks.add(geofencingClient.addGeofences(buildGeofencingRequest(delta.getAdded()),
+                    view.getGeofencePendingIntent()));
+        }
+        (tasks.size() == 1 ? tasks.get(0) : Tasks.whenAll(tasks)).addOnCompleteListener(this);
     }
 
     private void performPendingGeofenceTask() {
@@ -166,15 +353,47 @@ public class MainPresenter implements MainContract.Presenter {
 
     @Override
     public void onComplete(@NonNull Task<Void> task) {
+        onUpdateComplete(task.isSuccessful());
+    }
+
+    /**
+     * Records the update in flight if Location Services accepted it, then sends the queued one.
+     */
+    private void onUpdateComplete(boolean successful) {
         mPendingGeofenceTask = PendingGeofenceTask.NONE;
-        if (task.isSuccessful()) {
-            updateGeofencesAdded(!getGeofencesAdded());
+        if (successful) {
+            if (mPendingDelta != null) {
+                mGeofenceRegistry.commit(mPendingDelta);
+                GeofenceTransitionsIntentService.forgetInsideGeofences(sharedPreferences,
+                        mPendingDelta.getRemovedIds());
+            } else {
+                mGeofenceRegistry.clear();
+                sharedPreferences.edit().remove(Constants.INSIDE_GEOFENCES_KEY).apply();
+            }
+            // Only once registered, like the registry, so a failed update keeps the covers of
+            // the geofences still registered.
+            mCoverIndex.update(mPendingList != null ? mPendingList.getCovers()
+                    : Collections.<FenceCoalescer.Cover>emptyList(),
+                    mGeofenceRegistry.getRegisteredIds());
+            view.scheduleGeofenceUpdate(mPendingList != null ? mPendingList.getNextChange()
+                    : Long.MAX_VALUE);
+            updateGeofencesAdded(mPendingList != null);
             view.setButtonsEnabledState(getGeofencesAdded());
 
             int messageId = getGeofencesAdded() ? R.string.geofences_added :
                     R.string.geofences_removed;
             view.showToast(messageId);
         }
+        mPendingDelta = null;
+        mPendingList = null;
+        mUpdating = false;
+
+        if (mUpdateQueued) {
+            GeofenceList list = mQueuedList;
+            mUpdateQueued = false;
+            mQueuedList = null;
+            update(list);
+        }
     }
 
     /**
@@ -197,36 +416,37 @@ public class MainPresenter implements MainContract.Presenter {
                 Constants.GEOFENCES_ADDED_KEY, false);
     }
 
-    private void populateGeofenceList() {
-        mGeofenceList.clear();
-        LatLng latLng = view.getLatLng();
-        if (latLng == null) return;
-
+    /**
+     * Stores where the user's geofence is, the
+     * {@link com.vail.myapplication.geofencing.ScheduleAlarmReceiver} registers it again
+     * from there.
+     */
+    private void saveGeofenceLocation(LatLng latLng) {
         sharedPreferences.edit()
                 .putString(Constants.LATITUDE_KEY, String.valueOf(latLng.latitude))
                 .putString(Constants.LONGITUDE_KEY, String.valueOf(latLng.longitude))
                 .putInt(Constants.RADIUS_KEY, radius)
                 .apply();
-
-        mGeofenceList.add(new Geofence.Builder()
-                .setRequestId("First")
-                .setCircularRegion(
-                        latLng.latitude,
-                        latLng.longitude,
-                        radius
-                )
-                .setExpirationDuration(Constants.GEOFENCE_EXPIRATION_IN_MILLISECONDS)
-                .setTransitionTypes(Geofence.GEOFENCE_TRANSITION_ENTER |
-                        Geofence.GEOFENCE_TRANSITION_EXIT)
-                .build());
     }
 
     @Override
     public GeofencingRequest getGeofencingRequest() {
-        populateGeofenceList();
+        LatLng latLng = view.getLatLng();
+        if (latLng == null) return null;
+        saveGeofenceLocation(latLng);
+        // Reads and merges the catalogue on the calling thread.
+        return buildGeofencingRequest(GeofenceList.build(latLng.latitude, latLng.longitude,
+                radius, fenceTiles, mCoalescer, System.currentTimeMillis()).getFences());
+    }
+
+    private GeofencingRequest buildGeofencingRequest(List<CircularFence> fences) {
+        List<Geofence> geofences = new ArrayList<>(fences.size());
+        for (CircularFence fence : fences) {
+            geofences.add(fence.toGeofence());
+        }
         return new GeofencingRequest.Builder()
                 .setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_ENTER)
-                .addGeofences(mGeofenceList)
+                .addGeofences(geofences)
                 .build();
     }
 
@@ -251,5 +471,85 @@ public class MainPresenter implements MainContract.Presenter {
     @Override
     public void onCameraPositionChanged() {
         view.updateMarker();
+        prefetchCatalogueFences();
+    }
+
+    /**
+     * Loads the catalogue tiles in the direction the map is moving, as far again as the last
+     * move, so they are ready if the geofence is placed there. The geofence and its catalogue
+     * fences are placed at the map camera, so its target and pan direction are used rather than
+     * the device position and heading. Camera moves arriving while a prefetch is running are
+     * skipped, the next one prefetches from where the camera is then.
+     */
+    private void prefetchCatalogueFences() {
+        final LatLng latLng = view.getLatLng();
+        if (fenceTiles == null || latLng == null) return;
+
+        LatLng previous = lastCameraTarget;
+        if (previous == null) {
+            lastCameraTarget = latLng;
+            return;
+        }
+        final double moved = DistancePrecision.HAVERSINE.forCenter(previous.latitude, previous.longitude)
+                .distanceTo(latLng.latitude, latLng.longitude);
+        if (moved == 0 || !prefetching.compareAndSet(false, true)) return;
+        lastCameraTarget = latLng;
+
+        final double bearing = GeoMath.bearing(previous.latitude, previous.longitude,
+                latLng.latitude, latLng.longitude);
+        catalogueLoader.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fenceTiles.prefetch(latLng.latitude, latLng.longitude, bearing,
+                            moved + Constants.CATALOGUE_FENCE_DISTANCE);
+                } catch (IOException e) {
+                    Log.w(TAG, "Can't prefetch catalogue fences", e);
+                } finally {
+                    prefetching.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows every zone state change, one at a time. Runs on the main thread, like
+     * {@link #onStop()}, so the subscription may arrive after the presenter was stopped.
+     */
+    private class ZoneStateSubscriber implements Flow.Subscriber<ZoneState> {
+
+        private Flow.Subscription subscription;
+        private boolean stopped;
+
+        void stop() {
+            stopped = true;
+            if (subscription != null) subscription.cancel();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (stopped) {
+                subscription.cancel();
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(ZoneState state) {
+            if (stopped) return;
+            view.showZoneState(state.isInZone());
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            Log.w(TAG, "Zone state updates failed", throwable);
+        }
+
+        @Override
+        public void onComplete() {
+        }
     }
 }
@@ -0,0 +1,279 @@
+package com.vail.myapplication.catalogue;
+
+import com.vail.myapplication.engine.WeeklySchedule;
+import com.vail.myapplication.geo.GeoHash;
+import com.vail.myapplication.geo.GeoMath;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only geofence catalogue backed by a memory-mapped file.
+ *
+ * Fences are read directly from the mapped buffer, so opening a catalogue only validates its
+ * header, whatever the number of fences. The file is little-endian and laid out as:
+ *
+ * <pre>
+ * header      {@link #HEADER_SIZE} bytes
+ *   int   magic             {@link #MAGIC}
+ *   short version           {@link #VERSION}
+ *   short header size
+ *   int   fence count
+ *   int   fence record size {@link #RECORD_SIZE}
+ *   int   index precision   geohash bits of the index cells
+ *   int   index cell count
+ *   float max radius        largest fence radius in metres
+ *   int   schedule count    distinct schedules, 0 in version 1
+ *   long  fence table offset
+ *   long  index offset
+ * fence table, one record per fence, sorted by index cell
+ *   long  id
+ *   int   latitude          degrees * 1e7
+ *   int   longitude         degrees * 1e7
+ *   float radius            metres
+ *   int   transition types
+ *   int   schedule          index in the schedule table, -1 if always active, not in version 1
+ * index, one entry per non-empty cell, sorted by cell
+ *   long  cell              geohash of the fence centers
+ *   int   first fence
+ *   int   fence count
+ * schedule table, right after the index
+ *   int   interval count    then one start and one end minute of the week per interval
+ * </pre>
+ *
+ * Schedules are shared by many fences, so there are few of them and they are read when the
+ * catalogue is opened. Version 1 files, without schedules, are still read. Files are written
+ * by {@link FenceCatalogueWriter}.
+ */
+public class FenceCatalogue {
+
+    public static final int MAGIC = 0x31434647; // "GFC1"
+    public static final short VERSION = 2;
+    public static final int HEADER_SIZE = 48;
+    public static final int RECORD_SIZE = 28;
+    public static final int INDEX_ENTRY_SIZE = 16;
+
+    /**
+     * Transition types of the fences, the values of the Location Services geofence transitions.
+     * Dwell transitions aren't supported, they would need a loitering delay.
+     */
+    public static final int TRANSITION_ENTER = 1;
+    public static final int TRANSITION_EXIT = 2;
+    public static final int TRANSITIONS = TRANSITION_ENTER | TRANSITION_EXIT;
+
+    static final int RECORD_SIZE_V1 = 24;
+
+    static final double COORDINATE_SCALE = 1e7;
+
+    private final ByteBuffer buffer;
+    private final int fenceCount;
+    private final int indexBits;
+    private final int cellCount;
+    private final float maxRadius;
+    private final int recordSize;
+    private final int fenceTableOffset;
+    private final int indexOffset;
+    private final WeeklySchedule[] schedules;
+
+    /**
+     * Maps the whole file. The mapping stays valid after the file is closed.
+     *
+     * @throws IOException if the file can't be read or isn't a valid catalogue.
+     */
+    public static FenceCatalogue open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new FenceCatalogue(buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Wraps a buffer holding a whole catalogue.
+     *
+     * @throws IOException if the buffer isn't a valid catalogue.
+     */
+    public FenceCatalogue(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int size = this.buffer.capacity();
+        if (size < HEADER_SIZE || this.buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a fence catalogue");
+        }
+        short version = this.buffer.getShort(4);
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported fence catalogue version " + version);
+        }
+        recordSize = version == 1 ? RECORD_SIZE_V1 : RECORD_SIZE;
+        if (this.buffer.getInt(12) != recordSize) {
+            throw new IOException("Unexpected fence record size " + this.buffer.getInt(12));
+        }
+
+        fenceCount = this.buffer.getInt(8);
+        indexBits = this.buffer.getInt(16);
+        cellCount = this.buffer.getInt(20);
+        maxRadius = this.buffer.getFloat(24);
+        long tableOffset = this.buffer.getLong(32);
+        long cellsOffset = this.buffer.getLong(40);
+        int scheduleCount = version == 1 ? 0 : this.buffer.getInt(28);
+
+        if (fenceCount < 0 || cellCount < 0 || scheduleCount < 0
+                || tableOffset < HEADER_SIZE
+                || tableOffset + (long) fenceCount * recordSize > size
+                || cellsOffset < HEADER_SIZE
+                || cellsOffset + (long) cellCount * INDEX_ENTRY_SIZE > size) {
+            throw new IOException("Truncated fence catalogue");
+        }
+        fenceTableOffset = (int) tableOffset;
+        indexOffset = (int) cellsOffset;
+        schedules = readSchedules(indexOffset + cellCount * INDEX_ENTRY_SIZE, scheduleCount);
+    }
+
+    private WeeklySchedule[] readSchedules(int offset, int count) throws IOException {
+        WeeklySchedule[] schedules = new WeeklySchedule[count];
+        int size = buffer.capacity();
+        for (int i = 0; i < count; i++) {
+            if (offset + 4 > size) throw new IOException("Truncated fence catalogue");
+            int intervals = buffer.getInt(offset);
+            offset += 4;
+            if (intervals < 0 || offset + 8L * intervals > size) {
+                throw new IOException("Truncated fence catalogue");
+            }
+            WeeklySchedule.Builder builder = new WeeklySchedule.Builder();
+            try {
+                for (int j = 0; j < intervals; j++, offset += 8) {
+                    builder.addMinutesOfWeek(buffer.getInt(offset), buffer.getInt(offset + 4));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid schedule " + i, e);
+            }
+            schedules[i] = builder.build();
+        }
+        return schedules;
+    }
+
+    public int size() {
+        return fenceCount;
+    }
+
+    public int getIndexBits() {
+        return indexBits;
+    }
+
+    public float getMaxRadius() {
+        return maxRadius;
+    }
+
+    public long getId(int index) {
+        return buffer.getLong(recordOffset(index));
+    }
+
+    public double getLatitude(int index) {
+        return buffer.getInt(recordOffset(index) + 8) / COORDINATE_SCALE;
+    }
+
+    public double getLongitude(int index) {
+        return buffer.getInt(recordOffset(index) + 12) / COORDINATE_SCALE;
+    }
+
+    public float getRadius(int index) {
+        return buffer.getFloat(recordOffset(index) + 16);
+    }
+
+    /**
+     * Returns the transitions reported for a fence, enter, exit or both. Other types written by
+     * other tools are dropped, and a fence left with none reports both, so the fence can always
+     * be registered.
+     */
+    public int getTransitionTypes(int index) {
+        int transitions = buffer.getInt(recordOffset(index) + 20) & TRANSITIONS;
+        return transitions != 0 ? transitions : TRANSITIONS;
+    }
+
+    /**
+     * Returns when a fence is active, null if it always is.
+     */
+    public WeeklySchedule getSchedule(int index) {
+        if (schedules.length == 0) return null;
+        int schedule = buffer.getInt(recordOffset(index) + 24);
+        return schedule < 0 || schedule >= schedules.length ? null : schedules[schedule];
+    }
+
+    /**
+     * Calls {@code visitor} for every fence whose center lies in an index cell within
+     * {@code distance} metres (plus the largest fence radius) of the given point. Candidates
+     * still have to be checked with an exact distance.
+     */
+    public void forEachCandidate(double latitude, double longitude, double distance, Visitor visitor) {
+        if (cellCount == 0) return;
+
+        double reach = distance + maxRadius;
+        double latitudeSpan = GeoMath.metersToLatitudeDegrees(reach);
+        double farLatitude = Math.min(90, Math.abs(latitude) + latitudeSpan);
+        double longitudeSpan = GeoMath.metersToLongitudeDegrees(reach, farLatitude);
+
+        int gridSize = GeoHash.gridSize(indexBits);
+        int minRow = GeoHash.row(latitude - latitudeSpan, indexBits);
+        int maxRow = GeoHash.row(latitude + latitudeSpan, indexBits);
+        int minColumn = (int) Math.floor((longitude - longitudeSpan + 180) / GeoHash.cellWidth(indexBits));
+        int maxColumn = (int) Math.floor((longitude + longitudeSpan + 180) / GeoHash.cellWidth(indexBits));
+        if (maxColumn - minColumn >= gridSize) {
+            minColumn = 0;
+            maxColumn = gridSize - 1;
+        }
+
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                // Wrap around the antimeridian.
+                int wrapped = ((column % gridSize) + gridSize) % gridSize;
+                int entry = findCell(GeoHash.fromGrid(row, wrapped, indexBits));
+                if (entry < 0) continue;
+
+                int entryOffset = indexOffset + entry * INDEX_ENTRY_SIZE;
+                int first = buffer.getInt(entryOffset + 8);
+                int count = buffer.getInt(entryOffset + 12);
+                for (int i = first; i < first + count; i++) {
+                    visitor.visit(this, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Binary search of the index, returns the entry of the cell or -1.
+     */
+    private int findCell(long cell) {
+        int low = 0;
+        int high = cellCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = buffer.getLong(indexOffset + mid * INDEX_ENTRY_SIZE);
+            if (value < cell) {
+                low = mid + 1;
+            } else if (value > cell) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int recordOffset(int index) {
+        if (index < 0 || index >= fenceCount) {
+            throw new IndexOutOfBoundsException("Fence " + index + " of " + fenceCount);
+        }
+        return fenceTableOffset + index * recordSize;
+    }
+
+    public interface Visitor {
+        void visit(FenceCatalogue catalogue, int index);
+    }
+}
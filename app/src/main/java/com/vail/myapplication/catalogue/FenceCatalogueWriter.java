@@ -0,0 +1,195 @@
+package com.vail.myapplication.catalogue;
+
+import com.vail.myapplication.engine.WeeklySchedule;
+import com.vail.myapplication.geo.GeoHash;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a {@link FenceCatalogue} file.
+ *
+ * Fences are collected in primitive arrays and sorted by index cell when the file is written.
+ * Equal schedules are written once and shared.
+ */
+public class FenceCatalogueWriter {
+
+    /**
+     * Default index precision, cells of about 1.2 km by 0.6 km at the equator.
+     */
+    public static final int DEFAULT_INDEX_BITS = 30;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final int indexBits;
+
+    private long[] ids = new long[16];
+    private int[] latitudes = new int[16];
+    private int[] longitudes = new int[16];
+    private float[] radii = new float[16];
+    private int[] transitionTypes = new int[16];
+    private int[] scheduleIndexes = new int[16];
+    private int size;
+
+    private final List<WeeklySchedule> schedules = new ArrayList<>();
+    private final Map<WeeklySchedule, Integer> scheduleIndex = new HashMap<>();
+
+    public FenceCatalogueWriter() {
+        this(DEFAULT_INDEX_BITS);
+    }
+
+    /**
+     * @param indexBits Geohash precision of the index cells, even and at most 30.
+     */
+    public FenceCatalogueWriter(int indexBits) {
+        if (indexBits <= 0 || indexBits > 30 || (indexBits & 1) != 0) {
+            throw new IllegalArgumentException("Unsupported index precision: " + indexBits);
+        }
+        this.indexBits = indexBits;
+    }
+
+    public FenceCatalogueWriter add(long id, double latitude, double longitude, float radius,
+                                    int transitions) {
+        return add(id, latitude, longitude, radius, transitions, null);
+    }
+
+    /**
+     * @param transitions {@link FenceCatalogue#TRANSITION_ENTER}, {@link
+     *                    FenceCatalogue#TRANSITION_EXIT} or both.
+     * @param schedule    When the fence is active, null if it always is.
+     */
+    public FenceCatalogueWriter add(long id, double latitude, double longitude, float radius,
+                                    int transitions, WeeklySchedule schedule) {
+        checkTransitions(transitions);
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            radii = Arrays.copyOf(radii, capacity);
+            transitionTypes = Arrays.copyOf(transitionTypes, capacity);
+            scheduleIndexes = Arrays.copyOf(scheduleIndexes, capacity);
+        }
+        ids[size] = id;
+        latitudes[size] = (int) Math.round(latitude * FenceCatalogue.COORDINATE_SCALE);
+        longitudes[size] = (int) Math.round(longitude * FenceCatalogue.COORDINATE_SCALE);
+        radii[size] = radius;
+        transitionTypes[size] = transitions;
+        scheduleIndexes[size] = indexOf(schedule);
+        size++;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int indexOf(WeeklySchedule schedule) {
+        if (schedule == null) return -1;
+        Integer index = scheduleIndex.get(schedule);
+        if (index == null) {
+            index = schedules.size();
+            schedules.add(schedule);
+            scheduleIndex.put(schedule, index);
+        }
+        return index;
+    }
+
+    public void write(File file) throws IOException {
+        // Sort fences by cell, the fence index sits in the low 32 bits.
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            long cell = GeoHash.encode(latitudes[i] / FenceCatalogue.COORDINATE_SCALE,
+                    longitudes[i] / FenceCatalogue.COORDINATE_SCALE, indexBits);
+            order[i] = (cell << 32) | i;
+        }
+        Arrays.sort(order);
+
+        int cellCount = 0;
+        float maxRadius = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || (order[i] >>> 32) != (order[i - 1] >>> 32)) cellCount++;
+            maxRadius = Math.max(maxRadius, radii[i]);
+        }
+
+        long fenceTableOffset = FenceCatalogue.HEADER_SIZE;
+        long indexOffset = fenceTableOffset + (long) size * FenceCatalogue.RECORD_SIZE;
+
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            FileChannel channel = outputStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(FenceCatalogue.MAGIC)
+                    .putShort(FenceCatalogue.VERSION)
+                    .putShort((short) FenceCatalogue.HEADER_SIZE)
+                    .putInt(size)
+                    .putInt(FenceCatalogue.RECORD_SIZE)
+                    .putInt(indexBits)
+                    .putInt(cellCount)
+                    .putFloat(maxRadius)
+                    .putInt(schedules.size())
+                    .putLong(fenceTableOffset)
+                    .putLong(indexOffset);
+
+            for (int i = 0; i < size; i++) {
+                if (buffer.remaining() < FenceCatalogue.RECORD_SIZE) flush(channel, buffer);
+                int fence = (int) order[i];
+                buffer.putLong(ids[fence])
+                        .putInt(latitudes[fence])
+                        .putInt(longitudes[fence])
+                        .putFloat(radii[fence])
+                        .putInt(transitionTypes[fence])
+                        .putInt(scheduleIndexes[fence]);
+            }
+
+            int first = 0;
+            for (int i = 1; i <= size; i++) {
+                if (i < size && (order[i] >>> 32) == (order[first] >>> 32)) continue;
+                if (buffer.remaining() < FenceCatalogue.INDEX_ENTRY_SIZE) flush(channel, buffer);
+                buffer.putLong(order[first] >>> 32)
+                        .putInt(first)
+                        .putInt(i - first);
+                first = i;
+            }
+
+            for (WeeklySchedule schedule : schedules) {
+                if (buffer.remaining() < 4) flush(channel, buffer);
+                buffer.putInt(schedule.getIntervalCount());
+                for (int i = 0; i < schedule.getIntervalCount(); i++) {
+                    if (buffer.remaining() < 8) flush(channel, buffer);
+                    buffer.putInt(schedule.getStart(i)).putInt(schedule.getEnd(i));
+                }
+            }
+            flush(channel, buffer);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Rejects transitions that can't be registered with Location Services as they are.
+     */
+    static void checkTransitions(int transitions) {
+        if (transitions == 0 || (transitions & ~FenceCatalogue.TRANSITIONS) != 0) {
+            throw new IllegalArgumentException("Unsupported transition types " + transitions);
+        }
+    }
+}
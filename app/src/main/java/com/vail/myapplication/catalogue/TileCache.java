@@ -0,0 +1,252 @@
+package com.vail.myapplication.catalogue;
+
+import com.vail.myapplication.geo.GeoHash;
+import com.vail.myapplication.geo.GeoMath;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lazily loaded view of a catalogue split into geohash tiles by {@link TiledCatalogueWriter}.
+ *
+ * Only the tiles around the queried positions are read into memory. Loaded tiles are kept in
+ * least recently used order and the oldest ones are dropped once their total size goes over
+ * the memory budget, except the tiles needed by the current query. {@link #prefetch} loads
+ * the tiles ahead of a moving position so they are ready before it gets there, as long as
+ * there is room in the budget.
+ *
+ * Tiles are read into heap buffers rather than mapped, so dropping a tile really frees its
+ * memory. Reading tiles does file I/O, keep it off the main thread. Not thread safe.
+ */
+public class TileCache {
+
+    public static final int MAGIC = 0x31544647; // "GFT1"
+    public static final short VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+    static final String TILE_LIST_NAME = "tiles";
+
+    private final File directory;
+    private final int tileBits;
+    private final float maxRadius;
+    private final long[] tiles;
+    private final long memoryBudget;
+
+    private final LinkedHashMap<Long, Tile> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryUsed;
+    private int generation;
+
+    private long hits;
+    private long loads;
+    private long evictions;
+
+    /**
+     * Reads the tile list of {@code directory}. Tiles themselves are only read when needed.
+     *
+     * @param memoryBudget Total size in bytes of the tiles kept in memory.
+     * @throws IOException if the tile list can't be read or is invalid.
+     */
+    public static TileCache open(File directory, long memoryBudget) throws IOException {
+        ByteBuffer buffer = read(new File(directory, TILE_LIST_NAME));
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a tile list");
+        }
+        if (buffer.getShort(4) != VERSION) {
+            throw new IOException("Unsupported tile list version " + buffer.getShort(4));
+        }
+        int tileBits = buffer.getShort(6);
+        float maxRadius = buffer.getFloat(8);
+        int count = buffer.getInt(12);
+        if (count < 0 || HEADER_SIZE + 8L * count > buffer.remaining()) {
+            throw new IOException("Truncated tile list");
+        }
+        long[] tiles = new long[count];
+        for (int i = 0; i < count; i++) {
+            tiles[i] = buffer.getLong(HEADER_SIZE + 8 * i);
+        }
+        return new TileCache(directory, tileBits, maxRadius, tiles, memoryBudget);
+    }
+
+    private TileCache(File directory, int tileBits, float maxRadius, long[] tiles,
+                      long memoryBudget) {
+        this.directory = directory;
+        this.tileBits = tileBits;
+        this.maxRadius = maxRadius;
+        this.tiles = tiles;
+        this.memoryBudget = memoryBudget;
+    }
+
+    static File tileFile(File directory, long tile) {
+        return new File(directory, "tile-" + Long.toHexString(tile));
+    }
+
+    public int getTileBits() {
+        return tileBits;
+    }
+
+    public int getTileCount() {
+        return tiles.length;
+    }
+
+    public int getLoadedTileCount() {
+        return loaded.size();
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getLoads() {
+        return loads;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Calls {@code visitor} for every fence that may lie within {@code distance} metres of the
+     * given point, loading the tiles needed. Candidates still have to be checked with an
+     * exact distance.
+     */
+    public void forEachCandidate(double latitude, double longitude, double distance,
+                                 FenceCatalogue.Visitor visitor) throws IOException {
+        generation++;
+        // Fences are filed under the tile of their center, which may be a radius away.
+        double reach = distance + maxRadius;
+        double latitudeSpan = GeoMath.metersToLatitudeDegrees(reach);
+        double farLatitude = Math.min(90, Math.abs(latitude) + latitudeSpan);
+        double longitudeSpan = GeoMath.metersToLongitudeDegrees(reach, farLatitude);
+
+        int gridSize = GeoHash.gridSize(tileBits);
+        int minRow = GeoHash.row(latitude - latitudeSpan, tileBits);
+        int maxRow = GeoHash.row(latitude + latitudeSpan, tileBits);
+        int minColumn = (int) Math.floor((longitude - longitudeSpan + 180) / GeoHash.cellWidth(tileBits));
+        int maxColumn = (int) Math.floor((longitude + longitudeSpan + 180) / GeoHash.cellWidth(tileBits));
+        if (maxColumn - minColumn >= gridSize) {
+            minColumn = 0;
+            maxColumn = gridSize - 1;
+        }
+
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                int wrapped = ((column % gridSize) + gridSize) % gridSize;
+                FenceCatalogue catalogue = get(GeoHash.fromGrid(row, wrapped, tileBits), true);
+                if (catalogue != null) {
+                    catalogue.forEachCandidate(latitude, longitude, distance, visitor);
+                }
+            }
+        }
+        trim();
+    }
+
+    /**
+     * Loads the tiles crossed when moving {@code distance} metres from the given point along
+     * {@code bearing}, in degrees clockwise from north, nearest first. Stops once the budget is
+     * used up, so prefetching never evicts anything. Prefetched tiles are the most recently
+     * used but aren't kept like the tiles of a query, later queries may evict them.
+     */
+    public void prefetch(double latitude, double longitude, double bearing, double distance)
+            throws IOException {
+        double step = Math.min(GeoHash.cellHeight(tileBits), GeoHash.cellWidth(tileBits))
+                * GeoMath.METERS_PER_DEGREE / 2;
+        double north = Math.cos(Math.toRadians(bearing));
+        double east = Math.sin(Math.toRadians(bearing));
+        long previous = -1;
+        for (double travelled = 0; ; travelled = Math.min(distance, travelled + step)) {
+            double pointLatitude = Math.max(-90, Math.min(90,
+                    latitude + GeoMath.metersToLatitudeDegrees(north * travelled)));
+            double pointLongitude = longitude
+                    + GeoMath.metersToLongitudeDegrees(east * travelled, latitude);
+            pointLongitude = ((pointLongitude + 540) % 360) - 180;
+            long tile = GeoHash.encode(pointLatitude, pointLongitude, tileBits);
+            if (tile != previous) {
+                if (!loaded.containsKey(tile) && memoryUsed >= memoryBudget) break;
+                get(tile, false);
+                previous = tile;
+            }
+            if (travelled >= distance) break;
+        }
+    }
+
+    /**
+     * Returns the catalogue of a tile, loading it if needed, or null if the tile is empty.
+     *
+     * @param keep Whether the tile is needed by the current query and can't be evicted by it.
+     */
+    private FenceCatalogue get(long tile, boolean keep) throws IOException {
+        if (Arrays.binarySearch(tiles, tile) < 0) return null;
+
+        Tile entry = loaded.get(tile);
+        if (entry != null) {
+            hits++;
+        } else {
+            ByteBuffer buffer = read(tileFile(directory, tile));
+            entry = new Tile(new FenceCatalogue(buffer), buffer.capacity());
+            loaded.put(tile, entry);
+            memoryUsed += entry.size;
+            loads++;
+        }
+        if (keep) entry.generation = generation;
+        return entry.catalogue;
+    }
+
+    /**
+     * Drops the least recently used tiles until the budget is met, keeping the tiles used by
+     * the last query.
+     */
+    private void trim() {
+        Iterator<Map.Entry<Long, Tile>> iterator = loaded.entrySet().iterator();
+        while (memoryUsed > memoryBudget && iterator.hasNext()) {
+            Tile tile = iterator.next().getValue();
+            if (tile.generation == generation) continue;
+            iterator.remove();
+            memoryUsed -= tile.size;
+            evictions++;
+        }
+    }
+
+    private static ByteBuffer read(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+            }
+            buffer.flip();
+            return buffer;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static final class Tile {
+        final FenceCatalogue catalogue;
+        final long size;
+        int generation;
+
+        Tile(FenceCatalogue catalogue, long size) {
+            this.catalogue = catalogue;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.vail.myapplication.catalogue;
+
+import com.vail.myapplication.engine.WeeklySchedule;
+import com.vail.myapplication.geo.GeoHash;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Splits fences into geohash tiles and writes one {@link FenceCatalogue} file per tile, read
+ * back by {@link TileCache}.
+ *
+ * A fence belongs to the tile of its center. The directory also holds a little-endian tile
+ * list:
+ *
+ * <pre>
+ * int   magic       {@link TileCache#MAGIC}
+ * short version     {@link TileCache#VERSION}
+ * short tile bits   geohash precision of the tiles
+ * float max radius  largest fence radius in metres
+ * int   tile count
+ * long  tile        one per tile, sorted
+ * </pre>
+ */
+public class TiledCatalogueWriter {
+
+    /**
+     * Default tile precision, tiles of about 39 km by 20 km at the equator.
+     */
+    public static final int DEFAULT_TILE_BITS = 20;
+
+    private final int tileBits;
+    private final Map<Long, FenceCatalogueWriter> tiles = new TreeMap<>();
+    private float maxRadius;
+    private int size;
+
+    public TiledCatalogueWriter() {
+        this(DEFAULT_TILE_BITS);
+    }
+
+    /**
+     * @param tileBits Geohash precision of the tiles, even and below the index precision of
+     *                 the tile catalogues.
+     */
+    public TiledCatalogueWriter(int tileBits) {
+        if (tileBits <= 0 || tileBits >= FenceCatalogueWriter.DEFAULT_INDEX_BITS
+                || (tileBits & 1) != 0) {
+            throw new IllegalArgumentException("Unsupported tile precision: " + tileBits);
+        }
+        this.tileBits = tileBits;
+    }
+
+    public TiledCatalogueWriter add(long id, double latitude, double longitude, float radius,
+                                    int transitions) {
+        return add(id, latitude, longitude, radius, transitions, null);
+    }
+
+    /**
+     * @param schedule When the fence is active, null if it always is.
+     */
+    public TiledCatalogueWriter add(long id, double latitude, double longitude, float radius,
+                                    int transitions, WeeklySchedule schedule) {
+        // Checked before a tile is created for the fence.
+        FenceCatalogueWriter.checkTransitions(transitions);
+        long tile = GeoHash.encode(latitude, longitude, tileBits);
+        FenceCatalogueWriter writer = tiles.get(tile);
+        if (writer == null) {
+            writer = new FenceCatalogueWriter();
+            tiles.put(tile, writer);
+        }
+        writer.add(id, latitude, longitude, radius, transitions, schedule);
+        maxRadius = Math.max(maxRadius, radius);
+        size++;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * Writes the tiles and the tile list in {@code directory}, created if needed. Files of
+     * tiles that are no longer present are left in place but never read.
+     */
+    public void write(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        for (Map.Entry<Long, FenceCatalogueWriter> entry : tiles.entrySet()) {
+            entry.getValue().write(TileCache.tileFile(directory, entry.getKey()));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(TileCache.HEADER_SIZE + 8 * tiles.size())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(TileCache.MAGIC)
+                .putShort(TileCache.VERSION)
+                .putShort((short) tileBits)
+                .putFloat(maxRadius)
+                .putInt(tiles.size());
+        for (long tile : tiles.keySet()) {
+            buffer.putLong(tile);
+        }
+        buffer.flip();
+
+        // Written last, so a reader never sees tiles that aren't there yet.
+        File list = new File(directory, TileCache.TILE_LIST_NAME);
+        File temporary = new File(directory, TileCache.TILE_LIST_NAME + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(temporary);
+        try {
+            FileChannel channel = outputStream.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            outputStream.close();
+        }
+        if (!temporary.renameTo(list)) {
+            throw new IOException("Can't replace " + list);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package com.vail.myapplication.engine;
+
+import com.vail.myapplication.geo.DistancePrecision;
+import com.vail.myapplication.geo.GeoMath;
+
+import java.util.Arrays;
+
+/**
+ * Precomputed coverings of the fences of a {@link FenceSet} by hierarchical latitude and
+ * longitude cells, so most positions are placed inside or outside every fence with a few hash
+ * lookups and no distance computation.
+ *
+ * At level l, cells are 180 / 2^l degrees of latitude by 360 / 2^l degrees of longitude, and
+ * each cell splits into four cells of the next level, like geohashes or S2 cells. A fence is
+ * covered by cells about its radius in size, and those crossing its boundary are split
+ * {@link #DEFAULT_REFINE_LEVELS} more times. Each cell of a covering is either inside the fence
+ * or crosses its boundary, cells outside are left out. The cells of a covering don't overlap,
+ * so a position lies in at most one cell of each fence:
+ * <ul>
+ * <li>in an inside cell of any fence, it is inside a fence,</li>
+ * <li>in no cell, it is outside every fence,</li>
+ * <li>otherwise only the fences of its boundary cells are checked exactly.</li>
+ * </ul>
+ * The cells are in a hash table, with their fences. Like in S2 indexes, the ancestors of every
+ * cell at the coarser levels in use are added too, so a position is looked up from the coarsest
+ * level down and the lookup stops at the first level where its cell is missing: positions away
+ * from every fence take one lookup. Each refinement level roughly doubles the cells of a fence
+ * while halving the area where exact checks are needed.
+ *
+ * Cells are classified with the distance functions of the fences, at their corners and nearest
+ * point, with a {@link #MARGIN} for the curvature of the cell edges, so inside and outside cells
+ * agree with {@link FenceSet#contains}.
+ *
+ * Immutable, queries are thread safe.
+ */
+public final class CellCovering {
+
+    public static final int DEFAULT_REFINE_LEVELS = 3;
+
+    /**
+     * Finest level, cells of about 30 cm of latitude.
+     */
+    public static final int MAX_LEVEL = 26;
+
+    /**
+     * Result of {@link #locate}: inside a fence without checking any.
+     */
+    public static final int INTERIOR = 0;
+
+    /**
+     * Result of {@link #locate}: outside every fence without checking any.
+     */
+    public static final int EXTERIOR = 1;
+
+    /**
+     * Result of {@link #locate}: inside a fence after checking the fences of boundary cells.
+     */
+    public static final int BOUNDARY_INSIDE = 2;
+
+    /**
+     * Result of {@link #locate}: outside every fence after checking the fences of boundary
+     * cells.
+     */
+    public static final int BOUNDARY_OUTSIDE = 3;
+
+    /**
+     * Metres by which a cell must be inside or outside a fence to be classified so.
+     */
+    static final double MARGIN = DistancePrecision.DEFAULT_TOLERANCE;
+
+    private static final int LEVEL_SHIFT = 58;
+    private static final int X_SHIFT = 29;
+    private static final int COORDINATE_MASK = (1 << X_SHIFT) - 1;
+    private static final long EMPTY = -1;
+
+    private final FenceSet fences;
+
+    /**
+     * Levels having at least one cell, coarsest first.
+     */
+    private final int[] levels;
+
+    /**
+     * Open addressing table of the cells and their ancestors. The fences of the cell at slot i
+     * are {@code cellFences[cellOffsets[i]]} to {@code cellFences[cellOffsets[i + 1]]}, each a
+     * fence index times two, plus one for inside cells. Ancestors only have no fences.
+     */
+    private final long[] cellKeys;
+    private final int[] cellOffsets;
+    private final int[] cellFences;
+    private final int mask;
+
+    private final int cellCount;
+    private final int interiorCellCount;
+
+    private CellCovering(FenceSet fences, int[] levels, long[] cellKeys, int[] cellOffsets,
+                         int[] cellFences, int cellCount, int interiorCellCount) {
+        this.fences = fences;
+        this.levels = levels;
+        this.cellKeys = cellKeys;
+        this.cellOffsets = cellOffsets;
+        this.cellFences = cellFences;
+        this.mask = cellKeys.length - 1;
+        this.cellCount = cellCount;
+        this.interiorCellCount = interiorCellCount;
+    }
+
+    public static CellCovering build(FenceSet fences) {
+        return build(fences, DEFAULT_REFINE_LEVELS);
+    }
+
+    /**
+     * @param refineLevels Times the boundary cells are split, more takes more memory and checks
+     *                     fewer fences exactly.
+     */
+    public static CellCovering build(FenceSet fences, int refineLevels) {
+        if (refineLevels < 0) {
+            throw new IllegalArgumentException("Invalid refine levels " + refineLevels);
+        }
+        Builder builder = new Builder(fences, refineLevels);
+        for (int i = 0; i < fences.size(); i++) {
+            builder.cover(i);
+        }
+        return builder.build();
+    }
+
+    public FenceSet getFences() {
+        return fences;
+    }
+
+    /**
+     * Returns the number of distinct cells, including the ancestors.
+     */
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * Returns the number of cells of all the fences, inside and boundary.
+     */
+    public int getFenceCellCount() {
+        return cellFences.length;
+    }
+
+    public int getInteriorCellCount() {
+        return interiorCellCount;
+    }
+
+    public boolean containsAny(double latitude, double longitude) {
+        int location = locate(latitude, longitude);
+        return location == INTERIOR || location == BOUNDARY_INSIDE;
+    }
+
+    /**
+     * Places a position relative to the fences.
+     *
+     * @return {@link #INTERIOR} or {@link #EXTERIOR} when answered from the cells alone,
+     *         {@link #BOUNDARY_INSIDE} or {@link #BOUNDARY_OUTSIDE} when some fences had to be
+     *         checked.
+     */
+    public int locate(double latitude, double longitude) {
+        if (levels.length == 0) return EXTERIOR;
+        // Cell of the finest level, the coarser ones are its ancestors.
+        int finest = levels[levels.length - 1];
+        long cell = cellKey(finest, latitude, longitude);
+        int x = (int) (cell >>> X_SHIFT) & COORDINATE_MASK;
+        int y = (int) cell & COORDINATE_MASK;
+
+        boolean boundary = false;
+        for (int level : levels) {
+            int slot = find(cellKey(level, x >>> (finest - level), y >>> (finest - level)));
+            if (slot < 0) break;
+            for (int i = cellOffsets[slot]; i < cellOffsets[slot + 1]; i++) {
+                if ((cellFences[i] & 1) != 0) return INTERIOR;
+                boundary = true;
+            }
+        }
+        if (!boundary) return EXTERIOR;
+
+        // Looked up again rather than collected, the common cases above don't pay for it.
+        for (int level : levels) {
+            int slot = find(cellKey(level, x >>> (finest - level), y >>> (finest - level)));
+            if (slot < 0) break;
+            for (int i = cellOffsets[slot]; i < cellOffsets[slot + 1]; i++) {
+                if (fences.contains(cellFences[i] >>> 1, latitude, longitude)) {
+                    return BOUNDARY_INSIDE;
+                }
+            }
+        }
+        return BOUNDARY_OUTSIDE;
+    }
+
+    private int find(long key) {
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long value = cellKeys[slot];
+            if (value == key) return slot;
+            if (value == EMPTY) return -1;
+        }
+    }
+
+    static long cellKey(int level, double latitude, double longitude) {
+        int cells = 1 << level;
+        int x = (int) Math.floor((longitude + 180) / 360 * cells);
+        int y = (int) Math.floor((latitude + 90) / 180 * cells);
+        return cellKey(level, x, y);
+    }
+
+    /**
+     * Packs a cell, wrapping its column around the antimeridian and clamping its row to the
+     * poles.
+     */
+    static long cellKey(int level, int x, int y) {
+        int cells = 1 << level;
+        x %= cells;
+        if (x < 0) x += cells;
+        y = Math.max(0, Math.min(cells - 1, y));
+        return (long) level << LEVEL_SHIFT | (long) x << X_SHIFT | y;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Collects the cells of every fence, then groups them by cell in the hash table.
+     */
+    private static final class Builder {
+        private final FenceSet fences;
+        private final int refineLevels;
+        private final boolean[] usedLevels = new boolean[MAX_LEVEL + 1];
+
+        private long[] keys = new long[1024];
+        private int[] values = new int[1024];
+        private int size;
+        private int interiorCount;
+
+        private long[] table = emptyTable(1024);
+        private int tableSize;
+
+        Builder(FenceSet fences, int refineLevels) {
+            this.fences = fences;
+            this.refineLevels = refineLevels;
+        }
+
+        /**
+         * Covers a fence with cells of the coarsest level no taller than its radius, then
+         * splits the boundary cells.
+         */
+        void cover(int fence) {
+            double latitude = fences.getLatitude(fence);
+            double longitude = fences.getLongitude(fence);
+            double radius = fences.getRadius(fence);
+
+            int level = 0;
+            while (level < MAX_LEVEL - refineLevels
+                    && 180.0 / (1 << level) * GeoMath.METERS_PER_DEGREE > radius) {
+                level++;
+            }
+            int maxLevel = Math.min(MAX_LEVEL, level + refineLevels);
+
+            double reach = radius + MARGIN;
+            double latitudeSpan = GeoMath.metersToLatitudeDegrees(reach);
+            double longitudeSpan = GeoMath.metersToLongitudeDegrees(
+                    reach, Math.min(90, Math.abs(latitude) + latitudeSpan));
+            int cells = 1 << level;
+            int minX = (int) Math.floor((longitude - longitudeSpan + 180) / 360 * cells);
+            int maxX = (int) Math.floor((longitude + longitudeSpan + 180) / 360 * cells);
+            int minY = Math.max(0, (int) Math.floor((latitude - latitudeSpan + 90) / 180 * cells));
+            int maxY = Math.min(cells - 1, (int) Math.floor((latitude + latitudeSpan + 90) / 180 * cells));
+            maxX = Math.min(maxX, minX + cells - 1);
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    refine(fence, radius, level, x, y, maxLevel);
+                }
+            }
+        }
+
+        private void refine(int fence, double radius, int level, int x, int y, int maxLevel) {
+            double cellHeight = 180.0 / (1 << level);
+            double cellWidth = 360.0 / (1 << level);
+            double south = y * cellHeight - 90;
+            double west = x * cellWidth - 180;
+            double north = south + cellHeight;
+            double east = west + cellWidth;
+
+            double centerLatitude = fences.getLatitude(fence);
+            double centerLongitude = fences.getLongitude(fence);
+            // Nearest point of the cell, with the center brought to the side of the cell.
+            double shifted = centerLongitude;
+            if (shifted < west - 180) shifted += 360;
+            if (shifted > east + 180) shifted -= 360;
+            double nearest = fences.distance(fence,
+                    Math.max(south, Math.min(north, centerLatitude)),
+                    Math.max(west, Math.min(east, shifted)));
+            if (nearest > radius + MARGIN) return;
+
+            double farthest = Math.max(
+                    Math.max(fences.distance(fence, south, west), fences.distance(fence, south, east)),
+                    Math.max(fences.distance(fence, north, west), fences.distance(fence, north, east)));
+            if (farthest <= radius - MARGIN) {
+                add(cellKey(level, x, y), fence, true);
+                usedLevels[level] = true;
+            } else if (level == maxLevel) {
+                add(cellKey(level, x, y), fence, false);
+                usedLevels[level] = true;
+            } else {
+                for (int child = 0; child < 4; child++) {
+                    refine(fence, radius, level + 1, 2 * x + (child & 1),
+                            2 * y + (child >> 1), maxLevel);
+                }
+            }
+        }
+
+        private void add(long key, int fence, boolean interior) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            keys[size] = key;
+            values[size] = fence << 1 | (interior ? 1 : 0);
+            size++;
+            if (interior) interiorCount++;
+        }
+
+        CellCovering build() {
+            int levelCount = 0;
+            int[] levels = new int[MAX_LEVEL + 1];
+            for (int level = 0; level <= MAX_LEVEL; level++) {
+                if (usedLevels[level]) levels[levelCount++] = level;
+            }
+            levels = Arrays.copyOf(levels, levelCount);
+
+            for (int i = 0; i < size; i++) {
+                insert(keys[i]);
+            }
+            // Every ancestor at a coarser level in use, so lookups can stop at a missing cell.
+            for (int i = 0; i < size; i++) {
+                int level = (int) (keys[i] >>> LEVEL_SHIFT);
+                int x = (int) (keys[i] >>> X_SHIFT) & COORDINATE_MASK;
+                int y = (int) keys[i] & COORDINATE_MASK;
+                for (int j = 0; j < levels.length && levels[j] < level; j++) {
+                    int shift = level - levels[j];
+                    insert(cellKey(levels[j], x >>> shift, y >>> shift));
+                }
+            }
+
+            // Counts the fences of each cell at its slot, shifted by one, then fills them.
+            int mask = table.length - 1;
+            int[] offsets = new int[table.length + 1];
+            int[] slots = new int[size];
+            for (int i = 0; i < size; i++) {
+                int slot = hash(keys[i]) & mask;
+                while (table[slot] != keys[i]) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[i] = slot;
+                offsets[slot + 1]++;
+            }
+            for (int slot = 0; slot < table.length; slot++) {
+                offsets[slot + 1] += offsets[slot];
+            }
+            int[] cellFences = new int[size];
+            int[] filled = new int[table.length];
+            for (int i = 0; i < size; i++) {
+                cellFences[offsets[slots[i]] + filled[slots[i]]++] = values[i];
+            }
+            return new CellCovering(fences, levels, table, offsets, cellFences, tableSize,
+                    interiorCount);
+        }
+
+        private static long[] emptyTable(int capacity) {
+            long[] table = new long[capacity];
+            Arrays.fill(table, EMPTY);
+            return table;
+        }
+
+        /**
+         * Adds a cell to the table if missing, doubling it beyond half full.
+         */
+        private void insert(long key) {
+            int mask = table.length - 1;
+            int slot = hash(key) & mask;
+            while (table[slot] != EMPTY) {
+                if (table[slot] == key) return;
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = key;
+            if (++tableSize * 2 <= table.length) return;
+
+            long[] old = table;
+            table = emptyTable(old.length * 2);
+            mask = table.length - 1;
+            for (long cell : old) {
+                if (cell == EMPTY) continue;
+                slot = hash(cell) & mask;
+                while (table[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = cell;
+            }
+        }
+    }
+}
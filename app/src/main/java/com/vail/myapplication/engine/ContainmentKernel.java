@@ -0,0 +1,167 @@
+package com.vail.myapplication.engine;
+
+import com.vail.myapplication.geo.DistancePrecision;
+
+/**
+ * Bulk point-in-fence test over the fences of a {@link FenceSet}, giving the same answers as
+ * {@link FenceSet#contains(int, double, double)} for every fence.
+ *
+ * Fences using the {@link DistancePrecision#PLANAR} distance are copied into flat arrays
+ * (center, degree lengths and squared radius). They are processed in blocks of {@link #BLOCK}:
+ * a branch-free loop writes the squared distances of a block to a scratch array, which the JIT
+ * compiles to SIMD instructions, then a second loop compares them with the squared radii. The
+ * squared distance is computed with the operations of the planar distance, in the same order,
+ * and only points within a relative {@link #BOUNDARY_MARGIN} of a boundary, where comparing
+ * squares could round differently, take the square root, so the results are identical. Fences
+ * where the longitude difference needs wrapping around the antimeridian, or with another
+ * precision, go through {@link FenceSet#contains(int, double, double)}.
+ *
+ * Not thread safe because of the scratch array, {@link #ContainmentKernel(ContainmentKernel)}
+ * gives another thread its own kernel sharing the fence arrays.
+ */
+public final class ContainmentKernel {
+
+    static final int BLOCK = 64;
+
+    static final double BOUNDARY_MARGIN = 1e-9;
+
+    /**
+     * Planar fences keep this far from the antimeridian, so a point on its other side is more
+     * than a degree of longitude away and the unwrapped difference can only overestimate the
+     * distance of points that are outside anyway.
+     */
+    private static final double MAX_PLANAR_LONGITUDE = 179;
+
+    private final FenceSet fences;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] latitudeScales;
+    private final double[] longitudeScales;
+    private final double[] radii;
+    private final double[] insideSquares;
+    private final double[] boundarySquares;
+    private final double[] squares;
+
+    /**
+     * Indices in the fence set of the fences tested with their own distance function.
+     */
+    private final int[] others;
+
+    public ContainmentKernel(FenceSet fences) {
+        this.fences = fences;
+
+        int planar = 0;
+        for (int i = 0; i < fences.size(); i++) {
+            if (isPlanar(fences, i)) planar++;
+        }
+        latitudes = new double[planar];
+        longitudes = new double[planar];
+        latitudeScales = new double[planar];
+        longitudeScales = new double[planar];
+        radii = new double[planar];
+        insideSquares = new double[planar];
+        boundarySquares = new double[planar];
+        squares = new double[planar];
+        others = new int[fences.size() - planar];
+
+        int p = 0;
+        int o = 0;
+        for (int i = 0; i < fences.size(); i++) {
+            if (isPlanar(fences, i)) {
+                double latitude = fences.getLatitude(i);
+                latitudes[p] = latitude;
+                longitudes[p] = fences.getLongitude(i);
+                latitudeScales[p] = DistancePrecision.metersPerLatitudeDegree(latitude);
+                longitudeScales[p] = DistancePrecision.metersPerLongitudeDegree(latitude);
+                double radius = fences.getRadius(i);
+                radii[p] = radius;
+                insideSquares[p] = radius * radius * (1 - BOUNDARY_MARGIN);
+                boundarySquares[p] = radius * radius * (1 + BOUNDARY_MARGIN);
+                p++;
+            } else {
+                others[o++] = i;
+            }
+        }
+    }
+
+    /**
+     * Returns a kernel over the same fences, sharing their arrays but with its own scratch
+     * array, for use on another thread.
+     */
+    public ContainmentKernel(ContainmentKernel kernel) {
+        fences = kernel.fences;
+        latitudes = kernel.latitudes;
+        longitudes = kernel.longitudes;
+        latitudeScales = kernel.latitudeScales;
+        longitudeScales = kernel.longitudeScales;
+        radii = kernel.radii;
+        insideSquares = kernel.insideSquares;
+        boundarySquares = kernel.boundarySquares;
+        squares = new double[radii.length];
+        others = kernel.others;
+    }
+
+    private static boolean isPlanar(FenceSet fences, int index) {
+        double latitude = fences.getLatitude(index);
+        return fences.getPrecision(index) == DistancePrecision.PLANAR
+                && Math.abs(fences.getLongitude(index)) <= MAX_PLANAR_LONGITUDE
+                && fences.getRadius(index) < DistancePrecision.metersPerLongitudeDegree(latitude);
+    }
+
+    public FenceSet getFences() {
+        return fences;
+    }
+
+    /**
+     * Returns the number of fences tested in blocks.
+     */
+    public int getBlockedFenceCount() {
+        return radii.length;
+    }
+
+    /**
+     * Returns true if the point is inside at least one fence.
+     */
+    public boolean containsAny(double latitude, double longitude) {
+        int size = radii.length;
+        for (int from = 0; from < size; from += BLOCK) {
+            int to = Math.min(size, from + BLOCK);
+            for (int i = from; i < to; i++) {
+                double dy = (latitude - latitudes[i]) * latitudeScales[i];
+                double dx = (longitude - longitudes[i]) * longitudeScales[i];
+                squares[i] = dx * dx + dy * dy;
+            }
+            for (int i = from; i < to; i++) {
+                if (squares[i] <= boundarySquares[i]
+                        && (squares[i] <= insideSquares[i] || Math.sqrt(squares[i]) <= radii[i])) {
+                    return true;
+                }
+            }
+        }
+
+        for (int other : others) {
+            if (fences.contains(other, latitude, longitude)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tests {@code count} points at once.
+     */
+    public void containsAny(double[] latitudes, double[] longitudes, int count, boolean[] inside) {
+        for (int i = 0; i < count; i++) {
+            inside[i] = containsAny(latitudes[i], longitudes[i]);
+        }
+    }
+
+    /**
+     * Reference implementation, one fence at a time through its distance function.
+     */
+    boolean containsAnyScalar(double latitude, double longitude) {
+        for (int i = 0; i < fences.size(); i++) {
+            if (fences.contains(i, latitude, longitude)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,190 @@
+package com.vail.myapplication.engine;
+
+import com.vail.myapplication.catalogue.FenceCatalogue;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Watches a {@link FenceCatalogue} file and publishes its fences as a {@link FenceIndex}.
+ *
+ * The file is polled on a background thread. When its modification time or size changed, the
+ * new fences and their kernel are built on that thread, then published with a single reference
+ * swap: {@link ZoneEvaluator}s reading {@link #getIndex()} never lock and see either the old or
+ * the new fences, never a mix. A file that can't be read or isn't a valid catalogue, typically
+ * because it is still being copied, leaves the current fences in place and is read again once
+ * it changes. Files should be replaced with a rename, like {@link
+ * com.vail.myapplication.catalogue.TiledCatalogueWriter} does.
+ *
+ * The fences are published with the {@link ScheduleIndex} of their catalogue schedules, if any
+ * fence has one, so evaluators only check the fences active at the time of each fix. They can
+ * also be published with their {@link CellCovering}, built on the polling thread too, for
+ * evaluators checking every fence on every fix.
+ */
+public class FenceConfigWatcher implements FenceIndex.Source, Closeable {
+
+    public static final long DEFAULT_POLL_INTERVAL_MS = 5000;
+
+    private static final FenceSet NO_FENCES =
+            new FenceSet(new long[0], new double[0], new double[0], new float[0]);
+
+    private final File file;
+    private final long pollIntervalMs;
+    private final boolean cellCovering;
+    private final TimeZone zone;
+    private final AtomicReference<FenceIndex> index =
+            new AtomicReference<>(new FenceIndex(NO_FENCES, 0));
+
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Modification time and size of the last file read, guarded by the lock.
+     */
+    private final Object pollLock = new Object();
+    private long lastModified = -1;
+    private long lastLength = -1;
+
+    public FenceConfigWatcher(File file) {
+        this(file, DEFAULT_POLL_INTERVAL_MS);
+    }
+
+    public FenceConfigWatcher(File file, long pollIntervalMs) {
+        this(file, pollIntervalMs, false);
+    }
+
+    /**
+     * @param cellCovering Whether to publish the fences with their cell covering.
+     */
+    public FenceConfigWatcher(File file, long pollIntervalMs, boolean cellCovering) {
+        this(file, pollIntervalMs, cellCovering, TimeZone.getDefault());
+    }
+
+    /**
+     * @param zone Time zone of the catalogue schedules.
+     */
+    public FenceConfigWatcher(File file, long pollIntervalMs, boolean cellCovering,
+                              TimeZone zone) {
+        if (pollIntervalMs <= 0) {
+            throw new IllegalArgumentException("Invalid poll interval " + pollIntervalMs);
+        }
+        this.file = file;
+        this.pollIntervalMs = pollIntervalMs;
+        this.cellCovering = cellCovering;
+        this.zone = zone;
+    }
+
+    /**
+     * Starts polling, the first poll runs right away. Until a valid file was read the index
+     * has no fences.
+     */
+    public synchronized void start() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FenceConfigWatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, 0, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(pollIntervalMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+    }
+
+    @Override
+    public FenceIndex getIndex() {
+        return index.get();
+    }
+
+    /**
+     * Number of times new fences were published.
+     */
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    /**
+     * Number of changed files that couldn't be loaded.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Reloads the file if it changed since the last poll. Called by the polling thread, or
+     * directly when not started.
+     *
+     * @return true if new fences were published.
+     */
+    boolean poll() {
+        synchronized (pollLock) {
+            return reload();
+        }
+    }
+
+    private boolean reload() {
+        long modified = file.lastModified();
+        long length = file.length();
+        if (modified == 0 || (modified == lastModified && length == lastLength)) return false;
+        lastModified = modified;
+        lastLength = length;
+
+        FenceSet fences;
+        ScheduleIndex schedules;
+        try {
+            // Copied out of the mapping, the file can be replaced right after.
+            FenceCatalogue catalogue = FenceCatalogue.open(file);
+            fences = FenceSet.fromCatalogue(catalogue);
+            schedules = readSchedules(catalogue);
+        } catch (IOException | RuntimeException e) {
+            // A corrupt catalogue can fail with an index out of bounds.
+            failures.incrementAndGet();
+            return false;
+        }
+        FenceIndex current = index.get();
+        index.set(new FenceIndex(fences, schedules,
+                cellCovering ? CellCovering.build(fences) : null, current.getVersion() + 1));
+        reloads.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the schedules of the catalogue fences, null if they are all always active.
+     */
+    private ScheduleIndex readSchedules(FenceCatalogue catalogue) {
+        WeeklySchedule[] schedules = new WeeklySchedule[catalogue.size()];
+        boolean scheduled = false;
+        for (int i = 0; i < schedules.length; i++) {
+            schedules[i] = catalogue.getSchedule(i);
+            scheduled |= schedules[i] != null;
+        }
+        return scheduled ? new ScheduleIndex(schedules, zone) : null;
+    }
+}
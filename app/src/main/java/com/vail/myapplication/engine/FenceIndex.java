@@ -0,0 +1,102 @@
+package com.vail.myapplication.engine;
+
+/**
+ * Immutable snapshot of the fences evaluated by {@link ZoneEvaluator}s, with the containment
+ * kernel and the {@link PackedRTree} built for them.
+ *
+ * A new snapshot is built whenever the fences change and published through a {@link Source}.
+ * Evaluators compare the published snapshot with theirs on every fix and switch over when it
+ * changed, so building the kernel never happens on their thread and they never see a partial
+ * update.
+ *
+ * A snapshot can carry the weekly schedules of its fences, evaluators then only check the
+ * fences active at the time of each fix. It can also carry a {@link CellCovering} of its
+ * fences, which evaluators checking every fence on every fix use instead of the kernel.
+ */
+public final class FenceIndex {
+
+    private final FenceSet fences;
+    private final ContainmentKernel kernel;
+    private final PackedRTree tree;
+    private final ScheduleIndex schedules;
+    private final CellCovering covering;
+    private final long version;
+
+    /**
+     * @param version Increases with every snapshot published by a source.
+     */
+    public FenceIndex(FenceSet fences, long version) {
+        this(fences, null, version);
+    }
+
+    /**
+     * @param schedules Schedules of the fences by position, null if they are always active.
+     */
+    public FenceIndex(FenceSet fences, ScheduleIndex schedules, long version) {
+        this(fences, schedules, null, version);
+    }
+
+    /**
+     * @param covering Covering of the fences, null to use the kernel only.
+     */
+    public FenceIndex(FenceSet fences, ScheduleIndex schedules, CellCovering covering,
+                      long version) {
+        if (covering != null && covering.getFences() != fences) {
+            throw new IllegalArgumentException("Covering of other fences");
+        }
+        if (schedules != null && schedules.size() != fences.size()) {
+            throw new IllegalArgumentException(
+                    schedules.size() + " schedules for " + fences.size() + " fences");
+        }
+        this.fences = fences;
+        this.kernel = new ContainmentKernel(fences);
+        this.tree = PackedRTree.build(fences);
+        this.schedules = schedules;
+        this.covering = covering;
+        this.version = version;
+    }
+
+    public FenceSet getFences() {
+        return fences;
+    }
+
+    /**
+     * Returns the schedules of the fences, or null if they are always active.
+     */
+    public ScheduleIndex getSchedules() {
+        return schedules;
+    }
+
+    /**
+     * Returns the cell covering of the fences, or null if there is none.
+     */
+    public CellCovering getCellCovering() {
+        return covering;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the tree used to look up the fences near a device.
+     */
+    public PackedRTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Returns a kernel for the calling thread, sharing the arrays of the snapshot.
+     */
+    public ContainmentKernel newKernel() {
+        return new ContainmentKernel(kernel);
+    }
+
+    /**
+     * Publishes the current snapshot. {@link #getIndex()} is called on every fix, so it must
+     * not block.
+     */
+    public interface Source {
+        FenceIndex getIndex();
+    }
+}
@@ -0,0 +1,118 @@
+package com.vail.myapplication.engine;
+
+import com.vail.myapplication.catalogue.FenceCatalogue;
+import com.vail.myapplication.geo.DistancePrecision;
+import com.vail.myapplication.geo.FenceDistance;
+
+/**
+ * Immutable set of circular fences stored as parallel arrays, one entry per fence.
+ *
+ * Each fence gets the cheapest distance function meeting
+ * {@link DistancePrecision#DEFAULT_TOLERANCE} at its boundary.
+ */
+public final class FenceSet {
+
+    private final long[] ids;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final float[] radii;
+    private final FenceDistance[] distances;
+
+    public FenceSet(long[] ids, double[] latitudes, double[] longitudes, float[] radii) {
+        if (latitudes.length != ids.length || longitudes.length != ids.length
+                || radii.length != ids.length) {
+            throw new IllegalArgumentException("Fence arrays must have the same length");
+        }
+        this.ids = ids.clone();
+        this.latitudes = latitudes.clone();
+        this.longitudes = longitudes.clone();
+        this.radii = radii.clone();
+
+        distances = new FenceDistance[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            distances[i] = DistancePrecision.forFence(latitudes[i], longitudes[i], radii[i]);
+        }
+    }
+
+    private FenceSet(long[] ids, double[] latitudes, double[] longitudes, float[] radii,
+                     FenceDistance[] distances) {
+        this.ids = ids;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.radii = radii;
+        this.distances = distances;
+    }
+
+    /**
+     * Copies every fence of the catalogue.
+     */
+    public static FenceSet fromCatalogue(FenceCatalogue catalogue) {
+        int size = catalogue.size();
+        long[] ids = new long[size];
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        float[] radii = new float[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = catalogue.getId(i);
+            latitudes[i] = catalogue.getLatitude(i);
+            longitudes[i] = catalogue.getLongitude(i);
+            radii[i] = catalogue.getRadius(i);
+        }
+        return new FenceSet(ids, latitudes, longitudes, radii);
+    }
+
+    /**
+     * Returns the fences at the given positions, in that order.
+     */
+    public FenceSet subset(int[] indices) {
+        long[] subIds = new long[indices.length];
+        double[] subLatitudes = new double[indices.length];
+        double[] subLongitudes = new double[indices.length];
+        float[] subRadii = new float[indices.length];
+        FenceDistance[] subDistances = new FenceDistance[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            int index = indices[i];
+            subIds[i] = ids[index];
+            subLatitudes[i] = latitudes[index];
+            subLongitudes[i] = longitudes[index];
+            subRadii[i] = radii[index];
+            subDistances[i] = distances[index];
+        }
+        return new FenceSet(subIds, subLatitudes, subLongitudes, subRadii, subDistances);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public long getId(int index) {
+        return ids[index];
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    public float getRadius(int index) {
+        return radii[index];
+    }
+
+    public DistancePrecision getPrecision(int index) {
+        return distances[index].getPrecision();
+    }
+
+    /**
+     * Returns the distance in metres from the center of a fence.
+     */
+    public double distance(int index, double latitude, double longitude) {
+        return distances[index].distanceTo(latitude, longitude);
+    }
+
+    public boolean contains(int index, double latitude, double longitude) {
+        return distances[index].distanceTo(latitude, longitude) <= radii[index];
+    }
+}
@@ -0,0 +1,556 @@
+package com.vail.myapplication.engine;
+
+import com.vail.myapplication.geo.GeoMath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Static R-tree over the fences of a {@link FenceSet}, bulk loaded in Hilbert order.
+ *
+ * Fences are sorted by the Hilbert value of their center, so consecutive fences are close to
+ * each other, then packed {@link #NODE_CAPACITY} to a leaf and the leaves {@link #NODE_CAPACITY}
+ * to a parent, up to the root. Every node but the last of each level is full and node boxes
+ * overlap little, unlike a tree built by inserting fences one at a time. Building is a few
+ * linear passes and one sort, each split across the threads of an executor.
+ *
+ * Boxes are kept in flat arrays, four values per box (min latitude, min longitude, max latitude,
+ * max longitude), leaves first then each level up to the root. Fence boxes near the
+ * antimeridian extend past 180 degrees, such trees also look up points shifted by 360 degrees.
+ *
+ * Immutable, queries are thread safe.
+ */
+public final class PackedRTree {
+
+    public static final int NODE_CAPACITY = 16;
+
+    /**
+     * Resolution of the Hilbert curve, bits per axis. Two axes fit in 30 bits, leaving the
+     * fence index in the low 32 bits of the sort keys.
+     */
+    private static final int HILBERT_BITS = 15;
+
+    /**
+     * Smallest range of work given to a thread.
+     */
+    private static final int MIN_CHUNK = 8192;
+
+    /**
+     * Relative widening of the fence boxes, covers the difference between the spherical degree
+     * lengths used here and the ellipsoidal distances of the fences.
+     */
+    private static final double BOX_MARGIN = 0.01;
+
+    private final FenceSet fences;
+    private final int[] entries;
+    private final double[] entryBoxes;
+    private final double[] nodeBoxes;
+
+    /**
+     * First node of each level in {@link #nodeBoxes}, leaves first, plus the node count.
+     */
+    private final int[] levelOffsets;
+    private final boolean wraps;
+
+    private PackedRTree(FenceSet fences, int[] entries, double[] entryBoxes, double[] nodeBoxes,
+                        int[] levelOffsets, boolean wraps) {
+        this.fences = fences;
+        this.entries = entries;
+        this.entryBoxes = entryBoxes;
+        this.nodeBoxes = nodeBoxes;
+        this.levelOffsets = levelOffsets;
+        this.wraps = wraps;
+    }
+
+    /**
+     * Builds a tree on the calling thread.
+     */
+    public static PackedRTree build(FenceSet fences) {
+        try {
+            return new Builder(fences, null, 1).build();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Builds a tree, splitting each pass in up to {@code parallelism} tasks run on
+     * {@code executor}.
+     */
+    public static PackedRTree build(FenceSet fences, ExecutorService executor, int parallelism)
+            throws InterruptedException {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        }
+        return new Builder(fences, executor, parallelism).build();
+    }
+
+    public FenceSet getFences() {
+        return fences;
+    }
+
+    public int getHeight() {
+        return levelOffsets.length - 1;
+    }
+
+    public int getNodeCount() {
+        return levelOffsets[levelOffsets.length - 1];
+    }
+
+    /**
+     * Returns the fence at a position of the Hilbert order, for tests.
+     */
+    int getEntry(int position) {
+        return entries[position];
+    }
+
+    /**
+     * Returns true if the point is inside at least one fence.
+     */
+    public boolean containsAny(double latitude, double longitude) {
+        if (entries.length == 0) return false;
+        int root = levelOffsets.length - 2;
+        if (containsAny(root, 0, latitude, longitude, longitude)) return true;
+        return wraps && (containsAny(root, 0, latitude, longitude + 360, longitude)
+                || containsAny(root, 0, latitude, longitude - 360, longitude));
+    }
+
+    /**
+     * Calls {@code visitor} with the index in the fence set of every fence whose box contains
+     * the point. Candidates still have to be checked with
+     * {@link FenceSet#contains(int, double, double)}; a point right on the antimeridian may
+     * visit a fence twice.
+     */
+    public void forEachCandidate(double latitude, double longitude, Visitor visitor) {
+        if (entries.length == 0) return;
+        int root = levelOffsets.length - 2;
+        visit(root, 0, latitude, longitude, visitor);
+        if (wraps) {
+            visit(root, 0, latitude, longitude + 360, visitor);
+            visit(root, 0, latitude, longitude - 360, visitor);
+        }
+    }
+
+    /**
+     * Calls {@code visitor} with the index in the fence set of every fence whose box comes
+     * within {@code distance} metres of the point, a superset of the fences whose boundary is
+     * that close. Fences may be visited twice near the antimeridian.
+     */
+    public void forEachWithin(double latitude, double longitude, double distance,
+                              Visitor visitor) {
+        if (entries.length == 0) return;
+        double reach = distance * (1 + BOX_MARGIN);
+        double latitudeSpan = GeoMath.metersToLatitudeDegrees(reach);
+        double farLatitude = Math.abs(latitude) + latitudeSpan;
+        int root = levelOffsets.length - 2;
+        if (farLatitude >= 90) {
+            // Every longitude is that close through the pole.
+            visitWithin(root, 0, latitude - latitudeSpan, Double.NEGATIVE_INFINITY,
+                    latitude + latitudeSpan, Double.POSITIVE_INFINITY, visitor);
+            return;
+        }
+        double longitudeSpan = Math.min(180, GeoMath.metersToLongitudeDegrees(reach, farLatitude));
+        double minLongitude = longitude - longitudeSpan;
+        double maxLongitude = longitude + longitudeSpan;
+        visitWithin(root, 0, latitude - latitudeSpan, minLongitude,
+                latitude + latitudeSpan, maxLongitude, visitor);
+        if (wraps || minLongitude < -180 || maxLongitude > 180) {
+            visitWithin(root, 0, latitude - latitudeSpan, minLongitude + 360,
+                    latitude + latitudeSpan, maxLongitude + 360, visitor);
+            visitWithin(root, 0, latitude - latitudeSpan, minLongitude - 360,
+                    latitude + latitudeSpan, maxLongitude - 360, visitor);
+        }
+    }
+
+    /**
+     * @param boxLongitude Longitude compared with the boxes, possibly shifted by 360 degrees.
+     */
+    private boolean containsAny(int level, int node, double latitude, double boxLongitude,
+                                double longitude) {
+        if (!inBox(nodeBoxes, levelOffsets[level] + node, latitude, boxLongitude)) return false;
+        int first = node * NODE_CAPACITY;
+        if (level == 0) {
+            int last = Math.min(first + NODE_CAPACITY, entries.length);
+            for (int i = first; i < last; i++) {
+                if (inBox(entryBoxes, i, latitude, boxLongitude)
+                        && fences.contains(entries[i], latitude, longitude)) return true;
+            }
+            return false;
+        }
+        int last = Math.min(first + NODE_CAPACITY, levelOffsets[level] - levelOffsets[level - 1]);
+        for (int child = first; child < last; child++) {
+            if (containsAny(level - 1, child, latitude, boxLongitude, longitude)) return true;
+        }
+        return false;
+    }
+
+    private void visit(int level, int node, double latitude, double longitude, Visitor visitor) {
+        if (!inBox(nodeBoxes, levelOffsets[level] + node, latitude, longitude)) return;
+        int first = node * NODE_CAPACITY;
+        if (level == 0) {
+            int last = Math.min(first + NODE_CAPACITY, entries.length);
+            for (int i = first; i < last; i++) {
+                if (inBox(entryBoxes, i, latitude, longitude)) visitor.visit(entries[i]);
+            }
+            return;
+        }
+        int last = Math.min(first + NODE_CAPACITY, levelOffsets[level] - levelOffsets[level - 1]);
+        for (int child = first; child < last; child++) {
+            visit(level - 1, child, latitude, longitude, visitor);
+        }
+    }
+
+    private void visitWithin(int level, int node, double minLatitude, double minLongitude,
+                             double maxLatitude, double maxLongitude, Visitor visitor) {
+        if (!intersects(nodeBoxes, levelOffsets[level] + node,
+                minLatitude, minLongitude, maxLatitude, maxLongitude)) return;
+        int first = node * NODE_CAPACITY;
+        if (level == 0) {
+            int last = Math.min(first + NODE_CAPACITY, entries.length);
+            for (int i = first; i < last; i++) {
+                if (intersects(entryBoxes, i, minLatitude, minLongitude, maxLatitude, maxLongitude)) {
+                    visitor.visit(entries[i]);
+                }
+            }
+            return;
+        }
+        int last = Math.min(first + NODE_CAPACITY, levelOffsets[level] - levelOffsets[level - 1]);
+        for (int child = first; child < last; child++) {
+            visitWithin(level - 1, child, minLatitude, minLongitude, maxLatitude, maxLongitude,
+                    visitor);
+        }
+    }
+
+    private static boolean intersects(double[] boxes, int box, double minLatitude,
+                                      double minLongitude, double maxLatitude,
+                                      double maxLongitude) {
+        int b = 4 * box;
+        return boxes[b] <= maxLatitude && boxes[b + 1] <= maxLongitude
+                && boxes[b + 2] >= minLatitude && boxes[b + 3] >= minLongitude;
+    }
+
+    private static boolean inBox(double[] boxes, int box, double latitude, double longitude) {
+        int b = 4 * box;
+        return latitude >= boxes[b] && longitude >= boxes[b + 1]
+                && latitude <= boxes[b + 2] && longitude <= boxes[b + 3];
+    }
+
+    /**
+     * Returns the position of a point of a {@code 2^HILBERT_BITS} square grid along the Hilbert
+     * curve filling it.
+     */
+    static long hilbert(int x, int y) {
+        int max = (1 << HILBERT_BITS) - 1;
+        long d = 0;
+        for (int s = 1 << (HILBERT_BITS - 1); s > 0; s >>= 1) {
+            int rx = (x & s) != 0 ? 1 : 0;
+            int ry = (y & s) != 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // Rotate the quadrant so the curve is continuous.
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = max - x;
+                    y = max - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    public interface Visitor {
+        void visit(int fence);
+    }
+
+    /**
+     * State of one build, each pass is a loop over a range split in chunks.
+     */
+    private static final class Builder {
+        private final FenceSet fences;
+        private final ExecutorService executor;
+        private final int parallelism;
+        private final int size;
+
+        private final double[] fenceBoxes;
+        private final long[] keys;
+
+        /**
+         * Center bounds and antimeridian flag of each chunk of the first pass.
+         */
+        private double[] chunkBounds;
+        private boolean[] chunkWraps;
+
+        Builder(FenceSet fences, ExecutorService executor, int parallelism) {
+            this.fences = fences;
+            this.executor = executor;
+            this.parallelism = executor == null ? 1 : parallelism;
+            this.size = fences.size();
+            fenceBoxes = new double[4 * size];
+            keys = new long[size];
+        }
+
+        PackedRTree build() throws InterruptedException {
+            // Fence boxes and bounds of the centers.
+            final int chunks = chunkCount(size);
+            chunkBounds = new double[4 * chunks];
+            chunkWraps = new boolean[chunks];
+            forEachChunk(size, new Chunk() {
+                @Override
+                public void run(int chunk, int from, int to) {
+                    computeBoxes(chunk, from, to);
+                }
+            });
+            double minLatitude = 90;
+            double minLongitude = 180;
+            double maxLatitude = -90;
+            double maxLongitude = -180;
+            boolean wraps = false;
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                minLatitude = Math.min(minLatitude, chunkBounds[4 * chunk]);
+                minLongitude = Math.min(minLongitude, chunkBounds[4 * chunk + 1]);
+                maxLatitude = Math.max(maxLatitude, chunkBounds[4 * chunk + 2]);
+                maxLongitude = Math.max(maxLongitude, chunkBounds[4 * chunk + 3]);
+                wraps |= chunkWraps[chunk];
+            }
+
+            // Hilbert keys over the bounds of the centers, with the fence index.
+            final double latitudeOrigin = minLatitude;
+            final double longitudeOrigin = minLongitude;
+            int cells = 1 << HILBERT_BITS;
+            final double latitudeScale = (cells - 1) / Math.max(maxLatitude - minLatitude, 1e-9);
+            final double longitudeScale = (cells - 1) / Math.max(maxLongitude - minLongitude, 1e-9);
+            forEachChunk(size, new Chunk() {
+                @Override
+                public void run(int chunk, int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        int y = (int) ((fences.getLatitude(i) - latitudeOrigin) * latitudeScale);
+                        int x = (int) ((fences.getLongitude(i) - longitudeOrigin) * longitudeScale);
+                        keys[i] = (hilbert(x, y) << 32) | i;
+                    }
+                }
+            });
+            sort();
+
+            final int[] entries = new int[size];
+            final double[] entryBoxes = new double[4 * size];
+            forEachChunk(size, new Chunk() {
+                @Override
+                public void run(int chunk, int from, int to) {
+                    for (int i = from; i < to; i++) {
+                        int fence = (int) keys[i];
+                        entries[i] = fence;
+                        System.arraycopy(fenceBoxes, 4 * fence, entryBoxes, 4 * i, 4);
+                    }
+                }
+            });
+
+            // Levels from the leaves up, until a single root.
+            List<Integer> offsets = new ArrayList<>();
+            int nodeCount = 0;
+            int count = size;
+            do {
+                offsets.add(nodeCount);
+                count = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+                nodeCount += count;
+            } while (count > 1);
+            offsets.add(nodeCount);
+            int[] levelOffsets = new int[offsets.size()];
+            for (int i = 0; i < levelOffsets.length; i++) {
+                levelOffsets[i] = offsets.get(i);
+            }
+
+            double[] nodeBoxes = new double[4 * nodeCount];
+            if (size > 0) {
+                pack(entryBoxes, 0, size, nodeBoxes, 0);
+                for (int level = 1; level < levelOffsets.length - 1; level++) {
+                    int childOffset = levelOffsets[level - 1];
+                    pack(nodeBoxes, childOffset, levelOffsets[level] - childOffset,
+                            nodeBoxes, levelOffsets[level]);
+                }
+            }
+            return new PackedRTree(fences, entries, entryBoxes, nodeBoxes, levelOffsets, wraps);
+        }
+
+        private void computeBoxes(int chunk, int from, int to) {
+            double minLatitude = 90;
+            double minLongitude = 180;
+            double maxLatitude = -90;
+            double maxLongitude = -180;
+            boolean wraps = false;
+            for (int i = from; i < to; i++) {
+                double latitude = fences.getLatitude(i);
+                double longitude = fences.getLongitude(i);
+                double reach = fences.getRadius(i) * (1 + BOX_MARGIN);
+                double latitudeSpan = GeoMath.metersToLatitudeDegrees(reach);
+                double farLatitude = Math.abs(latitude) + latitudeSpan;
+                double longitudeSpan = farLatitude >= 90
+                        ? 180 : GeoMath.metersToLongitudeDegrees(reach, farLatitude);
+                int b = 4 * i;
+                fenceBoxes[b] = latitude - latitudeSpan;
+                fenceBoxes[b + 2] = latitude + latitudeSpan;
+                if (longitudeSpan >= 180) {
+                    fenceBoxes[b + 1] = -180;
+                    fenceBoxes[b + 3] = 180;
+                } else {
+                    fenceBoxes[b + 1] = longitude - longitudeSpan;
+                    fenceBoxes[b + 3] = longitude + longitudeSpan;
+                    wraps |= fenceBoxes[b + 1] < -180 || fenceBoxes[b + 3] > 180;
+                }
+                minLatitude = Math.min(minLatitude, latitude);
+                minLongitude = Math.min(minLongitude, longitude);
+                maxLatitude = Math.max(maxLatitude, latitude);
+                maxLongitude = Math.max(maxLongitude, longitude);
+            }
+            chunkBounds[4 * chunk] = minLatitude;
+            chunkBounds[4 * chunk + 1] = minLongitude;
+            chunkBounds[4 * chunk + 2] = maxLatitude;
+            chunkBounds[4 * chunk + 3] = maxLongitude;
+            chunkWraps[chunk] = wraps;
+        }
+
+        /**
+         * Writes the boxes of the parents of {@code count} consecutive boxes.
+         */
+        private void pack(final double[] children, final int childOffset, final int count,
+                          final double[] parents, final int parentOffset)
+                throws InterruptedException {
+            int parentCount = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            forEachChunk(parentCount, new Chunk() {
+                @Override
+                public void run(int chunk, int from, int to) {
+                    for (int parent = from; parent < to; parent++) {
+                        int first = parent * NODE_CAPACITY;
+                        int last = Math.min(first + NODE_CAPACITY, count);
+                        double minLatitude = Double.POSITIVE_INFINITY;
+                        double minLongitude = Double.POSITIVE_INFINITY;
+                        double maxLatitude = Double.NEGATIVE_INFINITY;
+                        double maxLongitude = Double.NEGATIVE_INFINITY;
+                        for (int child = first; child < last; child++) {
+                            int b = 4 * (childOffset + child);
+                            minLatitude = Math.min(minLatitude, children[b]);
+                            minLongitude = Math.min(minLongitude, children[b + 1]);
+                            maxLatitude = Math.max(maxLatitude, children[b + 2]);
+                            maxLongitude = Math.max(maxLongitude, children[b + 3]);
+                        }
+                        int p = 4 * (parentOffset + parent);
+                        parents[p] = minLatitude;
+                        parents[p + 1] = minLongitude;
+                        parents[p + 2] = maxLatitude;
+                        parents[p + 3] = maxLongitude;
+                    }
+                }
+            });
+        }
+
+        /**
+         * Sorts chunks of the keys in parallel, then merges pairs of runs in parallel until one
+         * run is left.
+         */
+        private void sort() throws InterruptedException {
+            final int chunkSize = (size + chunkCount(size) - 1) / chunkCount(size);
+            forEach(chunkCount(size), new Chunk() {
+                @Override
+                public void run(int chunk, int first, int last) {
+                    for (int run = first; run < last; run++) {
+                        Arrays.sort(keys, run * chunkSize, Math.min((run + 1) * chunkSize, size));
+                    }
+                }
+            });
+
+            long[] source = keys;
+            long[] target = new long[size];
+            for (int run = chunkSize; run < size; run *= 2) {
+                final long[] from = source;
+                final long[] to = target;
+                final int runSize = run;
+                int pairs = (size + 2 * run - 1) / (2 * run);
+                forEach(pairs, new Chunk() {
+                    @Override
+                    public void run(int chunk, int first, int last) {
+                        for (int pair = first; pair < last; pair++) {
+                            int start = pair * 2 * runSize;
+                            int middle = Math.min(start + runSize, size);
+                            int end = (int) Math.min((long) start + 2 * runSize, size);
+                            merge(from, start, middle, end, to);
+                        }
+                    }
+                });
+                source = to;
+                target = from;
+            }
+            if (source != keys) {
+                System.arraycopy(source, 0, keys, 0, size);
+            }
+        }
+
+        private static void merge(long[] source, int start, int middle, int end, long[] target) {
+            int i = start;
+            int j = middle;
+            for (int k = start; k < end; k++) {
+                if (j >= end || (i < middle && source[i] <= source[j])) {
+                    target[k] = source[i++];
+                } else {
+                    target[k] = source[j++];
+                }
+            }
+        }
+
+        private int chunkCount(int count) {
+            return Math.max(1, Math.min(parallelism, count / MIN_CHUNK));
+        }
+
+        /**
+         * Runs {@code task} over {@code [0, count)} in chunks of at least {@link #MIN_CHUNK}.
+         */
+        private void forEachChunk(int count, Chunk task) throws InterruptedException {
+            int chunks = chunkCount(count);
+            run(count, chunks, task);
+        }
+
+        /**
+         * Runs {@code task} over {@code [0, count)} split in up to {@link #parallelism} chunks,
+         * for work items that are already large.
+         */
+        private void forEach(int count, Chunk task) throws InterruptedException {
+            run(count, Math.max(1, Math.min(parallelism, count)), task);
+        }
+
+        private void run(int count, int chunks, final Chunk task) throws InterruptedException {
+            if (chunks == 1) {
+                task.run(0, 0, count);
+                return;
+            }
+            List<Callable<Void>> tasks = new ArrayList<>(chunks);
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                final int index = chunk;
+                final int from = (int) ((long) count * chunk / chunks);
+                final int to = (int) ((long) count * (chunk + 1) / chunks);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        task.run(index, from, to);
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        }
+
+        private interface Chunk {
+            void run(int chunk, int from, int to);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.vail.myapplication.engine;
+
+import com.vail.myapplication.geo.GeoMath;
+
+import java.util.Arrays;
+
+/**
+ * Smooths the position fixes of many devices before they are evaluated against fences.
+ *
+ * Fixes whose reported accuracy is worse than {@code maxAccuracy} are dropped, as are fixes
+ * implying a speed above {@code maxSpeed} from the current estimate, even after allowing for
+ * both accuracies. The remaining fixes go through a constant velocity Kalman filter, run
+ * separately on the north and east axes with the reported accuracy as measurement noise. A
+ * device whose fixes keep being rejected, or that wasn't heard from for {@link #RESET_AFTER_MS},
+ * restarts from its next fix.
+ *
+ * State is kept in primitive arrays indexed by device, so filtering doesn't allocate once a
+ * device has been seen. Not thread safe.
+ */
+public class PositionFilter {
+
+    public static final float DEFAULT_MAX_ACCURACY = 100;
+    public static final float DEFAULT_MAX_SPEED = 70;
+
+    /**
+     * Standard deviation of the acceleration in m/s^2, suits walking and steady driving.
+     */
+    public static final double DEFAULT_ACCELERATION_NOISE = 0.5;
+
+    static final long RESET_AFTER_MS = 2 * 60 * 1000;
+    static final int MAX_CONSECUTIVE_REJECTIONS = 5;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final float maxAccuracy;
+    private final float maxSpeed;
+    private final double accelerationVariance;
+
+    private boolean[] tracked = new boolean[0];
+    private long[] times = new long[0];
+    private int[] rejections = new int[0];
+    private double[] latitudes = new double[0];
+    private double[] longitudes = new double[0];
+    private double[] accuracies = new double[0];
+
+    /**
+     * Per axis velocity in m/s and covariance matrix (p00, p01, p11), north first.
+     */
+    private double[] velocities = new double[0];
+    private double[] covariances = new double[0];
+
+    private long acceptedFixes;
+    private long rejectedFixes;
+
+    public PositionFilter() {
+        this(DEFAULT_MAX_ACCURACY, DEFAULT_MAX_SPEED, DEFAULT_ACCELERATION_NOISE);
+    }
+
+    /**
+     * @param maxAccuracy       Worst accepted accuracy radius in metres.
+     * @param maxSpeed          Highest plausible speed in m/s.
+     * @param accelerationNoise Standard deviation of the acceleration in m/s^2, lower values
+     *                          smooth more but lag behind turns.
+     */
+    public PositionFilter(float maxAccuracy, float maxSpeed, double accelerationNoise) {
+        this.maxAccuracy = maxAccuracy;
+        this.maxSpeed = maxSpeed;
+        this.accelerationVariance = accelerationNoise * accelerationNoise;
+    }
+
+    /**
+     * Feeds a fix of {@code device}.
+     *
+     * @param accuracy Accuracy radius in metres, as reported by the location provider.
+     * @param time     Fix time in milliseconds.
+     * @return false if the fix was rejected, the estimate is left unchanged.
+     */
+    public boolean update(int device, double latitude, double longitude, float accuracy, long time) {
+        ensureCapacity(device);
+        if (!(accuracy > 0) || accuracy > maxAccuracy) {
+            rejectedFixes++;
+            return false;
+        }
+
+        long elapsed = time - times[device];
+        if (!tracked[device] || elapsed > RESET_AFTER_MS
+                || rejections[device] >= MAX_CONSECUTIVE_REJECTIONS) {
+            reset(device, latitude, longitude, accuracy, time);
+            return true;
+        }
+        if (elapsed < 0) {
+            rejectedFixes++;
+            return false;
+        }
+
+        double metersPerLongitudeDegree =
+                1 / GeoMath.metersToLongitudeDegrees(1, latitudes[device]);
+        double north = (latitude - latitudes[device]) * GeoMath.METERS_PER_DEGREE;
+        double east = longitudeDelta(longitudes[device], longitude) * metersPerLongitudeDegree;
+        double dt = elapsed / 1000.0;
+
+        // Distance that can't be explained by the position uncertainties.
+        double jump = Math.sqrt(north * north + east * east) - accuracy - accuracies[device];
+        if (jump > maxSpeed * dt) {
+            rejections[device]++;
+            rejectedFixes++;
+            return false;
+        }
+
+        int axis = 2 * device;
+        double variance = (double) accuracy * accuracy;
+        double correctedNorth = correct(axis, north, variance, dt);
+        double correctedEast = correct(axis + 1, east, variance, dt);
+
+        latitudes[device] += correctedNorth / GeoMath.METERS_PER_DEGREE;
+        longitudes[device] = normalizeLongitude(
+                longitudes[device] + correctedEast / metersPerLongitudeDegree);
+        accuracies[device] = Math.sqrt(Math.max(covariances[3 * axis], covariances[3 * axis + 3]));
+        times[device] = time;
+        rejections[device] = 0;
+        acceptedFixes++;
+        return true;
+    }
+
+    /**
+     * Returns the filtered latitude of a device, valid once a fix was accepted.
+     */
+    public double getLatitude(int device) {
+        return latitudes[device];
+    }
+
+    public double getLongitude(int device) {
+        return longitudes[device];
+    }
+
+    /**
+     * Returns the standard deviation in metres of the filtered position.
+     */
+    public double getAccuracy(int device) {
+        return accuracies[device];
+    }
+
+    /**
+     * Returns the filtered speed of a device in m/s.
+     */
+    public double getSpeed(int device) {
+        double north = velocities[2 * device];
+        double east = velocities[2 * device + 1];
+        return Math.sqrt(north * north + east * east);
+    }
+
+    public long getAcceptedFixes() {
+        return acceptedFixes;
+    }
+
+    public long getRejectedFixes() {
+        return rejectedFixes;
+    }
+
+    /**
+     * Predicts one axis over {@code dt} seconds and corrects it with a measurement made
+     * {@code offset} metres from the previous estimate.
+     *
+     * @return the correction of the position in metres, from the previous estimate.
+     */
+    private double correct(int axis, double offset, double variance, double dt) {
+        int c = 3 * axis;
+        double velocity = velocities[axis];
+
+        // Predict: position moves by velocity * dt, white noise acceleration.
+        double dt2 = dt * dt;
+        double p00 = covariances[c] + 2 * dt * covariances[c + 1] + dt2 * covariances[c + 2]
+                + accelerationVariance * dt2 * dt2 / 4;
+        double p01 = covariances[c + 1] + dt * covariances[c + 2]
+                + accelerationVariance * dt2 * dt / 2;
+        double p11 = covariances[c + 2] + accelerationVariance * dt2;
+        double predicted = velocity * dt;
+
+        // Correct with the measured position.
+        double innovation = offset - predicted;
+        double s = p00 + variance;
+        double k0 = p00 / s;
+        double k1 = p01 / s;
+        velocities[axis] = velocity + k1 * innovation;
+        covariances[c] = (1 - k0) * p00;
+        covariances[c + 1] = (1 - k0) * p01;
+        covariances[c + 2] = p11 - k1 * p01;
+        return predicted + k0 * innovation;
+    }
+
+    private void reset(int device, double latitude, double longitude, float accuracy, long time) {
+        tracked[device] = true;
+        times[device] = time;
+        rejections[device] = 0;
+        latitudes[device] = latitude;
+        longitudes[device] = longitude;
+        accuracies[device] = accuracy;
+
+        // Unknown velocity, walking pace uncertainty.
+        double variance = (double) accuracy * accuracy;
+        for (int axis = 2 * device; axis < 2 * device + 2; axis++) {
+            velocities[axis] = 0;
+            int c = 3 * axis;
+            covariances[c] = variance;
+            covariances[c + 1] = 0;
+            covariances[c + 2] = 4;
+        }
+        acceptedFixes++;
+    }
+
+    private static double longitudeDelta(double from, double to) {
+        return normalizeLongitude(to - from);
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        if (longitude > 180) return longitude - 360;
+        if (longitude < -180) return longitude + 360;
+        return longitude;
+    }
+
+    private void ensureCapacity(int device) {
+        if (device < 0) {
+            throw new IllegalArgumentException("Invalid device " + device);
+        }
+        if (device < times.length) return;
+        int capacity = Math.max(Math.max(device + 1, times.length * 2), INITIAL_CAPACITY);
+        tracked = Arrays.copyOf(tracked, capacity);
+        times = Arrays.copyOf(times, capacity);
+        rejections = Arrays.copyOf(rejections, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        accuracies = Arrays.copyOf(accuracies, capacity);
+        velocities = Arrays.copyOf(velocities, 2 * capacity);
+        covariances = Arrays.copyOf(covariances, 6 * capacity);
+    }
+}
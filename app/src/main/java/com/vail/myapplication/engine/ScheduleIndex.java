@@ -0,0 +1,200 @@
+package com.vail.myapplication.engine;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Interval index of the weekly schedules of a set of fences, answering which fences are active
+ * at a given time.
+ *
+ * Every start and end of a schedule period is a breakpoint of the week, and the active fences
+ * only change at breakpoints. The segments between breakpoints are the leaves of a segment
+ * tree, and each period is stored in the O(log n) nodes covering its segments, so a lookup
+ * walks from a leaf to the root and collects the fences of each node: O(log n + k) for k active
+ * fences. Fences without a schedule are always active and kept apart.
+ *
+ * Lookups also return when the active fences next change, so callers only query the index a
+ * few times a day.
+ */
+public final class ScheduleIndex {
+
+    /**
+     * Longest time {@link #nextChange(long)} looks ahead, so a daylight saving time change
+     * delays a schedule change by at most this much.
+     */
+    static final long MAX_LOOKAHEAD_MS = 60 * WeeklySchedule.MILLIS_PER_MINUTE;
+
+    private final TimeZone zone;
+    private final int size;
+    private final int[] alwaysActive;
+
+    /**
+     * Sorted distinct minutes of the week at which the active fences can change, from 0 to
+     * {@link WeeklySchedule#MINUTES_PER_WEEK}.
+     */
+    private final int[] breakpoints;
+
+    /**
+     * Segment tree in heap order, leaves start at {@link #leafOffset}. The fences of node i
+     * are {@code nodeFences[nodeOffsets[i]]} to {@code nodeFences[nodeOffsets[i + 1]]}.
+     */
+    private final int leafOffset;
+    private final int[] nodeOffsets;
+    private final int[] nodeFences;
+
+    /**
+     * @param schedules One entry per fence, null for fences that are always active.
+     * @param zone      Local time of the schedules.
+     */
+    public ScheduleIndex(WeeklySchedule[] schedules, TimeZone zone) {
+        this.zone = zone;
+        size = schedules.length;
+
+        int alwaysCount = 0;
+        int intervalCount = 0;
+        for (WeeklySchedule schedule : schedules) {
+            if (schedule == null) {
+                alwaysCount++;
+            } else {
+                intervalCount += schedule.getIntervalCount();
+            }
+        }
+
+        alwaysActive = new int[alwaysCount];
+        int[] points = new int[2 * intervalCount + 2];
+        int pointCount = 0;
+        points[pointCount++] = 0;
+        points[pointCount++] = WeeklySchedule.MINUTES_PER_WEEK;
+        alwaysCount = 0;
+        for (int fence = 0; fence < schedules.length; fence++) {
+            WeeklySchedule schedule = schedules[fence];
+            if (schedule == null) {
+                alwaysActive[alwaysCount++] = fence;
+                continue;
+            }
+            for (int i = 0; i < schedule.getIntervalCount(); i++) {
+                points[pointCount++] = schedule.getStart(i);
+                points[pointCount++] = schedule.getEnd(i);
+            }
+        }
+        breakpoints = distinct(points);
+
+        int leaves = breakpoints.length - 1;
+        int offset = 1;
+        while (offset < leaves) offset <<= 1;
+        leafOffset = offset;
+
+        // Counts the fences of every node, then fills them in a second pass.
+        nodeOffsets = new int[2 * leafOffset + 1];
+        for (WeeklySchedule schedule : schedules) {
+            if (schedule == null) continue;
+            for (int i = 0; i < schedule.getIntervalCount(); i++) {
+                cover(schedule, i, -1, null);
+            }
+        }
+        for (int node = 1; node < nodeOffsets.length; node++) {
+            nodeOffsets[node] += nodeOffsets[node - 1];
+        }
+        nodeFences = new int[nodeOffsets[nodeOffsets.length - 1]];
+        int[] filled = new int[2 * leafOffset];
+        for (int fence = 0; fence < schedules.length; fence++) {
+            WeeklySchedule schedule = schedules[fence];
+            if (schedule == null) continue;
+            for (int i = 0; i < schedule.getIntervalCount(); i++) {
+                cover(schedule, i, fence, filled);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TimeZone getTimeZone() {
+        return zone;
+    }
+
+    /**
+     * Returns the number of distinct times of the week at which the active fences can change.
+     */
+    public int getBreakpointCount() {
+        return breakpoints.length - 2;
+    }
+
+    /**
+     * Returns the positions of the fences active at {@code time}, in ascending order.
+     */
+    public int[] activeAt(long time) {
+        return activeAt(WeeklySchedule.minuteOfWeek(time, zone));
+    }
+
+    public int[] activeAt(int minuteOfWeek) {
+        int node = leafOffset + segmentOf(minuteOfWeek);
+        int count = alwaysActive.length;
+        for (int n = node; n >= 1; n >>= 1) {
+            count += nodeOffsets[n + 1] - nodeOffsets[n];
+        }
+        int[] active = Arrays.copyOf(alwaysActive, count);
+        count = alwaysActive.length;
+        for (int n = node; n >= 1; n >>= 1) {
+            int length = nodeOffsets[n + 1] - nodeOffsets[n];
+            System.arraycopy(nodeFences, nodeOffsets[n], active, count, length);
+            count += length;
+        }
+        // The periods of a fence are disjoint, each fence shows up once.
+        Arrays.sort(active);
+        return active;
+    }
+
+    /**
+     * Returns a time after {@code time} no later than the next change of the active fences.
+     */
+    public long nextChange(long time) {
+        long millisOfWeek = WeeklySchedule.millisOfWeek(time, zone);
+        int segment = segmentOf((int) (millisOfWeek / WeeklySchedule.MILLIS_PER_MINUTE));
+        long next = time + breakpoints[segment + 1] * WeeklySchedule.MILLIS_PER_MINUTE - millisOfWeek;
+        return Math.min(next, time + MAX_LOOKAHEAD_MS);
+    }
+
+    /**
+     * Returns the segment containing a minute, the last breakpoint not after it.
+     */
+    private int segmentOf(int minuteOfWeek) {
+        int index = Arrays.binarySearch(breakpoints, minuteOfWeek);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Walks the nodes covering an interval of a schedule. Counts the node sizes, shifted by
+     * one, when {@code filled} is null, otherwise stores {@code fence} in each node.
+     */
+    private void cover(WeeklySchedule schedule, int interval, int fence, int[] filled) {
+        int low = Arrays.binarySearch(breakpoints, schedule.getStart(interval)) + leafOffset;
+        int high = Arrays.binarySearch(breakpoints, schedule.getEnd(interval)) + leafOffset;
+        while (low < high) {
+            if ((low & 1) != 0) add(low++, fence, filled);
+            if ((high & 1) != 0) add(--high, fence, filled);
+            low >>= 1;
+            high >>= 1;
+        }
+    }
+
+    private void add(int node, int fence, int[] filled) {
+        if (filled == null) {
+            nodeOffsets[node + 1]++;
+        } else {
+            nodeFences[nodeOffsets[node] + filled[node]++] = fence;
+        }
+    }
+
+    private static int[] distinct(int[] values) {
+        Arrays.sort(values);
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[count - 1]) {
+                values[count++] = values[i];
+            }
+        }
+        return Arrays.copyOf(values, count);
+    }
+}
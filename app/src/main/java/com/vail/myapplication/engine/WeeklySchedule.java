@@ -0,0 +1,232 @@
+package com.vail.myapplication.engine;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Immutable set of weekly periods during which a fence is active, such as business hours.
+ *
+ * Periods are kept in minutes of the week, from Monday 00:00 local time, as sorted disjoint
+ * intervals. A period running over midnight or over the end of the week is split, so periods
+ * starting on Sunday evening end on Monday morning as expected.
+ */
+public final class WeeklySchedule {
+
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    public static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+
+    public static final int MONDAY = 0;
+    public static final int FRIDAY = 4;
+    public static final int SUNDAY = 6;
+
+    static final long MILLIS_PER_MINUTE = 60 * 1000;
+    static final long MILLIS_PER_WEEK = MINUTES_PER_WEEK * MILLIS_PER_MINUTE;
+
+    /**
+     * The epoch was a Thursday, the Monday before is 3 days earlier.
+     */
+    private static final long EPOCH_MILLIS_OF_WEEK = 3 * MINUTES_PER_DAY * MILLIS_PER_MINUTE;
+
+    private final int[] starts;
+    private final int[] ends;
+
+    private WeeklySchedule(int[] starts, int[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    public int getIntervalCount() {
+        return starts.length;
+    }
+
+    /**
+     * Returns the first minute of the week of an interval, included.
+     */
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * Returns the last minute of the week of an interval, excluded.
+     */
+    public int getEnd(int index) {
+        return ends[index];
+    }
+
+    public boolean isActive(int minuteOfWeek) {
+        return find(minuteOfWeek) >= 0;
+    }
+
+    public boolean isActive(long time, TimeZone zone) {
+        return isActive(minuteOfWeek(time, zone));
+    }
+
+    /**
+     * Returns when the active period containing {@code time} ends, {@link Long#MAX_VALUE} if the
+     * schedule is always active, or {@code time} if it isn't active then. Computed with the
+     * offset of the zone at {@code time}.
+     */
+    public long activeUntil(long time, TimeZone zone) {
+        long millisOfWeek = millisOfWeek(time, zone);
+        int index = find((int) (millisOfWeek / MILLIS_PER_MINUTE));
+        if (index < 0) return time;
+
+        long until = time + ends[index] * MILLIS_PER_MINUTE - millisOfWeek;
+        if (ends[index] == MINUTES_PER_WEEK && starts[0] == 0) {
+            // Continues with the first interval of the next week.
+            if (starts.length == 1) return Long.MAX_VALUE;
+            until += ends[0] * MILLIS_PER_MINUTE;
+        }
+        return until;
+    }
+
+    /**
+     * Returns the minute of the week of a time, from Monday 00:00 in {@code zone}.
+     */
+    public static int minuteOfWeek(long time, TimeZone zone) {
+        return (int) (millisOfWeek(time, zone) / MILLIS_PER_MINUTE);
+    }
+
+    static long millisOfWeek(long time, TimeZone zone) {
+        long local = time + zone.getOffset(time) + EPOCH_MILLIS_OF_WEEK;
+        long millis = local % MILLIS_PER_WEEK;
+        return millis < 0 ? millis + MILLIS_PER_WEEK : millis;
+    }
+
+    private int find(int minuteOfWeek) {
+        int low = 0;
+        int high = starts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] <= minuteOfWeek) {
+                low = mid + 1;
+            } else if (starts[mid] > minuteOfWeek) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof WeeklySchedule)) return false;
+        WeeklySchedule that = (WeeklySchedule) o;
+        return Arrays.equals(starts, that.starts) && Arrays.equals(ends, that.ends);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(starts) + Arrays.hashCode(ends);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("WeeklySchedule[");
+        for (int i = 0; i < starts.length; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(starts[i]).append('-').append(ends[i]);
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * Collects periods, overlapping ones are merged.
+     */
+    public static final class Builder {
+
+        private int[] starts = new int[8];
+        private int[] ends = new int[8];
+        private int size;
+
+        /**
+         * Adds a period of a day.
+         *
+         * @param day         {@link #MONDAY} to {@link #SUNDAY}.
+         * @param startMinute Minute of the day the period starts.
+         * @param endMinute   Minute of the day the period ends, excluded. Up to a day after the
+         *                    start, periods ending after midnight continue on the next day.
+         */
+        public Builder add(int day, int startMinute, int endMinute) {
+            if (day < MONDAY || day > SUNDAY) {
+                throw new IllegalArgumentException("Invalid day " + day);
+            }
+            if (startMinute < 0 || startMinute >= MINUTES_PER_DAY
+                    || endMinute <= startMinute || endMinute > startMinute + MINUTES_PER_DAY) {
+                throw new IllegalArgumentException(
+                        "Invalid period " + startMinute + "-" + endMinute);
+            }
+            int start = day * MINUTES_PER_DAY + startMinute;
+            int end = day * MINUTES_PER_DAY + endMinute;
+            if (end > MINUTES_PER_WEEK) {
+                append(start, MINUTES_PER_WEEK);
+                append(0, end - MINUTES_PER_WEEK);
+            } else {
+                append(start, end);
+            }
+            return this;
+        }
+
+        /**
+         * Adds a period in minutes of the week, as returned by {@link #getStart(int)} and
+         * {@link #getEnd(int)}.
+         *
+         * @param start First minute of the week, included.
+         * @param end   Last minute of the week, excluded. At most {@link #MINUTES_PER_WEEK}.
+         */
+        public Builder addMinutesOfWeek(int start, int end) {
+            if (start < 0 || end <= start || end > MINUTES_PER_WEEK) {
+                throw new IllegalArgumentException("Invalid period " + start + "-" + end);
+            }
+            append(start, end);
+            return this;
+        }
+
+        /**
+         * Adds the same period to every day from {@code firstDay} to {@code lastDay}, included.
+         */
+        public Builder addDays(int firstDay, int lastDay, int startMinute, int endMinute) {
+            for (int day = firstDay; day <= lastDay; day++) {
+                add(day, startMinute, endMinute);
+            }
+            return this;
+        }
+
+        public WeeklySchedule build() {
+            long[] intervals = new long[size];
+            for (int i = 0; i < size; i++) {
+                intervals[i] = (long) starts[i] << 32 | ends[i];
+            }
+            Arrays.sort(intervals);
+
+            int[] mergedStarts = new int[size];
+            int[] mergedEnds = new int[size];
+            int count = 0;
+            for (long interval : intervals) {
+                int start = (int) (interval >>> 32);
+                int end = (int) interval;
+                if (count > 0 && start <= mergedEnds[count - 1]) {
+                    mergedEnds[count - 1] = Math.max(mergedEnds[count - 1], end);
+                } else {
+                    mergedStarts[count] = start;
+                    mergedEnds[count] = end;
+                    count++;
+                }
+            }
+            return new WeeklySchedule(Arrays.copyOf(mergedStarts, count),
+                    Arrays.copyOf(mergedEnds, count));
+        }
+
+        private void append(int start, int end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.vail.myapplication.engine;
+
+import com.vail.myapplication.geo.DistancePrecision;
+import com.vail.myapplication.geo.FenceDistance;
+
+import java.util.Arrays;
+
+/**
+ * Evaluates the combined zone state of many devices.
+ *
+ * Applies the same rule as the geofence service: a device is in the zone when it is inside any
+ * fence or when its selected wifi network is accessible. Devices are identified by small
+ * non-negative integers and their state is kept in primitive arrays. Fixes reported with an
+ * accuracy go through a {@link PositionFilter} first, if one is set.
+ *
+ * Given a maximum speed, a fence is only checked again once the device could have reached its
+ * boundary: each device keeps its fences in a min-heap ordered by the earliest time they can be
+ * crossed, computed from the distance to the boundary at the last check. The cost of a fix is
+ * then proportional to the number of nearby fences. The result is the same as checking every
+ * fence as long as devices don't move faster than the given speed.
+ *
+ * The heap of a device only holds the fences within {@link #CANDIDATE_DISTANCE} of the fix it
+ * was filled at, so memory grows with the fences near each device rather than with all of them.
+ * The other fences are at least half that far from any position within half that distance of
+ * the fix, the heap is filled again once the device goes further. Heaps keep their arrays when
+ * they are filled again, and the fences to put in them are looked up in the
+ * {@link PackedRTree} of the index.
+ *
+ * Fences can be replaced while evaluating by publishing a new {@link FenceIndex} through the
+ * {@link FenceIndex.Source}. The evaluator picks it up on the next fix without locking, and
+ * devices are checked against every new fence on their next fix.
+ *
+ * Without a maximum speed, every fence is checked on every fix by the {@link ContainmentKernel},
+ * or placed with the {@link CellCovering} of the index if it has one, which needs no distance
+ * computation for most positions. The covering is only built for all the fences, it isn't used
+ * while schedules leave some of them out.
+ *
+ * When the index carries {@link ScheduleIndex schedules}, only the fences active at the time
+ * of the fix are evaluated. The active fences are looked up again when the schedules say they
+ * change, and they replace the evaluated fences like a new index would.
+ *
+ * Not thread safe, events are expected to come from a single thread.
+ */
+public class ZoneEvaluator {
+
+    /**
+     * Distance in metres from a device to the boundary of the fences in its heap.
+     */
+    static final double CANDIDATE_DISTANCE = 5000;
+
+    private final FenceIndex.Source source;
+    private final PositionFilter filter;
+    private final float maxSpeed;
+    private final Listener listener;
+
+    private boolean[] inGeofence = new boolean[0];
+    private boolean[] wifiAccessible = new boolean[0];
+    private CrossingQueue[] crossingQueues = new CrossingQueue[0];
+
+    private FenceIndex index;
+    private FenceSet fences;
+    private ContainmentKernel kernel;
+    private PackedRTree tree;
+    private CellCovering covering;
+
+    /**
+     * Fences visited by the last tree lookup.
+     */
+    private int[] candidates = new int[16];
+    private int candidateCount;
+    private final PackedRTree.Visitor candidateVisitor = new PackedRTree.Visitor() {
+        @Override
+        public void visit(int fence) {
+            if (candidateCount == candidates.length) {
+                candidates = Arrays.copyOf(candidates, candidateCount * 2);
+            }
+            candidates[candidateCount++] = fence;
+        }
+    };
+
+    /**
+     * Positions in the index of the evaluated fences, null when evaluating all of them, and the
+     * time range over which they stay active.
+     */
+    private int[] activeFences;
+    private long scheduleCheckedAt;
+    private long nextScheduleChange = Long.MIN_VALUE;
+
+    private long checkedFences;
+    private long cellAnswers;
+
+    public ZoneEvaluator(FenceSet fences, Listener listener) {
+        this(fences, null, listener);
+    }
+
+    public ZoneEvaluator(FenceSet fences, PositionFilter filter, Listener listener) {
+        this(fences, filter, 0, listener);
+    }
+
+    /**
+     * @param maxSpeed Highest speed of the devices in m/s, used to skip the fences they can't
+     *                 have crossed since their last fix. 0 checks every fence on every fix.
+     */
+    public ZoneEvaluator(FenceSet fences, PositionFilter filter, float maxSpeed, Listener listener) {
+        this(constantSource(new FenceIndex(fences, 0)), filter, maxSpeed, listener);
+    }
+
+    /**
+     * @param source Publishes the fences to evaluate, polled on every fix.
+     */
+    public ZoneEvaluator(FenceIndex.Source source, PositionFilter filter, float maxSpeed,
+                         Listener listener) {
+        if (maxSpeed < 0) {
+            throw new IllegalArgumentException("Invalid speed " + maxSpeed);
+        }
+        this.source = source;
+        this.filter = filter;
+        this.maxSpeed = maxSpeed;
+        this.listener = listener;
+        refresh();
+    }
+
+    private static FenceIndex.Source constantSource(final FenceIndex index) {
+        return new FenceIndex.Source() {
+            @Override
+            public FenceIndex getIndex() {
+                return index;
+            }
+        };
+    }
+
+    /**
+     * Returns the fences evaluated by the last fix.
+     */
+    public FenceSet getFences() {
+        return fences;
+    }
+
+    public long getFenceVersion() {
+        return index.getVersion();
+    }
+
+    public void onPosition(int device, double latitude, double longitude, long time) {
+        ensureCapacity(device);
+        refresh();
+        refreshSchedule(time);
+        boolean geofence = maxSpeed > 0
+                ? isInsideAnyFence(device, latitude, longitude, time)
+                : isInsideAnyFence(latitude, longitude);
+        update(device, wifiAccessible[device], geofence, time);
+    }
+
+    /**
+     * Evaluates a fix with its accuracy radius in metres. The filtered position is evaluated
+     * instead of the fix, and rejected fixes are ignored.
+     */
+    public void onPosition(int device, double latitude, double longitude, float accuracy, long time) {
+        if (filter == null) {
+            onPosition(device, latitude, longitude, time);
+        } else if (filter.update(device, latitude, longitude, accuracy, time)) {
+            onPosition(device, filter.getLatitude(device), filter.getLongitude(device), time);
+        }
+    }
+
+    public void onWifi(int device, boolean accessible, long time) {
+        ensureCapacity(device);
+        update(device, accessible, inGeofence[device], time);
+    }
+
+    public boolean isInZone(int device) {
+        return device < inGeofence.length && (inGeofence[device] || wifiAccessible[device]);
+    }
+
+    /**
+     * Returns the number of exact fence checks made so far. Without culling, every fix counts
+     * as a check of every fence, except the fixes placed with a cell covering which aren't
+     * counted.
+     */
+    public long getCheckedFences() {
+        return checkedFences;
+    }
+
+    /**
+     * Returns the number of fixes the cell covering placed inside or outside every fence
+     * without checking any.
+     */
+    public long getCellAnswers() {
+        return cellAnswers;
+    }
+
+    /**
+     * Returns the number of fences in the heap of a device, for tests.
+     */
+    int getQueuedFences(int device) {
+        CrossingQueue queue = device < crossingQueues.length ? crossingQueues[device] : null;
+        return queue == null ? 0 : queue.size;
+    }
+
+    /**
+     * Switches to the published fences if they changed. The crossing queues refer to the old
+     * fences by position, they are emptied whenever the evaluated fences change.
+     */
+    private void refresh() {
+        FenceIndex latest = source.getIndex();
+        if (latest == index) return;
+        index = latest;
+        activeFences = null;
+        nextScheduleChange = Long.MIN_VALUE;
+        use(latest.getFences(), latest.newKernel(), latest.getTree(), latest.getCellCovering());
+    }
+
+    /**
+     * Switches to the fences active at {@code time} if they changed.
+     */
+    private void refreshSchedule(long time) {
+        ScheduleIndex schedules = index.getSchedules();
+        if (schedules == null || (time >= scheduleCheckedAt && time < nextScheduleChange)) return;
+        scheduleCheckedAt = time;
+        nextScheduleChange = schedules.nextChange(time);
+
+        int[] active = schedules.activeAt(time);
+        if (Arrays.equals(active, activeFences)) return;
+        activeFences = active;
+        FenceSet subset = index.getFences().subset(active);
+        use(subset, new ContainmentKernel(subset), PackedRTree.build(subset), null);
+    }
+
+    private void use(FenceSet fences, ContainmentKernel kernel, PackedRTree tree,
+                     CellCovering covering) {
+        this.fences = fences;
+        this.kernel = kernel;
+        this.tree = tree;
+        this.covering = covering;
+        for (CrossingQueue queue : crossingQueues) {
+            if (queue != null) queue.clear();
+        }
+    }
+
+    private void update(int device, boolean wifi, boolean geofence, long time) {
+        boolean oldInZone = inGeofence[device] || wifiAccessible[device];
+        wifiAccessible[device] = wifi;
+        inGeofence[device] = geofence;
+        if ((wifi || geofence) != oldInZone) {
+            listener.onZoneChanged(device, wifi || geofence, time);
+        }
+    }
+
+    private boolean isInsideAnyFence(double latitude, double longitude) {
+        if (covering != null) {
+            int location = covering.locate(latitude, longitude);
+            if (location == CellCovering.INTERIOR || location == CellCovering.EXTERIOR) {
+                cellAnswers++;
+            }
+            return location == CellCovering.INTERIOR || location == CellCovering.BOUNDARY_INSIDE;
+        }
+        checkedFences += fences.size();
+        return kernel.containsAny(latitude, longitude);
+    }
+
+    /**
+     * Checks only the fences whose earliest crossing time has come, after filling the heap
+     * again if the device left the area it was filled for.
+     */
+    private boolean isInsideAnyFence(int device, double latitude, double longitude, long time) {
+        CrossingQueue queue = crossingQueues[device];
+        if (queue == null) {
+            queue = new CrossingQueue();
+            crossingQueues[device] = queue;
+        }
+        if (time < queue.lastTime) {
+            // Out of order fix, the crossing times don't hold anymore.
+            queue.clear();
+        }
+        queue.lastTime = time;
+
+        if (queue.origin == null
+                || queue.origin.distanceTo(latitude, longitude) > CANDIDATE_DISTANCE / 2) {
+            fill(queue, latitude, longitude, time);
+        } else {
+            while (queue.size > 0 && queue.times[0] <= time) {
+                double boundary = boundary(queue.fences[0], latitude, longitude);
+                queue.replaceTop(crossingTime(boundary, time), boundary <= 0);
+            }
+        }
+        return queue.insideCount > 0;
+    }
+
+    /**
+     * Puts the fences within {@link #CANDIDATE_DISTANCE} of the position in the heap.
+     */
+    private void fill(CrossingQueue queue, double latitude, double longitude, long time) {
+        queue.clear();
+        candidateCount = 0;
+        tree.forEachWithin(latitude, longitude, CANDIDATE_DISTANCE, candidateVisitor);
+        // In fence order, without the fences visited twice near the antimeridian.
+        Arrays.sort(candidates, 0, candidateCount);
+        for (int i = 0; i < candidateCount; i++) {
+            int fence = candidates[i];
+            if (i > 0 && fence == candidates[i - 1]) continue;
+            double boundary = boundary(fence, latitude, longitude);
+            if (boundary <= CANDIDATE_DISTANCE) {
+                queue.add(fence, crossingTime(boundary, time), boundary <= 0);
+            }
+        }
+        queue.heapify();
+        queue.origin = DistancePrecision.HAVERSINE.forCenter(latitude, longitude);
+    }
+
+    /**
+     * Checks a fence.
+     *
+     * @return the distance to its boundary, negative inside.
+     */
+    private double boundary(int fence, double latitude, double longitude) {
+        checkedFences++;
+        return fences.distance(fence, latitude, longitude) - fences.getRadius(fence);
+    }
+
+    /**
+     * Returns the earliest time at which the device can cross a boundary at the given distance.
+     */
+    private long crossingTime(double boundary, long time) {
+        // At least a millisecond later, so a fix never checks a fence twice.
+        return time + Math.max(1, (long) (Math.abs(boundary) / maxSpeed * 1000));
+    }
+
+    private void ensureCapacity(int device) {
+        if (device < 0) {
+            throw new IllegalArgumentException("Invalid device " + device);
+        }
+        if (device < inGeofence.length) return;
+        int capacity = Math.max(device + 1, inGeofence.length * 2);
+        inGeofence = Arrays.copyOf(inGeofence, capacity);
+        wifiAccessible = Arrays.copyOf(wifiAccessible, capacity);
+        crossingQueues = Arrays.copyOf(crossingQueues, capacity);
+    }
+
+    public interface Listener {
+        void onZoneChanged(int device, boolean inZone, long time);
+    }
+
+    /**
+     * Fences near one device in a binary min-heap of their earliest crossing times, with the
+     * last known inside state of each of them.
+     */
+    private static final class CrossingQueue {
+        long[] times = new long[16];
+        int[] fences = new int[16];
+        boolean[] inside = new boolean[16];
+        int size;
+        int insideCount;
+        long lastTime = Long.MIN_VALUE;
+
+        /**
+         * Position the heap was filled at, null until it is filled.
+         */
+        FenceDistance origin;
+
+        void clear() {
+            size = 0;
+            insideCount = 0;
+            origin = null;
+        }
+
+        void add(int fence, long time, boolean inside) {
+            if (size == times.length) {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                fences = Arrays.copyOf(fences, capacity);
+                this.inside = Arrays.copyOf(this.inside, capacity);
+            }
+            times[size] = time;
+            fences[size] = fence;
+            this.inside[size] = inside;
+            if (inside) insideCount++;
+            size++;
+        }
+
+        void heapify() {
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        void replaceTop(long time, boolean inside) {
+            if (inside != this.inside[0]) {
+                insideCount += inside ? 1 : -1;
+            }
+            times[0] = time;
+            this.inside[0] = inside;
+            siftDown(0);
+        }
+
+        private void siftDown(int index) {
+            long time = times[index];
+            int fence = fences[index];
+            boolean fenceInside = inside[index];
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= size) break;
+                if (child + 1 < size && times[child + 1] < times[child]) child++;
+                if (times[child] >= time) break;
+                times[index] = times[child];
+                fences[index] = fences[child];
+                inside[index] = inside[child];
+                index = child;
+            }
+            times[index] = time;
+            fences[index] = fence;
+            inside[index] = fenceInside;
+        }
+    }
+}
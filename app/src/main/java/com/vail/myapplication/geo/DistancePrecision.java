@@ -0,0 +1,264 @@
+package com.vail.myapplication.geo;
+
+/**
+ * Ways of computing the distance from a fence center, from the cheapest to the most exact.
+ *
+ * Containment only depends on the accuracy of distances close to the fence boundary, so the
+ * precision of a fence is picked by {@link #select(double, double, double)} from its radius and
+ * latitude, using the error bounds below. They are bounds of the difference with the WGS84
+ * geodesic distance for points within {@code distance} metres of a center at {@code latitude}:
+ *
+ * <ul>
+ * <li>{@link #PLANAR}: flat projection scaled by the WGS84 radii of curvature at the center.
+ * The error comes from the scale changing with latitude and is at most
+ * {@code d^2 * (|tan(latitude)| + 0.01) / (2 * R)} plus a millimetre: under 4 cm for the 530 m
+ * largest radius of the radius seek bar at 60 degrees. Not used above {@link #MAX_PLANAR_LATITUDE}.</li>
+ * <li>{@link #HAVERSINE}: great circle on a sphere of the Gaussian radius of curvature at the
+ * center. Ignores the flattening, the error is at most {@code 0.0035 * d} for distances up to
+ * a few hundred kilometres.</li>
+ * <li>{@link #ELLIPSOIDAL}: Vincenty's inverse formula on the WGS84 ellipsoid, accurate to
+ * within a millimetre.</li>
+ * </ul>
+ */
+public enum DistancePrecision {
+
+    PLANAR {
+        @Override
+        public double maxError(double distance, double latitude) {
+            if (Math.abs(latitude) > MAX_PLANAR_LATITUDE) return Double.POSITIVE_INFINITY;
+            double tan = Math.abs(Math.tan(Math.toRadians(latitude)));
+            return distance * distance * (tan + 0.01) / (2 * GeoMath.EARTH_RADIUS) + 0.001;
+        }
+
+        @Override
+        public FenceDistance forCenter(double latitude, double longitude) {
+            return new Planar(latitude, longitude);
+        }
+    },
+
+    HAVERSINE {
+        @Override
+        public double maxError(double distance, double latitude) {
+            return 0.0035 * distance;
+        }
+
+        @Override
+        public FenceDistance forCenter(double latitude, double longitude) {
+            return new Haversine(latitude, longitude);
+        }
+    },
+
+    ELLIPSOIDAL {
+        @Override
+        public double maxError(double distance, double latitude) {
+            return 0.001;
+        }
+
+        @Override
+        public FenceDistance forCenter(double latitude, double longitude) {
+            return new Ellipsoidal(latitude, longitude);
+        }
+    };
+
+    /**
+     * Default accuracy target in metres, well below GPS accuracy.
+     */
+    public static final double DEFAULT_TOLERANCE = 0.5;
+
+    public static final double MAX_PLANAR_LATITUDE = 85;
+
+    /**
+     * WGS84 semi-major axis, flattening and first eccentricity squared.
+     */
+    static final double WGS84_A = 6378137.0;
+    static final double WGS84_F = 1 / 298.257223563;
+    static final double WGS84_B = WGS84_A * (1 - WGS84_F);
+    static final double WGS84_E2 = WGS84_F * (2 - WGS84_F);
+
+    /**
+     * Returns a bound in metres of the error of a distance up to {@code distance} metres from a
+     * center at {@code latitude}.
+     */
+    public abstract double maxError(double distance, double latitude);
+
+    /**
+     * Returns a distance function from the given center.
+     */
+    public abstract FenceDistance forCenter(double latitude, double longitude);
+
+    /**
+     * Returns the cheapest precision whose error at the fence boundary is within
+     * {@code tolerance} metres.
+     */
+    public static DistancePrecision select(double radius, double latitude, double tolerance) {
+        if (PLANAR.maxError(radius, latitude) <= tolerance) return PLANAR;
+        if (HAVERSINE.maxError(radius, latitude) <= tolerance) return HAVERSINE;
+        return ELLIPSOIDAL;
+    }
+
+    /**
+     * Returns the distance function of a fence, picked for {@link #DEFAULT_TOLERANCE}.
+     */
+    public static FenceDistance forFence(double latitude, double longitude, double radius) {
+        return select(radius, latitude, DEFAULT_TOLERANCE).forCenter(latitude, longitude);
+    }
+
+    /**
+     * Returns the length in metres of a degree of latitude at the given latitude, the scale
+     * of the {@link #PLANAR} mode.
+     */
+    public static double metersPerLatitudeDegree(double latitude) {
+        double sin = Math.sin(Math.toRadians(latitude));
+        double w = Math.sqrt(1 - WGS84_E2 * sin * sin);
+        return Math.toRadians(WGS84_A * (1 - WGS84_E2) / (w * w * w));
+    }
+
+    /**
+     * Returns the length in metres of a degree of longitude at the given latitude.
+     */
+    public static double metersPerLongitudeDegree(double latitude) {
+        double phi = Math.toRadians(latitude);
+        double sin = Math.sin(phi);
+        double w = Math.sqrt(1 - WGS84_E2 * sin * sin);
+        return Math.toRadians(WGS84_A / w * Math.cos(phi));
+    }
+
+    /**
+     * Returns the longitude difference normalized to [-180, 180].
+     */
+    static double longitudeDelta(double longitude1, double longitude2) {
+        double delta = longitude2 - longitude1;
+        if (delta > 180) return delta - 360;
+        if (delta < -180) return delta + 360;
+        return delta;
+    }
+
+    private static final class Planar implements FenceDistance {
+        private final double latitude;
+        private final double longitude;
+        private final double metersPerLatitudeDegree;
+        private final double metersPerLongitudeDegree;
+
+        Planar(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            metersPerLatitudeDegree = metersPerLatitudeDegree(latitude);
+            metersPerLongitudeDegree = metersPerLongitudeDegree(latitude);
+        }
+
+        @Override
+        public double distanceTo(double latitude, double longitude) {
+            double dy = (latitude - this.latitude) * metersPerLatitudeDegree;
+            double dx = longitudeDelta(this.longitude, longitude) * metersPerLongitudeDegree;
+            return Math.sqrt(dx * dx + dy * dy);
+        }
+
+        @Override
+        public DistancePrecision getPrecision() {
+            return PLANAR;
+        }
+    }
+
+    private static final class Haversine implements FenceDistance {
+        private final double latitude;
+        private final double longitude;
+        private final double cosLatitude;
+        private final double radius;
+
+        Haversine(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            double phi = Math.toRadians(latitude);
+            cosLatitude = Math.cos(phi);
+            double sin = Math.sin(phi);
+            double w2 = 1 - WGS84_E2 * sin * sin;
+            radius = WGS84_A * Math.sqrt(1 - WGS84_E2) / w2;
+        }
+
+        @Override
+        public double distanceTo(double latitude, double longitude) {
+            double sinLatitude = Math.sin(Math.toRadians(latitude - this.latitude) / 2);
+            double sinLongitude = Math.sin(Math.toRadians(longitudeDelta(this.longitude, longitude)) / 2);
+            double a = sinLatitude * sinLatitude
+                    + cosLatitude * Math.cos(Math.toRadians(latitude)) * sinLongitude * sinLongitude;
+            return 2 * radius * Math.asin(Math.min(1, Math.sqrt(a)));
+        }
+
+        @Override
+        public DistancePrecision getPrecision() {
+            return HAVERSINE;
+        }
+    }
+
+    private static final class Ellipsoidal implements FenceDistance {
+        private static final int MAX_ITERATIONS = 200;
+
+        private final double longitude;
+        private final double sinU1;
+        private final double cosU1;
+        private final Haversine fallback;
+
+        Ellipsoidal(double latitude, double longitude) {
+            this.longitude = longitude;
+            double u1 = Math.atan((1 - WGS84_F) * Math.tan(Math.toRadians(latitude)));
+            sinU1 = Math.sin(u1);
+            cosU1 = Math.cos(u1);
+            fallback = new Haversine(latitude, longitude);
+        }
+
+        /**
+         * Vincenty's inverse formula. Falls back to the spherical distance for nearly antipodal
+         * points, where the iteration doesn't converge.
+         */
+        @Override
+        public double distanceTo(double latitude, double longitude) {
+            double u2 = Math.atan((1 - WGS84_F) * Math.tan(Math.toRadians(latitude)));
+            double sinU2 = Math.sin(u2);
+            double cosU2 = Math.cos(u2);
+            double l = Math.toRadians(longitudeDelta(this.longitude, longitude));
+
+            double lambda = l;
+            double sinSigma;
+            double cosSigma;
+            double sigma;
+            double cos2Alpha;
+            double cos2SigmaM;
+            int iterations = 0;
+            double previous;
+            do {
+                double sinLambda = Math.sin(lambda);
+                double cosLambda = Math.cos(lambda);
+                double t1 = cosU2 * sinLambda;
+                double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+                sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+                if (sinSigma == 0) return 0;
+                cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+                sigma = Math.atan2(sinSigma, cosSigma);
+                double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+                cos2Alpha = 1 - sinAlpha * sinAlpha;
+                cos2SigmaM = cos2Alpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cos2Alpha : 0;
+                double c = WGS84_F / 16 * cos2Alpha * (4 + WGS84_F * (4 - 3 * cos2Alpha));
+                previous = lambda;
+                lambda = l + (1 - c) * WGS84_F * sinAlpha * (sigma + c * sinSigma
+                        * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+            } while (Math.abs(lambda - previous) > 1e-12 && ++iterations < MAX_ITERATIONS);
+
+            if (iterations >= MAX_ITERATIONS) {
+                return fallback.distanceTo(latitude, longitude);
+            }
+
+            double uSquared = cos2Alpha * (WGS84_A * WGS84_A - WGS84_B * WGS84_B) / (WGS84_B * WGS84_B);
+            double a = 1 + uSquared / 16384 * (4096 + uSquared * (-768 + uSquared * (320 - 175 * uSquared)));
+            double b = uSquared / 1024 * (256 + uSquared * (-128 + uSquared * (74 - 47 * uSquared)));
+            double deltaSigma = b * sinSigma * (cos2SigmaM + b / 4 * (cosSigma
+                    * (-1 + 2 * cos2SigmaM * cos2SigmaM) - b / 6 * cos2SigmaM
+                    * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+            return WGS84_B * a * (sigma - deltaSigma);
+        }
+
+        @Override
+        public DistancePrecision getPrecision() {
+            return ELLIPSOIDAL;
+        }
+    }
+}
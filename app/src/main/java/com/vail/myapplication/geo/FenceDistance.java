@@ -0,0 +1,11 @@
+package com.vail.myapplication.geo;
+
+/**
+ * Distance in metres from a fixed fence center.
+ */
+public interface FenceDistance {
+
+    double distanceTo(double latitude, double longitude);
+
+    DistancePrecision getPrecision();
+}
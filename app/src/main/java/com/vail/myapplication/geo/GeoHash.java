@@ -0,0 +1,115 @@
+package com.vail.myapplication.geo;
+
+/**
+ * Binary geohash cells packed into a {@code long}.
+ *
+ * A cell of {@code bits} precision interleaves {@code bits / 2} longitude bits and
+ * {@code bits / 2} latitude bits, longitude first, like the string geohash. Only even
+ * precisions up to {@link #MAX_BITS} are supported, so cells of one precision form a regular
+ * grid of {@code 2^(bits/2)} columns and rows that can be addressed by integer coordinates.
+ */
+public final class GeoHash {
+
+    public static final int MAX_BITS = 62;
+
+    private GeoHash() {}
+
+    /**
+     * Returns the cell containing the given point.
+     */
+    public static long encode(double latitude, double longitude, int bits) {
+        return fromGrid(row(latitude, bits), column(longitude, bits), bits);
+    }
+
+    /**
+     * Returns the cell at the given grid coordinates.
+     */
+    public static long fromGrid(int row, int column, int bits) {
+        checkBits(bits);
+        int half = bits / 2;
+        long hash = 0;
+        for (int i = half - 1; i >= 0; i--) {
+            hash = (hash << 1) | ((column >>> i) & 1);
+            hash = (hash << 1) | ((row >>> i) & 1);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the grid row of the latitude, clamped to the grid.
+     */
+    public static int row(double latitude, int bits) {
+        return clamp((int) Math.floor((latitude + 90) / 180 * gridSize(bits)), bits);
+    }
+
+    /**
+     * Returns the grid column of the longitude, clamped to the grid.
+     */
+    public static int column(double longitude, int bits) {
+        return clamp((int) Math.floor((longitude + 180) / 360 * gridSize(bits)), bits);
+    }
+
+    public static int gridRow(long hash, int bits) {
+        return deinterleave(hash, 0, bits);
+    }
+
+    public static int gridColumn(long hash, int bits) {
+        return deinterleave(hash, 1, bits);
+    }
+
+    /**
+     * Returns the number of rows (and columns) of the grid.
+     */
+    public static int gridSize(int bits) {
+        return 1 << (bits / 2);
+    }
+
+    /**
+     * Returns the height of a cell in degrees of latitude.
+     */
+    public static double cellHeight(int bits) {
+        return 180.0 / gridSize(bits);
+    }
+
+    /**
+     * Returns the width of a cell in degrees of longitude.
+     */
+    public static double cellWidth(int bits) {
+        return 360.0 / gridSize(bits);
+    }
+
+    public static double minLatitude(long hash, int bits) {
+        return gridRow(hash, bits) * cellHeight(bits) - 90;
+    }
+
+    public static double minLongitude(long hash, int bits) {
+        return gridColumn(hash, bits) * cellWidth(bits) - 180;
+    }
+
+    /**
+     * Returns the cell of {@code bits} precision containing the given finer cell.
+     */
+    public static long parent(long hash, int fromBits, int bits) {
+        return hash >>> (fromBits - bits);
+    }
+
+    private static int deinterleave(long hash, int offset, int bits) {
+        int half = bits / 2;
+        int value = 0;
+        for (int i = half - 1; i >= 0; i--) {
+            value = (value << 1) | (int) ((hash >>> (2 * i + offset)) & 1);
+        }
+        return value;
+    }
+
+    private static int clamp(int index, int bits) {
+        int max = gridSize(bits) - 1;
+        return index < 0 ? 0 : index > max ? max : index;
+    }
+
+    private static void checkBits(int bits) {
+        if (bits <= 0 || bits > MAX_BITS || (bits & 1) != 0) {
+            throw new IllegalArgumentException("Unsupported geohash precision: " + bits);
+        }
+    }
+}
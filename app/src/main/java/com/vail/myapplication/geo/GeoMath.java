@@ -0,0 +1,43 @@
+package com.vail.myapplication.geo;
+
+/**
+ * Conversions between metres and degrees.
+ */
+public final class GeoMath {
+
+    /**
+     * Mean earth radius in metres.
+     */
+    public static final double EARTH_RADIUS = 6371008.8;
+
+    public static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS / 180;
+
+    private GeoMath() {}
+
+    public static double metersToLatitudeDegrees(double meters) {
+        return meters / METERS_PER_DEGREE;
+    }
+
+    /**
+     * Returns the longitude span of {@code meters} at the given latitude, never less than the
+     * latitude span. Close to the poles the span is capped to the whole circle.
+     */
+    public static double metersToLongitudeDegrees(double meters, double latitude) {
+        double cos = Math.cos(Math.toRadians(Math.min(Math.abs(latitude), 89.999)));
+        return Math.min(360, meters / (METERS_PER_DEGREE * cos));
+    }
+
+    /**
+     * Returns the initial bearing from the first point to the second one, in degrees clockwise
+     * from north.
+     */
+    public static double bearing(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double dLongitude = Math.toRadians(longitude2 - longitude1);
+        double y = Math.sin(dLongitude) * Math.cos(phi2);
+        double x = Math.cos(phi1) * Math.sin(phi2)
+                - Math.sin(phi1) * Math.cos(phi2) * Math.cos(dLongitude);
+        return (Math.toDegrees(Math.atan2(y, x)) + 360) % 360;
+    }
+}
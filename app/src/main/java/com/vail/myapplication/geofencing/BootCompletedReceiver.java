@@ -0,0 +1,25 @@
+package com.vail.myapplication.geofencing;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.vail.myapplication.Constants;
+
+/**
+ * Forgets the registered geofences after a reboot, Location Services doesn't keep them. The next
+ * time geofences are added, all of them are registered again and the ones the device is inside
+ * are entered again.
+ */
+public class BootCompletedReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) return;
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        new GeofenceRegistry(sharedPreferences, Constants.REGISTERED_GEOFENCES_KEY).clear();
+        sharedPreferences.edit().remove(Constants.INSIDE_GEOFENCES_KEY).apply();
+    }
+}
@@ -0,0 +1,140 @@
+package com.vail.myapplication.geofencing;
+
+import com.google.android.gms.location.Geofence;
+import com.vail.myapplication.engine.WeeklySchedule;
+
+import java.util.TimeZone;
+
+/**
+ * Immutable description of a circular geofence.
+ *
+ * Unlike {@link Geofence}, which only exposes its request id, this keeps every parameter that is
+ * sent to Location Services, so two fences can be compared by content.
+ *
+ * A fence can have a {@link WeeklySchedule}, in which case it should only be registered while
+ * active: {@link #activeAt(long, TimeZone)} returns the fence to register, which expires when
+ * its active period ends.
+ */
+public final class CircularFence {
+
+    private final String requestId;
+    private final double latitude;
+    private final double longitude;
+    private final float radius;
+    private final long expirationDuration;
+    private final int transitionTypes;
+    private final WeeklySchedule schedule;
+
+    /**
+     * End of the active period the fence is registered for, {@link Long#MAX_VALUE} if none.
+     */
+    private final long activeUntil;
+
+    public CircularFence(String requestId, double latitude, double longitude, float radius,
+                         long expirationDuration, int transitionTypes) {
+        this(requestId, latitude, longitude, radius, expirationDuration, transitionTypes, null);
+    }
+
+    /**
+     * @param schedule When the fence is active, null if it always is.
+     */
+    public CircularFence(String requestId, double latitude, double longitude, float radius,
+                         long expirationDuration, int transitionTypes, WeeklySchedule schedule) {
+        this(requestId, latitude, longitude, radius, expirationDuration, transitionTypes, schedule,
+                Long.MAX_VALUE);
+    }
+
+    private CircularFence(String requestId, double latitude, double longitude, float radius,
+                          long expirationDuration, int transitionTypes, WeeklySchedule schedule,
+                          long activeUntil) {
+        this.requestId = requestId;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+        this.expirationDuration = expirationDuration;
+        this.transitionTypes = transitionTypes;
+        this.schedule = schedule;
+        this.activeUntil = activeUntil;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    public long getExpirationDuration() {
+        return expirationDuration;
+    }
+
+    public int getTransitionTypes() {
+        return transitionTypes;
+    }
+
+    public WeeklySchedule getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * Returns the fence to register at {@code time}: this fence if it has no schedule, null if
+     * it isn't active, or a fence that expires at the end of the active period.
+     */
+    public CircularFence activeAt(long time, TimeZone zone) {
+        if (schedule == null) return this;
+        long until = schedule.activeUntil(time, zone);
+        if (until <= time) return null;
+        return new CircularFence(requestId, latitude, longitude, radius, expirationDuration,
+                transitionTypes, schedule, until);
+    }
+
+    /**
+     * Returns the expiration duration to register at {@code time}, shortened to the end of
+     * the active period.
+     */
+    public long getExpirationDuration(long time) {
+        if (activeUntil == Long.MAX_VALUE) return expirationDuration;
+        long remaining = Math.max(1, activeUntil - time);
+        return expirationDuration == Geofence.NEVER_EXPIRE
+                ? remaining : Math.min(expirationDuration, remaining);
+    }
+
+    /**
+     * Returns a hash of everything but the request id. Two fences with the same id and the same
+     * content hash do not need to be registered again.
+     */
+    public int contentHash() {
+        int result = hashLong(Double.doubleToLongBits(latitude));
+        result = 31 * result + hashLong(Double.doubleToLongBits(longitude));
+        result = 31 * result + Float.floatToIntBits(radius);
+        result = 31 * result + hashLong(expirationDuration);
+        result = 31 * result + transitionTypes;
+        if (activeUntil != Long.MAX_VALUE) {
+            // The end of the active period is fixed, unlike the duration left until then.
+            result = 31 * result + hashLong(activeUntil);
+        }
+        return result;
+    }
+
+    public Geofence toGeofence() {
+        return new Geofence.Builder()
+                .setRequestId(requestId)
+                .setCircularRegion(latitude, longitude, radius)
+                .setExpirationDuration(getExpirationDuration(System.currentTimeMillis()))
+                .setTransitionTypes(transitionTypes)
+                .build();
+    }
+
+    private static int hashLong(long value) {
+        return (int) (value ^ (value >>> 32));
+    }
+}
@@ -0,0 +1,225 @@
+package com.vail.myapplication.geofencing;
+
+import android.content.SharedPreferences;
+
+import com.vail.myapplication.geo.DistancePrecision;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fences merged into each registered {@link FenceCoalescer.Cover}, persisted in
+ * {@link SharedPreferences} so the geofence service can resolve a cover transition into the
+ * fences actually entered.
+ *
+ * A fence registered alone keeps its own request id, it is stored as a cover of itself so a
+ * position can be {@link #place placed} against every registered geofence.
+ */
+public class CoverIndex {
+
+    private static final char SEPARATOR = '|';
+
+    private final SharedPreferences sharedPreferences;
+    private final String key;
+    private final Map<String, List<CircularFence>> members = new HashMap<>();
+    private final Map<String, CircularFence> alone = new HashMap<>();
+
+    public CoverIndex(SharedPreferences sharedPreferences, String key) {
+        this.sharedPreferences = sharedPreferences;
+        this.key = key;
+
+        Set<String> stored = sharedPreferences.getStringSet(key, null);
+        if (stored == null) return;
+        for (String entry : stored) {
+            CircularFence member = parse(entry);
+            if (member == null) continue;
+            String coverId = entry.substring(0, entry.indexOf(SEPARATOR));
+            if (coverId.equals(member.getRequestId())) {
+                alone.put(coverId, member);
+                continue;
+            }
+            List<CircularFence> list = members.get(coverId);
+            if (list == null) {
+                list = new ArrayList<>();
+                members.put(coverId, list);
+            }
+            list.add(member);
+        }
+    }
+
+    public boolean isCover(String requestId) {
+        return members.containsKey(requestId);
+    }
+
+    /**
+     * Returns the request ids of the fences of a cover containing a position, none if the cover
+     * isn't known.
+     */
+    public List<String> resolve(String coverId, double latitude, double longitude) {
+        List<String> resolved = new ArrayList<>();
+        List<CircularFence> list = members.get(coverId);
+        if (list != null) {
+            FenceCoalescer.Cover.resolve(list, latitude, longitude, resolved);
+        }
+        return resolved;
+    }
+
+    /**
+     * Returns the request ids of every fence of a cover.
+     */
+    public List<String> getMemberIds(String coverId) {
+        List<String> ids = new ArrayList<>();
+        List<CircularFence> list = members.get(coverId);
+        if (list != null) {
+            for (CircularFence member : list) {
+                ids.add(member.getRequestId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Classifies the registered geofences against a position known within {@code accuracy}
+     * metres. Only the geofences and fences surely containing the position, or surely not, are
+     * placed, the others are left as they are.
+     *
+     * A cover is inside when one of its fences surely contains the position and outside when
+     * none can, like its transitions once resolved.
+     */
+    public Placement place(double latitude, double longitude, float accuracy) {
+        Placement placement = new Placement();
+        for (CircularFence fence : alone.values()) {
+            int side = side(fence, latitude, longitude, accuracy);
+            if (side != 0) {
+                (side > 0 ? placement.inside : placement.outside).add(fence.getRequestId());
+                (side > 0 ? placement.insideFences : placement.outsideFences)
+                        .add(fence.getRequestId());
+            }
+        }
+        for (Map.Entry<String, List<CircularFence>> entry : members.entrySet()) {
+            boolean inside = false;
+            boolean outside = true;
+            for (CircularFence member : entry.getValue()) {
+                int side = side(member, latitude, longitude, accuracy);
+                if (side != 0) {
+                    (side > 0 ? placement.insideFences : placement.outsideFences)
+                            .add(member.getRequestId());
+                }
+                inside |= side > 0;
+                outside &= side < 0;
+            }
+            if (inside) {
+                placement.inside.add(entry.getKey());
+            } else if (outside) {
+                placement.outside.add(entry.getKey());
+            }
+        }
+        return placement;
+    }
+
+    /**
+     * Returns 1 if a fence surely contains the position, -1 if it surely doesn't, 0 if the
+     * accuracy can't tell.
+     */
+    private static int side(CircularFence fence, double latitude, double longitude,
+                            float accuracy) {
+        double distance = DistancePrecision.HAVERSINE.forCenter(fence.getLatitude(),
+                fence.getLongitude()).distanceTo(latitude, longitude);
+        if (distance + accuracy <= fence.getRadius()) return 1;
+        if (distance - accuracy > fence.getRadius()) return -1;
+        return 0;
+    }
+
+    /**
+     * Stores the covers, keeping only the previous ones whose ids are in {@code keep},
+     * typically those still registered.
+     */
+    public void update(List<FenceCoalescer.Cover> covers, Collection<String> keep) {
+        Set<String> kept = new HashSet<>(keep);
+        members.keySet().retainAll(kept);
+        alone.keySet().retainAll(kept);
+        for (FenceCoalescer.Cover cover : covers) {
+            String coverId = cover.getFence().getRequestId();
+            if (cover.isMerged()) {
+                members.put(coverId, cover.getMembers());
+                alone.remove(coverId);
+            } else {
+                alone.put(coverId, cover.getFence());
+                members.remove(coverId);
+            }
+        }
+
+        Set<String> entries = new HashSet<>();
+        for (Map.Entry<String, List<CircularFence>> entry : members.entrySet()) {
+            for (CircularFence member : entry.getValue()) {
+                entries.add(entry(entry.getKey(), member));
+            }
+        }
+        for (CircularFence fence : alone.values()) {
+            entries.add(entry(fence.getRequestId(), fence));
+        }
+        sharedPreferences.edit()
+                .putStringSet(key, entries)
+                .apply();
+    }
+
+    private static String entry(String coverId, CircularFence member) {
+        return coverId + SEPARATOR + member.getRequestId()
+                + SEPARATOR + member.getLatitude() + SEPARATOR + member.getLongitude()
+                + SEPARATOR + member.getRadius();
+    }
+
+    /**
+     * Parses {@code cover|member|latitude|longitude|radius}, the member id may contain the
+     * separator.
+     */
+    private static CircularFence parse(String entry) {
+        int first = entry.indexOf(SEPARATOR);
+        int radiusStart = entry.lastIndexOf(SEPARATOR);
+        int longitudeStart = entry.lastIndexOf(SEPARATOR, radiusStart - 1);
+        int latitudeStart = entry.lastIndexOf(SEPARATOR, longitudeStart - 1);
+        if (first < 0 || latitudeStart <= first) return null;
+        try {
+            return new CircularFence(entry.substring(first + 1, latitudeStart),
+                    Double.parseDouble(entry.substring(latitudeStart + 1, longitudeStart)),
+                    Double.parseDouble(entry.substring(longitudeStart + 1, radiusStart)),
+                    Float.parseFloat(entry.substring(radiusStart + 1)),
+                    0, 0);
+        } catch (NumberFormatException e) {
+            // Skip a corrupted entry, the cover resolves to fewer fences.
+            return null;
+        }
+    }
+
+    /**
+     * Request ids of the registered geofences and of the fences a position was placed in or
+     * out of.
+     */
+    public static final class Placement {
+        private final List<String> inside = new ArrayList<>();
+        private final List<String> outside = new ArrayList<>();
+        private final List<String> insideFences = new ArrayList<>();
+        private final List<String> outsideFences = new ArrayList<>();
+
+        public List<String> getInsideIds() {
+            return inside;
+        }
+
+        public List<String> getOutsideIds() {
+            return outside;
+        }
+
+        public List<String> getInsideFenceIds() {
+            return insideFences;
+        }
+
+        public List<String> getOutsideFenceIds() {
+            return outsideFences;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.vail.myapplication.geofencing;
+
+import com.google.android.gms.location.Geofence;
+import com.vail.myapplication.geo.DistancePrecision;
+import com.vail.myapplication.geo.FenceDistance;
+import com.vail.myapplication.geo.GeoMath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges clusters of nearby fences into covering circles, so more fences fit in the
+ * registrations Location Services allows.
+ *
+ * Clusters are merged greedily, the pair whose covering circle adds the least area first, until
+ * there are few enough clusters. A merge is refused when the covering circle would be more than
+ * {@code maxAreaRatio} times the total area of its fences, which bounds the area where a cover
+ * fires while no fence would have. Only the {@link #NEIGHBOURS} nearest clusters of each one
+ * are considered, so coalescing n fences takes O(n^2) distance computations at worst.
+ *
+ * Scheduled fences are never merged: their registration expires with their active period.
+ * A cover registers with the union of the enter and exit transitions of its fences and expires
+ * with the last of them. Dwell transitions aren't merged, a cover has no loitering delay. When it fires, the fences actually entered are resolved with {@link
+ * Cover#resolve}.
+ */
+public class FenceCoalescer {
+
+    public static final double DEFAULT_MAX_AREA_RATIO = 4;
+
+    /**
+     * Request id prefix of the covering fences.
+     */
+    public static final String COVER_PREFIX = "cover-";
+
+    static final int NEIGHBOURS = 8;
+
+    private static final int COVER_TRANSITIONS =
+            Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT;
+
+    private final double maxAreaRatio;
+
+    public FenceCoalescer() {
+        this(DEFAULT_MAX_AREA_RATIO);
+    }
+
+    public FenceCoalescer(double maxAreaRatio) {
+        if (maxAreaRatio < 1) {
+            throw new IllegalArgumentException("Invalid area ratio " + maxAreaRatio);
+        }
+        this.maxAreaRatio = maxAreaRatio;
+    }
+
+    /**
+     * Merges fences until there are at most {@code maxCovers} covers, or until no merge is
+     * allowed anymore, in which case there are more.
+     *
+     * @return The covers, in the order of their first fence. A cover of a single fence
+     *         registers that fence unchanged.
+     */
+    public List<Cover> coalesce(List<CircularFence> fences, int maxCovers) {
+        if (fences.isEmpty()) return new ArrayList<>();
+
+        // Merged on a local plane in metres, the covers are measured exactly at the end.
+        double originLatitude = fences.get(0).getLatitude();
+        double originLongitude = fences.get(0).getLongitude();
+        double metersPerLongitude = GeoMath.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(originLatitude));
+
+        List<Cluster> clusters = new ArrayList<>(2 * fences.size());
+        for (int i = 0; i < fences.size(); i++) {
+            CircularFence fence = fences.get(i);
+            double longitude = fence.getLongitude() - originLongitude;
+            if (longitude > 180) longitude -= 360;
+            if (longitude < -180) longitude += 360;
+            clusters.add(new Cluster(i, fence,
+                    longitude * metersPerLongitude,
+                    (fence.getLatitude() - originLatitude) * GeoMath.METERS_PER_DEGREE));
+        }
+
+        PriorityQueue<Merge> merges = new PriorityQueue<>();
+        for (Cluster cluster : clusters) {
+            addMerges(cluster, clusters, merges);
+        }
+        int live = clusters.size();
+        while (live > maxCovers && !merges.isEmpty()) {
+            Merge merge = merges.poll();
+            if (merge.a.merged || merge.b.merged) continue;
+            merge.a.merged = true;
+            merge.b.merged = true;
+            Cluster cluster = new Cluster(merge.a, merge.b);
+            clusters.add(cluster);
+            addMerges(cluster, clusters, merges);
+            live--;
+        }
+
+        List<Cluster> remaining = new ArrayList<>(live);
+        for (Cluster cluster : clusters) {
+            if (!cluster.merged) remaining.add(cluster);
+        }
+        Collections.sort(remaining, new Comparator<Cluster>() {
+            @Override
+            public int compare(Cluster a, Cluster b) {
+                return a.first - b.first;
+            }
+        });
+        List<Cover> covers = new ArrayList<>(remaining.size());
+        for (Cluster cluster : remaining) {
+            covers.add(toCover(cluster, originLatitude, originLongitude, metersPerLongitude));
+        }
+        return covers;
+    }
+
+    /**
+     * Queues the allowed merges of a cluster with its nearest live clusters.
+     */
+    private void addMerges(Cluster cluster, List<Cluster> clusters, PriorityQueue<Merge> merges) {
+        if (cluster.scheduled) return;
+        Cluster[] nearest = new Cluster[NEIGHBOURS];
+        double[] distances = new double[NEIGHBOURS];
+        Arrays.fill(distances, Double.MAX_VALUE);
+        for (Cluster other : clusters) {
+            if (other == cluster || other.merged || other.scheduled) continue;
+            double distance = Math.hypot(other.x - cluster.x, other.y - cluster.y)
+                    - other.radius - cluster.radius;
+            if (distance >= distances[NEIGHBOURS - 1]) continue;
+            int index = NEIGHBOURS - 1;
+            while (index > 0 && distances[index - 1] > distance) {
+                distances[index] = distances[index - 1];
+                nearest[index] = nearest[index - 1];
+                index--;
+            }
+            distances[index] = distance;
+            nearest[index] = other;
+        }
+        for (Cluster other : nearest) {
+            if (other == null) break;
+            Cluster merged = new Cluster(cluster, other);
+            if (merged.area() > maxAreaRatio * merged.fenceArea) continue;
+            merges.add(new Merge(cluster, other, merged.area() - cluster.area() - other.area()));
+        }
+    }
+
+    private static Cover toCover(Cluster cluster, double originLatitude, double originLongitude,
+                                 double metersPerLongitude) {
+        if (cluster.fences.size() == 1) {
+            return new Cover(cluster.fences.get(0), cluster.fences);
+        }
+        double latitude = originLatitude + cluster.y / GeoMath.METERS_PER_DEGREE;
+        double longitude = originLongitude + cluster.x / metersPerLongitude;
+        if (longitude > 180) longitude -= 360;
+        if (longitude < -180) longitude += 360;
+
+        FenceDistance center = DistancePrecision.HAVERSINE.forCenter(latitude, longitude);
+        double radius = 0;
+        long expiration = 0;
+        int transitionTypes = 0;
+        List<String> ids = new ArrayList<>(cluster.fences.size());
+        for (CircularFence fence : cluster.fences) {
+            radius = Math.max(radius,
+                    center.distanceTo(fence.getLatitude(), fence.getLongitude()) + fence.getRadius());
+            if (expiration != Geofence.NEVER_EXPIRE) {
+                expiration = fence.getExpirationDuration() == Geofence.NEVER_EXPIRE
+                        ? Geofence.NEVER_EXPIRE : Math.max(expiration, fence.getExpirationDuration());
+            }
+            transitionTypes |= fence.getTransitionTypes() & COVER_TRANSITIONS;
+            ids.add(fence.getRequestId());
+        }
+        if (transitionTypes == 0) {
+            // Only dwelling fences, reported when entered and left like the others.
+            transitionTypes = COVER_TRANSITIONS;
+        }
+        // The id only depends on the fences, so a cover never changes members.
+        Collections.sort(ids);
+        String requestId = COVER_PREFIX + Integer.toHexString(ids.hashCode()) + "-" + ids.size();
+        CircularFence fence = new CircularFence(requestId, latitude, longitude,
+                (float) Math.ceil(radius), expiration, transitionTypes);
+        return new Cover(fence, cluster.fences);
+    }
+
+    /**
+     * A fence to register and the fences it stands for.
+     */
+    public static final class Cover {
+        private final CircularFence fence;
+        private final List<CircularFence> members;
+
+        Cover(CircularFence fence, List<CircularFence> members) {
+            this.fence = fence;
+            this.members = Collections.unmodifiableList(members);
+        }
+
+        public CircularFence getFence() {
+            return fence;
+        }
+
+        public List<CircularFence> getMembers() {
+            return members;
+        }
+
+        public boolean isMerged() {
+            return members.size() > 1;
+        }
+
+        /**
+         * Returns the area of the cover divided by the total area of its fences.
+         */
+        public double getAreaRatio() {
+            double area = 0;
+            for (CircularFence member : members) {
+                area += (double) member.getRadius() * member.getRadius();
+            }
+            return (double) fence.getRadius() * fence.getRadius() / area;
+        }
+
+        /**
+         * Adds the request ids of the fences containing a position to {@code out}.
+         */
+        public void resolve(double latitude, double longitude, List<String> out) {
+            resolve(members, latitude, longitude, out);
+        }
+
+        static void resolve(List<CircularFence> members, double latitude, double longitude,
+                            List<String> out) {
+            for (CircularFence member : members) {
+                FenceDistance distance = DistancePrecision.HAVERSINE.forCenter(
+                        member.getLatitude(), member.getLongitude());
+                if (distance.distanceTo(latitude, longitude) <= member.getRadius()) {
+                    out.add(member.getRequestId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Covering circle of some fences on the local plane.
+     */
+    private static final class Cluster {
+        final int first;
+        final List<CircularFence> fences;
+        final boolean scheduled;
+        final double x;
+        final double y;
+        final double radius;
+        final double fenceArea;
+        boolean merged;
+
+        Cluster(int index, CircularFence fence, double x, double y) {
+            first = index;
+            fences = Collections.singletonList(fence);
+            scheduled = fence.getSchedule() != null;
+            this.x = x;
+            this.y = y;
+            radius = fence.getRadius();
+            fenceArea = radius * radius;
+        }
+
+        /**
+         * The smallest circle covering the circles of two clusters.
+         */
+        Cluster(Cluster a, Cluster b) {
+            first = Math.min(a.first, b.first);
+            fences = new ArrayList<>(a.fences.size() + b.fences.size());
+            fences.addAll(a.fences);
+            fences.addAll(b.fences);
+            scheduled = false;
+            fenceArea = a.fenceArea + b.fenceArea;
+
+            double distance = Math.hypot(b.x - a.x, b.y - a.y);
+            if (distance + b.radius <= a.radius) {
+                x = a.x;
+                y = a.y;
+                radius = a.radius;
+            } else if (distance + a.radius <= b.radius) {
+                x = b.x;
+                y = b.y;
+                radius = b.radius;
+            } else {
+                radius = (distance + a.radius + b.radius) / 2;
+                double t = (radius - a.radius) / distance;
+                x = a.x + (b.x - a.x) * t;
+                y = a.y + (b.y - a.y) * t;
+            }
+        }
+
+        /**
+         * Area divided by pi, like {@link #fenceArea}.
+         */
+        double area() {
+            return radius * radius;
+        }
+    }
+
+    private static final class Merge implements Comparable<Merge> {
+        final Cluster a;
+        final Cluster b;
+        final double cost;
+
+        Merge(Cluster a, Cluster b, double cost) {
+            this.a = a;
+            this.b = b;
+            this.cost = cost;
+        }
+
+        @Override
+        public int compareTo(Merge other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.vail.myapplication.geofencing;
+
+/**
+ * Reactive streams interfaces, the same as {@code java.util.concurrent.Flow} which isn't
+ * available before API 30.
+ *
+ * A subscriber receives {@link Subscriber#onSubscribe} first, then at most as many
+ * {@link Subscriber#onNext} calls as it requested through its {@link Subscription}, then
+ * possibly {@link Subscriber#onComplete} or {@link Subscriber#onError}. Calls to one subscriber
+ * never overlap.
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+        /**
+         * Adds {@code n} items to the demand, {@link Long#MAX_VALUE} for no limit. A
+         * non-positive {@code n} fails the subscription with an
+         * {@link IllegalArgumentException}.
+         */
+        void request(long n);
+
+        /**
+         * Stops the delivery of items, possibly after some already being delivered.
+         */
+        void cancel();
+    }
+}
@@ -0,0 +1,201 @@
+package com.vail.myapplication.geofencing;
+
+import android.util.Log;
+
+import com.google.android.gms.location.Geofence;
+import com.vail.myapplication.Constants;
+import com.vail.myapplication.catalogue.FenceCatalogue;
+import com.vail.myapplication.catalogue.TileCache;
+import com.vail.myapplication.engine.ScheduleIndex;
+import com.vail.myapplication.engine.WeeklySchedule;
+import com.vail.myapplication.geo.DistancePrecision;
+import com.vail.myapplication.geo.FenceDistance;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Geofences to register at a given time: the user's geofence and the catalogue fences closest
+ * to it, merged into covers when they don't fit in the Location Services limit. Fences outside
+ * their schedule are left out, and the list tells when the active fences next change so it can
+ * be built again then.
+ *
+ * Built on {@link #LOADER} by the presenter and by the {@link ScheduleAlarmReceiver}. Immutable.
+ */
+public final class GeofenceList {
+
+    private static final String TAG = "GeofenceList";
+
+    /**
+     * Request id of the user's geofence.
+     */
+    public static final String USER_FENCE_ID = "First";
+
+    /**
+     * Reads the catalogue tiles and merges the fences, one list at a time since
+     * {@link TileCache} and {@link FenceCoalescer} aren't thread safe.
+     */
+    public static final Executor LOADER = Executors.newSingleThreadExecutor();
+
+    private final List<CircularFence> fences;
+    private final List<FenceCoalescer.Cover> covers;
+    private final long nextChange;
+
+    private GeofenceList(List<CircularFence> fences, List<FenceCoalescer.Cover> covers,
+                         long nextChange) {
+        this.fences = fences;
+        this.covers = covers;
+        this.nextChange = nextChange;
+    }
+
+    /**
+     * Builds the list at {@code now} around the user's geofence. Reads the catalogue and merges
+     * up to {@link Constants#MAX_COALESCED_FENCES} fences, which takes a while: run it on
+     * {@link #LOADER}. Without a readable catalogue, only the user's geofence is in the list.
+     *
+     * @param fenceTiles Catalogue of the fences around the user's geofence, null if none.
+     */
+    public static GeofenceList build(double latitude, double longitude, float radius,
+                                     TileCache fenceTiles, FenceCoalescer coalescer, long now) {
+        TimeZone zone = TimeZone.getDefault();
+        List<CircularFence> fences = new ArrayList<>();
+        CircularFence userFence = new CircularFence(
+                USER_FENCE_ID,
+                latitude,
+                longitude,
+                radius,
+                Constants.GEOFENCE_EXPIRATION_IN_MILLISECONDS,
+                Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT);
+        addIfActive(fences, userFence, now, zone);
+        // The user's geofence is a cover of itself, so the CoverIndex knows where it is.
+        List<FenceCoalescer.Cover> covers = new ArrayList<>();
+        for (CircularFence fence : fences) {
+            covers.add(new FenceCoalescer.Cover(fence, Collections.singletonList(fence)));
+        }
+        if (fenceTiles == null) {
+            return new GeofenceList(fences, covers, Long.MAX_VALUE);
+        }
+
+        List<CircularFence> nearby = loadCatalogueFences(fenceTiles, latitude, longitude);
+        List<CircularFence> active = new ArrayList<>(nearby.size());
+        for (CircularFence fence : nearby) {
+            addIfActive(active, fence, now, zone);
+        }
+        for (FenceCoalescer.Cover cover : coalesce(coalescer, latitude, longitude, active,
+                Constants.MAX_GEOFENCES - fences.size())) {
+            fences.add(cover.getFence());
+            covers.add(cover);
+        }
+        return new GeofenceList(fences, covers, nextChange(nearby, now, zone));
+    }
+
+    /**
+     * Adds a fence if its schedule makes it active at {@code now}, so inactive fences take no
+     * registration slot. Scheduled fences expire at the end of their active period.
+     */
+    private static void addIfActive(List<CircularFence> fences, CircularFence fence, long now,
+                                    TimeZone zone) {
+        CircularFence active = fence.activeAt(now, zone);
+        if (active != null) fences.add(active);
+    }
+
+    /**
+     * Returns the catalogue fences within {@link Constants#CATALOGUE_FENCE_DISTANCE} of the
+     * given point, active or not, or none if the catalogue can't be read. Only the catalogue
+     * tiles around the point are loaded.
+     */
+    private static List<CircularFence> loadCatalogueFences(TileCache fenceTiles,
+                                                           double latitude, double longitude) {
+        final FenceDistance center = DistancePrecision.HAVERSINE.forCenter(latitude, longitude);
+        final List<CircularFence> nearby = new ArrayList<>();
+        try {
+            fenceTiles.forEachCandidate(latitude, longitude, Constants.CATALOGUE_FENCE_DISTANCE,
+                    new FenceCatalogue.Visitor() {
+                        @Override
+                        public void visit(FenceCatalogue catalogue, int index) {
+                            double fenceLatitude = catalogue.getLatitude(index);
+                            double fenceLongitude = catalogue.getLongitude(index);
+                            if (center.distanceTo(fenceLatitude, fenceLongitude)
+                                    > Constants.CATALOGUE_FENCE_DISTANCE) return;
+                            nearby.add(new CircularFence(
+                                    "catalogue-" + catalogue.getId(index),
+                                    fenceLatitude,
+                                    fenceLongitude,
+                                    catalogue.getRadius(index),
+                                    Constants.GEOFENCE_EXPIRATION_IN_MILLISECONDS,
+                                    catalogue.getTransitionTypes(index),
+                                    catalogue.getSchedule(index)));
+                        }
+                    });
+        } catch (IOException e) {
+            Log.w(TAG, "Can't load catalogue fences", e);
+            return Collections.emptyList();
+        }
+        return nearby;
+    }
+
+    /**
+     * Returns the covers of the fences closest to the given point that fit in {@code slots},
+     * merging nearby ones when there are too many.
+     */
+    private static List<FenceCoalescer.Cover> coalesce(FenceCoalescer coalescer, double latitude,
+                                                       double longitude, List<CircularFence> fences,
+                                                       int slots) {
+        final FenceDistance center = DistancePrecision.HAVERSINE.forCenter(latitude, longitude);
+        Collections.sort(fences, new Comparator<CircularFence>() {
+            @Override
+            public int compare(CircularFence a, CircularFence b) {
+                return Double.compare(center.distanceTo(a.getLatitude(), a.getLongitude()),
+                        center.distanceTo(b.getLatitude(), b.getLongitude()));
+            }
+        });
+        List<FenceCoalescer.Cover> covers = coalescer.coalesce(
+                fences.subList(0, Math.min(fences.size(), Constants.MAX_COALESCED_FENCES)), slots);
+        // In the order of their closest fence, the farthest ones are left out if merging
+        // couldn't make them fit.
+        return covers.subList(0, Math.min(covers.size(), slots));
+    }
+
+    /**
+     * Returns when the active fences among {@code fences} next change, {@link Long#MAX_VALUE}
+     * if none of them has a schedule.
+     */
+    private static long nextChange(List<CircularFence> fences, long now, TimeZone zone) {
+        WeeklySchedule[] schedules = new WeeklySchedule[fences.size()];
+        boolean scheduled = false;
+        for (int i = 0; i < schedules.length; i++) {
+            schedules[i] = fences.get(i).getSchedule();
+            scheduled |= schedules[i] != null;
+        }
+        return scheduled ? new ScheduleIndex(schedules, zone).nextChange(now) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the fences to register, the user's geofence first.
+     */
+    public List<CircularFence> getFences() {
+        return fences;
+    }
+
+    /**
+     * Returns the cover of every fence, the user's geofence alone, to store in the
+     * {@link CoverIndex} once registered.
+     */
+    public List<FenceCoalescer.Cover> getCovers() {
+        return covers;
+    }
+
+    /**
+     * Returns when the list should be built again because a fence becomes active or inactive,
+     * {@link Long#MAX_VALUE} if never.
+     */
+    public long getNextChange() {
+        return nextChange;
+    }
+}
@@ -0,0 +1,189 @@
+package com.vail.myapplication.geofencing;
+
+import android.content.SharedPreferences;
+
+import com.google.android.gms.location.Geofence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the geofences registered with Location Services, keyed by request id, together
+ * with a content hash of each fence and the time its registration expires.
+ *
+ * Used to compute the minimal set of add and remove calls needed to go from the registered state
+ * to a desired one. The registered state is persisted in {@link SharedPreferences}, so it
+ * survives the activity being recreated. Location Services drops every geofence when it expires
+ * and when the device reboots or location is turned off, so unchanged fences are registered
+ * again when their registration is about to expire, and the registry must be {@link #clear()
+ * cleared} when the geofences are lost.
+ */
+public class GeofenceRegistry {
+
+    /**
+     * Unchanged fences are registered again when their registration expires within this time.
+     */
+    public static final long RENEW_BEFORE_EXPIRY_MS = 60 * 60 * 1000;
+
+    private static final char SEPARATOR = '|';
+
+    private final SharedPreferences sharedPreferences;
+    private final String key;
+    private final Map<String, Registration> registered = new HashMap<>();
+
+    public GeofenceRegistry(SharedPreferences sharedPreferences, String key) {
+        this.sharedPreferences = sharedPreferences;
+        this.key = key;
+
+        Set<String> stored = sharedPreferences.getStringSet(key, null);
+        if (stored == null) return;
+        for (String entry : stored) {
+            int expiresIndex = entry.lastIndexOf(SEPARATOR);
+            if (expiresIndex < 0) continue;
+            int hashIndex = entry.lastIndexOf(SEPARATOR, expiresIndex - 1);
+            try {
+                if (hashIndex < 0) {
+                    // Stored without an expiration time, registered again on the next diff.
+                    registered.put(entry.substring(0, expiresIndex), new Registration(
+                            Integer.parseInt(entry.substring(expiresIndex + 1)), 0));
+                } else {
+                    registered.put(entry.substring(0, hashIndex), new Registration(
+                            Integer.parseInt(entry.substring(hashIndex + 1, expiresIndex)),
+                            Long.parseLong(entry.substring(expiresIndex + 1))));
+                }
+            } catch (NumberFormatException e) {
+                // Skip a corrupted entry, the fence will be registered again.
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return registered.isEmpty();
+    }
+
+    public Set<String> getRegisteredIds() {
+        return Collections.unmodifiableSet(registered.keySet());
+    }
+
+    public Delta diff(List<CircularFence> desired) {
+        return diff(desired, System.currentTimeMillis());
+    }
+
+    /**
+     * Computes the changes needed at {@code now} to make the registered set equal to
+     * {@code desired}.
+     *
+     * A fence whose id is already registered but whose content changed is only added again:
+     * Location Services replaces a geofence registered with the same request id. So is an
+     * unchanged fence whose registration expires within {@link #RENEW_BEFORE_EXPIRY_MS}, unless
+     * registering it again wouldn't make it last longer, like a scheduled fence at the end of
+     * its active period.
+     */
+    public Delta diff(List<CircularFence> desired, long now) {
+        List<CircularFence> added = new ArrayList<>();
+        Set<String> desiredIds = new HashSet<>();
+        for (CircularFence fence : desired) {
+            desiredIds.add(fence.getRequestId());
+            Registration registration = registered.get(fence.getRequestId());
+            if (registration == null || registration.hash != fence.contentHash()
+                    || (registration.expiresAt - now < RENEW_BEFORE_EXPIRY_MS
+                    && expiresAt(fence, now) > registration.expiresAt)) {
+                added.add(fence);
+            }
+        }
+
+        List<String> removedIds = new ArrayList<>();
+        for (String id : registered.keySet()) {
+            if (!desiredIds.contains(id)) {
+                removedIds.add(id);
+            }
+        }
+        return new Delta(added, removedIds);
+    }
+
+    public void commit(Delta delta) {
+        commit(delta, System.currentTimeMillis());
+    }
+
+    /**
+     * Records a delta that Location Services accepted at {@code now}.
+     */
+    public void commit(Delta delta, long now) {
+        for (String id : delta.getRemovedIds()) {
+            registered.remove(id);
+        }
+        for (CircularFence fence : delta.getAdded()) {
+            registered.put(fence.getRequestId(),
+                    new Registration(fence.contentHash(), expiresAt(fence, now)));
+        }
+        persist();
+    }
+
+    /**
+     * Forgets every registered fence, e.g. after all of them were removed by PendingIntent, or
+     * dropped by Location Services after a reboot or when location was turned off.
+     */
+    public void clear() {
+        registered.clear();
+        persist();
+    }
+
+    private void persist() {
+        Set<String> entries = new HashSet<>();
+        for (Map.Entry<String, Registration> entry : registered.entrySet()) {
+            entries.add(entry.getKey() + SEPARATOR + entry.getValue().hash
+                    + SEPARATOR + entry.getValue().expiresAt);
+        }
+        sharedPreferences.edit()
+                .putStringSet(key, entries)
+                .apply();
+    }
+
+    /**
+     * Returns when a fence registered at {@code now} expires, {@link Long#MAX_VALUE} if never.
+     */
+    private static long expiresAt(CircularFence fence, long now) {
+        long duration = fence.getExpirationDuration(now);
+        return duration == Geofence.NEVER_EXPIRE ? Long.MAX_VALUE : now + duration;
+    }
+
+    private static final class Registration {
+        final int hash;
+        final long expiresAt;
+
+        Registration(int hash, long expiresAt) {
+            this.hash = hash;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Fences to add (or replace) and request ids to remove.
+     */
+    public static final class Delta {
+        private final List<CircularFence> added;
+        private final List<String> removedIds;
+
+        Delta(List<CircularFence> added, List<String> removedIds) {
+            this.added = Collections.unmodifiableList(added);
+            this.removedIds = Collections.unmodifiableList(removedIds);
+        }
+
+        public List<CircularFence> getAdded() {
+            return added;
+        }
+
+        public List<String> getRemovedIds() {
+            return removedIds;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removedIds.isEmpty();
+        }
+    }
+}
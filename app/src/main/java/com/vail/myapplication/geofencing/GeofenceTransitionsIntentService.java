@@ -16,73 +16,243 @@
 
 package com.vail.myapplication.geofencing;
 
-import android.app.IntentService;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
-import android.content.Context;
+import android.app.Service;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.BitmapFactory;
-import android.graphics.Color;
+import android.location.Location;
+import android.os.IBinder;
 import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
 import android.util.Log;
 
 import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofenceStatusCodes;
 import com.google.android.gms.location.GeofencingEvent;
 import com.vail.myapplication.Constants;
-import com.vail.myapplication.MainActivity;
 import com.vail.myapplication.R;
+import com.vail.myapplication.history.TrajectoryStore;
 import com.vail.myapplication.wifi.WifiSensor;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Listener for geofence transition changes.
  *
  * Receives geofence transition events from Location Services in the form of an Intent containing
  * the transition type and geofence id(s) that triggered the transition. Creates a notification
- * as the output.
+ * as the output, and publishes the new zone state through the {@link ZoneStatePublisher}.
+ * Transitions of covers registered by the {@link FenceCoalescer} are resolved into the fences
+ * they stand for, with the triggering location. The position estimated by the
+ * {@link WifiSensor} is checked against the geofences the same way, within its accuracy.
+ *
+ * Intents are parsed on the main thread and their work is run on a {@link StripedExecutor}:
+ * covers are resolved in order on one key, then the occupancy of each fence runs on the key of
+ * the fence, the trajectory on its own key and the combined zone state and notification on the
+ * key of the zone. Transitions of one fence or zone are handled in order, while a slow
+ * notification or file write doesn't hold back the others. Each stripe has its own
+ * {@link OccupancyStore} for the fences on it, so stripes share no lock. The service stops once every
+ * queued task ran and every notification was posted. It keeps its name from when it was an {@link android.app.IntentService},
+ * geofences registered by earlier versions still point to it.
  */
-public class GeofenceTransitionsIntentService extends IntentService {
+public class GeofenceTransitionsIntentService extends Service {
 
     private static final String TAG = "GeofenceTransitionsIS";
+
+    /**
+     * The combined wifi and geofence zone, the only zone notified for now.
+     */
+    private static final String ZONE_ID = "zone";
+    private static final String NOTIFICATION_GROUP = "zones";
+
+    /**
+     * Keys of the cover resolution and of the trajectory history tasks.
+     */
+    private static final String COVERS_KEY = "covers";
+    private static final String TRAJECTORY_KEY = "trajectory";
+
+    /**
+     * Most zones held in memory at once by each stripe. The stores grow with the zones the
+     * device is inside, rarely more than a few, so an idle stripe costs a few slots.
+     */
+    private static final int TRACKED_ZONES = 101;
+
+    private static final StripedExecutor executor = new StripedExecutor(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), TAG);
+
+    /**
+     * Occupancy of the geofences and of the combined zone, one store per stripe only used by
+     * its thread, opened on first use. The stores share a directory, a zone is always on the
+     * same stripe.
+     */
+    private static final OccupancyStore[] occupancy = new OccupancyStore[executor.getStripeCount()];
+
+    /**
+     * History of the transitions, of the locations that triggered them and of the wifi position
+     * estimates sent with the wifi changes, opened on first use and only used by the stripe of
+     * {@link #TRAJECTORY_KEY}.
+     */
+    private static TrajectoryStore trajectory;
+
     private SharedPreferences sharedPreferences;
 
     /**
-     * This constructor is required, and calls the super IntentService(String)
-     * constructor with the name for a worker thread.
+     * Tasks queued and not run yet, the service stops when it drops to zero.
      */
-    public GeofenceTransitionsIntentService() {
-        // Use the TAG to name the worker thread.
-        super(TAG);
-    }
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+    private volatile int lastStartId;
 
     @Override
-    public void onStart(@Nullable Intent intent, int startId) {
-        super.onStart(intent, startId);
+    public void onCreate() {
+        super.onCreate();
         sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
     }
 
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
     /**
      * Handles incoming intents.
      * @param intent sent by Location Services. This Intent is provided to Location
      *               Services (inside a PendingIntent) when addGeofences() is called.
      */
     @Override
-    protected void onHandleIntent(Intent intent) {
-        if (intent.hasExtra(WifiSensor.WIFI_ACCESSIBILITY_KEY)) {
-            processWifiChanged(intent);
-        } else {
-            processGeofenceChanged(intent);
+    public int onStartCommand(@Nullable Intent intent, int flags, int startId) {
+        // Counted before publishing startId, so a task finishing meanwhile stops the service
+        // with an older id, which is ignored.
+        pendingTasks.incrementAndGet();
+        lastStartId = startId;
+        if (intent != null) {
+            if (intent.hasExtra(WifiSensor.WIFI_ACCESSIBILITY_KEY)) {
+                processWifiChanged(intent);
+            } else {
+                processGeofenceChanged(intent);
+            }
+        }
+        taskDone();
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        Log.d(TAG, "Zone executor:\n" + executor.report());
+    }
+
+    /**
+     * Returns the executor running the transitions, for its queue and timing statistics.
+     */
+    public static StripedExecutor getExecutor() {
+        return executor;
+    }
+
+    private void submit(String zone, final Runnable task) {
+        pendingTasks.incrementAndGet();
+        executor.execute(zone, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    taskDone();
+                }
+            }
+        });
+    }
+
+    private void taskDone() {
+        if (pendingTasks.decrementAndGet() == 0) {
+            // Ignored if another intent arrived since, its own tasks will stop the service.
+            stopSelf(lastStartId);
         }
     }
 
     private void processWifiChanged(Intent intent) {
-        boolean wifiAccessible = intent.getBooleanExtra(WifiSensor.WIFI_ACCESSIBILITY_KEY, false);
+        final boolean wifiAccessible = intent.getBooleanExtra(WifiSensor.WIFI_ACCESSIBILITY_KEY, false);
+        if (intent.hasExtra(WifiSensor.WIFI_LATITUDE_KEY)) {
+            // Where the wifi position estimate puts the device, between the geofence transitions.
+            final long time = intent.getLongExtra(WifiSensor.WIFI_TIME_KEY, System.currentTimeMillis());
+            final double latitude = intent.getDoubleExtra(WifiSensor.WIFI_LATITUDE_KEY, 0);
+            final double longitude = intent.getDoubleExtra(WifiSensor.WIFI_LONGITUDE_KEY, 0);
+            final float accuracy = intent.getFloatExtra(WifiSensor.WIFI_ACCURACY_KEY, Float.MAX_VALUE);
+            submit(TRAJECTORY_KEY, new Runnable() {
+                @Override
+                public void run() {
+                    record(time, latitude, longitude, TrajectoryStore.EVENT_NONE);
+                }
+            });
+            // On the key of the covers, so the estimate is ordered with the transitions.
+            submit(COVERS_KEY, new Runnable() {
+                @Override
+                public void run() {
+                    processEstimate(wifiAccessible, latitude, longitude, accuracy, time);
+                }
+            });
+            return;
+        }
+        submit(ZONE_ID, new Runnable() {
+            @Override
+            public void run() {
+                boolean oldGeofenceState = sharedPreferences.getBoolean(Constants.IN_GEOFENCE_ZONE_KEY, false);
+                updateInZoneValue(wifiAccessible, oldGeofenceState);
+            }
+        });
+    }
 
-        boolean oldGeofenceState = sharedPreferences.getBoolean(Constants.IN_GEOFENCE_ZONE_KEY, false);
-        updateInZoneValue(wifiAccessible, oldGeofenceState);
+    /**
+     * Places a wifi position estimate against the registered geofences, so the zone state
+     * doesn't wait for Location Services to notice a transition. Geofences and fences the
+     * accuracy can't tell about keep their state, and only the fences of geofences the device
+     * is inside are left.
+     */
+    private void processEstimate(final boolean wifiAccessible, double latitude, double longitude,
+                                 float accuracy, final long time) {
+        CoverIndex covers = new CoverIndex(sharedPreferences, Constants.GEOFENCE_COVERS_KEY);
+        final CoverIndex.Placement placement = covers.place(latitude, longitude, accuracy);
+
+        Set<String> occupied = new HashSet<>();
+        for (String requestId : sharedPreferences.getStringSet(Constants.INSIDE_GEOFENCES_KEY,
+                Collections.<String>emptySet())) {
+            if (covers.isCover(requestId)) {
+                occupied.addAll(covers.getMemberIds(requestId));
+            } else {
+                occupied.add(requestId);
+            }
+        }
+        for (final String fenceId : placement.getInsideFenceIds()) {
+            submit(fenceId, new Runnable() {
+                @Override
+                public void run() {
+                    trackOccupancy(fenceId, true, time);
+                }
+            });
+        }
+        for (final String fenceId : placement.getOutsideFenceIds()) {
+            if (!occupied.contains(fenceId)) continue;
+            submit(fenceId, new Runnable() {
+                @Override
+                public void run() {
+                    trackOccupancy(fenceId, false, time);
+                }
+            });
+        }
+        submit(ZONE_ID, new Runnable() {
+            @Override
+            public void run() {
+                updateInZoneValue(wifiAccessible, updateInsideGeofences(
+                        placement.getInsideIds(), placement.getOutsideIds()));
+            }
+        });
     }
 
     private void processGeofenceChanged(Intent intent) {
@@ -91,6 +261,17 @@ public class GeofenceTransitionsIntentService extends IntentService {
             String errorMessage = GeofenceErrorMessages.getErrorString(this,
                     geofencingEvent.getErrorCode());
             Log.e(TAG, errorMessage);
+            if (geofencingEvent.getErrorCode() == GeofenceStatusCodes.GEOFENCE_NOT_AVAILABLE) {
+                // Location was turned off, Location Services dropped every geofence.
+                new GeofenceRegistry(sharedPreferences, Constants.REGISTERED_GEOFENCES_KEY).clear();
+                submit(ZONE_ID, new Runnable() {
+                    @Override
+                    public void run() {
+                        // Entered again once the geofences are registered again.
+                        sharedPreferences.edit().remove(Constants.INSIDE_GEOFENCES_KEY).apply();
+                    }
+                });
+            }
             return;
         }
 
@@ -98,8 +279,126 @@ public class GeofenceTransitionsIntentService extends IntentService {
         if (geofenceTransition == Geofence.GEOFENCE_TRANSITION_ENTER ||
                 geofenceTransition == Geofence.GEOFENCE_TRANSITION_EXIT) {
 
-            boolean oldWifiState = sharedPreferences.getBoolean(Constants.WIFI_ACCESSIBLE_KEY, false);
-            updateInZoneValue(oldWifiState, geofenceTransition == Geofence.GEOFENCE_TRANSITION_ENTER);
+            // Not filtered: Location Services doesn't send a dropped transition again, and
+            // geofences are often triggered by network locations worse than a GPS fix.
+            final Location location = geofencingEvent.getTriggeringLocation();
+
+            final boolean enter = geofenceTransition == Geofence.GEOFENCE_TRANSITION_ENTER;
+            final long now = System.currentTimeMillis();
+            final List<Geofence> geofences = geofencingEvent.getTriggeringGeofences();
+            // On one key, so the transitions of a fence are queued in the order they arrived.
+            submit(COVERS_KEY, new Runnable() {
+                @Override
+                public void run() {
+                    processTransition(geofences, enter, location, now);
+                }
+            });
+        }
+    }
+
+    /**
+     * Resolves the triggering geofences into fences and queues the tasks of each fence, of the
+     * trajectory and of the zone.
+     */
+    private void processTransition(List<Geofence> geofences, final boolean enter,
+                                   final Location location, final long now) {
+        CoverIndex covers = new CoverIndex(sharedPreferences, Constants.GEOFENCE_COVERS_KEY);
+        final List<String> changedIds = new ArrayList<>();
+        for (Geofence geofence : geofences) {
+            List<String> fenceIds = resolve(covers, geofence.getRequestId(), enter, location);
+            if (!enter || !fenceIds.isEmpty()) changedIds.add(geofence.getRequestId());
+            for (final String fenceId : fenceIds) {
+                submit(fenceId, new Runnable() {
+                    @Override
+                    public void run() {
+                        trackOccupancy(fenceId, enter, now);
+                    }
+                });
+            }
+        }
+        if (changedIds.isEmpty()) {
+            Log.d(TAG, "Entered covers without entering any of their fences");
+            return;
+        }
+
+        if (location != null) {
+            submit(TRAJECTORY_KEY, new Runnable() {
+                @Override
+                public void run() {
+                    record(location.getTime(), location.getLatitude(), location.getLongitude(),
+                            enter ? TrajectoryStore.EVENT_ENTER : TrajectoryStore.EVENT_EXIT);
+                }
+            });
+        }
+        submit(ZONE_ID, new Runnable() {
+            @Override
+            public void run() {
+                boolean oldWifiState = sharedPreferences.getBoolean(Constants.WIFI_ACCESSIBLE_KEY, false);
+                updateInZoneValue(oldWifiState, enter
+                        ? updateInsideGeofences(changedIds, Collections.<String>emptyList())
+                        : updateInsideGeofences(Collections.<String>emptyList(), changedIds));
+            }
+        });
+    }
+
+    /**
+     * Adds or removes geofences from the ones the device is inside, so leaving one of two
+     * overlapping geofences doesn't leave the zone.
+     *
+     * @return whether the device is inside any geofence.
+     */
+    private boolean updateInsideGeofences(List<String> entered, List<String> exited) {
+        Set<String> inside = new HashSet<>(sharedPreferences.getStringSet(
+                Constants.INSIDE_GEOFENCES_KEY, Collections.<String>emptySet()));
+        inside.addAll(entered);
+        inside.removeAll(exited);
+        sharedPreferences.edit().putStringSet(Constants.INSIDE_GEOFENCES_KEY, inside).apply();
+        return !inside.isEmpty();
+    }
+
+    /**
+     * Removes unregistered geofences from the ones the device is inside, their exit won't come.
+     */
+    public static void forgetInsideGeofences(SharedPreferences sharedPreferences,
+                                             Collection<String> removedIds) {
+        Set<String> inside = sharedPreferences.getStringSet(Constants.INSIDE_GEOFENCES_KEY,
+                Collections.<String>emptySet());
+        if (removedIds.isEmpty() || Collections.disjoint(inside, removedIds)) return;
+        inside = new HashSet<>(inside);
+        inside.removeAll(removedIds);
+        sharedPreferences.edit().putStringSet(Constants.INSIDE_GEOFENCES_KEY, inside).apply();
+    }
+
+    /**
+     * Returns the fences behind a triggering geofence. Entering a cover only enters its fences
+     * containing the triggering location, while leaving it leaves all of them. Without a
+     * location, the cover is tracked as a fence of its own.
+     */
+    private static List<String> resolve(CoverIndex covers, String requestId, boolean enter,
+                                        Location location) {
+        if (!covers.isCover(requestId) || (enter && location == null)) {
+            return Collections.singletonList(requestId);
+        }
+        return enter
+                ? covers.resolve(requestId, location.getLatitude(), location.getLongitude())
+                : covers.getMemberIds(requestId);
+    }
+
+    /**
+     * Appends a transition or a wifi position estimate to the trajectory history. Locations
+     * older than the last recorded one are skipped, the history is in time order. Runs on the
+     * stripe of {@link #TRAJECTORY_KEY}.
+     */
+    private void record(long time, double latitude, double longitude, int event) {
+        try {
+            if (trajectory == null) {
+                trajectory = TrajectoryStore.open(new File(getFilesDir(), Constants.TRAJECTORY_FILE));
+            }
+            if (time < trajectory.getLastTime()) return;
+            trajectory.append(time, latitude, longitude, event);
+            trajectory.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't record the transition", e);
         }
     }
 
@@ -111,55 +410,49 @@ public class GeofenceTransitionsIntentService extends IntentService {
                 .putBoolean(Constants.WIFI_ACCESSIBLE_KEY, wifi)
                 .putBoolean(Constants.IN_GEOFENCE_ZONE_KEY, geofence)
                 .apply();
+        if (wifi != oldWifiState || geofence != oldGeofenceState) {
+            ZoneStatePublisher.getInstance().publish(
+                    new ZoneState(wifi, geofence, System.currentTimeMillis()));
+        }
         if ((wifi || geofence) == (oldWifiState || oldGeofenceState)) return;
 
+        trackOccupancy(ZONE_ID, wifi || geofence, System.currentTimeMillis());
         sendNotification(wifi || geofence);
     }
 
     /**
-     * Posts a notification in the notification bar when a transition is detected.
-     * If the user clicks the notification, control goes to the MainActivity.
+     * Records a transition in the occupancy and dwell rollups, saved with the open stays. Runs
+     * on the stripe of {@code zone}, which owns the store.
      */
-    private void sendNotification(boolean enter) {
-        // Create an explicit content Intent that starts the main Activity.
-        Intent notificationIntent = new Intent(getApplicationContext(), MainActivity.class);
-
-        // Construct a task stack.
-        TaskStackBuilder stackBuilder = TaskStackBuilder.create(this);
-
-        // Add the main Activity to the task stack as the parent.
-        stackBuilder.addParentStack(MainActivity.class);
-
-        // Push the content Intent onto the stack.
-        stackBuilder.addNextIntent(notificationIntent);
-
-        // Get a PendingIntent containing the entire back stack.
-        PendingIntent notificationPendingIntent =
-                stackBuilder.getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT);
-
-        // Get a notification builder that's compatible with platform versions >= 4
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(this);
-
-        // Define the notification settings.
-        builder.setSmallIcon(R.mipmap.ic_launcher)
-                // In a real app, you may want to use a library like Volley
-                // to decode the Bitmap.
-                .setLargeIcon(BitmapFactory.decodeResource(getResources(),
-                        R.mipmap.ic_launcher))
-                .setColor(Color.RED)
-                .setContentTitle(getString(enter ? R.string.geofence_transition_entered : R.string.geofence_transition_exited))
-                .setContentText(getString(R.string.geofence_transition_notification_text))
-                .setContentIntent(notificationPendingIntent);
-
-        // Dismiss notification once the user touches it.
-        builder.setAutoCancel(true);
-
-        // Get an instance of the Notification manager
-        NotificationManager mNotificationManager =
-                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+    private void trackOccupancy(String zone, boolean enter, long time) {
+        int stripe = executor.stripeOf(zone);
+        try {
+            if (occupancy[stripe] == null) {
+                occupancy[stripe] = new OccupancyStore(
+                        new File(getFilesDir(), Constants.OCCUPANCY_DIRECTORY), TRACKED_ZONES);
+            }
+            if (!occupancy[stripe].onTransition(zone, enter, time)) {
+                Log.w(TAG, "Can't track " + zone + ", inside " + TRACKED_ZONES + " zones already");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Can't save the occupancy of " + zone, e);
+        }
+    }
 
-        // Issue the notification
-        mNotificationManager.notify(0, builder.build());
+    /**
+     * Posts a notification in the notification bar when a transition is detected. Transitions
+     * are batched by the {@link TransitionNotificationDispatcher}, the service keeps running
+     * until they are posted.
+     */
+    private void sendNotification(boolean enter) {
+        pendingTasks.incrementAndGet();
+        TransitionNotificationDispatcher.getInstance(this).dispatch(NOTIFICATION_GROUP, ZONE_ID,
+                enter, new Runnable() {
+                    @Override
+                    public void run() {
+                        taskDone();
+                    }
+                });
     }
 
     /**
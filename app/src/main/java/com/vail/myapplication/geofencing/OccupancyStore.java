@@ -0,0 +1,135 @@
+package com.vail.myapplication.geofencing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * {@link OccupancyTracker} backed by one file per fence, so the open stays and the dwell rollups
+ * survive the process being killed.
+ *
+ * Fences are loaded from their file on first use and written back after every transition. The
+ * tracker only holds the fences in use: before it grows, a fence the device is outside of is
+ * released to make room, its state stays on disk, so the tracker's memory follows the number of
+ * fences the device is inside. Transitions only fail when every slot is held by a fence the
+ * device is inside.
+ *
+ * Several stores may share a directory as long as each fence is only used by one of them.
+ *
+ * Not thread safe.
+ */
+public class OccupancyStore {
+
+    private static final String SUFFIX = ".occupancy";
+
+    private final File directory;
+    private final OccupancyTracker tracker;
+
+    /**
+     * @param capacity Most fences held in memory at once, see {@link OccupancyTracker}.
+     */
+    public OccupancyStore(File directory, int capacity) {
+        this.directory = directory;
+        tracker = new OccupancyTracker(capacity);
+    }
+
+    /**
+     * Records a transition of {@code fenceId} at {@code time} and saves the fence.
+     *
+     * @return false if the fence can't be tracked, every slot is held by a fence the device is
+     *         inside.
+     */
+    public boolean onTransition(String fenceId, boolean enter, long time) throws IOException {
+        if (!load(fenceId)) return false;
+        if (!tracker.onTransition(fenceId, enter, time)) return false;
+        save(fenceId);
+        return true;
+    }
+
+    /**
+     * Loads a fence from its file if it isn't in the tracker yet, so it can be queried.
+     *
+     * @return false if there is no room for it.
+     */
+    public boolean load(String fenceId) throws IOException {
+        if (tracker.isTracked(fenceId)) return true;
+        // Reuse the slot of a fence the device is outside of before growing the tracker.
+        if (!tracker.hasAllocatedSlot() && !releaseOutside() && tracker.isFull()) return false;
+
+        File file = file(fenceId);
+        if (!file.exists()) return true;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            tracker.read(fenceId, in);
+        } catch (IOException e) {
+            // Unreadable, e.g. written by a newer version: the fence starts over.
+            if (!file.delete()) throw e;
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the tracker holding the loaded fences, {@link #load} a fence before querying it.
+     */
+    public OccupancyTracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * Writes a fence to a temporary file renamed over the previous one, so a crash leaves
+     * either state.
+     */
+    private void save(String fenceId) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        File file = file(fenceId);
+        File temporary = new File(directory, file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            tracker.write(fenceId, out);
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Can't replace " + file);
+        }
+    }
+
+    private boolean releaseOutside() {
+        for (String fenceId : tracker.getFenceIds()) {
+            if (!tracker.isInside(fenceId)) {
+                tracker.release(fenceId);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the file of a fence, its id with the characters that aren't safe in file names
+     * escaped.
+     */
+    File file(String fenceId) {
+        StringBuilder name = new StringBuilder(fenceId.length() + SUFFIX.length());
+        for (int i = 0; i < fenceId.length(); i++) {
+            char c = fenceId.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_') {
+                name.append(c);
+            } else {
+                name.append('%').append(Integer.toHexString(c));
+                name.append('%');
+            }
+        }
+        return new File(directory, name.append(SUFFIX).toString());
+    }
+}
@@ -0,0 +1,413 @@
+package com.vail.myapplication.geofencing;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Live per-fence membership and dwell time rollups, maintained as transitions arrive.
+ *
+ * Every fence gets a ring of {@link #HOURS} hourly and {@link #DAYS} daily buckets (UTC) holding
+ * the number of completed visits, the total dwell time and a histogram of visit durations. A
+ * visit is counted in the bucket of its exit time. Histogram bins are half an octave wide, so
+ * the p95 dwell time is accurate to about 20%. Storage is held in primitive arrays which grow
+ * with the number of fences tracked, and every query is O(1) whatever the history length.
+ *
+ * Fences hold one of at most {@code capacity} slots until {@link #release released}. The state of a
+ * fence can be written with {@link #write} and read back with {@link #read}, so a tracker can
+ * serve as a cache of fences stored elsewhere, see {@link OccupancyStore}.
+ *
+ * Not thread safe.
+ */
+public class OccupancyTracker {
+
+    public static final int HOURS = 48;
+    public static final int DAYS = 31;
+
+    static final int BINS = 48;
+
+    private static final int FORMAT_VERSION = 1;
+
+    /** Slots allocated by a new tracker, a fence's buckets take about 17 KB. */
+    private static final int INITIAL_SLOTS = 4;
+
+    private static final long HOUR_MS = 60 * 60 * 1000;
+    private static final long DAY_MS = 24 * HOUR_MS;
+
+    public enum Resolution {
+        HOUR(HOURS, HOUR_MS), DAY(DAYS, DAY_MS);
+
+        final int buckets;
+        final long length;
+
+        Resolution(int buckets, long length) {
+            this.buckets = buckets;
+            this.length = length;
+        }
+    }
+
+    private final int capacity;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private int[] freeSlots;
+    private int freeCount;
+
+    private boolean[] inside;
+    private long[] enteredAt;
+    private int occupied;
+
+    private final Rollup hourly;
+    private final Rollup daily;
+
+    public OccupancyTracker(int capacity) {
+        this.capacity = capacity;
+        int slots = Math.min(capacity, INITIAL_SLOTS);
+        freeSlots = new int[slots];
+        inside = new boolean[slots];
+        enteredAt = new long[slots];
+        hourly = new Rollup(slots, Resolution.HOUR);
+        daily = new Rollup(slots, Resolution.DAY);
+    }
+
+    /**
+     * Records a transition of {@code fenceId} at {@code time}, in milliseconds since the epoch.
+     * Repeated transitions in the same direction are ignored.
+     *
+     * @return false if the fence is new and the tracker is full.
+     */
+    public boolean onTransition(String fenceId, boolean enter, long time) {
+        int slot = slot(fenceId, true);
+        if (slot < 0) return false;
+        if (inside[slot] == enter) return true;
+
+        inside[slot] = enter;
+        if (enter) {
+            enteredAt[slot] = time;
+            occupied++;
+        } else {
+            occupied--;
+            long dwell = Math.max(0, time - enteredAt[slot]);
+            hourly.add(slot, time, dwell);
+            daily.add(slot, time, dwell);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the fences holding a slot.
+     */
+    public Set<String> getFenceIds() {
+        return Collections.unmodifiableSet(slots.keySet());
+    }
+
+    public boolean isTracked(String fenceId) {
+        return slots.containsKey(fenceId);
+    }
+
+    public boolean isFull() {
+        return slots.size() == capacity;
+    }
+
+    /**
+     * Forgets a fence and frees its slot.
+     */
+    public void release(String fenceId) {
+        Integer slot = slots.remove(fenceId);
+        if (slot == null) return;
+        if (inside[slot]) occupied--;
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Writes the membership and the buckets of a fence, only those in use.
+     */
+    public void write(String fenceId, DataOutput out) throws IOException {
+        int slot = slot(fenceId, false);
+        out.writeInt(FORMAT_VERSION);
+        out.writeBoolean(slot >= 0 && inside[slot]);
+        out.writeLong(slot >= 0 ? enteredAt[slot] : 0);
+        hourly.write(slot, out);
+        daily.write(slot, out);
+    }
+
+    /**
+     * Replaces the state of a fence with one written by {@link #write}. On failure the fence
+     * is released.
+     *
+     * @return false if the fence is new and the tracker is full.
+     */
+    public boolean read(String fenceId, DataInput in) throws IOException {
+        release(fenceId);
+        int slot = slot(fenceId, true);
+        if (slot < 0) return false;
+        try {
+            if (in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown occupancy format");
+            }
+            inside[slot] = in.readBoolean();
+            enteredAt[slot] = in.readLong();
+            if (inside[slot]) occupied++;
+            hourly.read(slot, in);
+            daily.read(slot, in);
+        } catch (IOException e) {
+            release(fenceId);
+            throw e;
+        }
+        return true;
+    }
+
+    public boolean isInside(String fenceId) {
+        int slot = slot(fenceId, false);
+        return slot >= 0 && inside[slot];
+    }
+
+    /**
+     * Returns the number of fences currently occupied.
+     */
+    public int getOccupiedCount() {
+        return occupied;
+    }
+
+    /**
+     * Returns the time spent in the fence by the current visit, or 0 if outside.
+     */
+    public long getCurrentDwell(String fenceId, long now) {
+        int slot = slot(fenceId, false);
+        return slot >= 0 && inside[slot] ? Math.max(0, now - enteredAt[slot]) : 0;
+    }
+
+    /**
+     * Returns the number of visits that ended in the hour or day containing {@code time}.
+     */
+    public int getVisits(String fenceId, Resolution resolution, long time) {
+        int slot = slot(fenceId, false);
+        return slot < 0 ? 0 : rollup(resolution).visits(slot, time);
+    }
+
+    /**
+     * Returns the total dwell time in milliseconds of the visits that ended in the hour or day
+     * containing {@code time}.
+     */
+    public long getTotalDwell(String fenceId, Resolution resolution, long time) {
+        int slot = slot(fenceId, false);
+        return slot < 0 ? 0 : rollup(resolution).totalDwell(slot, time);
+    }
+
+    /**
+     * Returns an estimate of the 95th percentile dwell time in milliseconds of the visits that
+     * ended in the hour or day containing {@code time}, or 0 if there was none.
+     */
+    public long getP95Dwell(String fenceId, Resolution resolution, long time) {
+        int slot = slot(fenceId, false);
+        return slot < 0 ? 0 : rollup(resolution).percentile(slot, time, 0.95);
+    }
+
+    private Rollup rollup(Resolution resolution) {
+        return resolution == Resolution.HOUR ? hourly : daily;
+    }
+
+    private int slot(String fenceId, boolean create) {
+        Integer slot = slots.get(fenceId);
+        if (slot != null) return slot;
+        if (!create || slots.size() == capacity) return -1;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+            inside[slot] = false;
+            enteredAt[slot] = 0;
+            hourly.clear(slot);
+            daily.clear(slot);
+        } else {
+            slot = slots.size();
+            if (slot == inside.length) grow();
+        }
+        slots.put(fenceId, slot);
+        return slot;
+    }
+
+    /**
+     * Doubles the number of slots, up to the capacity.
+     */
+    private void grow() {
+        int slots = (int) Math.min(capacity, 2L * inside.length);
+        freeSlots = Arrays.copyOf(freeSlots, slots);
+        inside = Arrays.copyOf(inside, slots);
+        enteredAt = Arrays.copyOf(enteredAt, slots);
+        hourly.grow(slots);
+        daily.grow(slots);
+    }
+
+    /**
+     * Returns true if a new fence can take a slot without growing the arrays.
+     */
+    boolean hasAllocatedSlot() {
+        return slots.size() < inside.length;
+    }
+
+    /**
+     * Returns the number of slots allocated.
+     */
+    int getAllocatedSlots() {
+        return inside.length;
+    }
+
+    /**
+     * Histogram bin of a duration: two bins per power of two seconds.
+     */
+    static int bin(long dwellMs) {
+        long seconds = dwellMs / 1000;
+        if (seconds < 2) return (int) seconds;
+        int octave = 63 - Long.numberOfLeadingZeros(seconds);
+        int bin = 2 * octave + (int) ((seconds >>> (octave - 1)) & 1);
+        return Math.min(bin, BINS - 1);
+    }
+
+    /**
+     * Upper bound in milliseconds of the durations falling in a bin.
+     */
+    static long binUpperBound(int bin) {
+        if (bin < 2) return (bin + 1) * 1000L;
+        int octave = bin / 2;
+        long seconds = (1L << octave) + (bin % 2 + 1) * (1L << (octave - 1));
+        return seconds * 1000;
+    }
+
+    /**
+     * Ring of buckets of one resolution for every fence, stored in flat arrays.
+     */
+    private static final class Rollup {
+        private final Resolution resolution;
+        private long[] epochs;
+        private int[] visits;
+        private long[] dwell;
+        private int[] histogram;
+
+        Rollup(int slots, Resolution resolution) {
+            this.resolution = resolution;
+            int size = slots * resolution.buckets;
+            epochs = new long[size];
+            Arrays.fill(epochs, -1);
+            visits = new int[size];
+            dwell = new long[size];
+            histogram = new int[size * BINS];
+        }
+
+        void grow(int slots) {
+            int used = epochs.length;
+            int size = slots * resolution.buckets;
+            epochs = Arrays.copyOf(epochs, size);
+            Arrays.fill(epochs, used, size, -1);
+            visits = Arrays.copyOf(visits, size);
+            dwell = Arrays.copyOf(dwell, size);
+            histogram = Arrays.copyOf(histogram, size * BINS);
+        }
+
+        void add(int slot, long time, long dwellMs) {
+            long epoch = time / resolution.length;
+            int bucket = bucket(slot, epoch);
+            if (epochs[bucket] != epoch) {
+                // The bucket holds an older period, recycle it.
+                epochs[bucket] = epoch;
+                visits[bucket] = 0;
+                dwell[bucket] = 0;
+                Arrays.fill(histogram, bucket * BINS, (bucket + 1) * BINS, 0);
+            }
+            visits[bucket]++;
+            dwell[bucket] += dwellMs;
+            histogram[bucket * BINS + bin(dwellMs)]++;
+        }
+
+        void clear(int slot) {
+            int start = slot * resolution.buckets;
+            Arrays.fill(epochs, start, start + resolution.buckets, -1);
+        }
+
+        /**
+         * Writes the buckets of a slot in use, none for a negative slot.
+         */
+        void write(int slot, DataOutput out) throws IOException {
+            int start = slot * resolution.buckets;
+            int count = 0;
+            for (int i = 0; slot >= 0 && i < resolution.buckets; i++) {
+                if (epochs[start + i] >= 0) count++;
+            }
+            out.writeInt(count);
+            for (int i = 0; count > 0 && i < resolution.buckets; i++) {
+                int bucket = start + i;
+                if (epochs[bucket] < 0) continue;
+                out.writeLong(epochs[bucket]);
+                out.writeInt(visits[bucket]);
+                out.writeLong(dwell[bucket]);
+                int bins = 0;
+                for (int bin = 0; bin < BINS; bin++) {
+                    if (histogram[bucket * BINS + bin] != 0) bins++;
+                }
+                out.writeByte(bins);
+                for (int bin = 0; bin < BINS; bin++) {
+                    if (histogram[bucket * BINS + bin] == 0) continue;
+                    out.writeByte(bin);
+                    out.writeInt(histogram[bucket * BINS + bin]);
+                }
+            }
+        }
+
+        void read(int slot, DataInput in) throws IOException {
+            clear(slot);
+            int count = in.readInt();
+            if (count < 0 || count > resolution.buckets) {
+                throw new IOException("Invalid bucket count " + count);
+            }
+            for (int i = 0; i < count; i++) {
+                long epoch = in.readLong();
+                if (epoch < 0) throw new IOException("Invalid epoch " + epoch);
+                int bucket = bucket(slot, epoch);
+                epochs[bucket] = epoch;
+                visits[bucket] = in.readInt();
+                dwell[bucket] = in.readLong();
+                Arrays.fill(histogram, bucket * BINS, (bucket + 1) * BINS, 0);
+                int bins = in.readUnsignedByte();
+                for (int j = 0; j < bins; j++) {
+                    int bin = in.readUnsignedByte();
+                    if (bin >= BINS) throw new IOException("Invalid bin " + bin);
+                    histogram[bucket * BINS + bin] = in.readInt();
+                }
+            }
+        }
+
+        int visits(int slot, long time) {
+            int bucket = find(slot, time);
+            return bucket < 0 ? 0 : visits[bucket];
+        }
+
+        long totalDwell(int slot, long time) {
+            int bucket = find(slot, time);
+            return bucket < 0 ? 0 : dwell[bucket];
+        }
+
+        long percentile(int slot, long time, double percentile) {
+            int bucket = find(slot, time);
+            if (bucket < 0 || visits[bucket] == 0) return 0;
+
+            int rank = (int) Math.ceil(percentile * visits[bucket]);
+            int count = 0;
+            for (int bin = 0; bin < BINS; bin++) {
+                count += histogram[bucket * BINS + bin];
+                if (count >= rank) return binUpperBound(bin);
+            }
+            return binUpperBound(BINS - 1);
+        }
+
+        private int find(int slot, long time) {
+            long epoch = time / resolution.length;
+            int bucket = bucket(slot, epoch);
+            return epochs[bucket] == epoch ? bucket : -1;
+        }
+
+        private int bucket(int slot, long epoch) {
+            return slot * resolution.buckets + (int) (epoch % resolution.buckets);
+        }
+    }
+}
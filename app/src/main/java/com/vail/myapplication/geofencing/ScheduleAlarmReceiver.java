@@ -0,0 +1,143 @@
+package com.vail.myapplication.geofencing;
+
+import android.Manifest;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
+import android.support.v4.app.ActivityCompat;
+import android.util.Log;
+
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.GeofencingRequest;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.vail.myapplication.Constants;
+import com.vail.myapplication.catalogue.TileCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registers the geofences again when a scheduled fence becomes active or inactive, at the time
+ * given by {@link GeofenceList#getNextChange()}. Only the changed fences are sent to Location
+ * Services, and the alarm is set again for the next change.
+ *
+ * Nothing is done if the geofences were removed meanwhile or the location permission was
+ * revoked.
+ */
+public class ScheduleAlarmReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "ScheduleAlarmReceiver";
+
+    /**
+     * Sets the alarm at {@code time}, replacing the previous one, or cancels it if {@code time}
+     * is {@link Long#MAX_VALUE}.
+     */
+    public static void schedule(Context context, long time) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0,
+                new Intent(context, ScheduleAlarmReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        if (time == Long.MAX_VALUE) {
+            alarmManager.cancel(pendingIntent);
+        } else {
+            // Waking up, a fence that isn't registered can't wake the device when entered.
+            alarmManager.set(AlarmManager.RTC_WAKEUP, time, pendingIntent);
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final Context appContext = context.getApplicationContext();
+        final SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(appContext);
+        if (!sharedPreferences.getBoolean(Constants.GEOFENCES_ADDED_KEY, false)
+                || !sharedPreferences.contains(Constants.LATITUDE_KEY)
+                || ActivityCompat.checkSelfPermission(appContext, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+
+        final PendingResult result = goAsync();
+        GeofenceList.LOADER.execute(new Runnable() {
+            @Override
+            public void run() {
+                GeofenceList list = GeofenceList.build(
+                        Double.parseDouble(sharedPreferences.getString(Constants.LATITUDE_KEY, "0")),
+                        Double.parseDouble(sharedPreferences.getString(Constants.LONGITUDE_KEY, "0")),
+                        sharedPreferences.getInt(Constants.RADIUS_KEY, Constants.MIN_RADIUS),
+                        openFenceTiles(appContext), new FenceCoalescer(),
+                        System.currentTimeMillis());
+                register(appContext, sharedPreferences, list, result);
+            }
+        });
+    }
+
+    @SuppressWarnings("MissingPermission")
+    private static void register(final Context context, final SharedPreferences sharedPreferences,
+                                 final GeofenceList list, final PendingResult result) {
+        final GeofenceRegistry registry =
+                new GeofenceRegistry(sharedPreferences, Constants.REGISTERED_GEOFENCES_KEY);
+        final GeofenceRegistry.Delta delta = registry.diff(list.getFences());
+        GeofencingClient geofencingClient = LocationServices.getGeofencingClient(context);
+
+        List<Task<Void>> tasks = new ArrayList<>(2);
+        if (!delta.getRemovedIds().isEmpty()) {
+            tasks.add(geofencingClient.removeGeofences(delta.getRemovedIds()));
+        }
+        if (!delta.getAdded().isEmpty()) {
+            List<Geofence> geofences = new ArrayList<>();
+            for (CircularFence fence : delta.getAdded()) {
+                geofences.add(fence.toGeofence());
+            }
+            GeofencingRequest request = new GeofencingRequest.Builder()
+                    .setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_ENTER)
+                    .addGeofences(geofences)
+                    .build();
+            PendingIntent pendingIntent = PendingIntent.getService(context, 0,
+                    new Intent(context, GeofenceTransitionsIntentService.class),
+                    PendingIntent.FLAG_UPDATE_CURRENT);
+            tasks.add(geofencingClient.addGeofences(request, pendingIntent));
+        }
+        Tasks.whenAll(tasks).addOnCompleteListener(new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                if (task.isSuccessful()) {
+                    registry.commit(delta);
+                    GeofenceTransitionsIntentService.forgetInsideGeofences(sharedPreferences,
+                            delta.getRemovedIds());
+                    new CoverIndex(sharedPreferences, Constants.GEOFENCE_COVERS_KEY)
+                            .update(list.getCovers(), registry.getRegisteredIds());
+                } else {
+                    Log.w(TAG, "Can't update the geofences", task.getException());
+                }
+                // Set again even after a failure, so the next change is tried anyway.
+                schedule(context, list.getNextChange());
+                result.finish();
+            }
+        });
+    }
+
+    /**
+     * Opens the tiled fence catalogue if one was installed, tiles are loaded on demand.
+     */
+    private static TileCache openFenceTiles(Context context) {
+        File directory = new File(context.getFilesDir(), Constants.FENCE_TILES_DIRECTORY);
+        if (!directory.isDirectory()) return null;
+        try {
+            return TileCache.open(directory, Constants.FENCE_TILES_MEMORY_BUDGET);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't open the fence catalogue", e);
+            return null;
+        }
+    }
+}
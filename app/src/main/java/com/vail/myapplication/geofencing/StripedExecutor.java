@@ -0,0 +1,204 @@
+package com.vail.myapplication.geofencing;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on a fixed set of stripes, each with its own queue and thread.
+ *
+ * Tasks submitted with the same key always run on the same stripe, one at a time and in
+ * submission order, while tasks of keys on other stripes run in parallel. A slow task only
+ * delays the keys sharing its stripe.
+ *
+ * Each stripe reports its queue depth, the number of tasks it ran and the time spent in them.
+ */
+public class StripedExecutor {
+
+    /**
+     * Queued after the last task of every stripe on shutdown.
+     */
+    private static final Runnable STOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private final Stripe[] stripes;
+    private final Thread[] threads;
+    private boolean running = true;
+
+    /**
+     * @param stripeCount Number of stripes, so of threads.
+     * @param name        Prefix of the thread names.
+     */
+    public StripedExecutor(int stripeCount, String name) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Invalid stripe count " + stripeCount);
+        }
+        stripes = new Stripe[stripeCount];
+        threads = new Thread[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+            threads[i] = new Thread(stripes[i], name + "-" + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Queues {@code task} on the stripe of {@code key}.
+     *
+     * @throws RejectedExecutionException if the executor was shut down.
+     */
+    public synchronized void execute(Object key, Runnable task) {
+        if (!running) {
+            throw new RejectedExecutionException("Executor is shut down");
+        }
+        Stripe stripe = stripes[stripeOf(key)];
+        int depth = stripe.depth.incrementAndGet();
+        stripe.updateMaxDepth(depth);
+        stripe.queue.add(task);
+    }
+
+    /**
+     * Returns the stripe running the tasks of {@code key}.
+     */
+    public int stripeOf(Object key) {
+        int hash = key.hashCode();
+        // Spread the high bits, string hashes of similar ids differ in the low ones only.
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % stripes.length;
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Returns the number of tasks queued or running on a stripe.
+     */
+    public int getQueueDepth(int stripe) {
+        return stripes[stripe].depth.get();
+    }
+
+    public int getMaxQueueDepth(int stripe) {
+        return stripes[stripe].maxDepth.get();
+    }
+
+    public long getCompletedTasks(int stripe) {
+        return stripes[stripe].completed.get();
+    }
+
+    /**
+     * Returns the total time in nanoseconds spent running the tasks of a stripe.
+     */
+    public long getProcessingNanos(int stripe) {
+        return stripes[stripe].processingNanos.get();
+    }
+
+    public long getMaxProcessingNanos(int stripe) {
+        return stripes[stripe].maxProcessingNanos.get();
+    }
+
+    /**
+     * Returns one line per stripe with its queue depth and processing times, for logs.
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < stripes.length; i++) {
+            long completed = getCompletedTasks(i);
+            long nanos = getProcessingNanos(i);
+            builder.append("stripe ").append(i)
+                    .append(": depth ").append(getQueueDepth(i))
+                    .append(" (max ").append(getMaxQueueDepth(i))
+                    .append("), tasks ").append(completed)
+                    .append(", mean ").append(completed > 0 ? nanos / completed / 1000 : 0)
+                    .append(" us, max ").append(getMaxProcessingNanos(i) / 1000)
+                    .append(" us\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Stops accepting tasks, the queued ones still run.
+     */
+    public synchronized void shutdown() {
+        if (!running) return;
+        running = false;
+        for (Stripe stripe : stripes) {
+            stripe.queue.add(STOP);
+        }
+    }
+
+    /**
+     * Waits until every queued task ran, after {@link #shutdown()}.
+     *
+     * @return false if the timeout elapsed first.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread thread : threads) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining > 0) {
+                thread.join(remaining);
+            }
+            if (thread.isAlive()) return false;
+        }
+        return true;
+    }
+
+    private final class Stripe implements Runnable {
+        final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+        final AtomicInteger depth = new AtomicInteger();
+        final AtomicInteger maxDepth = new AtomicInteger();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong processingNanos = new AtomicLong();
+        final AtomicLong maxProcessingNanos = new AtomicLong();
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (task == STOP) return;
+
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // Reported as uncaught, the stripe keeps running if the handler returns.
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                } finally {
+                    long elapsed = System.nanoTime() - start;
+                    processingNanos.addAndGet(elapsed);
+                    updateMax(maxProcessingNanos, elapsed);
+                    completed.incrementAndGet();
+                    depth.decrementAndGet();
+                }
+            }
+        }
+
+        void updateMaxDepth(int value) {
+            int max;
+            while (value > (max = maxDepth.get()) && !maxDepth.compareAndSet(max, value)) {
+                // Retry.
+            }
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Retry.
+        }
+    }
+}
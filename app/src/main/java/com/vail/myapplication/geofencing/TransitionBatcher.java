@@ -0,0 +1,173 @@
+package com.vail.myapplication.geofencing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects zone transitions and turns them into at most one notification per group.
+ *
+ * A transition waits {@code windowMs} before being posted, so transitions arriving close
+ * together are merged into one summary and a zone flipping back and forth only shows its
+ * latest state. A zone isn't posted again less than {@code zoneIntervalMs} after its last
+ * notification. Each group keeps the same notification id, so a new summary replaces the
+ * previous one.
+ *
+ * Not thread safe.
+ */
+public class TransitionBatcher {
+
+    private final long windowMs;
+    private final long zoneIntervalMs;
+
+    private final Map<String, ZoneState> zones = new LinkedHashMap<>();
+    private final Map<String, Integer> notificationIds = new HashMap<>();
+
+    private long resolvedTransitions;
+    private long notifications;
+
+    public TransitionBatcher(long windowMs, long zoneIntervalMs) {
+        this.windowMs = windowMs;
+        this.zoneIntervalMs = zoneIntervalMs;
+    }
+
+    /**
+     * Records a transition.
+     *
+     * @return the time at which {@link #flush(long)} should be called next.
+     */
+    public long add(String group, String zone, boolean enter, long now) {
+        ZoneState state = zones.get(zone);
+        if (state == null) {
+            state = new ZoneState(group);
+            zones.put(zone, state);
+        }
+        if (state.pendingTransitions == 0) {
+            state.firstPendingTime = now;
+        }
+        state.group = group;
+        state.pendingEnter = enter;
+        state.pendingTransitions++;
+        return getNextFlushTime();
+    }
+
+    /**
+     * Returns the summaries due at {@code now}, one per group.
+     */
+    public List<Summary> flush(long now) {
+        Map<String, Summary> summaries = new LinkedHashMap<>();
+        for (Map.Entry<String, ZoneState> entry : zones.entrySet()) {
+            ZoneState state = entry.getValue();
+            if (state.pendingTransitions == 0 || now < state.dueTime(windowMs, zoneIntervalMs)) {
+                continue;
+            }
+
+            resolvedTransitions += state.pendingTransitions;
+            state.pendingTransitions = 0;
+            if (state.posted && state.postedEnter == state.pendingEnter) {
+                // The zone came back to the state already shown.
+                continue;
+            }
+
+            state.posted = true;
+            state.postedEnter = state.pendingEnter;
+            state.postedTime = now;
+
+            Summary summary = summaries.get(state.group);
+            if (summary == null) {
+                summary = new Summary(state.group, getNotificationId(state.group));
+                summaries.put(state.group, summary);
+            }
+            (state.postedEnter ? summary.entered : summary.exited).add(entry.getKey());
+        }
+        notifications += summaries.size();
+        return new ArrayList<>(summaries.values());
+    }
+
+    /**
+     * Returns the earliest time at which a pending transition is due, or
+     * {@link Long#MAX_VALUE} if none is pending.
+     */
+    public long getNextFlushTime() {
+        long next = Long.MAX_VALUE;
+        for (ZoneState state : zones.values()) {
+            if (state.pendingTransitions > 0) {
+                next = Math.min(next, state.dueTime(windowMs, zoneIntervalMs));
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Returns the number of notify calls saved compared to posting every transition.
+     */
+    public long getAvoidedNotifications() {
+        return resolvedTransitions - notifications;
+    }
+
+    public long getNotifications() {
+        return notifications;
+    }
+
+    private int getNotificationId(String group) {
+        Integer id = notificationIds.get(group);
+        if (id == null) {
+            id = notificationIds.size();
+            notificationIds.put(group, id);
+        }
+        return id;
+    }
+
+    private static final class ZoneState {
+        String group;
+        boolean posted;
+        boolean postedEnter;
+        long postedTime;
+        boolean pendingEnter;
+        int pendingTransitions;
+        long firstPendingTime;
+
+        ZoneState(String group) {
+            this.group = group;
+        }
+
+        long dueTime(long windowMs, long zoneIntervalMs) {
+            long due = firstPendingTime + windowMs;
+            return posted ? Math.max(due, postedTime + zoneIntervalMs) : due;
+        }
+    }
+
+    /**
+     * Zones of one group whose state changed, to be shown in a single notification.
+     */
+    public static final class Summary {
+        private final String group;
+        private final int notificationId;
+        private final List<String> entered = new ArrayList<>();
+        private final List<String> exited = new ArrayList<>();
+
+        Summary(String group, int notificationId) {
+            this.group = group;
+            this.notificationId = notificationId;
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public int getNotificationId() {
+            return notificationId;
+        }
+
+        public List<String> getEntered() {
+            return Collections.unmodifiableList(entered);
+        }
+
+        public List<String> getExited() {
+            return Collections.unmodifiableList(exited);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.vail.myapplication.geofencing;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.vail.myapplication.Constants;
+import com.vail.myapplication.MainActivity;
+import com.vail.myapplication.R;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Posts transition notifications through a {@link TransitionBatcher}: transitions are collected
+ * for {@link #WINDOW_MS} and posted as one summary per group, replacing the group's previous
+ * notification, and a zone is posted at most once per {@link #ZONE_INTERVAL_MS}.
+ *
+ * Flushes run on the main thread. A caller that must stay alive until its transition is posted,
+ * like a service, passes a callback to {@link #dispatch(String, String, boolean, Runnable)}.
+ */
+public class TransitionNotificationDispatcher {
+
+    private static final String TAG = "TransitionDispatcher";
+
+    static final long WINDOW_MS = 2000;
+    static final long ZONE_INTERVAL_MS = 30 * 1000;
+
+    private static TransitionNotificationDispatcher instance;
+
+    private final Context context;
+    private final SharedPreferences sharedPreferences;
+    private final NotificationManager notificationManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final TransitionBatcher batcher = new TransitionBatcher(WINDOW_MS, ZONE_INTERVAL_MS);
+
+    /**
+     * Run once no transition is pending anymore.
+     */
+    private final List<Runnable> idleCallbacks = new ArrayList<>();
+
+    /**
+     * Avoided notifications already added to the stored total.
+     */
+    private long savedAvoided;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public static synchronized TransitionNotificationDispatcher getInstance(Context context) {
+        if (instance == null) {
+            instance = new TransitionNotificationDispatcher(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private TransitionNotificationDispatcher(Context context) {
+        this.context = context;
+        sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+
+    /**
+     * Records a transition of {@code zone}, it will be posted with the other transitions of
+     * {@code group}.
+     *
+     * @param onIdle Run on the main thread once every pending transition was posted or merged,
+     *               may be null.
+     */
+    public synchronized void dispatch(String group, String zone, boolean enter, Runnable onIdle) {
+        batcher.add(group, zone, enter, SystemClock.elapsedRealtime());
+        if (onIdle != null) idleCallbacks.add(onIdle);
+        schedule();
+    }
+
+    private void flush() {
+        List<Runnable> callbacks;
+        synchronized (this) {
+            List<TransitionBatcher.Summary> summaries = batcher.flush(SystemClock.elapsedRealtime());
+            for (TransitionBatcher.Summary summary : summaries) {
+                notificationManager.notify(summary.getNotificationId(), buildNotification(summary));
+            }
+
+            long avoided = batcher.getAvoidedNotifications();
+            if (!summaries.isEmpty()) {
+                Log.d(TAG, "Posted " + summaries.size() + " notifications, " + avoided + " avoided so far");
+            }
+            if (avoided != savedAvoided) {
+                // Added to the total of the previous processes, the batcher starts from zero.
+                sharedPreferences.edit()
+                        .putLong(Constants.NOTIFICATIONS_AVOIDED_KEY,
+                                sharedPreferences.getLong(Constants.NOTIFICATIONS_AVOIDED_KEY, 0)
+                                        + avoided - savedAvoided)
+                        .apply();
+                savedAvoided = avoided;
+            }
+            schedule();
+            if (batcher.getNextFlushTime() != Long.MAX_VALUE) return;
+            callbacks = new ArrayList<>(idleCallbacks);
+            idleCallbacks.clear();
+        }
+        // Outside the lock, a callback may stop the service.
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    private void schedule() {
+        handler.removeCallbacks(flushRunnable);
+        long next = batcher.getNextFlushTime();
+        if (next == Long.MAX_VALUE) return;
+        handler.postDelayed(flushRunnable, Math.max(0, next - SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * Builds the notification of a summary. If the user clicks the notification, control goes to
+     * the MainActivity.
+     */
+    private Notification buildNotification(TransitionBatcher.Summary summary) {
+        // Create an explicit content Intent that starts the main Activity.
+        Intent notificationIntent = new Intent(context, MainActivity.class);
+
+        // Construct a task stack with the main Activity as the parent.
+        TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+        stackBuilder.addParentStack(MainActivity.class);
+        stackBuilder.addNextIntent(notificationIntent);
+
+        // Get a PendingIntent containing the entire back stack.
+        PendingIntent notificationPendingIntent =
+                stackBuilder.getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        List<String> entered = summary.getEntered();
+        List<String> exited = summary.getExited();
+        String title;
+        String text;
+        if (entered.size() + exited.size() == 1) {
+            title = context.getString(entered.isEmpty() ? R.string.geofence_transition_exited
+                    : R.string.geofence_transition_entered);
+            text = context.getString(R.string.geofence_transition_notification_text);
+        } else {
+            title = context.getString(R.string.geofence_transition_summary, entered.size(), exited.size());
+            if (exited.isEmpty()) {
+                text = context.getString(R.string.geofence_transition_summary_entered,
+                        TextUtils.join(", ", entered));
+            } else if (entered.isEmpty()) {
+                text = context.getString(R.string.geofence_transition_summary_exited,
+                        TextUtils.join(", ", exited));
+            } else {
+                text = context.getString(R.string.geofence_transition_summary_both,
+                        TextUtils.join(", ", entered), TextUtils.join(", ", exited));
+            }
+        }
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context);
+        builder.setSmallIcon(R.mipmap.ic_launcher)
+                .setLargeIcon(BitmapFactory.decodeResource(context.getResources(),
+                        R.mipmap.ic_launcher))
+                .setColor(Color.RED)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setContentIntent(notificationPendingIntent)
+                .setOnlyAlertOnce(true);
+
+        // Dismiss notification once the user touches it.
+        builder.setAutoCancel(true);
+        return builder.build();
+    }
+}
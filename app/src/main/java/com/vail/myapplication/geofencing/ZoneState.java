@@ -0,0 +1,42 @@
+package com.vail.myapplication.geofencing;
+
+/**
+ * Immutable state of the combined zone: the device is in the zone when its selected wifi
+ * network is accessible or when it is inside a geofence.
+ */
+public final class ZoneState {
+
+    private final boolean wifiAccessible;
+    private final boolean inGeofence;
+    private final long time;
+
+    /**
+     * @param time Wall clock time of the change, in milliseconds.
+     */
+    public ZoneState(boolean wifiAccessible, boolean inGeofence, long time) {
+        this.wifiAccessible = wifiAccessible;
+        this.inGeofence = inGeofence;
+        this.time = time;
+    }
+
+    public boolean isWifiAccessible() {
+        return wifiAccessible;
+    }
+
+    public boolean isInGeofence() {
+        return inGeofence;
+    }
+
+    public boolean isInZone() {
+        return wifiAccessible || inGeofence;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return "ZoneState[wifi=" + wifiAccessible + ", geofence=" + inGeofence + ", time=" + time + "]";
+    }
+}
@@ -0,0 +1,298 @@
+package com.vail.myapplication.geofencing;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the changes of the combined zone state to any number of subscribers, so consumers
+ * react to them instead of polling the preferences.
+ *
+ * Every subscriber gets its items on its own {@link Executor}, in order, and only as many as it
+ * requested. Items it didn't request yet wait in a buffer of {@link #DEFAULT_BUFFER_SIZE}
+ * states per subscriber. When a slow subscriber's buffer is full the oldest state is dropped:
+ * the subscriber misses intermediate states but always ends up with the latest one, and never
+ * holds back the publisher or the other subscribers.
+ *
+ * New subscribers first get the current state, if any was published.
+ */
+public class ZoneStatePublisher implements Flow.Publisher<ZoneState> {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16;
+
+    private static ZoneStatePublisher instance;
+    private static ExecutorService defaultExecutor;
+
+    private final int bufferSize;
+    private final CopyOnWriteArrayList<ZoneSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong conflated = new AtomicLong();
+
+    /**
+     * Last state published, and whether the publisher was closed, guarded by this.
+     */
+    private ZoneState current;
+    private boolean closed;
+
+    /**
+     * Returns the publisher of the zone state of this device.
+     */
+    public static synchronized ZoneStatePublisher getInstance() {
+        if (instance == null) {
+            instance = new ZoneStatePublisher(DEFAULT_BUFFER_SIZE);
+        }
+        return instance;
+    }
+
+    public ZoneStatePublisher(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Subscribes with items delivered on a shared background thread pool.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super ZoneState> subscriber) {
+        subscribe(subscriber, getDefaultExecutor());
+    }
+
+    /**
+     * Subscribes with items delivered on {@code executor}, such as the main thread.
+     */
+    public synchronized void subscribe(Flow.Subscriber<? super ZoneState> subscriber, Executor executor) {
+        ZoneSubscription subscription = new ZoneSubscription(subscriber, executor);
+        if (closed) {
+            subscription.complete();
+            return;
+        }
+        subscriptions.add(subscription);
+        if (current != null) {
+            subscription.offer(current);
+        } else {
+            subscription.schedule();
+        }
+    }
+
+    /**
+     * Sends a state to every subscriber, never blocks.
+     */
+    public synchronized void publish(ZoneState state) {
+        if (closed) {
+            throw new IllegalStateException("Publisher closed");
+        }
+        current = state;
+        published.incrementAndGet();
+        for (ZoneSubscription subscription : subscriptions) {
+            subscription.offer(state);
+        }
+    }
+
+    /**
+     * Returns the last state published, or null if none was.
+     */
+    public synchronized ZoneState getCurrent() {
+        return current;
+    }
+
+    /**
+     * Completes every subscription once its buffered states are delivered.
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        for (ZoneSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+        subscriptions.clear();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * Number of states dropped from the buffers of slow subscribers.
+     */
+    public long getConflatedCount() {
+        return conflated.get();
+    }
+
+    private static synchronized Executor getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ZoneStatePublisher-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Ring buffer of the states not delivered yet. Deliveries are drained on the executor by at
+     * most one task at a time, the work counter tells it to loop when more was signalled while
+     * it ran.
+     */
+    private final class ZoneSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super ZoneState> subscriber;
+        private final Executor executor;
+        private final AtomicInteger work = new AtomicInteger();
+
+        /**
+         * Guarded by this.
+         */
+        private final ZoneState[] buffer = new ZoneState[bufferSize];
+        private int head;
+        private int count;
+        private long demand;
+        private boolean cancelled;
+        private boolean completed;
+        private Throwable error;
+
+        /**
+         * Only touched by the draining task.
+         */
+        private boolean subscribed;
+        private boolean terminated;
+
+        ZoneSubscription(Flow.Subscriber<? super ZoneState> subscriber, Executor executor) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+        }
+
+        void offer(ZoneState state) {
+            synchronized (this) {
+                if (cancelled || completed) return;
+                if (count == buffer.length) {
+                    buffer[head] = null;
+                    head = (head + 1) % buffer.length;
+                    count--;
+                    conflated.incrementAndGet();
+                }
+                buffer[(head + count) % buffer.length] = state;
+                count++;
+            }
+            schedule();
+        }
+
+        void complete() {
+            synchronized (this) {
+                completed = true;
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (cancelled) return;
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Non-positive request " + n);
+                    cancelled = true;
+                    clear();
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            if (n <= 0) subscriptions.remove(this);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        void schedule() {
+            if (work.getAndIncrement() != 0) return;
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // The executor is shutting down, nothing can be delivered anymore.
+                cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (terminated) return;
+            if (!subscribed) {
+                subscribed = true;
+                subscriber.onSubscribe(this);
+            }
+            while (true) {
+                ZoneState state;
+                Throwable failure = null;
+                boolean done = false;
+                synchronized (this) {
+                    if (error != null) {
+                        failure = error;
+                        error = null;
+                    }
+                    if (failure != null || cancelled) {
+                        state = null;
+                    } else if (demand > 0 && count > 0) {
+                        state = buffer[head];
+                        buffer[head] = null;
+                        head = (head + 1) % buffer.length;
+                        count--;
+                        if (demand != Long.MAX_VALUE) demand--;
+                    } else {
+                        state = null;
+                        done = completed && count == 0;
+                        if (done) cancelled = true;
+                    }
+                }
+                if (failure != null) {
+                    terminated = true;
+                    subscriber.onError(failure);
+                    return;
+                }
+                if (done) {
+                    terminated = true;
+                    subscriber.onComplete();
+                    return;
+                }
+                if (state == null) return;
+                subscriber.onNext(state);
+            }
+        }
+
+        private void clear() {
+            for (int i = 0; i < count; i++) {
+                buffer[(head + i) % buffer.length] = null;
+            }
+            count = 0;
+        }
+    }
+}
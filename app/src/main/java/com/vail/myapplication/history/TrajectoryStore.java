@@ -0,0 +1,364 @@
+package com.vail.myapplication.history;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Append-only compressed history of location fixes and zone transitions, stored in one file.
+ *
+ * Fixes are grouped in blocks of at most {@link #BLOCK_FIXES}. A block starts with a
+ * little-endian header holding its first fix in full, then every following fix is encoded as
+ * zig-zag varints of:
+ *
+ * <ul>
+ * <li>the change of the time step since the previous fix (delta of delta) shifted left by two,
+ * with the event in the two low bits; 1 byte when fixes come at a steady rate,</li>
+ * <li>the latitude and longitude changes in units of 1e-6 degree, about 11 cm and well below
+ * GPS accuracy; 1 or 2 bytes each for a walking or driving device.</li>
+ * </ul>
+ *
+ * <pre>
+ * block header  {@link #HEADER_SIZE} bytes
+ *   int  payload length
+ *   int  fix count
+ *   long first time
+ *   long last time
+ *   int  first latitude      degrees * 1e6
+ *   int  first longitude     degrees * 1e6
+ * payload       varints of every fix after the first
+ * </pre>
+ *
+ * A fix costs 3 to 5 bytes instead of 24 for a time and two doubles. Fixes are written to the
+ * open block in place, so a block grows across {@link #flush()} calls and the header is
+ * updated after the payload: a crash loses at most the fixes written since the last flush.
+ * The block headers are kept in memory, so a time range query only decodes the blocks it
+ * overlaps.
+ *
+ * Not thread safe.
+ */
+public class TrajectoryStore implements Closeable {
+
+    public static final int EVENT_NONE = 0;
+    public static final int EVENT_ENTER = 1;
+    public static final int EVENT_EXIT = 2;
+
+    public static final int BLOCK_FIXES = 256;
+
+    static final int HEADER_SIZE = 32;
+    static final double COORDINATE_SCALE = 1e6;
+
+    /**
+     * Largest encoded fix: three varints of at most 10 bytes.
+     */
+    private static final int MAX_FIX_SIZE = 30;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    /**
+     * Offsets and time ranges of the blocks, the last one is the open block.
+     */
+    private long[] blockOffsets = new long[16];
+    private long[] blockFirstTimes = new long[16];
+    private long[] blockLastTimes = new long[16];
+    private int blockCount;
+
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer pending = ByteBuffer.allocate(BLOCK_FIXES * MAX_FIX_SIZE);
+    private ByteBuffer readBuffer = ByteBuffer.allocate(0);
+
+    // State of the open block.
+    private int payloadLength;
+    private int fixCount;
+    private long firstTime;
+    private int firstLatitude;
+    private int firstLongitude;
+    private long lastTime;
+    private long lastStep;
+    private int lastLatitude;
+    private int lastLongitude;
+
+    /**
+     * Opens or creates a store. Bytes after the last complete fix, left by a crash, are
+     * dropped and the last block is reopened for appending.
+     */
+    public static TrajectoryStore open(File file) throws IOException {
+        return new TrajectoryStore(new RandomAccessFile(file, "rw"));
+    }
+
+    private TrajectoryStore(RandomAccessFile file) throws IOException {
+        this.file = file;
+        this.channel = file.getChannel();
+        try {
+            load();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Scans the block headers and restores the state of the last block.
+     */
+    private void load() throws IOException {
+        long size = channel.size();
+        long offset = 0;
+        while (offset + HEADER_SIZE <= size) {
+            readHeader(offset);
+            long end = offset + HEADER_SIZE + header.getInt(0);
+            if (header.getInt(0) < 0 || header.getInt(4) <= 0 || end > size) break;
+            addBlock(offset, header.getLong(8), header.getLong(16));
+            offset = end;
+        }
+        channel.truncate(offset);
+
+        if (blockCount > 0) {
+            // Decode the last block to continue it.
+            readHeader(blockOffsets[blockCount - 1]);
+            payloadLength = header.getInt(0);
+            firstTime = header.getLong(8);
+            firstLatitude = header.getInt(24);
+            firstLongitude = header.getInt(28);
+            decodeBlock(blockCount - 1, Long.MIN_VALUE, Long.MAX_VALUE, new Visitor() {
+                @Override
+                public void visit(long time, double latitude, double longitude, int event) {
+                }
+            });
+        }
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Returns the time of the last fix, or {@link Long#MIN_VALUE} if the store is empty.
+     */
+    public long getLastTime() {
+        return blockCount > 0 ? lastTime : Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns the size of the file in bytes, fixes not flushed yet are not counted.
+     */
+    public long getSize() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Appends a fix, times must not decrease.
+     *
+     * @param event {@link #EVENT_NONE}, {@link #EVENT_ENTER} or {@link #EVENT_EXIT}.
+     */
+    public void append(long time, double latitude, double longitude, int event) throws IOException {
+        if (event < EVENT_NONE || event > EVENT_EXIT) {
+            throw new IllegalArgumentException("Invalid event " + event);
+        }
+        if (blockCount > 0 && time < lastTime) {
+            throw new IllegalArgumentException("Time " + time + " before " + lastTime);
+        }
+        int fixedLatitude = (int) Math.round(latitude * COORDINATE_SCALE);
+        int fixedLongitude = (int) Math.round(longitude * COORDINATE_SCALE);
+
+        if (blockCount == 0 || fixCount == BLOCK_FIXES) {
+            flush();
+            startBlock(time, fixedLatitude, fixedLongitude, event);
+            return;
+        }
+
+        long step = time - lastTime;
+        putVarint(pending, (zigZag(step - lastStep) << 2) | event);
+        putVarint(pending, zigZag(fixedLatitude - lastLatitude));
+        putVarint(pending, zigZag(fixedLongitude - lastLongitude));
+        lastStep = step;
+        lastTime = time;
+        lastLatitude = fixedLatitude;
+        lastLongitude = fixedLongitude;
+        fixCount++;
+        blockLastTimes[blockCount - 1] = time;
+    }
+
+    private void startBlock(long time, int latitude, int longitude, int event) throws IOException {
+        long offset = channel.size();
+        addBlock(offset, time, time);
+        payloadLength = 0;
+        fixCount = 1;
+        firstTime = time;
+        firstLatitude = latitude;
+        firstLongitude = longitude;
+        lastTime = time;
+        lastStep = 0;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        // The event of the first fix goes first in the payload.
+        putVarint(pending, event);
+    }
+
+    /**
+     * Writes the pending fixes, then the header of the open block.
+     */
+    public void flush() throws IOException {
+        if (blockCount == 0) return;
+        long offset = blockOffsets[blockCount - 1];
+        pending.flip();
+        long position = offset + HEADER_SIZE + payloadLength;
+        while (pending.hasRemaining()) {
+            position += channel.write(pending, position);
+        }
+        payloadLength += pending.limit();
+        pending.clear();
+
+        header.clear();
+        header.putInt(payloadLength)
+                .putInt(fixCount)
+                .putLong(firstTime)
+                .putLong(lastTime)
+                .putInt(firstLatitude)
+                .putInt(firstLongitude)
+                .flip();
+        while (header.hasRemaining()) {
+            channel.write(header, offset + header.position());
+        }
+    }
+
+    /**
+     * Calls {@code visitor} for every fix from {@code from} to {@code to} inclusive, in time
+     * order. Pending fixes are flushed first.
+     */
+    public void forEach(long from, long to, Visitor visitor) throws IOException {
+        flush();
+        // First block that may hold fixes at or after from.
+        int low = 0;
+        int high = blockCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (blockLastTimes[mid] < from) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int block = low; block < blockCount && blockFirstTimes[block] <= to; block++) {
+            decodeBlock(block, from, to, visitor);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Decodes a whole block, leaving the decoder state in the fields of the open block.
+     */
+    private void decodeBlock(int block, long from, long to, Visitor visitor) throws IOException {
+        long offset = blockOffsets[block];
+        readHeader(offset);
+        int length = header.getInt(0);
+        int count = header.getInt(4);
+        long time = header.getLong(8);
+        int latitude = header.getInt(24);
+        int longitude = header.getInt(28);
+
+        if (readBuffer.capacity() < length) {
+            readBuffer = ByteBuffer.allocate(length);
+        }
+        readBuffer.clear().limit(length);
+        long position = offset + HEADER_SIZE;
+        while (readBuffer.hasRemaining()) {
+            int read = channel.read(readBuffer, position);
+            if (read < 0) throw new IOException("Truncated block at " + offset);
+            position += read;
+        }
+        readBuffer.flip();
+
+        int event = (int) getVarint(readBuffer);
+        long step = 0;
+        int decoded = 1;
+        if (time >= from && time <= to) {
+            visitor.visit(time, latitude / COORDINATE_SCALE, longitude / COORDINATE_SCALE, event);
+        }
+        while (decoded < count && time <= to) {
+            long value = getVarint(readBuffer);
+            step += unZigZag(value >>> 2);
+            time += step;
+            event = (int) (value & 3);
+            latitude += (int) unZigZag(getVarint(readBuffer));
+            longitude += (int) unZigZag(getVarint(readBuffer));
+            decoded++;
+            if (time >= from && time <= to) {
+                visitor.visit(time, latitude / COORDINATE_SCALE, longitude / COORDINATE_SCALE, event);
+            }
+        }
+
+        if (block == blockCount - 1 && decoded == count) {
+            fixCount = count;
+            lastTime = time;
+            lastStep = step;
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+        }
+    }
+
+    private void readHeader(long offset) throws IOException {
+        header.clear();
+        while (header.hasRemaining()) {
+            if (channel.read(header, offset + header.position()) < 0) {
+                throw new IOException("Truncated header at " + offset);
+            }
+        }
+        header.flip();
+    }
+
+    private void addBlock(long offset, long first, long last) {
+        if (blockCount == blockOffsets.length) {
+            int capacity = blockCount * 2;
+            blockOffsets = Arrays.copyOf(blockOffsets, capacity);
+            blockFirstTimes = Arrays.copyOf(blockFirstTimes, capacity);
+            blockLastTimes = Arrays.copyOf(blockLastTimes, capacity);
+        }
+        blockOffsets[blockCount] = offset;
+        blockFirstTimes[blockCount] = first;
+        blockLastTimes[blockCount] = last;
+        blockCount++;
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    public interface Visitor {
+        void visit(long time, double latitude, double longitude, int event);
+    }
+}
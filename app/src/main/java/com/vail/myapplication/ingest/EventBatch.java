@@ -0,0 +1,93 @@
+package com.vail.myapplication.ingest;
+
+import com.vail.myapplication.engine.ZoneEvaluator;
+
+/**
+ * Fixed capacity batch of decoded events stored in primitive arrays. Batches are pooled and
+ * reused, so decoding doesn't allocate.
+ */
+public final class EventBatch {
+
+    private final byte[] types;
+    private final int[] devices;
+    private final long[] times;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final boolean[] accessible;
+    private int size;
+
+    public EventBatch(int capacity) {
+        types = new byte[capacity];
+        devices = new int[capacity];
+        times = new long[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        accessible = new boolean[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == types.length;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    void addPosition(int device, long time, double latitude, double longitude) {
+        types[size] = IngestProtocol.TYPE_POSITION;
+        devices[size] = device;
+        times[size] = time;
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        size++;
+    }
+
+    void addWifi(int device, long time, boolean wifiAccessible) {
+        types[size] = IngestProtocol.TYPE_WIFI;
+        devices[size] = device;
+        times[size] = time;
+        accessible[size] = wifiAccessible;
+        size++;
+    }
+
+    public byte getType(int index) {
+        return types[index];
+    }
+
+    public int getDevice(int index) {
+        return devices[index];
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    public boolean isAccessible(int index) {
+        return accessible[index];
+    }
+
+    /**
+     * Feeds every event of the batch to the evaluator, in order.
+     */
+    public void applyTo(ZoneEvaluator evaluator) {
+        for (int i = 0; i < size; i++) {
+            if (types[i] == IngestProtocol.TYPE_POSITION) {
+                evaluator.onPosition(devices[i], latitudes[i], longitudes[i], times[i]);
+            } else {
+                evaluator.onWifi(devices[i], accessible[i], times[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.vail.myapplication.ingest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary protocol of the ingest endpoint.
+ *
+ * A stream of big-endian frames, each made of an {@code int} payload length followed by the
+ * payload. The first payload byte is the message type:
+ *
+ * <pre>
+ * POSITION  byte type, int device, long time, double latitude, double longitude
+ * WIFI      byte type, int device, long time, byte accessible
+ * </pre>
+ */
+public final class IngestProtocol {
+
+    public static final byte TYPE_POSITION = 1;
+    public static final byte TYPE_WIFI = 2;
+
+    public static final int LENGTH_SIZE = 4;
+    public static final int POSITION_SIZE = 1 + 4 + 8 + 8 + 8;
+    public static final int WIFI_SIZE = 1 + 4 + 8 + 1;
+    public static final int MAX_PAYLOAD_SIZE = POSITION_SIZE;
+
+    private IngestProtocol() {}
+
+    public static void putPosition(ByteBuffer buffer, int device, long time,
+                                   double latitude, double longitude) {
+        buffer.putInt(POSITION_SIZE)
+                .put(TYPE_POSITION)
+                .putInt(device)
+                .putLong(time)
+                .putDouble(latitude)
+                .putDouble(longitude);
+    }
+
+    public static void putWifi(ByteBuffer buffer, int device, long time, boolean accessible) {
+        buffer.putInt(WIFI_SIZE)
+                .put(TYPE_WIFI)
+                .putInt(device)
+                .putLong(time)
+                .put((byte) (accessible ? 1 : 0));
+    }
+}
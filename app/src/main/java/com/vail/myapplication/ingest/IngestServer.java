@@ -0,0 +1,390 @@
+package com.vail.myapplication.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking socket endpoint receiving device positions and wifi events in the
+ * {@link IngestProtocol} format from many producers.
+ *
+ * A selector thread decodes frames from pooled direct buffers into pooled {@link EventBatch}es,
+ * and a worker thread hands full batches to a {@link BatchHandler}, typically a
+ * {@link com.vail.myapplication.engine.ZoneEvaluator}. The number of batches is fixed: when the
+ * handler falls behind and no free batch is left, the selector stops reading from every
+ * connection until one is returned, so TCP flow control pushes back on the producers.
+ */
+public class IngestServer implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final long WORKER_POLL_MS = 100;
+
+    private final InetSocketAddress address;
+    private final BatchHandler handler;
+    private final BlockingQueue<EventBatch> free;
+    private final BlockingQueue<EventBatch> ready;
+    private final BufferPool bufferPool;
+    private final ArrayDeque<Connection> stalled = new ArrayDeque<>();
+
+    private final AtomicLong receivedEvents = new AtomicLong();
+    private final AtomicLong processedEvents = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong protocolErrors = new AtomicLong();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private Thread workerThread;
+    private volatile boolean running;
+    private volatile boolean paused;
+    private volatile boolean holdingPartial;
+    private volatile IOException failure;
+
+    /**
+     * Batch being filled by the selector thread, null when none is free.
+     */
+    private EventBatch current;
+
+    /**
+     * @param address          Address to listen on, port 0 picks a free port.
+     * @param batchSize        Number of events per batch.
+     * @param maxQueuedBatches Number of batches that can wait for the handler.
+     * @param handler          Called on the worker thread for every batch.
+     */
+    public IngestServer(InetSocketAddress address, int batchSize, int maxQueuedBatches,
+                        BatchHandler handler) {
+        if (batchSize <= 0 || maxQueuedBatches <= 0) {
+            throw new IllegalArgumentException("Batch size and queue size must be positive");
+        }
+        this.address = address;
+        this.handler = handler;
+
+        // One more batch than can be queued, so the selector can keep filling one.
+        int batchCount = maxQueuedBatches + 1;
+        free = new ArrayBlockingQueue<>(batchCount);
+        ready = new ArrayBlockingQueue<>(batchCount);
+        for (int i = 0; i < batchCount; i++) {
+            free.add(new EventBatch(batchSize));
+        }
+        bufferPool = new BufferPool(DEFAULT_BUFFER_SIZE, 64);
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) return;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().bind(address);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        current = free.poll();
+        running = true;
+
+        selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runSelector();
+            }
+        }, "IngestSelector");
+        workerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWorker();
+            }
+        }, "IngestWorker");
+        selectorThread.start();
+        workerThread.start();
+    }
+
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public long getReceivedEvents() {
+        return receivedEvents.get();
+    }
+
+    public long getProcessedEvents() {
+        return processedEvents.get();
+    }
+
+    /**
+     * Number of times reading was suspended because the handler fell behind.
+     */
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    public long getProtocolErrors() {
+        return protocolErrors.get();
+    }
+
+    /**
+     * Returns the error that stopped the selector thread, if any.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+        }
+        selector.wakeup();
+        try {
+            selectorThread.join();
+            workerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runSelector() {
+        try {
+            while (running) {
+                if (paused && !free.isEmpty()) {
+                    resume();
+                }
+
+                // Don't let events wait in a partial batch while the handler is idle. The flag
+                // is set before checking the queue, so either this thread sees the queue drained
+                // or the worker sees the flag and wakes the selector up.
+                if (current != null && current.size() > 0) {
+                    holdingPartial = true;
+                    if (ready.isEmpty()) {
+                        handOff();
+                    }
+                }
+
+                selector.select();
+                holdingPartial = false;
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read((Connection) key.attachment());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            running = false;
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Ignore, shutting down.
+            }
+        }
+    }
+
+    private void runWorker() {
+        while (running || !ready.isEmpty()) {
+            EventBatch batch;
+            try {
+                batch = ready.poll(WORKER_POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch == null) continue;
+
+            handler.onBatch(batch);
+            processedEvents.addAndGet(batch.size());
+            batch.clear();
+            free.add(batch);
+            if (paused || (holdingPartial && ready.isEmpty())) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        Connection connection = new Connection(channel, bufferPool.acquire());
+        connection.key = channel.register(selector, paused ? 0 : SelectionKey.OP_READ, connection);
+    }
+
+    private void read(Connection connection) {
+        int count;
+        try {
+            count = connection.channel.read(connection.buffer);
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        if (count < 0) {
+            close(connection);
+            return;
+        }
+        if (!decode(connection)) {
+            stall(connection);
+        }
+    }
+
+    /**
+     * Decodes every complete frame in the connection buffer.
+     *
+     * @return false if decoding stopped because no batch is free.
+     */
+    private boolean decode(Connection connection) {
+        ByteBuffer buffer = connection.buffer;
+        buffer.flip();
+        int decoded = 0;
+        boolean batchAvailable = true;
+        while (buffer.remaining() >= IngestProtocol.LENGTH_SIZE) {
+            int position = buffer.position();
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > IngestProtocol.MAX_PAYLOAD_SIZE) {
+                protocolError(connection, decoded);
+                return true;
+            }
+            if (buffer.remaining() < IngestProtocol.LENGTH_SIZE + length) break;
+
+            if ((current == null || current.isFull()) && !nextBatch()) {
+                batchAvailable = false;
+                break;
+            }
+
+            int payload = position + IngestProtocol.LENGTH_SIZE;
+            byte type = buffer.get(payload);
+            if (type == IngestProtocol.TYPE_POSITION && length == IngestProtocol.POSITION_SIZE) {
+                current.addPosition(buffer.getInt(payload + 1), buffer.getLong(payload + 5),
+                        buffer.getDouble(payload + 13), buffer.getDouble(payload + 21));
+            } else if (type == IngestProtocol.TYPE_WIFI && length == IngestProtocol.WIFI_SIZE) {
+                current.addWifi(buffer.getInt(payload + 1), buffer.getLong(payload + 5),
+                        buffer.get(payload + 13) != 0);
+            } else {
+                protocolError(connection, decoded);
+                return true;
+            }
+            decoded++;
+            buffer.position(payload + length);
+        }
+        buffer.compact();
+        receivedEvents.addAndGet(decoded);
+        return batchAvailable;
+    }
+
+    private void protocolError(Connection connection, int decoded) {
+        receivedEvents.addAndGet(decoded);
+        protocolErrors.incrementAndGet();
+        close(connection);
+    }
+
+    /**
+     * Queues the current batch if it holds events and takes a free one.
+     *
+     * @return false if no batch is free.
+     */
+    private boolean nextBatch() {
+        if (current != null && current.size() > 0) {
+            handOff();
+        }
+        if (current == null) {
+            current = free.poll();
+        }
+        return current != null;
+    }
+
+    private void handOff() {
+        // Never fails: the ready queue can hold every batch.
+        ready.add(current);
+        current = free.poll();
+    }
+
+    /**
+     * Stops reading from every connection until a batch is free again.
+     */
+    private void stall(Connection connection) {
+        stalled.add(connection);
+        if (paused) return;
+        paused = true;
+        stalls.incrementAndGet();
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Connection) {
+                key.interestOps(0);
+            }
+        }
+    }
+
+    /**
+     * Decodes the data left in stalled connections and resumes reading once all are drained.
+     */
+    private void resume() {
+        while (!stalled.isEmpty()) {
+            Connection connection = stalled.peekFirst();
+            if (connection.buffer != null && !decode(connection)) return;
+            stalled.pollFirst();
+        }
+        paused = false;
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Connection) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    private void close(Connection connection) {
+        closeQuietly(connection.key);
+    }
+
+    private void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Ignore, the connection is gone anyway.
+        }
+        if (key.attachment() instanceof Connection) {
+            Connection connection = (Connection) key.attachment();
+            if (connection.buffer != null) {
+                bufferPool.release(connection.buffer);
+                connection.buffer = null;
+            }
+        }
+    }
+
+    public interface BatchHandler {
+        /**
+         * Processes a batch. The batch is reused once this returns.
+         */
+        void onBatch(EventBatch batch);
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        ByteBuffer buffer;
+        SelectionKey key;
+
+        Connection(SocketChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
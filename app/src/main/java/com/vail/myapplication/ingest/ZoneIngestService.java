@@ -0,0 +1,75 @@
+package com.vail.myapplication.ingest;
+
+import com.vail.myapplication.engine.FenceConfigWatcher;
+import com.vail.myapplication.engine.PositionFilter;
+import com.vail.myapplication.engine.ZoneEvaluator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Evaluates the zone state of the devices reporting to an {@link IngestServer} against the
+ * fences of a catalogue file.
+ *
+ * The file is watched by a {@link FenceConfigWatcher} which is the {@link ZoneEvaluator}'s
+ * source of fences: replacing the file changes the fences without restarting the service, the
+ * devices are checked against the new ones on their next fix. Batches are applied to the
+ * evaluator on the server's worker thread, which is where the listener is called.
+ */
+public class ZoneIngestService implements Closeable {
+
+    private final FenceConfigWatcher watcher;
+    private final ZoneEvaluator evaluator;
+    private final IngestServer server;
+
+    /**
+     * @param fenceFile      {@link com.vail.myapplication.catalogue.FenceCatalogue} to evaluate,
+     *                       there are no fences until it exists.
+     * @param pollIntervalMs How often the file is checked for changes.
+     * @param filter         Filter of the fixes with an accuracy, null if none.
+     * @param maxSpeed       Highest speed of the devices in m/s, see {@link ZoneEvaluator}.
+     * @see IngestServer#IngestServer(InetSocketAddress, int, int, IngestServer.BatchHandler)
+     */
+    public ZoneIngestService(InetSocketAddress address, int batchSize, int maxQueuedBatches,
+                             File fenceFile, long pollIntervalMs, PositionFilter filter,
+                             float maxSpeed, ZoneEvaluator.Listener listener) {
+        watcher = new FenceConfigWatcher(fenceFile, pollIntervalMs);
+        evaluator = new ZoneEvaluator(watcher, filter, maxSpeed, listener);
+        server = new IngestServer(address, batchSize, maxQueuedBatches,
+                new IngestServer.BatchHandler() {
+                    @Override
+                    public void onBatch(EventBatch batch) {
+                        batch.applyTo(evaluator);
+                    }
+                });
+    }
+
+    /**
+     * Starts watching the file and listening. The file is first read on the watcher's thread,
+     * fixes received before that are evaluated against no fences.
+     */
+    public void start() throws IOException {
+        watcher.start();
+        server.start();
+    }
+
+    public int getLocalPort() {
+        return server.getLocalPort();
+    }
+
+    public FenceConfigWatcher getWatcher() {
+        return watcher;
+    }
+
+    public IngestServer getServer() {
+        return server;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        watcher.close();
+    }
+}
@@ -0,0 +1,213 @@
+package com.vail.myapplication.wifi;
+
+import android.net.wifi.ScanResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Read-only table of known access point positions, backed by a memory-mapped file.
+ *
+ * Access points are keyed by their BSSID as a 48 bit number. Keys are stored apart from the
+ * positions, so the binary search of a lookup only touches the key table: about 20 probes for a
+ * million access points, the last ones in the same pages. The file is little-endian:
+ *
+ * <pre>
+ * header          {@link #HEADER_SIZE} bytes
+ *   int   magic   {@link #MAGIC}
+ *   short version {@link #VERSION}
+ *   short header size
+ *   int   access point count
+ *   int   position record size {@link #RECORD_SIZE}
+ * keys, one per access point, sorted
+ *   long  bssid
+ * positions, in the order of the keys
+ *   int   latitude   degrees * 1e7
+ *   int   longitude  degrees * 1e7
+ *   float range      metres, how far the access point is usually seen
+ * </pre>
+ *
+ * Files are written by {@link AccessPointDatabaseWriter}.
+ */
+public class AccessPointDatabase {
+
+    public static final int MAGIC = 0x31504147; // "GAP1"
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 12;
+
+    static final double COORDINATE_SCALE = 1e7;
+
+    /**
+     * Signal level in dBm at which an access point counts as much as one at its range.
+     */
+    static final int REFERENCE_LEVEL = -90;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int positionsOffset;
+
+    /**
+     * Maps the whole file. The mapping stays valid after the file is closed.
+     *
+     * @throws IOException if the file can't be read or isn't a valid database.
+     */
+    public static AccessPointDatabase open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new AccessPointDatabase(buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Wraps a buffer holding a whole database.
+     *
+     * @throws IOException if the buffer isn't a valid database.
+     */
+    public AccessPointDatabase(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int size = this.buffer.capacity();
+        if (size < HEADER_SIZE || this.buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an access point database");
+        }
+        if (this.buffer.getShort(4) != VERSION) {
+            throw new IOException("Unsupported access point database version " + this.buffer.getShort(4));
+        }
+        if (this.buffer.getInt(12) != RECORD_SIZE) {
+            throw new IOException("Unexpected position record size " + this.buffer.getInt(12));
+        }
+        count = this.buffer.getInt(8);
+        if (count < 0 || HEADER_SIZE + (8L + RECORD_SIZE) * count > size) {
+            throw new IOException("Truncated access point database");
+        }
+        positionsOffset = HEADER_SIZE + 8 * count;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the index of an access point, or -1 if it isn't known.
+     */
+    public int find(long bssid) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = buffer.getLong(HEADER_SIZE + 8 * mid);
+            if (value < bssid) {
+                low = mid + 1;
+            } else if (value > bssid) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public int find(String bssid) {
+        long key = parseBssid(bssid);
+        return key < 0 ? -1 : find(key);
+    }
+
+    public long getBssid(int index) {
+        checkIndex(index);
+        return buffer.getLong(HEADER_SIZE + 8 * index);
+    }
+
+    public double getLatitude(int index) {
+        checkIndex(index);
+        return buffer.getInt(positionsOffset + index * RECORD_SIZE) / COORDINATE_SCALE;
+    }
+
+    public double getLongitude(int index) {
+        checkIndex(index);
+        return buffer.getInt(positionsOffset + index * RECORD_SIZE + 4) / COORDINATE_SCALE;
+    }
+
+    public float getRange(int index) {
+        checkIndex(index);
+        return buffer.getFloat(positionsOffset + index * RECORD_SIZE + 8);
+    }
+
+    /**
+     * Estimates the position of the device from a scan, as the centroid of the known access
+     * points weighted by signal amplitude, so each 6 dB stronger counts twice as much.
+     *
+     * @return false if no access point of the scan is known, {@code estimate} is unchanged.
+     */
+    public boolean estimate(List<ScanResult> scanResults, PositionEstimate estimate) {
+        double weightSum = 0;
+        double latitudeSum = 0;
+        double longitudeSum = 0;
+        double rangeSum = 0;
+        double referenceLongitude = 0;
+        int matched = 0;
+        for (ScanResult scanResult : scanResults) {
+            int index = find(scanResult.BSSID);
+            if (index < 0) continue;
+
+            double longitude = getLongitude(index);
+            if (matched == 0) {
+                referenceLongitude = longitude;
+            } else if (longitude - referenceLongitude > 180) {
+                // Keep the access points on the same side of the antimeridian.
+                longitude -= 360;
+            } else if (longitude - referenceLongitude < -180) {
+                longitude += 360;
+            }
+            double weight = Math.pow(10, (scanResult.level - REFERENCE_LEVEL) / 20.0);
+            weightSum += weight;
+            latitudeSum += weight * getLatitude(index);
+            longitudeSum += weight * longitude;
+            rangeSum += weight * getRange(index);
+            matched++;
+        }
+        if (matched == 0) return false;
+
+        double longitude = longitudeSum / weightSum;
+        if (longitude > 180) longitude -= 360;
+        if (longitude < -180) longitude += 360;
+        estimate.set(latitudeSum / weightSum, longitude, (float) (rangeSum / weightSum), matched);
+        return true;
+    }
+
+    /**
+     * Parses a BSSID such as {@code 00:1a:2b:3c:4d:5e}.
+     *
+     * @return the 48 bit address, or -1 if it isn't a valid BSSID.
+     */
+    public static long parseBssid(String bssid) {
+        if (bssid == null || bssid.length() != 17) return -1;
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = bssid.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':' && c != '-') return -1;
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) return -1;
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Access point " + index + " of " + count);
+        }
+    }
+}
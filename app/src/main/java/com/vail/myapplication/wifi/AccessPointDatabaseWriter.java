@@ -0,0 +1,107 @@
+package com.vail.myapplication.wifi;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Builds an {@link AccessPointDatabase} file.
+ *
+ * Access points are collected in primitive arrays and sorted by BSSID when the file is written.
+ * An access point added twice keeps its last position.
+ */
+public class AccessPointDatabaseWriter {
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private long[] bssids = new long[16];
+    private int[] latitudes = new int[16];
+    private int[] longitudes = new int[16];
+    private float[] ranges = new float[16];
+    private int size;
+
+    /**
+     * @param bssid 48 bit address, see {@link AccessPointDatabase#parseBssid(String)}.
+     * @param range Distance in metres up to which the access point is usually seen.
+     */
+    public AccessPointDatabaseWriter add(long bssid, double latitude, double longitude, float range) {
+        if (bssid < 0 || bssid >= 1L << 48) {
+            throw new IllegalArgumentException("Invalid BSSID " + Long.toHexString(bssid));
+        }
+        if (size == bssids.length) {
+            int capacity = size * 2;
+            bssids = Arrays.copyOf(bssids, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            ranges = Arrays.copyOf(ranges, capacity);
+        }
+        bssids[size] = bssid;
+        latitudes[size] = (int) Math.round(latitude * AccessPointDatabase.COORDINATE_SCALE);
+        longitudes[size] = (int) Math.round(longitude * AccessPointDatabase.COORDINATE_SCALE);
+        ranges[size] = range;
+        size++;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void write(File file) throws IOException {
+        // Sort by BSSID then insertion order, the last of equal BSSIDs is kept.
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (bssids[a] != bssids[b]) return bssids[a] < bssids[b] ? -1 : 1;
+                return a - b;
+            }
+        });
+        int count = 0;
+        int[] unique = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (i + 1 < size && bssids[order[i + 1]] == bssids[order[i]]) continue;
+            unique[count++] = order[i];
+        }
+
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            FileChannel channel = outputStream.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(AccessPointDatabase.MAGIC)
+                    .putShort(AccessPointDatabase.VERSION)
+                    .putShort((short) AccessPointDatabase.HEADER_SIZE)
+                    .putInt(count)
+                    .putInt(AccessPointDatabase.RECORD_SIZE);
+
+            for (int i = 0; i < count; i++) {
+                if (buffer.remaining() < 8) flush(channel, buffer);
+                buffer.putLong(bssids[unique[i]]);
+            }
+            for (int i = 0; i < count; i++) {
+                if (buffer.remaining() < AccessPointDatabase.RECORD_SIZE) flush(channel, buffer);
+                int a = unique[i];
+                buffer.putInt(latitudes[a]).putInt(longitudes[a]).putFloat(ranges[a]);
+            }
+            flush(channel, buffer);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,43 @@
+package com.vail.myapplication.wifi;
+
+/**
+ * Position of the device estimated from a wifi scan by {@link AccessPointDatabase}.
+ *
+ * Mutable, so repeated estimates don't allocate.
+ */
+public final class PositionEstimate {
+
+    private double latitude;
+    private double longitude;
+    private float accuracy;
+    private int accessPoints;
+
+    void set(double latitude, double longitude, float accuracy, int accessPoints) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.accessPoints = accessPoints;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * Returns the weighted mean range of the access points in metres, a rough accuracy radius.
+     */
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * Returns the number of known access points the estimate is based on.
+     */
+    public int getAccessPoints() {
+        return accessPoints;
+    }
+}
@@ -0,0 +1,202 @@
+package com.vail.myapplication.wifi;
+
+import android.net.wifi.ScanResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process wide cache of the last wifi scan.
+ *
+ * {@link android.net.wifi.WifiManager#getScanResults()} is a binder call copying the whole list,
+ * so it is made once per {@link android.net.wifi.WifiManager#SCAN_RESULTS_AVAILABLE_ACTION} and
+ * the result is shared by every consumer. Without broadcasts, e.g. while the sensor isn't
+ * registered, on-demand reads fall back to the source, at most once per
+ * {@link #MIN_REFRESH_INTERVAL_MS}. Each read creates a new {@link Snapshot} with an increasing
+ * generation and the access points added, removed or changed since the previous one.
+ */
+public class ScanSnapshotCache {
+
+    /**
+     * On-demand reads closer than this to the previous read return the cached snapshot.
+     */
+    static final long MIN_REFRESH_INTERVAL_MS = 1000;
+
+    /**
+     * Signal level difference, in dBm, for an access point to be reported as changed.
+     */
+    static final int LEVEL_CHANGE_THRESHOLD = 5;
+
+    private static ScanSnapshotCache instance;
+
+    private volatile Snapshot snapshot = new Snapshot();
+    private long lastReadTime;
+
+    /**
+     * Whether a broadcast refreshed the snapshot since the last on-demand read.
+     */
+    private boolean refreshedByBroadcast;
+
+    public static synchronized ScanSnapshotCache getInstance() {
+        if (instance == null) {
+            instance = new ScanSnapshotCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the latest snapshot. Generation 0 means no scan was read yet.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the latest snapshot for an on-demand read. The scan results are read from
+     * {@code source} unless no scan was read yet, a broadcast refreshed them since the last
+     * on-demand read, or they were read less than {@link #MIN_REFRESH_INTERVAL_MS} ago.
+     *
+     * @param now Current time in milliseconds.
+     */
+    public synchronized Snapshot getSnapshot(Source source, long now) {
+        if (snapshot.generation == 0
+                || (!refreshedByBroadcast && now - lastReadTime >= MIN_REFRESH_INTERVAL_MS)) {
+            read(source, now);
+        }
+        refreshedByBroadcast = false;
+        return snapshot;
+    }
+
+    /**
+     * Replaces the snapshot with new scan results, on every
+     * {@link android.net.wifi.WifiManager#SCAN_RESULTS_AVAILABLE_ACTION}.
+     *
+     * @param source Supplies the scan results.
+     * @param now    Current time in milliseconds.
+     * @return the new snapshot.
+     */
+    public synchronized Snapshot refresh(Source source, long now) {
+        read(source, now);
+        refreshedByBroadcast = true;
+        return snapshot;
+    }
+
+    private void read(Source source, long now) {
+        lastReadTime = now;
+        snapshot = new Snapshot(snapshot, source.getScanResults());
+    }
+
+    public interface Source {
+        List<ScanResult> getScanResults();
+    }
+
+    /**
+     * Immutable scan results of one generation, indexed by BSSID.
+     */
+    public static final class Snapshot {
+        private final long generation;
+        private final List<ScanResult> results;
+        private final Map<String, ScanResult> byBssid;
+        private final List<ScanResult> added;
+        private final Set<String> addedBssids;
+        private final List<ScanResult> changed;
+        private final Set<String> removedBssids;
+
+        private Snapshot() {
+            generation = 0;
+            results = Collections.emptyList();
+            byBssid = Collections.emptyMap();
+            added = Collections.emptyList();
+            addedBssids = Collections.emptySet();
+            changed = Collections.emptyList();
+            removedBssids = Collections.emptySet();
+        }
+
+        private Snapshot(Snapshot previous, List<ScanResult> scanResults) {
+            generation = previous.generation + 1;
+            results = Collections.unmodifiableList(new ArrayList<>(scanResults));
+
+            Map<String, ScanResult> index = new HashMap<>(scanResults.size() * 2);
+            List<ScanResult> addedList = new ArrayList<>();
+            Set<String> addedSet = new HashSet<>();
+            List<ScanResult> changedList = new ArrayList<>();
+            for (ScanResult scanResult : scanResults) {
+                if (scanResult.BSSID == null || scanResult.BSSID.isEmpty()) continue;
+                index.put(scanResult.BSSID, scanResult);
+
+                ScanResult old = previous.byBssid.get(scanResult.BSSID);
+                if (old == null) {
+                    addedList.add(scanResult);
+                    addedSet.add(scanResult.BSSID);
+                } else if (hasChanged(old, scanResult)) {
+                    changedList.add(scanResult);
+                }
+            }
+
+            Set<String> removed = new HashSet<>();
+            for (String bssid : previous.byBssid.keySet()) {
+                if (!index.containsKey(bssid)) {
+                    removed.add(bssid);
+                }
+            }
+
+            byBssid = Collections.unmodifiableMap(index);
+            added = Collections.unmodifiableList(addedList);
+            addedBssids = Collections.unmodifiableSet(addedSet);
+            changed = Collections.unmodifiableList(changedList);
+            removedBssids = Collections.unmodifiableSet(removed);
+        }
+
+        private static boolean hasChanged(ScanResult old, ScanResult current) {
+            return Math.abs(old.level - current.level) >= LEVEL_CHANGE_THRESHOLD
+                    || old.frequency != current.frequency
+                    || (old.SSID == null ? current.SSID != null : !old.SSID.equals(current.SSID));
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public List<ScanResult> getResults() {
+            return results;
+        }
+
+        public ScanResult get(String bssid) {
+            return byBssid.get(bssid);
+        }
+
+        public boolean contains(String bssid) {
+            return byBssid.containsKey(bssid);
+        }
+
+        /**
+         * Access points not present in the previous generation.
+         */
+        public List<ScanResult> getAdded() {
+            return added;
+        }
+
+        /**
+         * Access points present in both generations whose SSID, frequency or signal level changed.
+         */
+        public List<ScanResult> getChanged() {
+            return changed;
+        }
+
+        /**
+         * BSSIDs present in the previous generation but not in this one.
+         */
+        public Set<String> getRemovedBssids() {
+            return removedBssids;
+        }
+
+        public boolean isAdded(String bssid) {
+            return addedBssids.contains(bssid);
+        }
+    }
+}
@@ -7,6 +7,7 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiManager;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.vail.myapplication.Constants;
@@ -20,15 +21,58 @@ import java.util.List;
 public class WifiSensor extends BroadcastReceiver {
 
     public static final String WIFI_ACCESSIBILITY_KEY = "WIFI_ACCESSIBILITY";
+
+    /**
+     * Position estimated from the scan that changed the accessibility and its accuracy in
+     * metres, set only when one of its access points is known, and the time of the change.
+     */
+    public static final String WIFI_LATITUDE_KEY = "WIFI_LATITUDE";
+    public static final String WIFI_LONGITUDE_KEY = "WIFI_LONGITUDE";
+    public static final String WIFI_ACCURACY_KEY = "WIFI_ACCURACY";
+    public static final String WIFI_TIME_KEY = "WIFI_TIME";
+
     private final WifiManager wifiManager;
+    private final ScanSnapshotCache scanCache;
+    private final ScanSnapshotCache.Source scanSource = new ScanSnapshotCache.Source() {
+        @Override
+        public List<ScanResult> getScanResults() {
+            return wifiManager.getScanResults();
+        }
+    };
 
     private Context context;
     private SharedPreferences sharedPreferences;
 
+    /**
+     * BSSID and snapshot generation of the last accessibility check, used to only look at the
+     * access points that changed since then.
+     */
+    private String checkedBssid;
+    private long checkedGeneration;
+
+    /**
+     * Known access point positions, null if there is no database, and the snapshot generation
+     * of the last estimate. Positions are only estimated when asked for, not on every scan.
+     */
+    private AccessPointDatabase accessPoints;
+    private final PositionEstimate positionEstimate = new PositionEstimate();
+    private boolean hasPositionEstimate;
+    private long estimatedGeneration = -1;
+
     public WifiSensor(Context context, SharedPreferences sharedPreferences) {
         this.context = context.getApplicationContext();
         this.sharedPreferences = sharedPreferences;
         wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        scanCache = ScanSnapshotCache.getInstance();
+    }
+
+    /**
+     * Sets the database used to estimate the position from the scans, may be null.
+     */
+    public void setAccessPointDatabase(AccessPointDatabase accessPoints) {
+        this.accessPoints = accessPoints;
+        hasPositionEstimate = false;
+        estimatedGeneration = -1;
     }
 
     public void start() {
@@ -50,32 +94,77 @@ public class WifiSensor extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        updateCurrentWifiConnection();
+        if (WifiManager.SCAN_RESULTS_AVAILABLE_ACTION.equals(intent.getAction())) {
+            updateCurrentWifiConnection(scanCache.refresh(scanSource, SystemClock.elapsedRealtime()));
+        } else {
+            updateCurrentWifiConnection(null);
+        }
     }
 
-    private void updateCurrentWifiConnection() {
+    /**
+     * @param snapshot Scan results of the broadcast, null to read them on demand.
+     */
+    private void updateCurrentWifiConnection(ScanSnapshotCache.Snapshot snapshot) {
         String savedWifiBSSID = sharedPreferences.getString(Constants.WIFI_BSSID_KEY, null);
         if (TextUtils.isEmpty(savedWifiBSSID)) return;
 
-
-        List<ScanResult> scanResultList = wifiManager.getScanResults();
-        for (ScanResult scanResult: scanResultList) {
-            if (savedWifiBSSID.equals(scanResult.BSSID)) {
-                notifyWifiAccessibilityChanged(true);
-                return;
-            }
+        if (snapshot == null) {
+            snapshot = scanCache.getSnapshot(scanSource, SystemClock.elapsedRealtime());
         }
 
-        notifyWifiAccessibilityChanged(false);
+        boolean sameBssid = savedWifiBSSID.equals(checkedBssid);
+        if (sameBssid && snapshot.getGeneration() == checkedGeneration) return;
+
+        boolean fullCheck = !sameBssid || snapshot.getGeneration() != checkedGeneration + 1;
+
+        checkedBssid = savedWifiBSSID;
+        checkedGeneration = snapshot.getGeneration();
+        if (fullCheck) {
+            notifyWifiAccessibilityChanged(snapshot.contains(savedWifiBSSID), snapshot);
+        } else if (snapshot.isAdded(savedWifiBSSID)) {
+            notifyWifiAccessibilityChanged(true, snapshot);
+        } else if (snapshot.getRemovedBssids().contains(savedWifiBSSID)) {
+            notifyWifiAccessibilityChanged(false, snapshot);
+        }
     }
 
+    /**
+     * Returns the results of the last scan, shared with every other consumer of the scan cache,
+     * read again from {@link WifiManager} if no scan broadcast arrived since the last call.
+     */
     public List<ScanResult> getScanResults() {
-        return wifiManager.getScanResults();
+        return scanCache.getSnapshot(scanSource, SystemClock.elapsedRealtime()).getResults();
     }
 
-    private void notifyWifiAccessibilityChanged(boolean available) {
+    /**
+     * Returns the position estimated from a scan with the access point database, without GPS,
+     * or null if no access point of the scan is known. The estimate is reused until the next
+     * scan.
+     */
+    private PositionEstimate estimate(ScanSnapshotCache.Snapshot snapshot) {
+        if (accessPoints == null) return null;
+        if (snapshot.getGeneration() != estimatedGeneration) {
+            hasPositionEstimate = accessPoints.estimate(snapshot.getResults(), positionEstimate);
+            estimatedGeneration = snapshot.getGeneration();
+        }
+        return hasPositionEstimate ? positionEstimate : null;
+    }
+
+    /**
+     * Tells the geofence service, with the position estimated from the scan, which it checks
+     * against the registered geofences.
+     */
+    private void notifyWifiAccessibilityChanged(boolean available,
+                                                ScanSnapshotCache.Snapshot snapshot) {
         Intent intent = new Intent(context, GeofenceTransitionsIntentService.class);
         intent.putExtra(WIFI_ACCESSIBILITY_KEY, available);
+        intent.putExtra(WIFI_TIME_KEY, System.currentTimeMillis());
+        PositionEstimate estimate = estimate(snapshot);
+        if (estimate != null) {
+            intent.putExtra(WIFI_LATITUDE_KEY, estimate.getLatitude());
+            intent.putExtra(WIFI_LONGITUDE_KEY, estimate.getLongitude());
+            intent.putExtra(WIFI_ACCURACY_KEY, estimate.getAccuracy());
+        }
         context.startService(intent);
     }
 }
\ No newline at end of file
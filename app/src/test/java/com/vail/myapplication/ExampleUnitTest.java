@@ -1,15 +1,20 @@
 package com.vail.myapplication;
 
+import android.app.PendingIntent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.net.wifi.ScanResult;
 
 import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.GeofencingRequest;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
 import com.vail.myapplication.wifi.WifiSensor;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -19,6 +24,12 @@ import java.util.List;
 
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.mock;
@@ -114,4 +125,49 @@ public class ExampleUnitTest {
         mainPresenter.onMapReady();
         verify(mainView).updateMarker();
     }
-}
\ No newline at end of file
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAddGeofences_overlappingAddsAreSentOneAtATime() {
+        SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
+        when(sharedPreferences.edit()).thenReturn(editor);
+        when(editor.putString(anyString(), anyString())).thenReturn(editor);
+        when(editor.putInt(anyString(), anyInt())).thenReturn(editor);
+        when(editor.putBoolean(anyString(), anyBoolean())).thenReturn(editor);
+        when(editor.putStringSet(anyString(), anySetOf(String.class))).thenReturn(editor);
+        when(mainView.checkPermissions()).thenReturn(true);
+        when(mainView.getLatLng()).thenReturn(new LatLng(50, 10));
+        Task<Void> first = mock(Task.class);
+        Task<Void> second = mock(Task.class);
+        when(first.isSuccessful()).thenReturn(true);
+        when(second.isSuccessful()).thenReturn(true);
+        when(geofencingClient.addGeofences(any(GeofencingRequest.class), (PendingIntent) any()))
+                .thenReturn(first, second);
+
+        mainPresenter = new MainPresenter(mainView, sharedPreferences, wifiSensor, geofencingClient);
+        mainPresenter.onAddGeofencesClick();
+        mainPresenter.onRadiusChanged(60);
+        mainPresenter.onAddGeofencesClick();
+        // The second add waits for the first one.
+        verify(geofencingClient, times(1)).addGeofences(any(GeofencingRequest.class),
+                (PendingIntent) any());
+
+        complete(first);
+        verify(mainView, times(1)).showToast(R.string.geofences_added);
+        // Diffed against the registry committed by the first add: the edited fence replaces
+        // the registered one, nothing is removed.
+        verify(geofencingClient, times(2)).addGeofences(any(GeofencingRequest.class),
+                (PendingIntent) any());
+        verify(geofencingClient, never()).removeGeofences(any(List.class));
+
+        complete(second);
+        verify(mainView, times(2)).showToast(R.string.geofences_added);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void complete(Task<Void> task) {
+        ArgumentCaptor<OnCompleteListener> captor = ArgumentCaptor.forClass(OnCompleteListener.class);
+        verify(task).addOnCompleteListener(captor.capture());
+        captor.getValue().onComplete(task);
+    }
+}
@@ -0,0 +1,157 @@
+package com.vail.myapplication.catalogue;
+
+import com.vail.myapplication.engine.WeeklySchedule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FenceCatalogueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        File file = folder.newFile();
+        new FenceCatalogueWriter()
+                .add(7, 37.621313, -122.378955, 120, 3)
+                .add(9, 37.422611, -122.0840577, 45.5f, 1)
+                .write(file);
+
+        FenceCatalogue catalogue = FenceCatalogue.open(file);
+        assertEquals(2, catalogue.size());
+        assertEquals(120, catalogue.getMaxRadius(), 0);
+
+        int sfo = catalogue.getId(0) == 7 ? 0 : 1;
+        assertEquals(37.621313, catalogue.getLatitude(sfo), 1e-7);
+        assertEquals(-122.378955, catalogue.getLongitude(sfo), 1e-7);
+        assertEquals(120, catalogue.getRadius(sfo), 0);
+        assertEquals(3, catalogue.getTransitionTypes(sfo));
+    }
+
+    @Test
+    public void testWriteAndRead_schedules() throws IOException {
+        WeeklySchedule businessHours = new WeeklySchedule.Builder()
+                .addDays(WeeklySchedule.MONDAY, WeeklySchedule.FRIDAY, 9 * 60, 18 * 60)
+                .build();
+        WeeklySchedule nights = new WeeklySchedule.Builder()
+                .addDays(WeeklySchedule.MONDAY, WeeklySchedule.SUNDAY, 22 * 60, 30 * 60)
+                .build();
+        File file = folder.newFile();
+        new FenceCatalogueWriter()
+                .add(1, 48.85, 2.35, 100, 3, businessHours)
+                .add(2, 48.86, 2.35, 100, 3)
+                .add(3, 48.87, 2.35, 100, 3, nights)
+                .add(4, 48.88, 2.35, 100, 3, businessHours)
+                .write(file);
+
+        FenceCatalogue catalogue = FenceCatalogue.open(file);
+        for (int i = 0; i < catalogue.size(); i++) {
+            long id = catalogue.getId(i);
+            WeeklySchedule expected = id == 2 ? null : id == 3 ? nights : businessHours;
+            assertEquals(expected, catalogue.getSchedule(i));
+            assertEquals(100, catalogue.getRadius(i), 0);
+            assertEquals(3, catalogue.getTransitionTypes(i));
+        }
+    }
+
+    @Test
+    public void testForEachCandidate_findsOnlyNearbyFences() throws IOException {
+        FenceCatalogueWriter writer = new FenceCatalogueWriter();
+        for (int i = 0; i < 1000; i++) {
+            writer.add(i, 50 + (i / 40) * 0.01, 30 + (i % 40) * 0.01, 50, 3);
+        }
+        File file = folder.newFile();
+        writer.write(file);
+
+        FenceCatalogue catalogue = FenceCatalogue.open(file);
+        final List<Long> ids = new ArrayList<>();
+        catalogue.forEachCandidate(50.1, 30.1, 100, new FenceCatalogue.Visitor() {
+            @Override
+            public void visit(FenceCatalogue catalogue, int index) {
+                ids.add(catalogue.getId(index));
+            }
+        });
+
+        // The fence at exactly 50.1, 30.1 must be a candidate, far ones must not.
+        assertTrue(ids.contains(410L));
+        assertFalse(ids.contains(0L));
+        assertTrue(ids.size() < 100);
+    }
+
+    @Test
+    public void testForEachCandidate_acrossAntimeridian() throws IOException {
+        File file = folder.newFile();
+        new FenceCatalogueWriter()
+                .add(1, 10, 179.9999, 50, 3)
+                .write(file);
+
+        final int[] count = new int[1];
+        FenceCatalogue.open(file).forEachCandidate(10, -179.9999, 100, new FenceCatalogue.Visitor() {
+            @Override
+            public void visit(FenceCatalogue catalogue, int index) {
+                count[0]++;
+            }
+        });
+        assertEquals(1, count[0]);
+    }
+
+    @Test
+    public void testAdd_rejectsUnsupportedTransitions() {
+        FenceCatalogueWriter writer = new FenceCatalogueWriter();
+        for (int transitions : new int[]{0, 4, 7}) {
+            try {
+                writer.add(1, 50, 30, 100, transitions);
+                fail("Accepted " + transitions);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testRead_keepsOnlyEnterAndExitTransitions() throws IOException {
+        File file = folder.newFile();
+        new FenceCatalogueWriter().add(1, 50, 30, 100, 3).write(file);
+
+        // Written by another tool: dwell only, then enter and dwell.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            byte[] offset = new byte[8];
+            randomAccessFile.seek(32);
+            randomAccessFile.readFully(offset);
+            long transitionsOffset = ByteBuffer.wrap(offset).order(ByteOrder.LITTLE_ENDIAN).getLong() + 20;
+            randomAccessFile.seek(transitionsOffset);
+            randomAccessFile.write(new byte[]{4, 0, 0, 0});
+            assertEquals(FenceCatalogue.TRANSITIONS, FenceCatalogue.open(file).getTransitionTypes(0));
+            randomAccessFile.seek(transitionsOffset);
+            randomAccessFile.write(new byte[]{5, 0, 0, 0});
+            assertEquals(FenceCatalogue.TRANSITION_ENTER, FenceCatalogue.open(file).getTransitionTypes(0));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpen_rejectsInvalidFile() throws IOException {
+        File file = folder.newFile();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[FenceCatalogue.HEADER_SIZE]);
+        } finally {
+            outputStream.close();
+        }
+        FenceCatalogue.open(file);
+    }
+}
@@ -0,0 +1,146 @@
+package com.vail.myapplication.catalogue;
+
+import com.vail.myapplication.geo.GeoHash;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TileCacheTest {
+
+    private static final int TILE_BITS = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * One fence every 0.05 degrees over a 4 by 4 degrees area.
+     */
+    private File writeGrid() throws IOException {
+        TiledCatalogueWriter writer = new TiledCatalogueWriter(TILE_BITS);
+        long id = 0;
+        for (int row = 0; row < 80; row++) {
+            for (int column = 0; column < 80; column++) {
+                writer.add(id++, 46 + row * 0.05, 2 + column * 0.05, 200, 3);
+            }
+        }
+        File directory = folder.newFolder();
+        writer.write(directory);
+        return directory;
+    }
+
+    @Test
+    public void testFindsTheSameCandidatesAsOneCatalogue() throws IOException {
+        TileCache cache = TileCache.open(writeGrid(), Long.MAX_VALUE);
+
+        Set<Long> ids = candidates(cache, 48.0, 4.0, 3000);
+        assertTrue(ids.contains(40L * 80 + 40));
+        assertFalse(ids.contains(0L));
+
+        // Only the tiles around the position were read.
+        assertTrue(cache.getLoadedTileCount() <= 9);
+        assertTrue(cache.getLoadedTileCount() < cache.getTileCount());
+    }
+
+    @Test
+    public void testFindsFencesFiledInNeighbourTiles() throws IOException {
+        File directory = folder.newFolder();
+        // A fence just north of a tile edge, queried from just south of it.
+        double edge = GeoHash.minLatitude(GeoHash.encode(48.5, 4.0, TILE_BITS), TILE_BITS);
+        new TiledCatalogueWriter(TILE_BITS).add(1, edge + 0.0005, 4.0, 100, 3).write(directory);
+
+        TileCache cache = TileCache.open(directory, Long.MAX_VALUE);
+        assertTrue(candidates(cache, edge - 0.0005, 4.0, 50).contains(1L));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedTilesOverBudget() throws IOException {
+        File directory = writeGrid();
+        TileCache unbounded = TileCache.open(directory, Long.MAX_VALUE);
+        candidates(unbounded, 47.0, 3.0, 100);
+        long tileSize = unbounded.getMemoryUsed() / unbounded.getLoadedTileCount();
+
+        TileCache cache = TileCache.open(directory, 3 * tileSize);
+        candidates(cache, 47.0, 3.0, 100);
+        candidates(cache, 49.0, 3.0, 100);
+        candidates(cache, 47.0, 5.0, 100);
+        candidates(cache, 49.0, 5.0, 100);
+        assertTrue(cache.getMemoryUsed() <= 3 * tileSize);
+        assertTrue(cache.getEvictions() > 0);
+
+        // The last tile is still loaded, the first one was evicted.
+        long loads = cache.getLoads();
+        candidates(cache, 49.0, 5.0, 100);
+        assertEquals(loads, cache.getLoads());
+        candidates(cache, 47.0, 3.0, 100);
+        assertEquals(loads + 1, cache.getLoads());
+    }
+
+    @Test
+    public void testKeepsTheTilesOfTheCurrentQueryOverBudget() throws IOException {
+        TileCache cache = TileCache.open(writeGrid(), 1);
+        Set<Long> ids = candidates(cache, 48.0, 4.0, 50000);
+        assertTrue(ids.size() > 300);
+        assertTrue(cache.getLoadedTileCount() > 1);
+    }
+
+    @Test
+    public void testPrefetchesAlongTheHeading() throws IOException {
+        TileCache cache = TileCache.open(writeGrid(), Long.MAX_VALUE);
+        // Heading east for 100 km.
+        cache.prefetch(48.0, 2.5, 90, 100000);
+        long loads = cache.getLoads();
+        assertTrue(loads >= 3);
+
+        candidates(cache, 48.0, 3.5, 100);
+        assertEquals(loads, cache.getLoads());
+        assertTrue(cache.getHits() > 0);
+    }
+
+    @Test
+    public void testPrefetchStopsAtTheBudget() throws IOException {
+        File directory = writeGrid();
+        TileCache unbounded = TileCache.open(directory, Long.MAX_VALUE);
+        candidates(unbounded, 47.0, 3.0, 100);
+        long tileSize = unbounded.getMemoryUsed() / unbounded.getLoadedTileCount();
+
+        TileCache cache = TileCache.open(directory, 2 * tileSize);
+        cache.prefetch(48.0, 2.5, 90, 100000);
+        assertTrue(cache.getLoads() <= 3);
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void testPrefetchedTilesAreEvictedByQueries() throws IOException {
+        File directory = writeGrid();
+        TileCache unbounded = TileCache.open(directory, Long.MAX_VALUE);
+        candidates(unbounded, 47.0, 3.0, 100);
+        long tileSize = unbounded.getMemoryUsed() / unbounded.getLoadedTileCount();
+
+        TileCache cache = TileCache.open(directory, 3 * tileSize);
+        cache.prefetch(48.0, 2.5, 90, 100000);
+        candidates(cache, 46.0, 5.0, 100);
+        candidates(cache, 49.0, 5.0, 100);
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.getMemoryUsed() <= 3 * tileSize);
+    }
+
+    private static Set<Long> candidates(TileCache cache, double latitude, double longitude,
+                                        double distance) throws IOException {
+        final Set<Long> ids = new HashSet<>();
+        cache.forEachCandidate(latitude, longitude, distance, new FenceCatalogue.Visitor() {
+            @Override
+            public void visit(FenceCatalogue catalogue, int index) {
+                ids.add(catalogue.getId(index));
+            }
+        });
+        return ids;
+    }
+}
@@ -0,0 +1,145 @@
+package com.vail.myapplication.engine;
+
+import com.vail.myapplication.history.TrajectoryStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the fraction of positions of device traces that {@link CellCovering} places without
+ * any distance computation, and the query time compared with the exact checks of the
+ * {@link PackedRTree} candidates.
+ *
+ * The traces are the walking and driving devices of {@link FleetLoadGenerator}, or the fixes of
+ * a {@link TrajectoryStore} file with fences spread over their bounding box.
+ *
+ * Usage: {@code CellCoveringBenchmark [fences [refine levels [trajectory file]]]}
+ */
+public class CellCoveringBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int DEVICES = 1000;
+    private static final int STEPS = 200;
+
+    public static void main(String[] args) throws IOException {
+        int fenceCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int refineLevels = args.length > 1
+                ? Integer.parseInt(args[1]) : CellCovering.DEFAULT_REFINE_LEVELS;
+        Random random = new Random(1);
+
+        if (args.length > 2) {
+            double[][] trace = readTrace(new File(args[2]));
+            double[] latitudes = trace[0];
+            double[] longitudes = trace[1];
+            double minLatitude = Double.MAX_VALUE;
+            double minLongitude = Double.MAX_VALUE;
+            double span = 0;
+            for (int i = 0; i < latitudes.length; i++) {
+                minLatitude = Math.min(minLatitude, latitudes[i]);
+                minLongitude = Math.min(minLongitude, longitudes[i]);
+            }
+            for (int i = 0; i < latitudes.length; i++) {
+                span = Math.max(span, Math.max(latitudes[i] - minLatitude, longitudes[i] - minLongitude));
+            }
+            FenceSet fences = ContainmentKernelTest.randomFences(
+                    random, fenceCount, minLatitude, minLongitude, Math.max(span, 0.001));
+            run("file", fences, refineLevels, latitudes, longitudes);
+            return;
+        }
+
+        FenceSet fences = ContainmentKernelTest.randomFences(random, fenceCount,
+                FleetLoadGenerator.LATITUDE, FleetLoadGenerator.LONGITUDE,
+                FleetLoadGenerator.AREA_DEGREES);
+        for (String model : new String[]{"walk", "road"}) {
+            FleetLoadGenerator.Fleet fleet = new FleetLoadGenerator.Fleet(
+                    DEVICES, model.equals("road"), random);
+            double[] latitudes = new double[DEVICES * STEPS];
+            double[] longitudes = new double[DEVICES * STEPS];
+            int count = 0;
+            for (int step = 0; step < STEPS; step++) {
+                for (int device = 0; device < DEVICES; device++) {
+                    fleet.next(device, random, 0);
+                    latitudes[count] = fleet.latitudes[device];
+                    longitudes[count] = fleet.longitudes[device];
+                    count++;
+                }
+            }
+            run(model, fences, refineLevels, latitudes, longitudes);
+        }
+    }
+
+    private static void run(String trace, FenceSet fences, int refineLevels,
+                            double[] latitudes, double[] longitudes) {
+        long start = System.nanoTime();
+        CellCovering covering = CellCovering.build(fences, refineLevels);
+        double buildMs = (System.nanoTime() - start) / 1e6;
+        PackedRTree tree = PackedRTree.build(fences);
+
+        int queries = latitudes.length;
+        int[] locations = new int[4];
+        for (int i = 0; i < queries; i++) {
+            locations[covering.locate(latitudes[i], longitudes[i])]++;
+        }
+        final int[] candidates = new int[1];
+        PackedRTree.Visitor counter = new PackedRTree.Visitor() {
+            @Override
+            public void visit(int fence) {
+                candidates[0]++;
+            }
+        };
+        for (int i = 0; i < queries; i++) {
+            tree.forEachCandidate(latitudes[i], longitudes[i], counter);
+        }
+
+        double coveringNs = Double.MAX_VALUE;
+        double treeNs = Double.MAX_VALUE;
+        int hits = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                if (covering.containsAny(latitudes[i], longitudes[i])) hits++;
+            }
+            coveringNs = Math.min(coveringNs, (System.nanoTime() - start) / (double) queries);
+
+            start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                if (tree.containsAny(latitudes[i], longitudes[i])) hits++;
+            }
+            treeNs = Math.min(treeNs, (System.nanoTime() - start) / (double) queries);
+        }
+        System.out.printf("trace=%s fences=%d refine=%d cells=%d fenceCells=%d buildMs=%.1f"
+                        + " queries=%d interior=%.3f exterior=%.3f skipped=%.3f"
+                        + " treeCandidatesPerQuery=%.2f coveringNsPerQuery=%.0f treeNsPerQuery=%.0f hits=%d%n",
+                trace, fences.size(), refineLevels, covering.getCellCount(),
+                covering.getFenceCellCount(), buildMs, queries,
+                locations[CellCovering.INTERIOR] / (double) queries,
+                locations[CellCovering.EXTERIOR] / (double) queries,
+                (locations[CellCovering.INTERIOR] + locations[CellCovering.EXTERIOR]) / (double) queries,
+                candidates[0] / (double) queries, coveringNs, treeNs, hits);
+    }
+
+    private static double[][] readTrace(File file) throws IOException {
+        final double[][] trace = {new double[1024], new double[1024]};
+        final int[] count = new int[1];
+        TrajectoryStore store = TrajectoryStore.open(file);
+        try {
+            store.forEach(Long.MIN_VALUE, Long.MAX_VALUE, new TrajectoryStore.Visitor() {
+                @Override
+                public void visit(long time, double latitude, double longitude, int event) {
+                    if (count[0] == trace[0].length) {
+                        trace[0] = Arrays.copyOf(trace[0], count[0] * 2);
+                        trace[1] = Arrays.copyOf(trace[1], count[0] * 2);
+                    }
+                    trace[0][count[0]] = latitude;
+                    trace[1][count[0]] = longitude;
+                    count[0]++;
+                }
+            });
+        } finally {
+            store.close();
+        }
+        return new double[][]{Arrays.copyOf(trace[0], count[0]), Arrays.copyOf(trace[1], count[0])};
+    }
+}
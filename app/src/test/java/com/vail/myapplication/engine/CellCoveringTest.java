@@ -0,0 +1,73 @@
+package com.vail.myapplication.engine;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CellCoveringTest {
+
+    @Test
+    public void testSameResultsAsCheckingEveryFence() {
+        Random random = new Random(7);
+        FenceSet fences = ContainmentKernelTest.randomFences(random, 2000, 50, 30, 0.5);
+        CellCovering covering = CellCovering.build(fences);
+        ContainmentKernel kernel = new ContainmentKernel(fences);
+
+        int inside = 0;
+        int[] counts = new int[4];
+        for (int i = 0; i < 100000; i++) {
+            double latitude = 50 + random.nextDouble() * 0.5;
+            double longitude = 30 + random.nextDouble() * 0.5;
+            boolean expected = kernel.containsAnyScalar(latitude, longitude);
+            int location = covering.locate(latitude, longitude);
+            assertEquals(latitude + ", " + longitude, expected,
+                    location == CellCovering.INTERIOR || location == CellCovering.BOUNDARY_INSIDE);
+            counts[location]++;
+            if (expected) inside++;
+        }
+        assertTrue(inside > 1000);
+        assertTrue(counts[CellCovering.INTERIOR] > 0);
+        // Most positions are answered by the cells alone.
+        assertTrue(counts[CellCovering.INTERIOR] + counts[CellCovering.EXTERIOR] > 80000);
+    }
+
+    @Test
+    public void testMoreLevelsCheckFewerPositions() {
+        Random random = new Random(8);
+        FenceSet fences = ContainmentKernelTest.randomFences(random, 500, -33, 151, 0.2);
+        CellCovering coarse = CellCovering.build(fences, 0);
+        CellCovering fine = CellCovering.build(fences, 4);
+        assertTrue(fine.getFenceCellCount() > coarse.getFenceCellCount());
+
+        int coarseChecked = 0;
+        int fineChecked = 0;
+        for (int i = 0; i < 20000; i++) {
+            double latitude = -33 + random.nextDouble() * 0.2;
+            double longitude = 151 + random.nextDouble() * 0.2;
+            int coarseLocation = coarse.locate(latitude, longitude);
+            int fineLocation = fine.locate(latitude, longitude);
+            assertEquals(coarse.containsAny(latitude, longitude), fine.containsAny(latitude, longitude));
+            if (coarseLocation >= CellCovering.BOUNDARY_INSIDE) coarseChecked++;
+            if (fineLocation >= CellCovering.BOUNDARY_INSIDE) fineChecked++;
+        }
+        assertTrue(fineChecked < coarseChecked / 4);
+    }
+
+    @Test
+    public void testFencesAcrossTheAntimeridianAndPole() {
+        FenceSet fences = new FenceSet(new long[]{1, 2, 3},
+                new double[]{-16, 10, 89.99},
+                new double[]{179.9999, -179.9999, 45},
+                new float[]{500, 500, 5000});
+        CellCovering covering = CellCovering.build(fences);
+
+        assertTrue(covering.containsAny(-16, -179.999));
+        assertTrue(covering.containsAny(-16, 179.999));
+        assertTrue(covering.containsAny(10, 179.999));
+        assertFalse(covering.containsAny(-16, 179.9));
+        assertTrue(covering.containsAny(89.995, -135));
+        assertEquals(CellCovering.EXTERIOR, covering.locate(0, 0));
+    }
+}
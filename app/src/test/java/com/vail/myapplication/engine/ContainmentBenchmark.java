@@ -0,0 +1,54 @@
+package com.vail.myapplication.engine;
+
+import java.util.Random;
+
+/**
+ * Compares {@link ContainmentKernel} with testing one fence at a time, for growing numbers of
+ * fences over a 0.2 degree area.
+ *
+ * Usage: {@code ContainmentBenchmark [points]}
+ */
+public class ContainmentBenchmark {
+
+    private static final int[] FENCE_COUNTS = {100, 1000, 10000};
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int points = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        Random random = new Random(1);
+        double[] latitudes = new double[points];
+        double[] longitudes = new double[points];
+        for (int i = 0; i < points; i++) {
+            latitudes[i] = 50 + random.nextDouble() * 0.2;
+            longitudes[i] = 30 + random.nextDouble() * 0.2;
+        }
+
+        for (int fenceCount : FENCE_COUNTS) {
+            // Sparse fences, so most points have to be tested against all of them.
+            FenceSet fences = ContainmentKernelTest.randomFences(random, fenceCount, 50, 30, 2);
+            ContainmentKernel kernel = new ContainmentKernel(fences);
+            int count = Math.max(1000, points / (fenceCount / 100));
+
+            double scalar = Double.MAX_VALUE;
+            double blocked = Double.MAX_VALUE;
+            int hits = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    if (kernel.containsAnyScalar(latitudes[i], longitudes[i])) hits++;
+                }
+                scalar = Math.min(scalar, (System.nanoTime() - start) / (double) count);
+
+                start = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    if (kernel.containsAny(latitudes[i], longitudes[i])) hits--;
+                }
+                blocked = Math.min(blocked, (System.nanoTime() - start) / (double) count);
+            }
+            if (hits != 0) throw new AssertionError("Results differ");
+
+            System.out.printf("fences=%d scalarNsPerPoint=%.0f kernelNsPerPoint=%.0f speedup=%.2f%n",
+                    fenceCount, scalar, blocked, scalar / blocked);
+        }
+    }
+}
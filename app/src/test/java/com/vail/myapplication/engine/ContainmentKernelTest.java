@@ -0,0 +1,84 @@
+package com.vail.myapplication.engine;
+
+import com.vail.myapplication.geo.DistancePrecision;
+import com.vail.myapplication.geo.GeoMath;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ContainmentKernelTest {
+
+    @Test
+    public void testSameResultsAsFenceDistances() {
+        Random random = new Random(5);
+        FenceSet fences = randomFences(random, 1003, 50, 30, 0.2);
+        ContainmentKernel kernel = new ContainmentKernel(fences);
+        assertEquals(fences.size(), kernel.getBlockedFenceCount());
+
+        int inside = 0;
+        for (int i = 0; i < 100000; i++) {
+            double latitude;
+            double longitude;
+            if (i % 2 == 0) {
+                latitude = 50 + random.nextDouble() * 0.2;
+                longitude = 30 + random.nextDouble() * 0.2;
+            } else {
+                // Right on the boundary of a fence.
+                int fence = random.nextInt(fences.size());
+                double bearing = random.nextDouble() * 2 * Math.PI;
+                double distance = fences.getRadius(fence) * (1 + (random.nextDouble() - 0.5) * 1e-9);
+                latitude = fences.getLatitude(fence)
+                        + GeoMath.metersToLatitudeDegrees(distance * Math.cos(bearing));
+                longitude = fences.getLongitude(fence)
+                        + GeoMath.metersToLongitudeDegrees(distance * Math.sin(bearing), latitude);
+            }
+            boolean expected = kernel.containsAnyScalar(latitude, longitude);
+            assertEquals(latitude + ", " + longitude, expected, kernel.containsAny(latitude, longitude));
+            if (expected) inside++;
+        }
+        assertTrue(inside > 10000);
+    }
+
+    @Test
+    public void testNonPlanarAndAntimeridianFences() {
+        FenceSet fences = new FenceSet(new long[]{1, 2, 3},
+                new double[]{0, 88, 10}, new double[]{179.9999, 0, 0}, new float[]{100, 100, 5000});
+        ContainmentKernel kernel = new ContainmentKernel(fences);
+        // Only the 5 km fence near the equator is planar.
+        assertEquals(1, kernel.getBlockedFenceCount());
+        assertEquals(DistancePrecision.HAVERSINE, fences.getPrecision(1));
+
+        assertTrue(kernel.containsAny(0, -179.9999));
+        assertTrue(kernel.containsAny(88.0005, 0));
+        assertTrue(kernel.containsAny(10.04, 0));
+        assertFalse(kernel.containsAny(10.05, 0));
+    }
+
+    @Test
+    public void testBulk() {
+        FenceSet fences = new FenceSet(new long[]{1}, new double[]{50}, new double[]{30},
+                new float[]{100});
+        boolean[] inside = new boolean[3];
+        new ContainmentKernel(fences).containsAny(new double[]{50, 50.01, 50.0005},
+                new double[]{30, 30, 30}, 3, inside);
+        assertArrayEquals(new boolean[]{true, false, true}, inside);
+    }
+
+    static FenceSet randomFences(Random random, int count, double latitude, double longitude,
+                                 double span) {
+        long[] ids = new long[count];
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        float[] radii = new float[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = i;
+            latitudes[i] = latitude + random.nextDouble() * span;
+            longitudes[i] = longitude + random.nextDouble() * span;
+            radii[i] = 30 + random.nextInt(500);
+        }
+        return new FenceSet(ids, latitudes, longitudes, radii);
+    }
+}
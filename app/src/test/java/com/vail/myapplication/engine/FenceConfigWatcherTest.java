@@ -0,0 +1,196 @@
+package com.vail.myapplication.engine;
+
+import com.vail.myapplication.catalogue.FenceCatalogueWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FenceConfigWatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes {@code count} fences around (50, 30) and gives the file a new modification time.
+     */
+    private static void writeFences(File file, int count, long modified) throws IOException {
+        FenceCatalogueWriter writer = new FenceCatalogueWriter();
+        for (int i = 0; i < count; i++) {
+            writer.add(i, 50 + i * 0.01, 30, 100, 3);
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        writer.write(temporary);
+        assertTrue(temporary.setLastModified(modified));
+        assertTrue(temporary.renameTo(file));
+    }
+
+    @Test
+    public void testReloadsChangedFile() throws IOException {
+        File file = new File(folder.getRoot(), "fences");
+        FenceConfigWatcher watcher = new FenceConfigWatcher(file);
+        assertFalse(watcher.poll());
+        assertEquals(0, watcher.getIndex().getFences().size());
+
+        writeFences(file, 1, 1000000);
+        assertTrue(watcher.poll());
+        assertEquals(1, watcher.getIndex().getFences().size());
+        assertEquals(1, watcher.getIndex().getVersion());
+        assertFalse(watcher.poll());
+
+        writeFences(file, 3, 2000000);
+        assertTrue(watcher.poll());
+        assertEquals(3, watcher.getIndex().getFences().size());
+        assertEquals(2, watcher.getReloads());
+    }
+
+    @Test
+    public void testKeepsFencesOfInvalidFile() throws IOException {
+        File file = new File(folder.getRoot(), "fences");
+        FenceConfigWatcher watcher = new FenceConfigWatcher(file);
+        writeFences(file, 2, 1000000);
+        assertTrue(watcher.poll());
+        FenceIndex index = watcher.getIndex();
+
+        // A partial copy.
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(new byte[]{0x47, 0x46, 0x43});
+        outputStream.close();
+        assertTrue(file.setLastModified(2000000));
+        assertFalse(watcher.poll());
+        assertSame(index, watcher.getIndex());
+        assertEquals(1, watcher.getFailures());
+
+        // Not read again until it changes.
+        assertFalse(watcher.poll());
+        assertEquals(1, watcher.getFailures());
+        writeFences(file, 4, 3000000);
+        assertTrue(watcher.poll());
+        assertEquals(4, watcher.getIndex().getFences().size());
+    }
+
+    @Test
+    public void testEvaluatorSwitchesToNewFences() throws IOException {
+        File file = new File(folder.getRoot(), "fences");
+        writeFences(file, 1, 1000000);
+        FenceConfigWatcher watcher = new FenceConfigWatcher(file);
+        watcher.poll();
+
+        final StringBuilder events = new StringBuilder();
+        ZoneEvaluator evaluator = new ZoneEvaluator(watcher, null, 30, new ZoneEvaluator.Listener() {
+            @Override
+            public void onZoneChanged(int device, boolean inZone, long time) {
+                events.append(device).append(inZone ? " in " : " out ").append(time).append(", ");
+            }
+        });
+        evaluator.onPosition(0, 50.02, 30, 1000);
+        assertFalse(evaluator.isInZone(0));
+
+        // The fence at 50.02 shows up, without waiting for the culled crossing time.
+        writeFences(file, 3, 2000000);
+        watcher.poll();
+        evaluator.onPosition(0, 50.02, 30, 2000);
+        assertTrue(evaluator.isInZone(0));
+        assertEquals(2, evaluator.getFenceVersion());
+        assertEquals("0 in 2000, ", events.toString());
+    }
+
+    @Test
+    public void testEvaluatorSkipsFencesOutsideTheirSchedule() throws IOException {
+        // Fence 1 is open on Monday mornings only, fence 2 always.
+        WeeklySchedule mornings = new WeeklySchedule.Builder()
+                .addDays(WeeklySchedule.MONDAY, WeeklySchedule.MONDAY, 8 * 60, 12 * 60)
+                .build();
+        File file = new File(folder.getRoot(), "fences");
+        new FenceCatalogueWriter()
+                .add(1, 50, 30, 100, 3, mornings)
+                .add(2, 50.01, 30, 100, 3)
+                .write(file);
+        FenceConfigWatcher watcher = new FenceConfigWatcher(file, 1000, false,
+                TimeZone.getTimeZone("UTC"));
+        assertTrue(watcher.poll());
+        assertNotNull(watcher.getIndex().getSchedules());
+
+        final StringBuilder events = new StringBuilder();
+        ZoneEvaluator evaluator = new ZoneEvaluator(watcher, null, 30, new ZoneEvaluator.Listener() {
+            @Override
+            public void onZoneChanged(int device, boolean inZone, long time) {
+                events.append(device).append(inZone ? " in " : " out ").append(time).append(", ");
+            }
+        });
+        // Monday 3 July 2017, 10:00 then 14:00 UTC.
+        long monday = 1499040000000L;
+        long hour = 60 * 60 * 1000L;
+        evaluator.onPosition(0, 50, 30, monday + 10 * hour);
+        assertTrue(evaluator.isInZone(0));
+        evaluator.onPosition(0, 50, 30, monday + 14 * hour);
+        assertFalse(evaluator.isInZone(0));
+        assertEquals(1, evaluator.getFences().size());
+        assertEquals(2, evaluator.getFences().getId(0));
+        assertEquals("0 in " + (monday + 10 * hour) + ", 0 out " + (monday + 14 * hour) + ", ",
+                events.toString());
+    }
+
+    @Test
+    public void testReadersSeeWholeSnapshots() throws Exception {
+        File file = new File(folder.getRoot(), "fences");
+        writeFences(file, 1, 1000000);
+        final FenceConfigWatcher watcher = new FenceConfigWatcher(file, 1);
+        assertTrue(watcher.poll());
+        watcher.start();
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ZoneEvaluator evaluator = new ZoneEvaluator(watcher, null, 30,
+                            new ZoneEvaluator.Listener() {
+                                @Override
+                                public void onZoneChanged(int device, boolean inZone, long time) {
+                                }
+                            });
+                    long time = 0;
+                    while (running.get()) {
+                        FenceIndex index = watcher.getIndex();
+                        // Every snapshot holds a fence at the first position.
+                        if (index.getFences().size() > 0
+                                && !index.newKernel().containsAny(50, 30)) {
+                            throw new AssertionError("Incomplete snapshot " + index.getVersion());
+                        }
+                        evaluator.onPosition(0, 50, 30, time += 1000);
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        reader.start();
+
+        for (int i = 2; i <= 20; i++) {
+            writeFences(file, i * 50, i * 1000000L);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (watcher.getIndex().getFences().size() != i * 50 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+        running.set(false);
+        reader.join();
+        watcher.close();
+
+        assertNull(failure.get());
+        assertEquals(1000, watcher.getIndex().getFences().size());
+        assertEquals(20, watcher.getReloads());
+    }
+}
@@ -0,0 +1,347 @@
+package com.vail.myapplication.engine;
+
+import com.vail.myapplication.geo.GeoMath;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stresses the combined zone evaluation with a simulated fleet: devices move over random
+ * fences, on random walks or along a street grid, and report a fix every second of simulated
+ * time, with wifi changes mixed in. Events are sent to a {@link ZoneEvaluator} at a fixed rate,
+ * or as fast as possible, from a single thread.
+ *
+ * The report is a single line of JSON on the standard output, also written to the report file
+ * if one is given: throughput, decision latency percentiles, collector activity and
+ * allocation rate of the measured part of the run. The first fifth of the run warms up and
+ * isn't measured.
+ *
+ * At a fixed rate, the latency of an event is measured from when it was due rather than from
+ * when it was sent, so a stall counts for every event it delayed.
+ *
+ * Usage: {@code FleetLoadGenerator [devices [fences [events per second [seconds [walk|road
+ * [wifi percent [report file]]]]]]]}, 0 events per second runs as fast as possible.
+ */
+public class FleetLoadGenerator {
+
+    static final double LATITUDE = 50;
+    static final double LONGITUDE = 30;
+
+    /**
+     * Side of the square area covered by the fences and the devices.
+     */
+    static final double AREA_DEGREES = 0.1;
+
+    private static final float MAX_SPEED = 30;
+    private static final long FIX_INTERVAL_MS = 1000;
+
+    /**
+     * Distance between streets of the road model.
+     */
+    private static final double BLOCK_METERS = 200;
+
+    private static final long SPIN_NANOS = 100000;
+
+    public static void main(String[] args) throws IOException {
+        int devices = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int fenceCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long rate = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+        boolean road = args.length > 4 && args[4].equals("road");
+        int wifiPercent = args.length > 5 ? Integer.parseInt(args[5]) : 5;
+        String reportFile = args.length > 6 ? args[6] : null;
+
+        Random random = new Random(1);
+        FenceSet fences = ContainmentKernelTest.randomFences(
+                random, fenceCount, LATITUDE, LONGITUDE, AREA_DEGREES);
+        final long[] zoneChanges = new long[1];
+        ZoneEvaluator evaluator = new ZoneEvaluator(fences, null, MAX_SPEED,
+                new ZoneEvaluator.Listener() {
+                    @Override
+                    public void onZoneChanged(int device, boolean inZone, long time) {
+                        zoneChanges[0]++;
+                    }
+                });
+        Fleet fleet = new Fleet(devices, road, random);
+
+        long warmupNanos = (long) (seconds * 1e9 / 5);
+        long runNanos = (long) (seconds * 1e9);
+        long periodNanos = rate > 0 ? 1000000000L / rate : 0;
+        LatencyHistogram latencies = new LatencyHistogram();
+        Snapshot before = null;
+        long measuredEvents = 0;
+        long measuredChanges = 0;
+        long measuredChecks = 0;
+        long measuredFixes = 0;
+
+        long start = System.nanoTime();
+        long due = start;
+        for (long event = 0; ; event++) {
+            long now = System.nanoTime();
+            if (now - start >= runNanos) break;
+            if (periodNanos > 0) {
+                due = start + event * periodNanos;
+                // Parks until shortly before the event is due, then spins, parking overshoots.
+                while ((now = System.nanoTime()) < due) {
+                    if (due - now > SPIN_NANOS) LockSupport.parkNanos(due - now - SPIN_NANOS);
+                }
+            } else {
+                due = now;
+            }
+            if (before == null && now - start >= warmupNanos) {
+                before = Snapshot.take();
+                measuredChanges = zoneChanges[0];
+                measuredChecks = evaluator.getCheckedFences();
+            }
+
+            int device = (int) (event % devices);
+            boolean fix = fleet.next(device, random, wifiPercent);
+            if (fix) {
+                evaluator.onPosition(device, fleet.latitudes[device], fleet.longitudes[device],
+                        fleet.times[device]);
+            } else {
+                evaluator.onWifi(device, fleet.wifi[device], fleet.times[device]);
+            }
+            long latency = System.nanoTime() - due;
+
+            if (before != null) {
+                latencies.record(latency);
+                measuredEvents++;
+                if (fix) measuredFixes++;
+            }
+        }
+        Snapshot after = Snapshot.take();
+        if (before == null) before = after;
+
+        double measuredSeconds = (after.nanos - before.nanos) / 1e9;
+        long allocated = after.allocatedBytes - before.allocatedBytes;
+        String report = String.format(Locale.US,
+                "{\"devices\":%d,\"fences\":%d,\"path\":\"%s\",\"wifiPercent\":%d,"
+                        + "\"targetEventsPerSecond\":%d,\"seconds\":%.3f,\"events\":%d,"
+                        + "\"eventsPerSecond\":%.0f,\"latencyNanos\":{\"mean\":%.0f,\"p50\":%d,"
+                        + "\"p99\":%d,\"p999\":%d,\"max\":%d},\"gc\":{\"collections\":%d,"
+                        + "\"pauseMs\":%d,\"pausePercent\":%.2f},\"allocatedBytes\":%d,"
+                        + "\"allocationBytesPerSecond\":%.0f,\"allocationBytesPerEvent\":%.1f,"
+                        + "\"zoneChanges\":%d,\"checkedFencesPerFix\":%.2f}",
+                devices, fenceCount, road ? "road" : "walk", wifiPercent, rate, measuredSeconds,
+                measuredEvents, measuredEvents / measuredSeconds, latencies.getMean(),
+                latencies.getPercentile(50), latencies.getPercentile(99),
+                latencies.getPercentile(99.9), latencies.getMax(),
+                after.gcCount - before.gcCount, after.gcMillis - before.gcMillis,
+                (after.gcMillis - before.gcMillis) / (measuredSeconds * 10),
+                allocated, allocated / measuredSeconds,
+                measuredEvents == 0 ? 0 : allocated / (double) measuredEvents,
+                zoneChanges[0] - measuredChanges,
+                measuredFixes == 0 ? 0
+                        : (evaluator.getCheckedFences() - measuredChecks) / (double) measuredFixes);
+        System.out.println(report);
+        if (reportFile != null) {
+            Writer writer = new FileWriter(reportFile);
+            try {
+                writer.write(report);
+                writer.write('\n');
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Positions and wifi states of the simulated devices, in parallel arrays.
+     */
+    static final class Fleet {
+        final boolean road;
+        final double[] latitudes;
+        final double[] longitudes;
+        final double[] bearings;
+        final double[] speeds;
+        final long[] times;
+        final boolean[] wifi;
+
+        Fleet(int devices, boolean road, Random random) {
+            this.road = road;
+            latitudes = new double[devices];
+            longitudes = new double[devices];
+            bearings = new double[devices];
+            speeds = new double[devices];
+            times = new long[devices];
+            wifi = new boolean[devices];
+            for (int i = 0; i < devices; i++) {
+                latitudes[i] = LATITUDE + random.nextDouble() * AREA_DEGREES;
+                longitudes[i] = LONGITUDE + random.nextDouble() * AREA_DEGREES;
+                if (road) {
+                    // On a street, heading along it at driving speed.
+                    latitudes[i] = snap(latitudes[i], GeoMath.metersToLatitudeDegrees(BLOCK_METERS));
+                    bearings[i] = random.nextBoolean() ? Math.PI / 2 : 3 * Math.PI / 2;
+                    speeds[i] = 8 + random.nextDouble() * 12;
+                } else {
+                    bearings[i] = random.nextDouble() * 2 * Math.PI;
+                    speeds[i] = random.nextDouble() * 2;
+                }
+            }
+        }
+
+        /**
+         * Advances a device by one event.
+         *
+         * @return true for a fix, false for a wifi change.
+         */
+        boolean next(int device, Random random, int wifiPercent) {
+            times[device] += FIX_INTERVAL_MS;
+            if (random.nextInt(100) < wifiPercent) {
+                wifi[device] = !wifi[device];
+                return false;
+            }
+            double step = speeds[device] * FIX_INTERVAL_MS / 1000;
+            if (road) {
+                moveOnRoad(device, step, random);
+            } else {
+                bearings[device] += random.nextGaussian() * 0.5;
+                move(device, step);
+            }
+            keepInArea(device);
+            return true;
+        }
+
+        /**
+         * Drives along a street and turns at some crossings.
+         */
+        private void moveOnRoad(int device, double step, Random random) {
+            boolean northSouth = Math.abs(Math.cos(bearings[device])) > 0.5;
+            double block = northSouth
+                    ? GeoMath.metersToLatitudeDegrees(BLOCK_METERS)
+                    : GeoMath.metersToLongitudeDegrees(BLOCK_METERS, latitudes[device]);
+            double before = northSouth ? latitudes[device] : longitudes[device];
+            move(device, step);
+            double after = northSouth ? latitudes[device] : longitudes[device];
+            if (Math.floor(before / block) != Math.floor(after / block) && random.nextInt(3) == 0) {
+                // Turns at the crossing, onto the perpendicular street.
+                double crossing = snap(after, block);
+                if (northSouth) {
+                    latitudes[device] = crossing;
+                } else {
+                    longitudes[device] = crossing;
+                }
+                bearings[device] += random.nextBoolean() ? Math.PI / 2 : -Math.PI / 2;
+            }
+        }
+
+        private void move(int device, double meters) {
+            double bearing = bearings[device];
+            latitudes[device] += GeoMath.metersToLatitudeDegrees(meters * Math.cos(bearing));
+            longitudes[device] += GeoMath.metersToLongitudeDegrees(
+                    meters * Math.sin(bearing), latitudes[device]);
+        }
+
+        /**
+         * Turns devices back at the edge of the area.
+         */
+        private void keepInArea(int device) {
+            if (latitudes[device] < LATITUDE || latitudes[device] > LATITUDE + AREA_DEGREES) {
+                latitudes[device] = Math.max(LATITUDE, Math.min(LATITUDE + AREA_DEGREES, latitudes[device]));
+                bearings[device] = Math.PI - bearings[device];
+            }
+            if (longitudes[device] < LONGITUDE || longitudes[device] > LONGITUDE + AREA_DEGREES) {
+                longitudes[device] = Math.max(LONGITUDE, Math.min(LONGITUDE + AREA_DEGREES, longitudes[device]));
+                bearings[device] = -bearings[device];
+            }
+        }
+
+        private static double snap(double value, double step) {
+            return Math.round(value / step) * step;
+        }
+    }
+
+    /**
+     * Collector and allocation counters at a point of the run.
+     */
+    private static final class Snapshot {
+        long nanos;
+        long gcCount;
+        long gcMillis;
+        long allocatedBytes;
+
+        static Snapshot take() {
+            Snapshot snapshot = new Snapshot();
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                snapshot.gcCount += Math.max(0, collector.getCollectionCount());
+                snapshot.gcMillis += Math.max(0, collector.getCollectionTime());
+            }
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                // Only the generator thread evaluates, its allocations are the evaluator's.
+                snapshot.allocatedBytes = ((com.sun.management.ThreadMXBean) threads)
+                        .getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            snapshot.nanos = System.nanoTime();
+            return snapshot;
+        }
+    }
+
+    /**
+     * Log-linear histogram of latencies in nanoseconds: every power of two is split in
+     * {@link #SUB_BUCKETS} buckets, so recorded values are within about 3% of the true ones,
+     * in constant memory.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final long[] counts = new long[64 * SUB_BUCKETS];
+        private long count;
+        private long sum;
+        private long max;
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts[bucketOf(value)]++;
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        double getMean() {
+            return count == 0 ? 0 : sum / (double) count;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given percentile.
+         */
+        long getPercentile(double percentile) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(percentile / 100 * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= Math.max(1, rank)) return Math.min(max, upperBound(bucket));
+            }
+            return max;
+        }
+
+        /**
+         * Values below {@code 2 * SUB_BUCKETS} get a bucket each, larger ones are shifted right
+         * until they fall in {@code [SUB_BUCKETS, 2 * SUB_BUCKETS)}.
+         */
+        static int bucketOf(long value) {
+            int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+            return shift * SUB_BUCKETS + (int) (value >>> shift);
+        }
+
+        static long upperBound(int bucket) {
+            int shift = Math.max(0, bucket / SUB_BUCKETS - 1);
+            long top = bucket - shift * SUB_BUCKETS;
+            return ((top + 1) << shift) - 1;
+        }
+    }
+}
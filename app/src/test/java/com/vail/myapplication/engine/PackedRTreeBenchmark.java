@@ -0,0 +1,74 @@
+package com.vail.myapplication.engine;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures how {@link PackedRTree} build time scales with the number of threads, and the
+ * query time compared with {@link ContainmentKernel}, over fences spread on a country sized
+ * area.
+ *
+ * Usage: {@code PackedRTreeBenchmark [fences [max threads]]}, threads default to the number of
+ * processors.
+ */
+public class PackedRTreeBenchmark {
+
+    private static final int ROUNDS = 5;
+    private static final int QUERIES = 200000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int fenceCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        Random random = new Random(1);
+        FenceSet fences = ContainmentKernelTest.randomFences(random, fenceCount, 44, -2, 8);
+        int processors = args.length > 1
+                ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        double single = 0;
+        for (int threads = 1; threads <= processors; threads = nextThreadCount(threads, processors)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                PackedRTree.build(fences, executor, threads);
+                best = Math.min(best, (System.nanoTime() - start) / 1e6);
+            }
+            executor.shutdown();
+            if (threads == 1) single = best;
+            System.out.printf("fences=%d threads=%d buildMs=%.1f speedup=%.2f%n",
+                    fenceCount, threads, best, single / best);
+        }
+
+        PackedRTree tree = PackedRTree.build(fences);
+        ContainmentKernel kernel = new ContainmentKernel(fences);
+        double[] latitudes = new double[QUERIES];
+        double[] longitudes = new double[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            latitudes[i] = 44 + random.nextDouble() * 8;
+            longitudes[i] = -2 + random.nextDouble() * 8;
+        }
+        double treeNs = Double.MAX_VALUE;
+        double kernelNs = Double.MAX_VALUE;
+        int kernelQueries = Math.max(100, QUERIES / Math.max(1, fenceCount / 1000));
+        int hits = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                if (tree.containsAny(latitudes[i], longitudes[i])) hits++;
+            }
+            treeNs = Math.min(treeNs, (System.nanoTime() - start) / (double) QUERIES);
+
+            start = System.nanoTime();
+            for (int i = 0; i < kernelQueries; i++) {
+                if (kernel.containsAny(latitudes[i], longitudes[i])) hits++;
+            }
+            kernelNs = Math.min(kernelNs, (System.nanoTime() - start) / (double) kernelQueries);
+        }
+        System.out.printf("fences=%d height=%d treeNsPerQuery=%.0f kernelNsPerQuery=%.0f hits=%d%n",
+                fenceCount, tree.getHeight(), treeNs, kernelNs, hits);
+    }
+
+    private static int nextThreadCount(int threads, int processors) {
+        return threads < processors && threads * 2 > processors ? processors : threads * 2;
+    }
+}
@@ -0,0 +1,155 @@
+package com.vail.myapplication.engine;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class PackedRTreeTest {
+
+    @Test
+    public void testSameResultsAsCheckingEveryFence() {
+        Random random = new Random(7);
+        FenceSet fences = ContainmentKernelTest.randomFences(random, 5000, 50, 30, 1);
+        PackedRTree tree = PackedRTree.build(fences);
+        ContainmentKernel kernel = new ContainmentKernel(fences);
+        assertEquals(4, tree.getHeight());
+
+        int inside = 0;
+        for (int i = 0; i < 100000; i++) {
+            double latitude = 50 + random.nextDouble();
+            double longitude = 30 + random.nextDouble();
+            boolean expected = kernel.containsAnyScalar(latitude, longitude);
+            assertEquals(expected, tree.containsAny(latitude, longitude));
+            if (expected) inside++;
+        }
+        assertTrue(inside > 1000);
+    }
+
+    @Test
+    public void testFencesAcrossTheAntimeridianAndPole() {
+        FenceSet fences = new FenceSet(new long[]{1, 2, 3},
+                new double[]{-16, 10, 89.99},
+                new double[]{179.9999, -179.9999, 45},
+                new float[]{500, 500, 5000});
+        PackedRTree tree = PackedRTree.build(fences);
+
+        assertTrue(tree.containsAny(-16, -179.999));
+        assertTrue(tree.containsAny(-16, 179.999));
+        assertTrue(tree.containsAny(10, 179.999));
+        assertFalse(tree.containsAny(-16, 179.9));
+        // Every longitude is close to the pole.
+        assertTrue(tree.containsAny(89.995, -135));
+        assertFalse(tree.containsAny(0, 0));
+    }
+
+    @Test
+    public void testCandidatesIncludeEveryContainingFence() {
+        Random random = new Random(8);
+        final FenceSet fences = ContainmentKernelTest.randomFences(random, 2000, -33, 151, 0.5);
+        PackedRTree tree = PackedRTree.build(fences);
+        for (int i = 0; i < 2000; i++) {
+            double latitude = -33 + random.nextDouble() * 0.5;
+            double longitude = 151 + random.nextDouble() * 0.5;
+            final BitSet candidates = new BitSet();
+            tree.forEachCandidate(latitude, longitude, new PackedRTree.Visitor() {
+                @Override
+                public void visit(int fence) {
+                    candidates.set(fence);
+                }
+            });
+            for (int fence = 0; fence < fences.size(); fence++) {
+                if (fences.contains(fence, latitude, longitude)) {
+                    assertTrue(candidates.get(fence));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFencesWithinIncludeEveryCloseBoundary() {
+        // Across the antimeridian.
+        Random random = new Random(10);
+        FenceSet spread = ContainmentKernelTest.randomFences(random, 2000, 59.5, 179.5, 1);
+        long[] ids = new long[spread.size()];
+        double[] latitudes = new double[spread.size()];
+        double[] longitudes = new double[spread.size()];
+        float[] radii = new float[spread.size()];
+        for (int i = 0; i < spread.size(); i++) {
+            ids[i] = i;
+            latitudes[i] = spread.getLatitude(i);
+            longitudes[i] = spread.getLongitude(i) > 180
+                    ? spread.getLongitude(i) - 360 : spread.getLongitude(i);
+            radii[i] = spread.getRadius(i);
+        }
+        FenceSet fences = new FenceSet(ids, latitudes, longitudes, radii);
+        PackedRTree tree = PackedRTree.build(fences);
+        for (int i = 0; i < 500; i++) {
+            double latitude = 59.5 + random.nextDouble();
+            double longitude = 179.5 + random.nextDouble();
+            if (longitude > 180) longitude -= 360;
+            final BitSet candidates = new BitSet();
+            tree.forEachWithin(latitude, longitude, 3000, new PackedRTree.Visitor() {
+                @Override
+                public void visit(int fence) {
+                    candidates.set(fence);
+                }
+            });
+            assertTrue(candidates.cardinality() < fences.size());
+            for (int fence = 0; fence < fences.size(); fence++) {
+                if (fences.distance(fence, latitude, longitude) - fences.getRadius(fence) <= 3000) {
+                    assertTrue(candidates.get(fence));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelBuildMatchesSequentialBuild() throws InterruptedException {
+        FenceSet fences = ContainmentKernelTest.randomFences(new Random(9), 100003, 40, -4, 5);
+        PackedRTree sequential = PackedRTree.build(fences);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            PackedRTree parallel = PackedRTree.build(fences, executor, 4);
+            assertEquals(sequential.getNodeCount(), parallel.getNodeCount());
+            for (int i = 0; i < fences.size(); i++) {
+                assertEquals(sequential.getEntry(i), parallel.getEntry(i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEmptyTree() {
+        PackedRTree tree = PackedRTree.build(
+                new FenceSet(new long[0], new double[0], new double[0], new float[0]));
+        assertFalse(tree.containsAny(0, 0));
+        assertEquals(0, tree.getNodeCount());
+    }
+
+    @Test
+    public void testHilbertCurveIsContinuous() {
+        // The curve starts at the origin, so it fills the first 64 x 64 square first.
+        int[] xs = new int[4096];
+        int[] ys = new int[4096];
+        BitSet seen = new BitSet();
+        for (int x = 0; x < 64; x++) {
+            for (int y = 0; y < 64; y++) {
+                int d = (int) PackedRTree.hilbert(x, y);
+                assertTrue(d < 4096);
+                assertFalse(seen.get(d));
+                seen.set(d);
+                xs[d] = x;
+                ys[d] = y;
+            }
+        }
+        for (int d = 1; d < 4096; d++) {
+            assertEquals(1, Math.abs(xs[d] - xs[d - 1]) + Math.abs(ys[d] - ys[d - 1]));
+        }
+    }
+}
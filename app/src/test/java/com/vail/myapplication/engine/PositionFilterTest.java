@@ -0,0 +1,133 @@
+package com.vail.myapplication.engine;
+
+import com.vail.myapplication.geo.GeoMath;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PositionFilterTest {
+
+    private static final double LATITUDE = 48.8566;
+    private static final double LONGITUDE = 2.3522;
+    private static final float RADIUS = 100;
+
+    @Test
+    public void testStationaryFixesConverge() {
+        PositionFilter filter = new PositionFilter();
+        Random random = new Random(1);
+        for (int i = 0; i < 60; i++) {
+            assertTrue(filter.update(0, LATITUDE + noise(random, 10), LONGITUDE, 10, i * 1000L));
+        }
+        double error = (filter.getLatitude(0) - LATITUDE) * GeoMath.METERS_PER_DEGREE;
+        assertEquals(0, error, 5);
+        assertTrue(filter.getAccuracy(0) < 10);
+        assertTrue(filter.getSpeed(0) < 1);
+    }
+
+    @Test
+    public void testRejectsInaccurateAndImpossibleFixes() {
+        PositionFilter filter = new PositionFilter();
+        assertTrue(filter.update(0, LATITUDE, LONGITUDE, 10, 0));
+        assertFalse(filter.update(0, LATITUDE, LONGITUDE, 500, 1000));
+        assertFalse(filter.update(0, LATITUDE + GeoMath.metersToLatitudeDegrees(1000), LONGITUDE, 10, 2000));
+        assertTrue(filter.update(0, LATITUDE + GeoMath.metersToLatitudeDegrees(20), LONGITUDE, 10, 3000));
+        assertEquals(2, filter.getRejectedFixes());
+        assertEquals(2, filter.getAcceptedFixes());
+    }
+
+    @Test
+    public void testRestartsAfterConsecutiveRejections() {
+        PositionFilter filter = new PositionFilter();
+        filter.update(0, LATITUDE, LONGITUDE, 10, 0);
+
+        // The device really moved, e.g. the first fix was a stale cached location.
+        double moved = LATITUDE + GeoMath.metersToLatitudeDegrees(5000);
+        for (int i = 1; i <= PositionFilter.MAX_CONSECUTIVE_REJECTIONS; i++) {
+            assertFalse(filter.update(0, moved, LONGITUDE, 10, i * 1000L));
+        }
+        assertTrue(filter.update(0, moved, LONGITUDE, 10, 10000));
+        assertEquals(moved, filter.getLatitude(0), 1e-9);
+    }
+
+    @Test
+    public void testFewerTransitionsOnNoisyTraces() {
+        int rawTransitions = 0;
+        int filteredTransitions = 0;
+        for (int seed = 1; seed <= 8; seed++) {
+            double[][] trace = walkThroughFence(new Random(seed));
+
+            CountingListener raw = new CountingListener();
+            ZoneEvaluator rawEvaluator = new ZoneEvaluator(fence(), raw);
+            CountingListener filtered = new CountingListener();
+            PositionFilter filter = new PositionFilter();
+            ZoneEvaluator filteredEvaluator = new ZoneEvaluator(fence(), filter, filtered);
+
+            for (double[] fix : trace) {
+                rawEvaluator.onPosition(0, fix[1], fix[2], (long) fix[0]);
+                filteredEvaluator.onPosition(0, fix[1], fix[2], (float) fix[3], (long) fix[0]);
+            }
+            rawTransitions += raw.transitions;
+            filteredTransitions += filtered.transitions;
+
+            // Every jump and coarse fix is dropped before reaching the fences.
+            assertEquals(29, filter.getRejectedFixes());
+            assertFalse(filteredEvaluator.isInZone(0));
+        }
+
+        // Entering and leaving once per trace would be 16 transitions.
+        assertTrue(rawTransitions + " raw, " + filteredTransitions + " filtered",
+                filteredTransitions * 4 < rawTransitions);
+    }
+
+    /**
+     * Walks west to east through the fence at 1.4 m/s with one fix per second, 10 m noise,
+     * a multipath jump every 25 fixes and a coarse network fix every 40.
+     *
+     * @return fixes as time, latitude, longitude, accuracy.
+     */
+    private static double[][] walkThroughFence(Random random) {
+        int count = 450;
+        double[][] trace = new double[count][];
+        for (int i = 0; i < count; i++) {
+            double east = -315 + 1.4 * i;
+            double north = 0;
+            float accuracy = 10;
+            if (i % 25 == 12) {
+                north += 250 + 100 * random.nextDouble();
+                accuracy = 20;
+            } else if (i % 40 == 20) {
+                accuracy = 800;
+            } else {
+                east += 10 * random.nextGaussian();
+                north += 10 * random.nextGaussian();
+            }
+            trace[i] = new double[]{
+                    i * 1000L,
+                    LATITUDE + GeoMath.metersToLatitudeDegrees(north),
+                    LONGITUDE + GeoMath.metersToLongitudeDegrees(east, LATITUDE),
+                    accuracy};
+        }
+        return trace;
+    }
+
+    private static double noise(Random random, double meters) {
+        return GeoMath.metersToLatitudeDegrees(meters * random.nextGaussian());
+    }
+
+    private static FenceSet fence() {
+        return new FenceSet(new long[]{1}, new double[]{LATITUDE}, new double[]{LONGITUDE},
+                new float[]{RADIUS});
+    }
+
+    private static final class CountingListener implements ZoneEvaluator.Listener {
+        int transitions;
+
+        @Override
+        public void onZoneChanged(int device, boolean inZone, long time) {
+            transitions++;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.vail.myapplication.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class ScheduleIndexTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /**
+     * Monday 3 July 2017, 00:00 UTC.
+     */
+    private static final long MONDAY = 1499040000000L;
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HOUR = 60 * MINUTE;
+
+    private static final WeeklySchedule BUSINESS_HOURS = new WeeklySchedule.Builder()
+            .addDays(WeeklySchedule.MONDAY, WeeklySchedule.FRIDAY, 9 * 60, 18 * 60)
+            .build();
+
+    @Test
+    public void testMinuteOfWeek() {
+        assertEquals(0, WeeklySchedule.minuteOfWeek(MONDAY, UTC));
+        assertEquals(WeeklySchedule.MINUTES_PER_WEEK - 1,
+                WeeklySchedule.minuteOfWeek(MONDAY - MINUTE, UTC));
+        assertEquals(3 * 60, WeeklySchedule.minuteOfWeek(MONDAY + HOUR,
+                TimeZone.getTimeZone("GMT+02:00")));
+    }
+
+    @Test
+    public void testPeriodOverWeekEnd() {
+        WeeklySchedule nights = new WeeklySchedule.Builder()
+                .add(WeeklySchedule.SUNDAY, 22 * 60, 30 * 60)
+                .add(WeeklySchedule.MONDAY, 5 * 60, 7 * 60)
+                .build();
+        assertEquals(2, nights.getIntervalCount());
+        assertTrue(nights.isActive(MONDAY - HOUR, UTC));
+        assertTrue(nights.isActive(MONDAY + 6 * HOUR, UTC));
+        assertFalse(nights.isActive(MONDAY + 7 * HOUR, UTC));
+        assertEquals(MONDAY + 7 * HOUR, nights.activeUntil(MONDAY - HOUR, UTC));
+        assertEquals(MONDAY + 8 * HOUR, nights.activeUntil(MONDAY + 8 * HOUR, UTC));
+
+        WeeklySchedule always = new WeeklySchedule.Builder()
+                .addDays(WeeklySchedule.MONDAY, WeeklySchedule.SUNDAY, 0, 24 * 60)
+                .build();
+        assertEquals(1, always.getIntervalCount());
+        assertEquals(Long.MAX_VALUE, always.activeUntil(MONDAY, UTC));
+    }
+
+    @Test
+    public void testMatchesSchedules() {
+        Random random = new Random(5);
+        WeeklySchedule[] schedules = new WeeklySchedule[300];
+        for (int i = 0; i < schedules.length; i++) {
+            if (i % 10 == 0) continue;
+            WeeklySchedule.Builder builder = new WeeklySchedule.Builder();
+            for (int j = random.nextInt(4); j >= 0; j--) {
+                int start = random.nextInt(WeeklySchedule.MINUTES_PER_DAY);
+                builder.add(random.nextInt(7), start, start + 1 + random.nextInt(12 * 60));
+            }
+            schedules[i] = builder.build();
+        }
+        ScheduleIndex index = new ScheduleIndex(schedules, UTC);
+
+        for (int minute = 0; minute < WeeklySchedule.MINUTES_PER_WEEK; minute += 7) {
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < schedules.length; i++) {
+                if (schedules[i] == null || schedules[i].isActive(minute)) expected.add(i);
+            }
+            int[] active = index.activeAt(minute);
+            assertEquals(expected.size(), active.length);
+            for (int i = 0; i < active.length; i++) {
+                assertEquals((int) expected.get(i), active[i]);
+            }
+        }
+
+        // Nothing changes before the next change.
+        long time = MONDAY + 17 * MINUTE;
+        for (int i = 0; i < 200; i++) {
+            long next = index.nextChange(time);
+            assertTrue(next > time);
+            assertTrue(next - time <= ScheduleIndex.MAX_LOOKAHEAD_MS);
+            assertArrayEquals(index.activeAt(time), index.activeAt(next - 1));
+            time = next;
+        }
+    }
+
+    @Test
+    public void testEvaluatorSkipsInactiveFences() {
+        // A quarter of the fences is always active, the others during business hours.
+        int size = 400;
+        long[] ids = new long[size];
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        float[] radii = new float[size];
+        WeeklySchedule[] schedules = new WeeklySchedule[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+            latitudes[i] = 50 + (i / 20) * 0.01;
+            longitudes[i] = 30 + (i % 20) * 0.01;
+            radii[i] = 200;
+            schedules[i] = i % 4 == 0 ? null : BUSINESS_HOURS;
+        }
+        FenceSet fences = new FenceSet(ids, latitudes, longitudes, radii);
+        final FenceIndex index = new FenceIndex(fences, new ScheduleIndex(schedules, UTC), 1);
+        RecordingListener listener = new RecordingListener();
+        ZoneEvaluator evaluator = new ZoneEvaluator(new FenceIndex.Source() {
+            @Override
+            public FenceIndex getIndex() {
+                return index;
+            }
+        }, null, 0, listener);
+
+        // Inside fence 1 during business hours, then at night.
+        evaluator.onPosition(0, 50, 30.01, MONDAY + 10 * HOUR);
+        assertTrue(evaluator.isInZone(0));
+        assertEquals(size, evaluator.getCheckedFences());
+        evaluator.onPosition(0, 50, 30.01, MONDAY + 20 * HOUR);
+        assertFalse(evaluator.isInZone(0));
+        assertEquals(size + size / 4, evaluator.getCheckedFences());
+        assertEquals(size / 4, evaluator.getFences().size());
+
+        // Fence 0 is always active.
+        evaluator.onPosition(0, 50, 30, MONDAY + 21 * HOUR);
+        assertTrue(evaluator.isInZone(0));
+        // Back in business hours on Tuesday, and an out of order fix on Monday night.
+        evaluator.onPosition(0, 50, 30.01, MONDAY + 33 * HOUR);
+        assertEquals(size, evaluator.getFences().size());
+        evaluator.onPosition(0, 50, 30.01, MONDAY + 22 * HOUR);
+        assertFalse(evaluator.isInZone(0));
+    }
+
+    private static final class RecordingListener implements ZoneEvaluator.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onZoneChanged(int device, boolean inZone, long time) {
+            events.add(device + (inZone ? " in " : " out ") + time);
+        }
+    }
+}
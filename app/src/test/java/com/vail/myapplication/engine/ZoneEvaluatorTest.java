@@ -0,0 +1,169 @@
+package com.vail.myapplication.engine;
+
+import com.vail.myapplication.geo.GeoMath;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ZoneEvaluatorTest {
+
+    private static final float MAX_SPEED = 30;
+
+    @Test
+    public void testWifiOrGeofence() {
+        RecordingListener listener = new RecordingListener();
+        ZoneEvaluator evaluator = new ZoneEvaluator(new FenceSet(new long[]{1},
+                new double[]{50}, new double[]{30}, new float[]{100}), listener);
+
+        evaluator.onPosition(0, 50, 30, 1000);
+        evaluator.onWifi(0, true, 2000);
+        evaluator.onPosition(0, 51, 30, 3000);
+        assertTrue(evaluator.isInZone(0));
+        evaluator.onWifi(0, false, 4000);
+        assertFalse(evaluator.isInZone(0));
+        assertEquals("0 in 1000, 0 out 4000", listener.toString());
+    }
+
+    @Test
+    public void testCullingMatchesCheckingEveryFence() {
+        FenceSet fences = grid(2000);
+        RecordingListener exact = new RecordingListener();
+        RecordingListener culled = new RecordingListener();
+        ZoneEvaluator exactEvaluator = new ZoneEvaluator(fences, exact);
+        ZoneEvaluator culledEvaluator = new ZoneEvaluator(fences, null, MAX_SPEED, culled);
+
+        int fixes = 0;
+        Random random = new Random(3);
+        for (int device = 0; device < 10; device++) {
+            double latitude = 50 + random.nextDouble() * 0.2;
+            double longitude = 30 + random.nextDouble() * 0.2;
+            double bearing = random.nextDouble() * 2 * Math.PI;
+            for (int second = 0; second < 1800; second += 1 + random.nextInt(5)) {
+                // Random speed up to the maximum, turning now and then.
+                double step = MAX_SPEED * random.nextDouble();
+                bearing += random.nextGaussian() * 0.3;
+                latitude += GeoMath.metersToLatitudeDegrees(step * Math.cos(bearing));
+                longitude += GeoMath.metersToLongitudeDegrees(step * Math.sin(bearing), latitude);
+
+                long time = second * 1000L;
+                exactEvaluator.onPosition(device, latitude, longitude, time);
+                culledEvaluator.onPosition(device, latitude, longitude, time);
+                fixes++;
+            }
+        }
+
+        assertFalse(exact.events.isEmpty());
+        assertEquals(exact.events, culled.events);
+
+        double checksPerFix = (double) culledEvaluator.getCheckedFences() / fixes;
+        assertTrue(checksPerFix + " checks per fix", checksPerFix < fences.size() / 20);
+    }
+
+    @Test
+    public void testOutOfOrderFixesAreCheckedAgainstEveryNearbyFence() {
+        FenceSet fences = new FenceSet(new long[]{1, 2}, new double[]{50, 50.01},
+                new double[]{30, 30}, new float[]{100, 100});
+        RecordingListener listener = new RecordingListener();
+        ZoneEvaluator evaluator = new ZoneEvaluator(fences, null, MAX_SPEED, listener);
+
+        evaluator.onPosition(0, 50, 30, 100000);
+        assertEquals(2, evaluator.getCheckedFences());
+        // Neither boundary can be reached in half a second.
+        evaluator.onPosition(0, 50, 30, 100500);
+        assertEquals(2, evaluator.getCheckedFences());
+
+        evaluator.onPosition(0, 50.01, 30, 1000);
+        assertEquals(4, evaluator.getCheckedFences());
+        assertTrue(evaluator.isInZone(0));
+    }
+
+    @Test
+    public void testCellCoveringMatchesTheKernel() {
+        FenceSet fences = grid(2000);
+        final FenceIndex index = new FenceIndex(fences, null, CellCovering.build(fences), 0);
+        RecordingListener exact = new RecordingListener();
+        RecordingListener covered = new RecordingListener();
+        ZoneEvaluator exactEvaluator = new ZoneEvaluator(fences, exact);
+        ZoneEvaluator coveredEvaluator = new ZoneEvaluator(new FenceIndex.Source() {
+            @Override
+            public FenceIndex getIndex() {
+                return index;
+            }
+        }, null, 0, covered);
+
+        int fixes = 0;
+        Random random = new Random(4);
+        for (int device = 0; device < 10; device++) {
+            for (int second = 0; second < 600; second++) {
+                double latitude = 50 + random.nextDouble() * 0.2;
+                double longitude = 30 + random.nextDouble() * 0.2;
+                exactEvaluator.onPosition(device, latitude, longitude, second * 1000L);
+                coveredEvaluator.onPosition(device, latitude, longitude, second * 1000L);
+                fixes++;
+            }
+        }
+
+        assertFalse(exact.events.isEmpty());
+        assertEquals(exact.events, covered.events);
+        assertTrue(coveredEvaluator.getCellAnswers() > fixes / 2);
+    }
+
+    @Test
+    public void testQueuesOnlyNearbyFences() {
+        FenceSet fences = grid(2000);
+        RecordingListener listener = new RecordingListener();
+        ZoneEvaluator evaluator = new ZoneEvaluator(fences, null, MAX_SPEED, listener);
+
+        // A corner of the grid, then its middle 15 km away.
+        evaluator.onPosition(0, 50, 30, 1000);
+        int corner = evaluator.getQueuedFences(0);
+        assertTrue(corner + " queued fences", corner > 0 && corner < fences.size() / 10);
+        evaluator.onPosition(0, 50.11, 30.11, 600000);
+        assertTrue(evaluator.getQueuedFences(0) > corner);
+        assertTrue(evaluator.getQueuedFences(0) < fences.size() / 2);
+        assertTrue(evaluator.isInZone(0));
+    }
+
+    /**
+     * Fences of 30 to 530 m every 0.005 degrees.
+     */
+    private static FenceSet grid(int count) {
+        Random random = new Random(1);
+        long[] ids = new long[count];
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        float[] radii = new float[count];
+        int side = (int) Math.ceil(Math.sqrt(count));
+        for (int i = 0; i < count; i++) {
+            ids[i] = i;
+            latitudes[i] = 50 + (i / side) * 0.005;
+            longitudes[i] = 30 + (i % side) * 0.005;
+            radii[i] = 30 + random.nextInt(500);
+        }
+        return new FenceSet(ids, latitudes, longitudes, radii);
+    }
+
+    private static final class RecordingListener implements ZoneEvaluator.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onZoneChanged(int device, boolean inZone, long time) {
+            events.add(device + (inZone ? " in " : " out ") + time);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (String event : events) {
+                if (builder.length() > 0) builder.append(", ");
+                builder.append(event);
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.vail.myapplication.geo;
+
+import com.vail.myapplication.Constants;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DistancePrecisionTest {
+
+    @Test
+    public void testEllipsoidal_matchesVincentyReference() {
+        // Flinders Peak to Buninyong, from Vincenty's paper.
+        double distance = DistancePrecision.ELLIPSOIDAL.forCenter(-37.95103342, 144.42486789)
+                .distanceTo(-37.65282114, 143.92649554);
+        assertEquals(54972.271, distance, 0.001);
+    }
+
+    @Test
+    public void testSelect_seekBarRadiiArePlanar() {
+        for (int radius = Constants.MIN_RADIUS; radius <= Constants.MIN_RADIUS + 500; radius += 10) {
+            for (double latitude = -80; latitude <= 80; latitude += 5) {
+                assertEquals(DistancePrecision.PLANAR,
+                        DistancePrecision.select(radius, latitude, DistancePrecision.DEFAULT_TOLERANCE));
+            }
+        }
+    }
+
+    @Test
+    public void testSelect_fallsBackToMoreExactModes() {
+        assertEquals(DistancePrecision.HAVERSINE, DistancePrecision.select(100, 89, 0.5));
+        assertEquals(DistancePrecision.ELLIPSOIDAL, DistancePrecision.select(1000, 89, 0.5));
+        assertEquals(DistancePrecision.HAVERSINE, DistancePrecision.select(100000, 60, 500));
+        assertEquals(DistancePrecision.ELLIPSOIDAL, DistancePrecision.select(100000, 60, 1));
+    }
+
+    @Test
+    public void testErrorBoundsHold() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            double latitude = (random.nextDouble() * 2 - 1) * DistancePrecision.MAX_PLANAR_LATITUDE;
+            double longitude = random.nextDouble() * 360 - 180;
+            double range = 10 + random.nextDouble() * 5000;
+            double bearing = random.nextDouble() * 2 * Math.PI;
+            double pointLatitude = latitude + GeoMath.metersToLatitudeDegrees(range * Math.cos(bearing));
+            double pointLongitude = longitude
+                    + GeoMath.metersToLongitudeDegrees(range * Math.sin(bearing), latitude);
+
+            double exact = DistancePrecision.ELLIPSOIDAL.forCenter(latitude, longitude)
+                    .distanceTo(pointLatitude, pointLongitude);
+            for (DistancePrecision precision : DistancePrecision.values()) {
+                double distance = precision.forCenter(latitude, longitude)
+                        .distanceTo(pointLatitude, pointLongitude);
+                assertTrue(precision + " at " + latitude + ", " + exact + " m",
+                        Math.abs(distance - exact) <= precision.maxError(exact, latitude) + 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testPlanar_acrossAntimeridian() {
+        double distance = DistancePrecision.PLANAR.forCenter(0, 179.9999).distanceTo(0, -179.9999);
+        assertEquals(22.26, distance, 0.01);
+    }
+}
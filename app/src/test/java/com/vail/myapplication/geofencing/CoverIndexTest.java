@@ -0,0 +1,97 @@
+package com.vail.myapplication.geofencing;
+
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CoverIndexTest {
+
+    private static final String KEY = "COVERS";
+
+    @Mock
+    private SharedPreferences sharedPreferences;
+    @Mock
+    private SharedPreferences.Editor editor;
+
+    private CoverIndex covers;
+
+    @Before
+    public void setupMocks() {
+        MockitoAnnotations.initMocks(this);
+        when(sharedPreferences.edit()).thenReturn(editor);
+        when(editor.putStringSet(any(String.class), anySetOf(String.class))).thenReturn(editor);
+        covers = new CoverIndex(sharedPreferences, KEY);
+        covers.update(Arrays.asList(
+                new FenceCoalescer.Cover(fence("a", 50), Collections.singletonList(fence("a", 50))),
+                new FenceCoalescer.Cover(fence("cover-1", 50.011),
+                        Arrays.asList(fence("b", 50.01), fence("c", 50.012)))),
+                Collections.<String>emptyList());
+    }
+
+    private static CircularFence fence(String id, double latitude) {
+        return new CircularFence(id, latitude, 10, 100, 0, 3);
+    }
+
+    @Test
+    public void testPlacesOnlyTheFencesTheAccuracyCanTell() {
+        CoverIndex.Placement placement = covers.place(50, 10, 90);
+        assertEquals(Collections.singletonList("a"), placement.getInsideIds());
+        assertEquals(Collections.singletonList("cover-1"), placement.getOutsideIds());
+        assertEquals(Collections.singletonList("a"), placement.getInsideFenceIds());
+
+        // 55 m from the center of a, within 100 m of its boundary.
+        placement = covers.place(50.0005, 10, 50);
+        assertTrue(placement.getInsideIds().isEmpty());
+        assertEquals(Collections.singletonList("cover-1"), placement.getOutsideIds());
+    }
+
+    @Test
+    public void testCoverIsInsideWithOneOfItsFences() {
+        CoverIndex.Placement placement = covers.place(50.01, 10, 20);
+        assertEquals(Collections.singletonList("cover-1"), placement.getInsideIds());
+        assertEquals(Collections.singletonList("a"), placement.getOutsideIds());
+        assertEquals(Collections.singletonList("b"), placement.getInsideFenceIds());
+        assertEquals(sorted("a", "c"), sorted(placement.getOutsideFenceIds()));
+        assertTrue(covers.isCover("cover-1"));
+        assertFalse(covers.isCover("a"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLoneFencesAreRestoredFromPreferences() {
+        ArgumentCaptor<Set> captor = ArgumentCaptor.forClass(Set.class);
+        verify(editor).putStringSet(eq(KEY), captor.capture());
+        when(sharedPreferences.getStringSet(KEY, null)).thenReturn(captor.getValue());
+
+        CoverIndex restored = new CoverIndex(sharedPreferences, KEY);
+        assertFalse(restored.isCover("a"));
+        assertEquals(Arrays.asList("b", "c"), sorted(restored.getMemberIds("cover-1")));
+        assertEquals(Collections.singletonList("a"), restored.place(50, 10, 0).getInsideIds());
+    }
+
+    private static List<String> sorted(String... ids) {
+        return sorted(Arrays.asList(ids));
+    }
+
+    private static List<String> sorted(List<String> ids) {
+        String[] array = ids.toArray(new String[ids.size()]);
+        Arrays.sort(array);
+        return Arrays.asList(array);
+    }
+}
@@ -0,0 +1,146 @@
+package com.vail.myapplication.geofencing;
+
+import com.google.android.gms.location.Geofence;
+import com.vail.myapplication.engine.WeeklySchedule;
+import com.vail.myapplication.geo.DistancePrecision;
+import com.vail.myapplication.geo.GeoMath;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class FenceCoalescerTest {
+
+    private static final long EXPIRATION = 12 * 60 * 60 * 1000;
+
+    @Test
+    public void testFitsClustersUnderLimit() {
+        // 60 sites of 5 fences each, a kilometre or more apart.
+        Random random = new Random(7);
+        List<CircularFence> fences = new ArrayList<>();
+        for (int site = 0; site < 60; site++) {
+            double latitude = 50 + (site / 8) * 0.01;
+            double longitude = 30 + (site % 8) * 0.015;
+            for (int i = 0; i < 5; i++) {
+                fences.add(fence("site-" + site + "-" + i,
+                        latitude + GeoMath.metersToLatitudeDegrees(random.nextGaussian() * 60),
+                        longitude + GeoMath.metersToLongitudeDegrees(random.nextGaussian() * 60, latitude),
+                        50 + random.nextInt(50)));
+            }
+        }
+
+        List<FenceCoalescer.Cover> covers = new FenceCoalescer().coalesce(fences, 100);
+        assertTrue(covers.size() <= 100);
+
+        Set<String> members = new HashSet<>();
+        for (FenceCoalescer.Cover cover : covers) {
+            CircularFence coverFence = cover.getFence();
+            for (CircularFence member : cover.getMembers()) {
+                assertTrue(members.add(member.getRequestId()));
+                // Members of different sites are never merged, too much area would be added.
+                assertEquals(site(cover.getMembers().get(0)), site(member));
+                double distance = DistancePrecision.HAVERSINE
+                        .forCenter(coverFence.getLatitude(), coverFence.getLongitude())
+                        .distanceTo(member.getLatitude(), member.getLongitude());
+                assertTrue(distance + member.getRadius() <= coverFence.getRadius());
+            }
+            assertTrue(cover.getAreaRatio() <= FenceCoalescer.DEFAULT_MAX_AREA_RATIO * 1.05);
+            assertEquals(cover.isMerged(), coverFence.getRequestId().startsWith(FenceCoalescer.COVER_PREFIX));
+        }
+        assertEquals(fences.size(), members.size());
+
+        // Same fences in another order, same covers.
+        List<CircularFence> shuffled = new ArrayList<>(fences);
+        Collections.shuffle(shuffled, random);
+        Set<Integer> hashes = new HashSet<>();
+        for (FenceCoalescer.Cover cover : covers) {
+            hashes.add(cover.getFence().getRequestId().hashCode());
+        }
+        int same = 0;
+        for (FenceCoalescer.Cover cover : new FenceCoalescer().coalesce(shuffled, 100)) {
+            if (hashes.contains(cover.getFence().getRequestId().hashCode())) same++;
+        }
+        assertTrue(same > covers.size() / 2);
+    }
+
+    @Test
+    public void testKeepsDistantAndScheduledFencesApart() {
+        WeeklySchedule schedule = new WeeklySchedule.Builder()
+                .addDays(WeeklySchedule.MONDAY, WeeklySchedule.FRIDAY, 9 * 60, 17 * 60)
+                .build();
+        List<CircularFence> fences = new ArrayList<>();
+        fences.add(fence("a", 50, 30, 100));
+        fences.add(fence("b", 51, 30, 100));
+        fences.add(new CircularFence("c", 50.0005, 30, 100, EXPIRATION, 3, schedule));
+        fences.add(fence("d", 50, 30.001, 100));
+
+        List<FenceCoalescer.Cover> covers = new FenceCoalescer().coalesce(fences, 1);
+        assertEquals(3, covers.size());
+        assertEquals("[a, d]", ids(covers.get(0).getMembers()));
+        assertEquals("b", covers.get(1).getFence().getRequestId());
+        assertEquals("c", covers.get(2).getFence().getRequestId());
+        assertEquals(EXPIRATION, covers.get(0).getFence().getExpirationDuration());
+    }
+
+    @Test
+    public void testMergesTheEnterAndExitTransitionsOfTheMembers() {
+        int enter = Geofence.GEOFENCE_TRANSITION_ENTER;
+        int exit = Geofence.GEOFENCE_TRANSITION_EXIT;
+        int dwell = Geofence.GEOFENCE_TRANSITION_DWELL;
+        assertEquals(enter | exit, coverTransitions(enter, exit));
+        assertEquals(enter, coverTransitions(enter, enter | dwell));
+        assertEquals(enter | exit, coverTransitions(dwell, dwell));
+    }
+
+    @Test
+    public void testResolvesMembers() {
+        List<CircularFence> fences = new ArrayList<>();
+        fences.add(fence("a", 50, 30, 100));
+        fences.add(fence("b", 50, 30.003, 100));
+        FenceCoalescer.Cover cover = new FenceCoalescer().coalesce(fences, 1).get(0);
+        assertTrue(cover.isMerged());
+
+        List<String> resolved = new ArrayList<>();
+        cover.resolve(50, 30.003, resolved);
+        assertEquals("[b]", resolved.toString());
+        resolved.clear();
+        // Inside the cover, between the fences.
+        cover.resolve(50, 30.0015, resolved);
+        assertTrue(resolved.isEmpty());
+    }
+
+    /**
+     * Returns the transitions of the cover of two fences with the given transitions.
+     */
+    private static int coverTransitions(int first, int second) {
+        List<CircularFence> fences = new ArrayList<>();
+        fences.add(new CircularFence("a", 50, 30, 100, EXPIRATION, first));
+        fences.add(new CircularFence("b", 50, 30.003, 100, EXPIRATION, second));
+        FenceCoalescer.Cover cover = new FenceCoalescer().coalesce(fences, 1).get(0);
+        assertTrue(cover.isMerged());
+        return cover.getFence().getTransitionTypes();
+    }
+
+    private static CircularFence fence(String id, double latitude, double longitude, float radius) {
+        return new CircularFence(id, latitude, longitude, radius, EXPIRATION, 3);
+    }
+
+    private static String site(CircularFence fence) {
+        return fence.getRequestId().substring(0, fence.getRequestId().lastIndexOf('-'));
+    }
+
+    private static String ids(List<CircularFence> fences) {
+        List<String> ids = new ArrayList<>();
+        for (CircularFence fence : fences) {
+            ids.add(fence.getRequestId());
+        }
+        return ids.toString();
+    }
+}
@@ -0,0 +1,122 @@
+package com.vail.myapplication.geofencing;
+
+import android.content.SharedPreferences;
+
+import com.google.android.gms.location.Geofence;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GeofenceRegistryTest {
+
+    private static final String KEY = "REGISTERED";
+    private static final long EXPIRATION = 12 * 60 * 60 * 1000;
+
+    @Mock
+    private SharedPreferences sharedPreferences;
+    @Mock
+    private SharedPreferences.Editor editor;
+
+    private GeofenceRegistry registry;
+
+    @Before
+    public void setupMocks() {
+        MockitoAnnotations.initMocks(this);
+        when(sharedPreferences.edit()).thenReturn(editor);
+        when(editor.putStringSet(any(String.class), anySetOf(String.class))).thenReturn(editor);
+        registry = new GeofenceRegistry(sharedPreferences, KEY);
+    }
+
+    private static CircularFence fence(String id, double latitude, float radius) {
+        return new CircularFence(id, latitude, 10, radius, EXPIRATION, 3);
+    }
+
+    @Test
+    public void testDiff_emptyRegistryAddsEverything() {
+        GeofenceRegistry.Delta delta = registry.diff(Arrays.asList(fence("a", 1, 30), fence("b", 2, 30)));
+        assertEquals(2, delta.getAdded().size());
+        assertTrue(delta.getRemovedIds().isEmpty());
+    }
+
+    @Test
+    public void testDiff_editedFenceIsOnlyAdded() {
+        registry.commit(registry.diff(Arrays.asList(fence("a", 1, 30), fence("b", 2, 30))));
+
+        GeofenceRegistry.Delta delta = registry.diff(Arrays.asList(fence("a", 1, 30), fence("b", 2, 45)));
+        assertEquals(1, delta.getAdded().size());
+        assertEquals("b", delta.getAdded().get(0).getRequestId());
+        assertTrue(delta.getRemovedIds().isEmpty());
+    }
+
+    @Test
+    public void testDiff_missingFenceIsRemoved() {
+        registry.commit(registry.diff(Arrays.asList(fence("a", 1, 30), fence("b", 2, 30))));
+
+        GeofenceRegistry.Delta delta = registry.diff(Collections.singletonList(fence("a", 1, 30)));
+        assertTrue(delta.getAdded().isEmpty());
+        assertEquals(Collections.singletonList("b"), delta.getRemovedIds());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCommit_restoredFromPreferences() {
+        registry.commit(registry.diff(Collections.singletonList(fence("a", 1, 30))));
+
+        ArgumentCaptor<Set> captor = ArgumentCaptor.forClass(Set.class);
+        verify(editor).putStringSet(eq(KEY), captor.capture());
+        when(sharedPreferences.getStringSet(KEY, null)).thenReturn(captor.getValue());
+
+        GeofenceRegistry restored = new GeofenceRegistry(sharedPreferences, KEY);
+        assertTrue(restored.diff(Collections.singletonList(fence("a", 1, 30))).isEmpty());
+    }
+
+    @Test
+    public void testDiff_fenceCloseToExpiryIsAddedAgain() {
+        long now = 1000000;
+        registry.commit(registry.diff(Arrays.asList(fence("a", 1, 30), fence("b", 2, 30)), now), now);
+        assertTrue(registry.diff(Arrays.asList(fence("a", 1, 30), fence("b", 2, 30)), now + 60000).isEmpty());
+
+        long later = now + EXPIRATION - GeofenceRegistry.RENEW_BEFORE_EXPIRY_MS / 2;
+        GeofenceRegistry.Delta delta = registry.diff(Arrays.asList(fence("a", 1, 30), fence("b", 2, 30)), later);
+        assertEquals(2, delta.getAdded().size());
+        registry.commit(delta, later);
+        assertTrue(registry.diff(Arrays.asList(fence("a", 1, 30), fence("b", 2, 30)), later).isEmpty());
+    }
+
+    @Test
+    public void testDiff_neverExpiringFenceIsNotAddedAgain() {
+        CircularFence fence = new CircularFence("a", 1, 10, 30, Geofence.NEVER_EXPIRE, 3);
+        registry.commit(registry.diff(Collections.singletonList(fence), 0), 0);
+        assertTrue(registry.diff(Collections.singletonList(fence), 365L * EXPIRATION).isEmpty());
+    }
+
+    @Test
+    public void testDiff_clearedRegistryAddsEverythingAgain() {
+        registry.commit(registry.diff(Collections.singletonList(fence("a", 1, 30))));
+        registry.clear();
+        assertEquals(1, registry.diff(Collections.singletonList(fence("a", 1, 30))).getAdded().size());
+    }
+
+    @Test
+    public void testRestore_entryWithoutExpiryIsAddedAgain() {
+        when(sharedPreferences.getStringSet(KEY, null)).thenReturn(
+                Collections.singleton("a|" + fence("a", 1, 30).contentHash()));
+        GeofenceRegistry restored = new GeofenceRegistry(sharedPreferences, KEY);
+        assertEquals(1, restored.diff(Collections.singletonList(fence("a", 1, 30))).getAdded().size());
+        assertEquals(Collections.singletonList("a"), restored.diff(Collections.<CircularFence>emptyList()).getRemovedIds());
+    }
+}
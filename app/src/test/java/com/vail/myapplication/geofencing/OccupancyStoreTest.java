@@ -0,0 +1,80 @@
+package com.vail.myapplication.geofencing;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static com.vail.myapplication.geofencing.OccupancyTracker.Resolution.DAY;
+import static org.junit.Assert.*;
+
+public class OccupancyStoreTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStaysSurviveRestart() throws IOException {
+        File directory = new File(folder.getRoot(), "occupancy");
+        OccupancyStore store = new OccupancyStore(directory, 4);
+        assertTrue(store.onTransition("catalogue-1", true, 0));
+        assertTrue(store.onTransition("cover-2a/b", true, 0));
+
+        OccupancyStore restarted = new OccupancyStore(directory, 4);
+        assertTrue(restarted.onTransition("catalogue-1", false, 30 * MINUTE));
+        assertEquals(1, restarted.getTracker().getVisits("catalogue-1", DAY, 0));
+        assertEquals(30 * MINUTE, restarted.getTracker().getTotalDwell("catalogue-1", DAY, 0));
+
+        assertTrue(restarted.load("cover-2a/b"));
+        assertTrue(restarted.getTracker().isInside("cover-2a/b"));
+    }
+
+    @Test
+    public void testReleasesFencesOutsideWhenFull() throws IOException {
+        OccupancyStore store = new OccupancyStore(folder.getRoot(), 2);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(store.onTransition("fence-" + i, true, i * MINUTE));
+            assertTrue(store.onTransition("fence-" + i, false, (i + 1) * MINUTE));
+        }
+        assertTrue(store.onTransition("a", true, 0));
+        assertTrue(store.onTransition("b", true, 0));
+        // Both slots are held by fences the device is inside.
+        assertFalse(store.onTransition("c", true, 0));
+
+        assertTrue(store.onTransition("a", false, MINUTE));
+        assertTrue(store.load("fence-3"));
+        assertEquals(1, store.getTracker().getVisits("fence-3", DAY, 0));
+    }
+
+    @Test
+    public void testGrowsWithTheFencesInside() throws IOException {
+        OccupancyStore store = new OccupancyStore(folder.getRoot(), 101);
+        int initial = store.getTracker().getAllocatedSlots();
+        for (int i = 0; i < 101; i++) {
+            assertTrue(store.onTransition("fence-" + i, true, i * MINUTE));
+            assertTrue(store.onTransition("fence-" + i, false, (i + 1) * MINUTE));
+        }
+        assertEquals(initial, store.getTracker().getAllocatedSlots());
+
+        for (int i = 0; i <= initial; i++) {
+            assertTrue(store.onTransition("fence-" + i, true, 200 * MINUTE));
+        }
+        assertTrue(store.getTracker().getAllocatedSlots() > initial);
+    }
+
+    @Test
+    public void testUnreadableFileStartsOver() throws IOException {
+        OccupancyStore store = new OccupancyStore(folder.getRoot(), 1);
+        FileOutputStream out = new FileOutputStream(store.file("a"));
+        out.write(new byte[]{1, 2});
+        out.close();
+
+        assertTrue(store.onTransition("a", true, 0));
+        assertTrue(store.getTracker().isInside("a"));
+    }
+}
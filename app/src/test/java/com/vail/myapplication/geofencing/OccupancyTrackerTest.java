@@ -0,0 +1,148 @@
+package com.vail.myapplication.geofencing;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static com.vail.myapplication.geofencing.OccupancyTracker.Resolution.DAY;
+import static com.vail.myapplication.geofencing.OccupancyTracker.Resolution.HOUR;
+import static org.junit.Assert.*;
+
+public class OccupancyTrackerTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long HOUR_MS = 60 * MINUTE;
+
+    @Test
+    public void testVisitsAndDwellPerHourAndDay() {
+        OccupancyTracker tracker = new OccupancyTracker(4);
+        long start = 10 * 24 * HOUR_MS;
+
+        tracker.onTransition("a", true, start);
+        assertTrue(tracker.isInside("a"));
+        assertEquals(1, tracker.getOccupiedCount());
+        assertEquals(5 * MINUTE, tracker.getCurrentDwell("a", start + 5 * MINUTE));
+
+        tracker.onTransition("a", false, start + 10 * MINUTE);
+        tracker.onTransition("a", true, start + 2 * HOUR_MS);
+        tracker.onTransition("a", true, start + 2 * HOUR_MS + MINUTE);
+        tracker.onTransition("a", false, start + 2 * HOUR_MS + 30 * MINUTE);
+
+        assertFalse(tracker.isInside("a"));
+        assertEquals(0, tracker.getOccupiedCount());
+        assertEquals(1, tracker.getVisits("a", HOUR, start));
+        assertEquals(10 * MINUTE, tracker.getTotalDwell("a", HOUR, start));
+        assertEquals(0, tracker.getVisits("a", HOUR, start + HOUR_MS));
+        assertEquals(2, tracker.getVisits("a", DAY, start));
+        assertEquals(40 * MINUTE, tracker.getTotalDwell("a", DAY, start + 5 * HOUR_MS));
+    }
+
+    @Test
+    public void testP95Dwell() {
+        OccupancyTracker tracker = new OccupancyTracker(1);
+        long time = 0;
+        for (int i = 0; i < 100; i++) {
+            long dwell = i < 95 ? MINUTE : 60 * MINUTE;
+            tracker.onTransition("a", true, time);
+            time += dwell;
+            tracker.onTransition("a", false, time);
+        }
+
+        long p95 = tracker.getP95Dwell("a", DAY, 0);
+        assertTrue(p95 >= MINUTE && p95 <= 1.5 * MINUTE);
+    }
+
+    @Test
+    public void testOldBucketsAreRecycled() {
+        OccupancyTracker tracker = new OccupancyTracker(1);
+        tracker.onTransition("a", true, 0);
+        tracker.onTransition("a", false, MINUTE);
+        assertEquals(1, tracker.getVisits("a", HOUR, 0));
+
+        long later = OccupancyTracker.HOURS * HOUR_MS;
+        tracker.onTransition("a", true, later);
+        tracker.onTransition("a", false, later + MINUTE);
+        assertEquals(0, tracker.getVisits("a", HOUR, 0));
+        assertEquals(1, tracker.getVisits("a", HOUR, later));
+    }
+
+    @Test
+    public void testCapacity() {
+        OccupancyTracker tracker = new OccupancyTracker(1);
+        assertTrue(tracker.onTransition("a", true, 0));
+        assertFalse(tracker.onTransition("b", true, 0));
+        assertFalse(tracker.isInside("b"));
+    }
+
+    @Test
+    public void testSlotsGrowUpToTheCapacity() {
+        OccupancyTracker tracker = new OccupancyTracker(101);
+        assertTrue(tracker.getAllocatedSlots() < 101);
+        for (int i = 0; i < 101; i++) {
+            long time = i * HOUR_MS;
+            assertTrue(tracker.onTransition("fence-" + i, true, time));
+            assertTrue(tracker.onTransition("fence-" + i, false, time + i * 1000));
+        }
+        assertEquals(101, tracker.getAllocatedSlots());
+        assertTrue(tracker.isFull());
+        assertFalse(tracker.onTransition("b", true, 0));
+
+        // The buckets of the fences were kept across the growth.
+        for (int i = 0; i < 101; i++) {
+            long time = i * HOUR_MS;
+            assertEquals(1, tracker.getVisits("fence-" + i, HOUR, time));
+            assertEquals(i * 1000, tracker.getTotalDwell("fence-" + i, HOUR, time));
+        }
+    }
+
+    @Test
+    public void testBinBounds() {
+        for (long seconds = 0; seconds < 100000; seconds += 7) {
+            int bin = OccupancyTracker.bin(seconds * 1000);
+            assertTrue(seconds * 1000 < OccupancyTracker.binUpperBound(bin));
+            assertTrue(bin == 0 || seconds * 1000 >= OccupancyTracker.binUpperBound(bin - 1));
+        }
+    }
+
+    @Test
+    public void testReleasedSlotsAreReused() {
+        OccupancyTracker tracker = new OccupancyTracker(1);
+        tracker.onTransition("a", true, 0);
+        tracker.onTransition("a", false, MINUTE);
+        tracker.release("a");
+
+        assertTrue(tracker.onTransition("b", true, 2 * MINUTE));
+        assertFalse(tracker.isTracked("a"));
+        assertEquals(0, tracker.getVisits("b", HOUR, 0));
+        assertEquals(1, tracker.getOccupiedCount());
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        OccupancyTracker tracker = new OccupancyTracker(2);
+        long start = 3 * 24 * HOUR_MS;
+        tracker.onTransition("a", true, start);
+        tracker.onTransition("a", false, start + 20 * MINUTE);
+        tracker.onTransition("a", true, start + 5 * HOUR_MS);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        tracker.write("a", new DataOutputStream(bytes));
+
+        OccupancyTracker restored = new OccupancyTracker(1);
+        assertTrue(restored.read("a", new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        assertTrue(restored.isInside("a"));
+        assertEquals(1, restored.getOccupiedCount());
+        assertEquals(10 * MINUTE, restored.getCurrentDwell("a", start + 5 * HOUR_MS + 10 * MINUTE));
+        assertEquals(1, restored.getVisits("a", HOUR, start));
+        assertEquals(20 * MINUTE, restored.getTotalDwell("a", DAY, start));
+        assertEquals(tracker.getP95Dwell("a", DAY, start), restored.getP95Dwell("a", DAY, start));
+
+        // An exit after the restart closes the restored stay.
+        restored.onTransition("a", false, start + 6 * HOUR_MS);
+        assertEquals(2, restored.getVisits("a", DAY, start));
+    }
+}
@@ -0,0 +1,159 @@
+package com.vail.myapplication.geofencing;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StripedExecutorTest {
+
+    private final StripedExecutor executor = new StripedExecutor(4, "test");
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testKeepsOrderPerKey() throws InterruptedException {
+        final int keys = 20;
+        final int tasksPerKey = 500;
+        final List<List<Integer>> runs = new ArrayList<>();
+        for (int key = 0; key < keys; key++) {
+            runs.add(Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+
+        // Keys submitted from several threads, each key from one thread.
+        Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++) {
+            final int producer = p;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < tasksPerKey; i++) {
+                        for (int key = producer; key < keys; key += 4) {
+                            final List<Integer> run = runs.get(key);
+                            final int sequence = i;
+                            executor.execute("zone-" + key, new Runnable() {
+                                @Override
+                                public void run() {
+                                    run.add(sequence);
+                                }
+                            });
+                        }
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        for (List<Integer> run : runs) {
+            assertEquals(tasksPerKey, run.size());
+            for (int i = 0; i < tasksPerKey; i++) {
+                assertEquals(i, (int) run.get(i));
+            }
+        }
+        long completed = 0;
+        for (int stripe = 0; stripe < executor.getStripeCount(); stripe++) {
+            completed += executor.getCompletedTasks(stripe);
+            assertEquals(0, executor.getQueueDepth(stripe));
+        }
+        assertEquals(keys * tasksPerKey, completed);
+    }
+
+    @Test
+    public void testSlowKeyDoesNotBlockOtherStripes() throws InterruptedException {
+        String slow = "slow";
+        String fast = "fast";
+        for (int i = 0; executor.stripeOf(fast) == executor.stripeOf(slow); i++) {
+            fast = "fast" + i;
+        }
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(slow, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        executor.execute(slow, new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        executor.execute(fast, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, executor.getQueueDepth(executor.stripeOf(slow)));
+        assertEquals(2, executor.getMaxQueueDepth(executor.stripeOf(slow)));
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getQueueDepth(executor.stripeOf(slow)));
+        assertTrue(executor.getMaxProcessingNanos(executor.stripeOf(slow)) > 0);
+        assertTrue(executor.getProcessingNanos(executor.stripeOf(slow))
+                >= executor.getMaxProcessingNanos(executor.stripeOf(slow)));
+    }
+
+    @Test
+    public void testFailingTaskKeepsStripeRunning() throws InterruptedException {
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable throwable) {
+            }
+        });
+        try {
+            final CountDownLatch done = new CountDownLatch(1);
+            executor.execute("a", new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException();
+                }
+            });
+            executor.execute("a", new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            });
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejectsAfterShutdown() {
+        executor.shutdown();
+        executor.execute("a", new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+}
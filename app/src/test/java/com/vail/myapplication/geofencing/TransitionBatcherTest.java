@@ -0,0 +1,62 @@
+package com.vail.myapplication.geofencing;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TransitionBatcherTest {
+
+    private static final long WINDOW = 1000;
+    private static final long INTERVAL = 10000;
+
+    @Test
+    public void testTransitionsInWindowPostOneSummaryPerGroup() {
+        TransitionBatcher batcher = new TransitionBatcher(WINDOW, INTERVAL);
+        batcher.add("north", "a", true, 0);
+        batcher.add("north", "b", true, 100);
+        batcher.add("north", "c", false, 200);
+        long next = batcher.add("south", "d", true, 300);
+
+        assertEquals(WINDOW, next);
+        assertTrue(batcher.flush(999).isEmpty());
+
+        List<TransitionBatcher.Summary> summaries = batcher.flush(1300);
+        assertEquals(2, summaries.size());
+        TransitionBatcher.Summary north = summaries.get(0);
+        assertEquals(Arrays.asList("a", "b"), north.getEntered());
+        assertEquals(Collections.singletonList("c"), north.getExited());
+        assertNotEquals(north.getNotificationId(), summaries.get(1).getNotificationId());
+        assertEquals(2, batcher.getAvoidedNotifications());
+    }
+
+    @Test
+    public void testFlappingZoneIsRateLimited() {
+        TransitionBatcher batcher = new TransitionBatcher(WINDOW, INTERVAL);
+        batcher.add("g", "a", true, 0);
+        assertEquals(1, batcher.flush(WINDOW).size());
+
+        batcher.add("g", "a", false, 2000);
+        batcher.add("g", "a", true, 2500);
+        assertEquals(WINDOW + INTERVAL, batcher.getNextFlushTime());
+        assertTrue(batcher.flush(5000).isEmpty());
+
+        // Back to the posted state, nothing to show.
+        assertTrue(batcher.flush(WINDOW + INTERVAL).isEmpty());
+        assertEquals(Long.MAX_VALUE, batcher.getNextFlushTime());
+        assertEquals(1, batcher.getNotifications());
+        assertEquals(2, batcher.getAvoidedNotifications());
+    }
+
+    @Test
+    public void testGroupKeepsNotificationId() {
+        TransitionBatcher batcher = new TransitionBatcher(WINDOW, 0);
+        batcher.add("g", "a", true, 0);
+        int id = batcher.flush(WINDOW).get(0).getNotificationId();
+        batcher.add("g", "a", false, 5000);
+        assertEquals(id, batcher.flush(5000 + WINDOW).get(0).getNotificationId());
+    }
+}
@@ -0,0 +1,148 @@
+package com.vail.myapplication.geofencing;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ZoneStatePublisherTest {
+
+    /**
+     * Runs the deliveries when the test says so, like a busy main thread.
+     */
+    private static final class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static final class RecordingSubscriber implements Flow.Subscriber<ZoneState> {
+        final List<Long> times = new ArrayList<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        Flow.Subscription subscription;
+        Throwable error;
+        long initialRequest;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(ZoneState item) {
+            times.add(item.getTime());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+
+    @Test
+    public void testDeliversRequestedStatesInOrder() {
+        ZoneStatePublisher publisher = new ZoneStatePublisher(8);
+        ManualExecutor executor = new ManualExecutor();
+        RecordingSubscriber subscriber = new RecordingSubscriber(2);
+        publisher.publish(new ZoneState(true, false, 1));
+        publisher.subscribe(subscriber, executor);
+        publisher.publish(new ZoneState(false, false, 2));
+        publisher.publish(new ZoneState(false, true, 3));
+        executor.runAll();
+
+        // The current state first, then only as many as requested.
+        assertEquals("[1, 2]", subscriber.times.toString());
+        subscriber.subscription.request(5);
+        executor.runAll();
+        assertEquals("[1, 2, 3]", subscriber.times.toString());
+        assertEquals(0, publisher.getConflatedCount());
+    }
+
+    @Test
+    public void testConflatesSlowSubscriber() {
+        ZoneStatePublisher publisher = new ZoneStatePublisher(4);
+        ManualExecutor slowExecutor = new ManualExecutor();
+        ManualExecutor fastExecutor = new ManualExecutor();
+        RecordingSubscriber slow = new RecordingSubscriber(1);
+        RecordingSubscriber fast = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(slow, slowExecutor);
+        publisher.subscribe(fast, fastExecutor);
+        slowExecutor.runAll();
+
+        for (int i = 1; i <= 100; i++) {
+            publisher.publish(new ZoneState(i % 2 == 0, false, i));
+            fastExecutor.runAll();
+        }
+        assertEquals(100, fast.times.size());
+
+        // The slow subscriber only keeps the last states, without holding back the fast one.
+        slowExecutor.runAll();
+        assertEquals("[97]", slow.times.toString());
+        slow.subscription.request(Long.MAX_VALUE);
+        slowExecutor.runAll();
+        assertEquals("[97, 98, 99, 100]", slow.times.toString());
+        assertEquals(96, publisher.getConflatedCount());
+    }
+
+    @Test
+    public void testCancelAndInvalidRequest() {
+        ZoneStatePublisher publisher = new ZoneStatePublisher(4);
+        ManualExecutor executor = new ManualExecutor();
+        RecordingSubscriber cancelled = new RecordingSubscriber(Long.MAX_VALUE);
+        RecordingSubscriber invalid = new RecordingSubscriber(0);
+        publisher.subscribe(cancelled, executor);
+        publisher.subscribe(invalid, executor);
+        executor.runAll();
+        assertEquals(2, publisher.getSubscriberCount());
+
+        cancelled.subscription.cancel();
+        invalid.subscription.request(0);
+        publisher.publish(new ZoneState(true, true, 1));
+        executor.runAll();
+        assertTrue(cancelled.times.isEmpty());
+        assertTrue(invalid.times.isEmpty());
+        assertTrue(invalid.error instanceof IllegalArgumentException);
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+
+    @Test
+    public void testCompletesAfterBufferedStates() throws InterruptedException {
+        ZoneStatePublisher publisher = new ZoneStatePublisher(4);
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        publisher.publish(new ZoneState(true, false, 1));
+        publisher.publish(new ZoneState(false, false, 2));
+        publisher.close();
+        assertTrue(subscriber.completed.await(5, TimeUnit.SECONDS));
+        assertEquals("[1, 2]", subscriber.times.toString());
+
+        RecordingSubscriber late = new RecordingSubscriber(1);
+        publisher.subscribe(late);
+        assertTrue(late.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(late.times.isEmpty());
+    }
+}
@@ -0,0 +1,185 @@
+package com.vail.myapplication.history;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TrajectoryStoreTest {
+
+    /**
+     * A time and two doubles, as fixes are held today.
+     */
+    private static final int RAW_FIX_SIZE = 24;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Random walk of a vehicle sending a fix about every second, with some gaps and transitions.
+     */
+    private static List<double[]> trace(long seed, int count) {
+        Random random = new Random(seed);
+        List<double[]> fixes = new ArrayList<>();
+        long time = 1500000000000L;
+        double latitude = 48.8566;
+        double longitude = 2.3522;
+        double heading = 0;
+        for (int i = 0; i < count; i++) {
+            time += random.nextInt(20) == 0 ? 1000 + random.nextInt(60000) : 1000 + random.nextInt(3) - 1;
+            heading += random.nextGaussian() * 0.2;
+            double speed = 5 + 10 * random.nextDouble();
+            latitude += Math.cos(heading) * speed / 111320;
+            longitude += Math.sin(heading) * speed / 73000;
+            int event = random.nextInt(50) == 0 ? 1 + random.nextInt(2) : TrajectoryStore.EVENT_NONE;
+            fixes.add(new double[]{time, latitude, longitude, event});
+        }
+        return fixes;
+    }
+
+    private static void append(TrajectoryStore store, List<double[]> fixes) throws IOException {
+        for (double[] fix : fixes) {
+            store.append((long) fix[0], fix[1], fix[2], (int) fix[3]);
+        }
+    }
+
+    private static List<double[]> read(TrajectoryStore store, long from, long to) throws IOException {
+        final List<double[]> fixes = new ArrayList<>();
+        store.forEach(from, to, new TrajectoryStore.Visitor() {
+            @Override
+            public void visit(long time, double latitude, double longitude, int event) {
+                fixes.add(new double[]{time, latitude, longitude, event});
+            }
+        });
+        return fixes;
+    }
+
+    private static void assertFixesEqual(List<double[]> expected, List<double[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i)[0], actual.get(i)[0], 0);
+            assertEquals(expected.get(i)[1], actual.get(i)[1], 0.5e-6);
+            assertEquals(expected.get(i)[2], actual.get(i)[2], 0.5e-6);
+            assertEquals(expected.get(i)[3], actual.get(i)[3], 0);
+        }
+    }
+
+    @Test
+    public void testRoundTripAndCompression() throws IOException {
+        List<double[]> fixes = trace(1, 20000);
+        File file = folder.newFile();
+        TrajectoryStore store = TrajectoryStore.open(file);
+        append(store, fixes);
+        store.close();
+
+        double ratio = (double) RAW_FIX_SIZE * fixes.size() / file.length();
+        assertTrue("Compression ratio " + ratio, ratio >= 5);
+
+        store = TrajectoryStore.open(file);
+        assertEquals((20000 + TrajectoryStore.BLOCK_FIXES - 1) / TrajectoryStore.BLOCK_FIXES,
+                store.getBlockCount());
+        assertFixesEqual(fixes, read(store, Long.MIN_VALUE, Long.MAX_VALUE));
+        store.close();
+    }
+
+    @Test
+    public void testTimeRange() throws IOException {
+        List<double[]> fixes = trace(2, 5000);
+        TrajectoryStore store = TrajectoryStore.open(folder.newFile());
+        append(store, fixes);
+
+        long from = (long) fixes.get(1234)[0];
+        long to = (long) fixes.get(3210)[0];
+        assertFixesEqual(fixes.subList(1234, 3211), read(store, from, to));
+        assertFixesEqual(fixes.subList(1234, 1235), read(store, from, from));
+        assertTrue(read(store, from + 1, from + 2).isEmpty());
+        assertTrue(read(store, Long.MIN_VALUE, (long) fixes.get(0)[0] - 1).isEmpty());
+        store.close();
+    }
+
+    @Test
+    public void testAppendsAfterReopening() throws IOException {
+        List<double[]> fixes = trace(3, 1000);
+        File file = folder.newFile();
+        // Close in the middle of a block and of a time step.
+        for (int split : new int[]{100, 101, 300, 1000}) {
+            file.delete();
+            TrajectoryStore store = TrajectoryStore.open(file);
+            append(store, fixes.subList(0, split));
+            store.close();
+
+            store = TrajectoryStore.open(file);
+            assertEquals((long) fixes.get(split - 1)[0], store.getLastTime());
+            append(store, fixes.subList(split, fixes.size()));
+            assertFixesEqual(fixes, read(store, Long.MIN_VALUE, Long.MAX_VALUE));
+            store.close();
+        }
+    }
+
+    @Test
+    public void testDropsUnflushedTail() throws IOException {
+        List<double[]> fixes = trace(4, 600);
+        File file = folder.newFile();
+        TrajectoryStore store = TrajectoryStore.open(file);
+        append(store, fixes.subList(0, 500));
+        store.flush();
+        long size = store.getSize();
+        store.close();
+
+        // Payload written without its header update, as after a crash.
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.setLength(size + 7);
+        raw.close();
+
+        store = TrajectoryStore.open(file);
+        assertEquals(size, store.getSize());
+        append(store, fixes.subList(500, 600));
+        assertFixesEqual(fixes, read(store, Long.MIN_VALUE, Long.MAX_VALUE));
+        store.close();
+    }
+
+    @Test
+    public void testCrossesTheAntimeridian() throws IOException {
+        TrajectoryStore store = TrajectoryStore.open(folder.newFile());
+        store.append(1000, -16.5, 179.999999, TrajectoryStore.EVENT_NONE);
+        store.append(2000, -16.5, -179.999999, TrajectoryStore.EVENT_EXIT);
+        List<double[]> fixes = read(store, 0, 3000);
+        assertEquals(179.999999, fixes.get(0)[2], 1e-9);
+        assertEquals(-179.999999, fixes.get(1)[2], 1e-9);
+        assertEquals(TrajectoryStore.EVENT_EXIT, fixes.get(1)[3], 0);
+        store.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsOutOfOrderFixes() throws IOException {
+        TrajectoryStore store = TrajectoryStore.open(folder.newFile());
+        try {
+            store.append(2000, 0, 0, TrajectoryStore.EVENT_NONE);
+            store.append(1000, 0, 0, TrajectoryStore.EVENT_NONE);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testVarints() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        long[] values = {0, 1, -1, 63, -64, 64, Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE};
+        for (long value : values) {
+            TrajectoryStore.putVarint(buffer, TrajectoryStore.zigZag(value));
+        }
+        buffer.flip();
+        for (long value : values) {
+            assertEquals(value, TrajectoryStore.unZigZag(TrajectoryStore.getVarint(buffer)));
+        }
+    }
+}
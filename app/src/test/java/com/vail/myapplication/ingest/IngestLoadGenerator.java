@@ -0,0 +1,121 @@
+package com.vail.myapplication.ingest;
+
+import com.vail.myapplication.engine.FenceSet;
+import com.vail.myapplication.engine.ZoneEvaluator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+
+/**
+ * Benchmarks {@link IngestServer} on one machine: starts a server feeding a
+ * {@link ZoneEvaluator} on the loopback interface and pushes events from several producer
+ * connections.
+ *
+ * Usage: {@code IngestLoadGenerator [producers] [eventsPerProducer] [fences]}
+ */
+public class IngestLoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        final int eventsPerProducer = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int fenceCount = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        final ZoneEvaluator evaluator = new ZoneEvaluator(randomFences(fenceCount, new Random(1)),
+                new ZoneEvaluator.Listener() {
+                    @Override
+                    public void onZoneChanged(int device, boolean inZone, long time) {
+                    }
+                });
+        IngestServer server = new IngestServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4096, 16,
+                new IngestServer.BatchHandler() {
+                    @Override
+                    public void onBatch(EventBatch batch) {
+                        batch.applyTo(evaluator);
+                    }
+                });
+        server.start();
+        final int port = server.getLocalPort();
+
+        long start = System.nanoTime();
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        produce(port, producer, eventsPerProducer);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long total = (long) producers * eventsPerProducer;
+        while (server.getProcessedEvents() < total && server.getFailure() == null) {
+            Thread.sleep(1);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        server.close();
+
+        System.out.printf("producers=%d events=%d fences=%d seconds=%.3f eventsPerSecond=%.0f stalls=%d%n",
+                producers, total, fenceCount, seconds, total / seconds, server.getStalls());
+    }
+
+    private static void produce(int port, int producer, int events) throws IOException {
+        SocketChannel channel = SocketChannel.open(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        try {
+            Random random = new Random(producer);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            int devices = 1000;
+            for (int i = 0; i < events; i++) {
+                if (buffer.remaining() < IngestProtocol.LENGTH_SIZE + IngestProtocol.MAX_PAYLOAD_SIZE) {
+                    write(channel, buffer);
+                }
+                int device = producer * devices + random.nextInt(devices);
+                if (random.nextInt(10) == 0) {
+                    IngestProtocol.putWifi(buffer, device, i, random.nextBoolean());
+                } else {
+                    IngestProtocol.putPosition(buffer, device, i,
+                            50 + random.nextDouble() * 0.1, 30 + random.nextDouble() * 0.1);
+                }
+            }
+            write(channel, buffer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    static FenceSet randomFences(int count, Random random) {
+        long[] ids = new long[count];
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        float[] radii = new float[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = i;
+            latitudes[i] = 50 + random.nextDouble() * 0.1;
+            longitudes[i] = 30 + random.nextDouble() * 0.1;
+            radii[i] = 30 + random.nextInt(500);
+        }
+        return new FenceSet(ids, latitudes, longitudes, radii);
+    }
+}
@@ -0,0 +1,105 @@
+package com.vail.myapplication.ingest;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class IngestServerTest {
+
+    private IngestServer server;
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) server.close();
+    }
+
+    private SocketChannel connect() throws IOException {
+        return SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                server.getLocalPort()));
+    }
+
+    private static void send(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Test
+    public void testEventsDecodedInOrderUnderBackpressure() throws Exception {
+        final int events = 20000;
+        final CountDownLatch done = new CountDownLatch(events);
+        final long[] lastTime = {-1};
+        final boolean[] ordered = {true};
+
+        // Tiny batches and a slow handler force the selector to stall.
+        server = new IngestServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16, 2,
+                new IngestServer.BatchHandler() {
+                    @Override
+                    public void onBatch(EventBatch batch) {
+                        for (int i = 0; i < batch.size(); i++) {
+                            if (batch.getTime(i) <= lastTime[0]) ordered[0] = false;
+                            lastTime[0] = batch.getTime(i);
+                            if (batch.getType(i) == IngestProtocol.TYPE_POSITION) {
+                                assertEquals(batch.getTime(i) / 1000.0, batch.getLatitude(i), 0);
+                            } else {
+                                assertEquals(batch.getTime(i) % 3 == 0, batch.isAccessible(i));
+                            }
+                            done.countDown();
+                        }
+                        if (batch.isFull()) Thread.yield();
+                    }
+                });
+        server.start();
+
+        SocketChannel channel = connect();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (int i = 0; i < events; i++) {
+            if (buffer.remaining() < IngestProtocol.LENGTH_SIZE + IngestProtocol.MAX_PAYLOAD_SIZE) {
+                send(channel, buffer);
+            }
+            if (i % 2 == 0) {
+                IngestProtocol.putPosition(buffer, 1, i, i / 1000.0, 30);
+            } else {
+                IngestProtocol.putWifi(buffer, 1, i, i % 3 == 0);
+            }
+        }
+        send(channel, buffer);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(ordered[0]);
+        assertEquals(events, server.getReceivedEvents());
+        channel.close();
+    }
+
+    @Test
+    public void testInvalidFrameClosesConnection() throws Exception {
+        server = new IngestServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16, 2,
+                new IngestServer.BatchHandler() {
+                    @Override
+                    public void onBatch(EventBatch batch) {
+                    }
+                });
+        server.start();
+
+        SocketChannel channel = connect();
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putInt(1 << 20).putInt(0);
+        send(channel, buffer);
+
+        // The server closes the connection, reading hits the end of stream.
+        channel.socket().setSoTimeout(5000);
+        assertEquals(-1, channel.socket().getInputStream().read());
+        assertEquals(1, server.getProtocolErrors());
+    }
+}
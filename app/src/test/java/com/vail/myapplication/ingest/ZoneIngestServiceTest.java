@@ -0,0 +1,103 @@
+package com.vail.myapplication.ingest;
+
+import com.vail.myapplication.catalogue.FenceCatalogueWriter;
+import com.vail.myapplication.engine.ZoneEvaluator;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ZoneIngestServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ZoneIngestService service;
+
+    @After
+    public void tearDown() throws IOException {
+        if (service != null) service.close();
+    }
+
+    /**
+     * Replaces the catalogue with one 100 m fence and gives it a new modification time.
+     */
+    private static void writeFence(File file, double latitude, double longitude, long modified)
+            throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        new FenceCatalogueWriter().add(1, latitude, longitude, 100, 3).write(temporary);
+        assertTrue(temporary.setLastModified(modified));
+        assertTrue(temporary.renameTo(file));
+    }
+
+    private static void awaitReloads(ZoneIngestService service, long reloads)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getWatcher().getReloads() < reloads) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void sendPosition(SocketChannel channel, int device, long time,
+                                     double latitude, double longitude) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(IngestProtocol.LENGTH_SIZE
+                + IngestProtocol.MAX_PAYLOAD_SIZE);
+        IngestProtocol.putPosition(buffer, device, time, latitude, longitude);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Test
+    public void testEvaluatesTheFencesOfTheReplacedFile() throws Exception {
+        File file = new File(folder.getRoot(), "fences");
+        writeFence(file, 50, 30, 1000000);
+
+        final BlockingQueue<Boolean> changes = new LinkedBlockingQueue<>();
+        // Batches of one event, so every fix is evaluated as soon as it is received.
+        service = new ZoneIngestService(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                1, 4, file, 10, null, 50, new ZoneEvaluator.Listener() {
+                    @Override
+                    public void onZoneChanged(int device, boolean inZone, long time) {
+                        changes.add(inZone);
+                    }
+                });
+        service.start();
+        awaitReloads(service, 1);
+
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), service.getLocalPort()));
+        try {
+            sendPosition(channel, 1, 1000, 50, 30);
+            assertEquals(Boolean.TRUE, changes.poll(5, TimeUnit.SECONDS));
+
+            // The fence moves 1 km north, the device didn't move.
+            writeFence(file, 50.01, 30, 2000000);
+            awaitReloads(service, 2);
+            sendPosition(channel, 1, 2000, 50, 30);
+            assertEquals(Boolean.FALSE, changes.poll(5, TimeUnit.SECONDS));
+
+            sendPosition(channel, 1, 100000, 50.01, 30);
+            assertEquals(Boolean.TRUE, changes.poll(5, TimeUnit.SECONDS));
+        } finally {
+            channel.close();
+        }
+        assertEquals(0, service.getWatcher().getFailures());
+        assertEquals(0, service.getServer().getProtocolErrors());
+    }
+}
@@ -0,0 +1,127 @@
+package com.vail.myapplication.wifi;
+
+import android.net.wifi.ScanResult;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class AccessPointDatabaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ScanResult scanResult(String bssid, int level) {
+        ScanResult scanResult = mock(ScanResult.class);
+        scanResult.BSSID = bssid;
+        scanResult.level = level;
+        return scanResult;
+    }
+
+    private AccessPointDatabase write(AccessPointDatabaseWriter writer) throws IOException {
+        File file = folder.newFile();
+        writer.write(file);
+        return AccessPointDatabase.open(file);
+    }
+
+    @Test
+    public void testParseBssid() {
+        assertEquals(0x001a2b3c4d5eL, AccessPointDatabase.parseBssid("00:1a:2b:3c:4d:5e"));
+        assertEquals(0xffffffffffffL, AccessPointDatabase.parseBssid("FF-FF-FF-FF-FF-FF"));
+        assertEquals(-1, AccessPointDatabase.parseBssid("00:1a:2b:3c:4d"));
+        assertEquals(-1, AccessPointDatabase.parseBssid("00:1a:2b:3c:4d:5g"));
+        assertEquals(-1, AccessPointDatabase.parseBssid("00.1a.2b.3c.4d.5e"));
+        assertEquals(-1, AccessPointDatabase.parseBssid(null));
+    }
+
+    @Test
+    public void testFindsEveryAccessPoint() throws IOException {
+        Random random = new Random(1);
+        int count = 1000000;
+        long[] bssids = new long[count];
+        AccessPointDatabaseWriter writer = new AccessPointDatabaseWriter();
+        for (int i = 0; i < count; i++) {
+            bssids[i] = random.nextLong() & 0xffffffffffffL;
+            writer.add(bssids[i], -60 + i * 1e-4, -170 + i * 3e-4, 50);
+        }
+        AccessPointDatabase database = write(writer);
+        assertEquals(count, database.size());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            int index = database.find(bssids[i]);
+            assertEquals(bssids[i], database.getBssid(index));
+            assertEquals(-60 + i * 1e-4, database.getLatitude(index), 1e-7);
+            assertEquals(-170 + i * 3e-4, database.getLongitude(index), 1e-7);
+        }
+        long nanosPerLookup = (System.nanoTime() - start) / count;
+        // Random order, so mostly cache misses: under a microsecond on a desktop.
+        assertTrue(nanosPerLookup + " ns per lookup", nanosPerLookup < 20000);
+
+        Arrays.sort(bssids);
+        for (int i = 0; i < 1000; i++) {
+            long bssid = random.nextLong() & 0xffffffffffffL;
+            if (Arrays.binarySearch(bssids, bssid) < 0) {
+                assertEquals(-1, database.find(bssid));
+            }
+        }
+    }
+
+    @Test
+    public void testKeepsLastDuplicate() throws IOException {
+        AccessPointDatabase database = write(new AccessPointDatabaseWriter()
+                .add(5, 1, 1, 10)
+                .add(3, 2, 2, 10)
+                .add(5, 3, 3, 20));
+        assertEquals(2, database.size());
+        assertEquals(3, database.getLatitude(database.find(5)), 0);
+        assertEquals(20, database.getRange(database.find(5)), 0);
+        assertEquals(-1, database.find(4));
+    }
+
+    @Test
+    public void testWeightedCentroid() throws IOException {
+        AccessPointDatabase database = write(new AccessPointDatabaseWriter()
+                .add(AccessPointDatabase.parseBssid("00:00:00:00:00:01"), 48.0, 2.0, 30)
+                .add(AccessPointDatabase.parseBssid("00:00:00:00:00:02"), 48.0, 2.001, 60));
+
+        PositionEstimate estimate = new PositionEstimate();
+        // Equal levels, halfway.
+        assertTrue(database.estimate(Arrays.asList(scanResult("00:00:00:00:00:01", -70),
+                scanResult("00:00:00:00:00:02", -70), scanResult("00:00:00:00:00:03", -40)),
+                estimate));
+        assertEquals(48.0, estimate.getLatitude(), 1e-9);
+        assertEquals(2.0005, estimate.getLongitude(), 1e-9);
+        assertEquals(45, estimate.getAccuracy(), 1e-3);
+        assertEquals(2, estimate.getAccessPoints());
+
+        // 20 dB stronger counts ten times more.
+        assertTrue(database.estimate(Arrays.asList(scanResult("00:00:00:00:00:01", -50),
+                scanResult("00:00:00:00:00:02", -70)), estimate));
+        assertEquals(2.0 + 0.001 / 11, estimate.getLongitude(), 1e-9);
+
+        assertFalse(database.estimate(Collections.singletonList(
+                scanResult("00:00:00:00:00:03", -40)), estimate));
+        assertEquals(2, estimate.getAccessPoints());
+    }
+
+    @Test
+    public void testCentroidAcrossTheAntimeridian() throws IOException {
+        AccessPointDatabase database = write(new AccessPointDatabaseWriter()
+                .add(1, -16.0, 179.9999, 30)
+                .add(2, -16.0, -179.9997, 30));
+        PositionEstimate estimate = new PositionEstimate();
+        assertTrue(database.estimate(Arrays.asList(scanResult("00:00:00:00:00:01", -70),
+                scanResult("00:00:00:00:00:02", -70)), estimate));
+        assertEquals(-179.9999, estimate.getLongitude(), 1e-9);
+    }
+}
@@ -0,0 +1,98 @@
+package com.vail.myapplication.wifi;
+
+import android.net.wifi.ScanResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class ScanSnapshotCacheTest {
+
+    private ScanSnapshotCache cache;
+    private List<ScanResult> scanResults;
+    private int reads;
+
+    private final ScanSnapshotCache.Source source = new ScanSnapshotCache.Source() {
+        @Override
+        public List<ScanResult> getScanResults() {
+            reads++;
+            return scanResults;
+        }
+    };
+
+    @Before
+    public void setup() {
+        cache = new ScanSnapshotCache();
+        reads = 0;
+    }
+
+    private static ScanResult scanResult(String bssid, int level) {
+        ScanResult scanResult = mock(ScanResult.class);
+        scanResult.BSSID = bssid;
+        scanResult.SSID = "ssid-" + bssid;
+        scanResult.level = level;
+        scanResult.frequency = 2412;
+        return scanResult;
+    }
+
+    @Test
+    public void testRefresh_everyBroadcastReads() {
+        scanResults = Collections.singletonList(scanResult("a", -50));
+        cache.refresh(source, 10_000);
+        scanResults = Collections.singletonList(scanResult("b", -50));
+        ScanSnapshotCache.Snapshot second = cache.refresh(source, 10_100);
+
+        assertEquals(2, reads);
+        assertEquals(2, second.getGeneration());
+        assertTrue(second.isAdded("b"));
+        assertEquals(Collections.singleton("a"), second.getRemovedBssids());
+    }
+
+    @Test
+    public void testRefresh_reportsDeltaBetweenGenerations() {
+        scanResults = Arrays.asList(scanResult("a", -50), scanResult("b", -60), scanResult("c", -70));
+        cache.refresh(source, 10_000);
+
+        scanResults = Arrays.asList(scanResult("a", -51), scanResult("b", -80), scanResult("d", -40));
+        ScanSnapshotCache.Snapshot snapshot = cache.refresh(source, 20_000);
+
+        assertEquals(2, snapshot.getGeneration());
+        assertTrue(snapshot.isAdded("d"));
+        assertEquals(1, snapshot.getAdded().size());
+        assertEquals(Collections.singleton("c"), snapshot.getRemovedBssids());
+        assertEquals(1, snapshot.getChanged().size());
+        assertEquals("b", snapshot.getChanged().get(0).BSSID);
+        assertTrue(snapshot.contains("a"));
+    }
+
+    @Test
+    public void testGetSnapshot_readsWithoutBroadcasts() {
+        scanResults = Collections.singletonList(scanResult("a", -50));
+        cache.getSnapshot(source, 10_000);
+        cache.getSnapshot(source, 10_500);
+        assertEquals(1, reads);
+
+        scanResults = Collections.singletonList(scanResult("b", -50));
+        ScanSnapshotCache.Snapshot snapshot = cache.getSnapshot(source, 11_000);
+        assertEquals(2, reads);
+        assertTrue(snapshot.contains("b"));
+    }
+
+    @Test
+    public void testGetSnapshot_usesBroadcastResults() {
+        scanResults = Collections.singletonList(scanResult("a", -50));
+        cache.refresh(source, 10_000);
+        assertSame(cache.getSnapshot(), cache.getSnapshot(source, 20_000));
+        assertEquals(1, reads);
+
+        // Consumed by the previous read, the next one goes to the source.
+        cache.getSnapshot(source, 30_000);
+        assertEquals(2, reads);
+    }
+}